@@ -0,0 +1,330 @@
+package matgr.ai.common;
+
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+// NOTE: this is an open addressing (linear probing) hash map keyed by primitive longs, so there are no boxed keys or
+//       per entry nodes... removal uses backward shift deletion, so there are no tombstones either
+public class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    private int modCount;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashMap(int expectedSize) {
+
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize cannot be negative");
+        }
+
+        allocate(capacityFor(expectedSize));
+    }
+
+    public LongHashMap(LongHashMap<V> other) {
+
+        this.keys = other.keys.clone();
+        this.values = other.values.clone();
+
+        this.size = other.size;
+        this.mask = other.mask;
+        this.resizeThreshold = other.resizeThreshold;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return findSlot(key) >= 0;
+    }
+
+    public V get(long key) {
+
+        int slot = findSlot(key);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        return valueAt(slot);
+    }
+
+    public V put(long key, V value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+
+        int slot = hash(key) & mask;
+
+        while (values[slot] != null) {
+
+            if (keys[slot] == key) {
+
+                V previous = valueAt(slot);
+                values[slot] = value;
+
+                return previous;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        size++;
+        modCount++;
+
+        if (size > resizeThreshold) {
+            allocateAndRehash(values.length << 1);
+        }
+
+        return null;
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> create) {
+
+        V value = get(key);
+
+        if (value == null) {
+
+            value = create.apply(key);
+            put(key, value);
+        }
+
+        return value;
+    }
+
+    public V remove(long key) {
+
+        int slot = findSlot(key);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        V previous = valueAt(slot);
+
+        // shift back any following entries that would no longer be reachable from their home slot
+        int gap = slot;
+        int current = (slot + 1) & mask;
+
+        while (values[current] != null) {
+
+            int home = hash(keys[current]) & mask;
+
+            if (((current - home) & mask) >= ((current - gap) & mask)) {
+
+                keys[gap] = keys[current];
+                values[gap] = values[current];
+
+                gap = current;
+            }
+
+            current = (current + 1) & mask;
+        }
+
+        values[gap] = null;
+
+        size--;
+        modCount++;
+
+        return previous;
+    }
+
+    public void clear() {
+
+        if (size > 0) {
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = null;
+            }
+
+            size = 0;
+            modCount++;
+        }
+    }
+
+    public Set<Long> keySet() {
+        return new KeySet();
+    }
+
+    public Iterable<V> values() {
+        return ValueIterator::new;
+    }
+
+    private int findSlot(long key) {
+
+        int slot = hash(key) & mask;
+
+        while (values[slot] != null) {
+
+            if (keys[slot] == key) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void allocate(int capacity) {
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+
+        mask = capacity - 1;
+        resizeThreshold = (capacity >> 1) + (capacity >> 2);
+    }
+
+    private void allocateAndRehash(int capacity) {
+
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+
+            if (oldValues[i] != null) {
+
+                int slot = hash(oldKeys[i]) & mask;
+
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+
+        int capacity = MIN_CAPACITY;
+
+        // NOTE: keeps the load factor at or below 0.75
+        while (((capacity >> 1) + (capacity >> 2)) < expectedSize) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    // NOTE: package private so tests can find keys that share a home slot
+    static int hash(long key) {
+
+        // NOTE: this is the finalizer from MurmurHash3, keys are often small sequential numbers or packed pairs of
+        //       them, so they need mixing before they can be masked
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= (key >>> 33);
+
+        return (int) key;
+    }
+
+    private abstract class SlotIterator {
+
+        private final int expectedModCount;
+
+        private int nextSlot;
+
+        protected SlotIterator() {
+
+            this.expectedModCount = modCount;
+            this.nextSlot = advance(0);
+        }
+
+        public boolean hasNext() {
+            return nextSlot < values.length;
+        }
+
+        protected int nextSlot() {
+
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            int slot = nextSlot;
+            nextSlot = advance(slot + 1);
+
+            return slot;
+        }
+
+        private int advance(int slot) {
+
+            while ((slot < values.length) && (values[slot] == null)) {
+                slot++;
+            }
+
+            return slot;
+        }
+    }
+
+    private class ValueIterator extends SlotIterator implements Iterator<V> {
+
+        @Override
+        public V next() {
+            return valueAt(nextSlot());
+        }
+    }
+
+    private class KeyIterator extends SlotIterator implements Iterator<Long> {
+
+        @Override
+        public Long next() {
+            return keys[nextSlot()];
+        }
+    }
+
+    private class KeySet extends AbstractSet<Long> {
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof Long) && containsKey((Long) o);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package matgr.ai.common;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// NOTE: this is a map keyed by primitive longs that keeps its entries in ascending key order in parallel arrays...
+//       lookups are binary searches, and the position of a key doubles as a dense index (which stays valid until the
+//       map is modified)... inserting at the end (the common case for sequentially allocated ids) is cheap
+public class SortedLongArrayMap<V> {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private Object[] values;
+
+    private int size;
+
+    private int modCount;
+
+    public SortedLongArrayMap() {
+
+        this.keys = new long[MIN_CAPACITY];
+        this.values = new Object[MIN_CAPACITY];
+    }
+
+    public SortedLongArrayMap(SortedLongArrayMap<V> other) {
+
+        this.keys = Arrays.copyOf(other.keys, Math.max(MIN_CAPACITY, other.size));
+        this.values = Arrays.copyOf(other.values, Math.max(MIN_CAPACITY, other.size));
+
+        this.size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int indexOf(long key) {
+
+        // NOTE: appends are the common case, so check the end first
+        if ((size > 0) && (keys[size - 1] == key)) {
+            return size - 1;
+        }
+
+        int index = Arrays.binarySearch(keys, 0, size, key);
+
+        if (index < 0) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    public V get(long key) {
+
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        return valueAt(index);
+    }
+
+    public long keyAt(int index) {
+
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return (V) values[index];
+    }
+
+    public long firstKey() {
+
+        if (size < 1) {
+            throw new NoSuchElementException();
+        }
+
+        return keys[0];
+    }
+
+    public long lastKey() {
+
+        if (size < 1) {
+            throw new NoSuchElementException();
+        }
+
+        return keys[size - 1];
+    }
+
+    public V put(long key, V value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+
+        int index;
+
+        if ((size < 1) || (key > keys[size - 1])) {
+
+            index = -(size + 1);
+
+        } else {
+
+            index = Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        if (index >= 0) {
+
+            V previous = valueAt(index);
+            values[index] = value;
+
+            return previous;
+        }
+
+        int insertionIndex = -(index + 1);
+
+        if (size == keys.length) {
+
+            int capacity = keys.length << 1;
+
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        int moveCount = size - insertionIndex;
+
+        if (moveCount > 0) {
+            System.arraycopy(keys, insertionIndex, keys, insertionIndex + 1, moveCount);
+            System.arraycopy(values, insertionIndex, values, insertionIndex + 1, moveCount);
+        }
+
+        keys[insertionIndex] = key;
+        values[insertionIndex] = value;
+
+        size++;
+        modCount++;
+
+        return null;
+    }
+
+    public V remove(long key) {
+
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        V previous = valueAt(index);
+
+        int moveCount = size - index - 1;
+
+        if (moveCount > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moveCount);
+            System.arraycopy(values, index + 1, values, index, moveCount);
+        }
+
+        size--;
+        values[size] = null;
+
+        modCount++;
+
+        return previous;
+    }
+
+    public void clear() {
+
+        if (size > 0) {
+
+            Arrays.fill(values, 0, size, null);
+
+            size = 0;
+            modCount++;
+        }
+    }
+
+    public Set<Long> keySet() {
+        return new KeySet();
+    }
+
+    public Iterable<V> values() {
+        return ValueIterator::new;
+    }
+
+    private abstract class IndexIterator {
+
+        private final int expectedModCount;
+
+        private int nextIndex;
+
+        protected IndexIterator() {
+
+            this.expectedModCount = modCount;
+            this.nextIndex = 0;
+        }
+
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        protected int nextIndex() {
+
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return nextIndex++;
+        }
+    }
+
+    private class ValueIterator extends IndexIterator implements Iterator<V> {
+
+        @Override
+        public V next() {
+            return valueAt(nextIndex());
+        }
+    }
+
+    private class KeyIterator extends IndexIterator implements Iterator<Long> {
+
+        @Override
+        public Long next() {
+            return keys[nextIndex()];
+        }
+    }
+
+    private class KeySet extends AbstractSet<Long> {
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof Long) && containsKey((Long) o);
+        }
+    }
+}
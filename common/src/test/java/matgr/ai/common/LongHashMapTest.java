@@ -0,0 +1,361 @@
+package matgr.ai.common;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Unit test for the long keyed hash map.
+ */
+public class LongHashMapTest extends TestCase {
+
+    // NOTE: the capacity (and so the mask) of a map created without an expected size
+    private static final int defaultMask = 7;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LongHashMapTest(String testName) {
+
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(LongHashMapTest.class);
+    }
+
+    public void testCollisionChainsStayReachable() {
+
+        // NOTE: the last slot, so the chain wraps around to the start of the table
+        List<Long> keys = keysWithHomeSlot(defaultMask, defaultMask, 5);
+
+        LongHashMap<String> map = new LongHashMap<>();
+
+        for (long key : keys) {
+            assertNull(map.put(key, valueFor(key)));
+        }
+
+        assertEquals(keys.size(), map.size());
+
+        for (long key : keys) {
+            assertTrue(map.containsKey(key));
+            assertEquals(valueFor(key), map.get(key));
+        }
+
+        // replacing a value further down the chain doesn't add an entry
+        long last = keys.get(keys.size() - 1);
+
+        assertEquals(valueFor(last), map.put(last, "replaced"));
+        assertEquals("replaced", map.get(last));
+        assertEquals(keys.size(), map.size());
+
+        for (long key : keysWithHomeSlot(defaultMask, defaultMask, keys.size() + 3)) {
+
+            if (!keys.contains(key)) {
+                assertFalse(map.containsKey(key));
+                assertNull(map.get(key));
+            }
+        }
+    }
+
+    public void testRemovingFromTheMiddleOfAChainKeepsTheRestReachable() {
+
+        List<Long> chain = keysWithHomeSlot(defaultMask, 6, 4);
+
+        // NOTE: this one's home slot is taken by the chain once it wraps, so it's displaced and has to be shifted
+        //       back when the chain shrinks
+        long displaced = keysWithHomeSlot(defaultMask, 0, 1).get(0);
+
+        for (int removeIndex = 0; removeIndex < chain.size(); removeIndex++) {
+
+            LongHashMap<String> map = new LongHashMap<>();
+
+            for (long key : chain) {
+                map.put(key, valueFor(key));
+            }
+
+            map.put(displaced, valueFor(displaced));
+
+            long removed = chain.get(removeIndex);
+
+            assertEquals(valueFor(removed), map.remove(removed));
+            assertNull(map.remove(removed));
+
+            assertEquals(chain.size(), map.size());
+            assertFalse(map.containsKey(removed));
+
+            for (long key : chain) {
+                if (key != removed) {
+                    assertEquals(valueFor(key), map.get(key));
+                }
+            }
+
+            assertEquals(valueFor(displaced), map.get(displaced));
+
+            assertNull(map.put(removed, valueFor(removed)));
+            assertEquals(chain.size() + 1, map.size());
+
+            for (long key : chain) {
+                assertEquals(valueFor(key), map.get(key));
+            }
+
+            assertEquals(valueFor(displaced), map.get(displaced));
+        }
+    }
+
+    public void testResizeKeepsEveryEntry() {
+
+        final int entryCount = 10000;
+
+        LongHashMap<String> map = new LongHashMap<>();
+
+        for (int i = 0; i < entryCount; i++) {
+
+            long key = (i % 2 == 0) ? i : -i * 7919L;
+
+            assertNull(map.put(key, valueFor(key)));
+            assertEquals(i + 1, map.size());
+        }
+
+        for (int i = 0; i < entryCount; i++) {
+
+            long key = (i % 2 == 0) ? i : -i * 7919L;
+
+            assertEquals(valueFor(key), map.get(key));
+        }
+
+        assertFalse(map.containsKey(entryCount));
+        assertFalse(map.containsKey(Long.MIN_VALUE));
+
+        try {
+
+            new LongHashMap<String>(-1);
+            fail("Expected a negative expected size to be rejected");
+
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
+    }
+
+    public void testPackedConnectionKeysDoNotCollide() {
+
+        final int neuronCount = 64;
+
+        LongHashMap<String> map = new LongHashMap<>();
+
+        // NOTE: (a, b) and (b, a) share both halves, and (0, b) is the same number as the unpacked b
+        for (long source = 0; source < neuronCount; source++) {
+            for (long target = 0; target < neuronCount; target++) {
+
+                long key = pack(source, target);
+                assertNull(map.put(key, source + "->" + target));
+            }
+        }
+
+        assertEquals(neuronCount * neuronCount, map.size());
+
+        for (long source = 0; source < neuronCount; source++) {
+            for (long target = 0; target < neuronCount; target++) {
+
+                if ((source == target) || ((source + target) % 3 == 0)) {
+                    assertEquals(source + "->" + target, map.remove(pack(source, target)));
+                }
+            }
+        }
+
+        for (long source = 0; source < neuronCount; source++) {
+            for (long target = 0; target < neuronCount; target++) {
+
+                long key = pack(source, target);
+
+                if ((source == target) || ((source + target) % 3 == 0)) {
+                    assertFalse(map.containsKey(key));
+                } else {
+                    assertEquals(source + "->" + target, map.get(key));
+                }
+            }
+        }
+
+        assertFalse(map.containsKey(pack(neuronCount, 0)));
+        assertFalse(map.containsKey(pack(0, neuronCount)));
+    }
+
+    public void testIterationAfterRemovals() {
+
+        LongHashMap<String> map = new LongHashMap<>();
+        Set<Long> expectedKeys = new HashSet<>();
+
+        for (long key = 0; key < 200; key++) {
+
+            map.put(key, valueFor(key));
+
+            if (key % 3 != 0) {
+                expectedKeys.add(key);
+            }
+        }
+
+        for (long key = 0; key < 200; key += 3) {
+            map.remove(key);
+        }
+
+        assertEquals(expectedKeys, new HashSet<>(map.keySet()));
+        assertEquals(expectedKeys.size(), map.keySet().size());
+
+        Set<String> expectedValues = new HashSet<>();
+        for (long key : expectedKeys) {
+            expectedValues.add(valueFor(key));
+        }
+
+        Set<String> actualValues = new HashSet<>();
+        int valueCount = 0;
+
+        for (String value : map.values()) {
+            actualValues.add(value);
+            valueCount++;
+        }
+
+        assertEquals(expectedKeys.size(), valueCount);
+        assertEquals(expectedValues, actualValues);
+
+        Iterator<Long> keys = map.keySet().iterator();
+        keys.next();
+
+        map.remove(1);
+
+        try {
+
+            keys.next();
+            fail("Expected the iterator to notice the map was modified");
+
+        } catch (ConcurrentModificationException ignored) {
+            // expected
+        }
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertFalse(map.keySet().iterator().hasNext());
+        assertFalse(map.values().iterator().hasNext());
+    }
+
+    public void testCopyIsIndependent() {
+
+        LongHashMap<String> original = new LongHashMap<>();
+
+        for (long key = 0; key < 20; key++) {
+            original.put(key, valueFor(key));
+        }
+
+        LongHashMap<String> copy = new LongHashMap<>(original);
+
+        original.put(100, valueFor(100));
+        original.put(0, "replaced");
+        original.remove(1);
+
+        assertEquals(20, copy.size());
+        assertFalse(copy.containsKey(100));
+        assertEquals(valueFor(0), copy.get(0));
+        assertEquals(valueFor(1), copy.get(1));
+
+        copy.remove(2);
+        copy.put(200, valueFor(200));
+
+        assertEquals(valueFor(2), original.get(2));
+        assertFalse(original.containsKey(200));
+
+        // the copy must keep working once it resizes on its own
+        for (long key = 300; key < 400; key++) {
+            copy.put(key, valueFor(key));
+        }
+
+        for (long key = 300; key < 400; key++) {
+            assertEquals(valueFor(key), copy.get(key));
+            assertFalse(original.containsKey(key));
+        }
+    }
+
+    public void testMatchesHashMap() {
+
+        final int operationCount = 50000;
+
+        Random random = new Random(1234);
+
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+
+        for (int i = 0; i < operationCount; i++) {
+
+            // NOTE: a small key space keeps the chains long and the removals frequent
+            long key = (random.nextInt(4) == 0)
+                    ? pack(random.nextInt(8), random.nextInt(8))
+                    : random.nextInt(256) - 64;
+
+            int operation = random.nextInt(100);
+
+            if (operation < 45) {
+
+                String value = "value " + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+
+            } else if (operation < 80) {
+
+                assertEquals(expected.remove(key), map.remove(key));
+
+            } else if (operation < 99) {
+
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+                assertEquals(expected.get(key), map.get(key));
+
+            } else {
+
+                map = new LongHashMap<>(map);
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        assertEquals(expected.keySet(), new HashSet<>(map.keySet()));
+
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    private static List<Long> keysWithHomeSlot(int mask, int homeSlot, int count) {
+
+        List<Long> keys = new ArrayList<>();
+
+        for (long key = 0; keys.size() < count; key++) {
+
+            if ((LongHashMap.hash(key) & mask) == homeSlot) {
+                keys.add(key);
+            }
+        }
+
+        return keys;
+    }
+
+    private static long pack(long source, long target) {
+        return (source << 32) | target;
+    }
+
+    private static String valueFor(long key) {
+        return "value " + key;
+    }
+}
@@ -0,0 +1,277 @@
+package matgr.ai.common;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+
+/**
+ * Unit test for the sorted long keyed array map.
+ */
+public class SortedLongArrayMapTest extends TestCase {
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SortedLongArrayMapTest(String testName) {
+
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(SortedLongArrayMapTest.class);
+    }
+
+    public void testKeysStayInAscendingOrder() {
+
+        List<Long> keys = new ArrayList<>();
+
+        for (long key = -50; key < 50; key++) {
+            keys.add(key * 3);
+        }
+
+        keys.add(Long.MIN_VALUE);
+        keys.add(Long.MAX_VALUE);
+
+        Collections.shuffle(keys, new Random(1234));
+
+        SortedLongArrayMap<String> map = new SortedLongArrayMap<>();
+
+        for (long key : keys) {
+            assertNull(map.put(key, valueFor(key)));
+        }
+
+        Collections.sort(keys);
+
+        assertEquals(keys.size(), map.size());
+        assertEquals(Long.MIN_VALUE, map.firstKey());
+        assertEquals(Long.MAX_VALUE, map.lastKey());
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals((long) keys.get(i), map.keyAt(i));
+            assertEquals(valueFor(keys.get(i)), map.valueAt(i));
+        }
+
+        assertEquals(keys, new ArrayList<>(map.keySet()));
+
+        int index = 0;
+        for (String value : map.values()) {
+            assertEquals(valueFor(keys.get(index++)), value);
+        }
+
+        assertEquals(keys.size(), index);
+    }
+
+    public void testIndexOf() {
+
+        SortedLongArrayMap<String> map = new SortedLongArrayMap<>();
+
+        assertEquals(-1, map.indexOf(0));
+
+        for (long key = 10; key <= 100; key += 10) {
+            map.put(key, valueFor(key));
+        }
+
+        for (int i = 0; i < map.size(); i++) {
+
+            long key = map.keyAt(i);
+
+            assertEquals(i, map.indexOf(key));
+            assertEquals(map.get(key), map.valueAt(i));
+        }
+
+        // before the first key, between keys, and after the last key
+        assertEquals(-1, map.indexOf(0));
+        assertEquals(-1, map.indexOf(55));
+        assertEquals(-1, map.indexOf(101));
+
+        assertNull(map.get(55));
+        assertFalse(map.containsKey(55));
+
+        // an insert in the middle moves the index of every later key along by one
+        map.put(55, valueFor(55));
+
+        assertEquals(5, map.indexOf(55));
+        assertEquals(6, map.indexOf(60));
+        assertEquals(10, map.indexOf(100));
+
+        try {
+
+            map.keyAt(map.size());
+            fail("Expected an index past the end to be rejected");
+
+        } catch (IndexOutOfBoundsException ignored) {
+            // expected
+        }
+
+        try {
+
+            map.valueAt(-1);
+            fail("Expected a negative index to be rejected");
+
+        } catch (IndexOutOfBoundsException ignored) {
+            // expected
+        }
+    }
+
+    public void testRemove() {
+
+        SortedLongArrayMap<String> map = new SortedLongArrayMap<>();
+
+        for (long key = 0; key < 10; key++) {
+            map.put(key, valueFor(key));
+        }
+
+        assertEquals(valueFor(0), map.remove(0));
+        assertEquals(valueFor(5), map.remove(5));
+        assertEquals(valueFor(9), map.remove(9));
+
+        assertNull(map.remove(5));
+        assertNull(map.remove(42));
+
+        assertEquals(7, map.size());
+        assertEquals(1, map.firstKey());
+        assertEquals(8, map.lastKey());
+
+        long[] expectedKeys = {1, 2, 3, 4, 6, 7, 8};
+
+        for (int i = 0; i < expectedKeys.length; i++) {
+            assertEquals(expectedKeys[i], map.keyAt(i));
+            assertEquals(i, map.indexOf(expectedKeys[i]));
+            assertEquals(valueFor(expectedKeys[i]), map.valueAt(i));
+        }
+
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(5));
+        assertFalse(map.containsKey(9));
+
+        Iterator<Long> keys = map.keySet().iterator();
+        keys.next();
+
+        map.remove(2);
+
+        try {
+
+            keys.next();
+            fail("Expected the iterator to notice the map was modified");
+
+        } catch (ConcurrentModificationException ignored) {
+            // expected
+        }
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.indexOf(1));
+
+        try {
+
+            map.firstKey();
+            fail("Expected an empty map to have no first key");
+
+        } catch (NoSuchElementException ignored) {
+            // expected
+        }
+    }
+
+    public void testCopyIsIndependent() {
+
+        SortedLongArrayMap<String> original = new SortedLongArrayMap<>();
+
+        for (long key = 0; key < 20; key++) {
+            original.put(key, valueFor(key));
+        }
+
+        SortedLongArrayMap<String> copy = new SortedLongArrayMap<>(original);
+
+        original.put(100, valueFor(100));
+        original.put(0, "replaced");
+        original.remove(1);
+
+        assertEquals(20, copy.size());
+        assertFalse(copy.containsKey(100));
+        assertEquals(valueFor(0), copy.get(0));
+        assertEquals(1, copy.keyAt(1));
+        assertEquals(valueFor(1), copy.valueAt(1));
+
+        copy.remove(2);
+        copy.put(-1, valueFor(-1));
+
+        assertEquals(valueFor(2), original.get(2));
+        assertFalse(original.containsKey(-1));
+        assertEquals(-1, copy.firstKey());
+    }
+
+    public void testMatchesTreeMap() {
+
+        final int operationCount = 20000;
+
+        Random random = new Random(1234);
+
+        SortedLongArrayMap<String> map = new SortedLongArrayMap<>();
+        TreeMap<Long, String> expected = new TreeMap<>();
+
+        for (int i = 0; i < operationCount; i++) {
+
+            // NOTE: mostly appends (like sequentially allocated ids), with inserts and removals anywhere
+            long key = (random.nextInt(3) == 0)
+                    ? random.nextInt(512) - 128
+                    : (expected.isEmpty() ? 0 : expected.lastKey() + 1 + random.nextInt(3));
+
+            int operation = random.nextInt(100);
+
+            if (operation < 50) {
+
+                String value = "value " + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+
+            } else if (operation < 85) {
+
+                assertEquals(expected.remove(key), map.remove(key));
+
+            } else if (operation < 99) {
+
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+                assertEquals(expected.get(key), map.get(key));
+
+            } else {
+
+                map = new SortedLongArrayMap<>(map);
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        int index = 0;
+
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+
+            assertEquals((long) entry.getKey(), map.keyAt(index));
+            assertEquals(entry.getValue(), map.valueAt(index));
+            assertEquals(index, map.indexOf(entry.getKey()));
+
+            index++;
+        }
+
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+    }
+
+    private static String valueFor(long key) {
+        return "value " + key;
+    }
+}
@@ -19,6 +19,6 @@ public class NeatConnection extends Connection {
 
     @Override
     protected NeatConnection deepClone() {
-        return new NeatConnection(sourceId, targetId, enabled, weight, innovationNumber);
+        return new NeatConnection(sourceId, targetId, isEnabled(), getWeight(), innovationNumber);
     }
 }
\ No newline at end of file
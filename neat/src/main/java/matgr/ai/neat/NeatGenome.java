@@ -66,8 +66,8 @@ public class NeatGenome implements Genome {
         // TODO: compare neurons as well? (activation functions/parameters?) ...does this make sense since they aren't
         //       correlated for crossover? (might still be useful for speciation...)
 
-        int sizeA = a.neuralNet.connectionMap().size() - baseGenomeSize;
-        int sizeB = b.neuralNet.connectionMap().size() - baseGenomeSize;
+        int sizeA = a.neuralNet.connections.count() - baseGenomeSize;
+        int sizeB = b.neuralNet.connections.count() - baseGenomeSize;
 
         int normalizationSize = Math.max(1, Math.max(sizeA, sizeB) - minGenomeNormalizationSize);
         return computeDistance(a, b, excessFactor, disjointFactor, weightFactor, normalizationSize);
@@ -99,8 +99,8 @@ public class NeatGenome implements Genome {
             Consumer<NeatConnection> onBDisjoint,
             BiConsumer<NeatConnection, NeatConnection> onMatch) {
 
-        SortedConnectionGeneIterator aEnum = new SortedConnectionGeneIterator(a.neuralNet.connectionMap());
-        SortedConnectionGeneIterator bEnum = new SortedConnectionGeneIterator(b.neuralNet.connectionMap());
+        SortedConnectionGeneIterator aEnum = new SortedConnectionGeneIterator(a.neuralNet);
+        SortedConnectionGeneIterator bEnum = new SortedConnectionGeneIterator(b.neuralNet);
 
         if (aEnum.isPastEnd()) {
 
@@ -232,7 +232,7 @@ public class NeatGenome implements Genome {
                 c -> excessCount[0]++,
                 c -> disjointCount[0]++,
                 (cA, cB) -> {
-                    double difference = Math.abs(cA.weight - cB.weight);
+                    double difference = Math.abs(cA.getWeight() - cB.getWeight());
 
                     weightDifferenceSum[0] += difference;
                     weightDifferenceCount[0]++;
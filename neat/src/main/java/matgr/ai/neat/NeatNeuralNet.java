@@ -1,23 +1,35 @@
 package matgr.ai.neat;
 
+import matgr.ai.common.SelectIterable;
+import matgr.ai.common.SortedLongArrayMap;
 import matgr.ai.neuralnet.cyclic.NeuronParameters;
 import matgr.ai.neuralnet.cyclic.*;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Iterator;
 
 public class NeatNeuralNet extends CyclicNeuralNet<NeatConnection, CyclicNeuron> {
 
-    private SortedMap<Long, NeatConnection> connectionMap;
+    // NOTE: innovation number --> connection ids, this only holds ids (not the connections themselves), so it can be
+    //       shared with clones until one of them adds or removes a connection
+    private SortedLongArrayMap<ConnectionIds> innovations;
+    private boolean innovationsShared;
 
     public NeatNeuralNet(int inputCount, Iterable<NeuronParameters> outputNeuronsParameters) {
 
         super(new DefaultCyclicNeuronFactory(), new NeatConnectionFactory(), inputCount, outputNeuronsParameters);
+
+        this.innovations = new SortedLongArrayMap<>();
+        this.innovationsShared = false;
     }
 
     protected NeatNeuralNet(NeatNeuralNet other) {
 
         super(other);
+
+        this.innovations = other.innovations;
+        this.innovationsShared = true;
+
+        other.innovationsShared = true;
     }
 
     @Override
@@ -46,21 +58,32 @@ public class NeatNeuralNet extends CyclicNeuralNet<NeatConnection, CyclicNeuron>
     @Override
     protected void addConnection(NeatConnection connection) {
         super.addConnection(connection);
-        connectionMap().put(connection.innovationNumber, connection);
+        writableInnovations().put(
+                connection.innovationNumber,
+                new ConnectionIds(connection.sourceId, connection.targetId));
     }
 
     @Override
     public boolean removeConnection(NeatConnection connection) {
-        connectionMap().remove(connection.innovationNumber);
+        writableInnovations().remove(connection.innovationNumber);
         return super.removeConnection(connection);
     }
 
-    // TODO: do this better, it's a bit of a hack...
-    SortedMap<Long, NeatConnection> connectionMap() {
-        if (connectionMap == null) {
-            connectionMap = new TreeMap<>();
+    // NOTE: the connections in innovation order, they may still be shared with clones, so they must not be modified
+    Iterator<NeatConnection> sortedConnections() {
+        return new SelectIterable<>(
+                innovations.values(),
+                ids -> connections.getConnection(ids.sourceId, ids.targetId)).iterator();
+    }
+
+    private SortedLongArrayMap<ConnectionIds> writableInnovations() {
+
+        if (innovationsShared) {
+
+            innovations = new SortedLongArrayMap<>(innovations);
+            innovationsShared = false;
         }
 
-        return connectionMap;
+        return innovations;
     }
 }
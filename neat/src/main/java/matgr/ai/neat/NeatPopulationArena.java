@@ -0,0 +1,75 @@
+package matgr.ai.neat;
+
+import matgr.ai.genetic.Population;
+import matgr.ai.genetic.Species;
+import matgr.ai.genetic.SpeciesMember;
+import matgr.ai.neuralnet.cyclic.CyclicNeuralNetArena;
+import matgr.ai.neuralnet.cyclic.NeuronParameters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// NOTE: this packs the neural nets of every member of a population into a single arena (members are ordered by species,
+//       then by their order within the species), so the whole population can be evaluated with one activateAll call
+public class NeatPopulationArena extends CyclicNeuralNetArena {
+
+    private final List<UUID> genomeIds;
+    private final Map<UUID, Integer> genomeIndices;
+
+    private NeatPopulationArena(List<NeatGenome> genomes, boolean offHeap) {
+
+        super(getNeuralNets(genomes), offHeap);
+
+        this.genomeIds = new ArrayList<>();
+        this.genomeIndices = new HashMap<>();
+
+        for (NeatGenome genome : genomes) {
+            genomeIndices.put(genome.genomeId(), genomeIds.size());
+            genomeIds.add(genome.genomeId());
+        }
+    }
+
+    public static <SpeciesT extends Species<? extends SpeciesMember<? extends NeatGenome>>>
+    NeatPopulationArena create(Population<SpeciesT> population, boolean offHeap) {
+
+        List<NeatGenome> genomes = new ArrayList<>();
+
+        for (SpeciesT species : population.species()) {
+
+            for (SpeciesMember<? extends NeatGenome> member : species.members()) {
+                genomes.add(member.genome());
+            }
+        }
+
+        return new NeatPopulationArena(genomes, offHeap);
+    }
+
+    public UUID genomeId(int memberIndex) {
+        return genomeIds.get(memberIndex);
+    }
+
+    public int indexOf(UUID genomeId) {
+
+        Integer index = genomeIndices.get(genomeId);
+
+        if (index == null) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    private static List<NeatNeuralNet> getNeuralNets(List<NeatGenome> genomes) {
+
+        List<NeatNeuralNet> neuralNets = new ArrayList<>();
+
+        for (NeatGenome genome : genomes) {
+            neuralNets.add(genome.neuralNet);
+        }
+
+        return neuralNets;
+    }
+}
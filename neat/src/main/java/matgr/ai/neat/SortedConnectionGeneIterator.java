@@ -1,7 +1,6 @@
 package matgr.ai.neat;
 
 import java.util.Iterator;
-import java.util.SortedMap;
 
 // TODO: there's probably a better way of doing this...
 
@@ -15,8 +14,8 @@ class SortedConnectionGeneIterator {
     private boolean atStart;
     private boolean pastEnd;
 
-    public SortedConnectionGeneIterator(SortedMap<Long, NeatConnection> connectionMap) {
-        this(connectionMap.values().iterator());
+    public SortedConnectionGeneIterator(NeatNeuralNet neuralNet) {
+        this(neuralNet.sortedConnections());
     }
 
     public SortedConnectionGeneIterator(Iterator<NeatConnection> sortedIterator) {
@@ -53,12 +53,12 @@ public final class NeatCrossoverFunctions {
                     double newWeight = CrossoverFunctions.crossover(
                             random,
                             settings.getConnectionWeightsCrossoverSettings(),
-                            fittest.item.connection.weight,
-                            other.item.connection.weight);
+                            fittest.item.connection.getWeight(),
+                            other.item.connection.getWeight());
 
                     boolean newEnabled;
 
-                    if (fittest.item.connection.enabled && other.item.connection.enabled) {
+                    if (fittest.item.connection.isEnabled() && other.item.connection.isEnabled()) {
                         newEnabled = true;
                     } else {
                         if (random.nextDouble() < settings.getConnectionCrossoverDisableRate()) {
@@ -85,8 +85,8 @@ public final class NeatCrossoverFunctions {
                             fittest.item.connection.innovationNumber,
                             fittest.item.connection.sourceId,
                             fittest.item.connection.targetId,
-                            fittest.item.connection.weight,
-                            fittest.item.connection.enabled);
+                            fittest.item.connection.getWeight(),
+                            fittest.item.connection.isEnabled());
 
                 }
 
@@ -98,8 +98,8 @@ public final class NeatCrossoverFunctions {
                         fittest.item.connection.innovationNumber,
                         fittest.item.connection.sourceId,
                         fittest.item.connection.targetId,
-                        fittest.item.connection.weight,
-                        fittest.item.connection.enabled);
+                        fittest.item.connection.getWeight(),
+                        fittest.item.connection.isEnabled());
             }
         }
 
@@ -93,7 +93,7 @@ public class NeatMutationFunctions {
         if (oldConnection != null) {
             // add node by splitting connection
 
-            oldConnection.enabled = false;
+            genome.neuralNet.setConnectionEnabled(oldConnection.sourceId, oldConnection.targetId, false);
 
             ActivationFunction activationFunction = getRandomActivationFunction(random);
             CyclicNeuron newNode = genome.neuralNet.addHiddenNeuron(activationFunction);
@@ -103,14 +103,14 @@ public class NeatMutationFunctions {
                     genome,
                     oldConnection.sourceId,
                     newNode.id,
-                    oldConnection.weight,
+                    oldConnection.getWeight(),
                     innovationMap);
 
             addConnection(
                     genome,
                     newNode.id,
                     oldConnection.targetId,
-                    oldConnection.weight,
+                    oldConnection.getWeight(),
                     innovationMap);
 
             return true;
@@ -160,7 +160,7 @@ public class NeatMutationFunctions {
                     if (!genome.neuralNet.isConnected(incomingConnection.sourceId, outgoingConnection.targetId)) {
 
                         // TODO: is this valid?
-                        double weight = (incomingConnection.weight + outgoingConnection.weight) / 2.0;
+                        double weight = (incomingConnection.getWeight() + outgoingConnection.getWeight()) / 2.0;
 
                         genome.neuralNet.addConnection(
                                 incomingConnection.sourceId,
@@ -184,7 +184,7 @@ public class NeatMutationFunctions {
                     if (!genome.neuralNet.isConnected(incomingConnection.sourceId, outgoingConnection.targetId)) {
 
                         // TODO: is this valid?
-                        double weight = (incomingConnection.weight + outgoingConnection.weight) / 2.0;
+                        double weight = (incomingConnection.getWeight() + outgoingConnection.getWeight()) / 2.0;
 
                         genome.neuralNet.addConnection(
                                 incomingConnection.sourceId,
@@ -286,11 +286,13 @@ public class NeatMutationFunctions {
 
         if (connection != null) {
 
-            connection.weight = MutationFunctions.mutate(
+            double weight = MutationFunctions.mutate(
                     random,
                     settings.getConnectionWeightsMutationSettings(),
                     currentGeneration,
-                    connection.weight);
+                    connection.getWeight());
+
+            genome.neuralNet.setConnectionWeight(connection.sourceId, connection.targetId, weight);
 
             return true;
         }
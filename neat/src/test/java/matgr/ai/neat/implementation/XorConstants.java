@@ -11,7 +11,6 @@ public class XorConstants {
     public static final double bias = -1;
 
     public static final int maxStepsPerActivation = 10;
-    public static final boolean resetStateBeforeActivation = true;
 
     public static final int populationSize = 100;
     public static final int maxGenerations = 1000;
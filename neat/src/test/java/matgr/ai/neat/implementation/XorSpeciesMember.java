@@ -3,9 +3,6 @@ package matgr.ai.neat.implementation;
 import matgr.ai.genetic.SpeciesMember;
 import matgr.ai.neat.NeatGenome;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class XorSpeciesMember implements SpeciesMember<NeatGenome> {
 
     private NeatGenome genome;
@@ -22,26 +19,30 @@ public class XorSpeciesMember implements SpeciesMember<NeatGenome> {
     @Override
     public double computeFitness() {
 
-        double sumOfErrorSquares = 0;
+        double[][] inputSets = new double[XorConstants.testSize * XorConstants.testSize][];
 
         for (int i = 0; i < XorConstants.testSize; i++) {
 
             for (int j = 0; j < XorConstants.testSize; j++) {
 
-                double expectedValue = (double) (i ^ j);
+                inputSets[(i * XorConstants.testSize) + j] = new double[]{i, j};
+            }
+        }
 
-                List<Double> inputs = new ArrayList<>();
+        double[][] results = genome.neuralNet.activateBatch(
+                inputSets,
+                XorConstants.bias,
+                XorConstants.maxStepsPerActivation);
 
-                inputs.add((double) i);
-                inputs.add((double) j);
+        double sumOfErrorSquares = 0;
 
-                List<Double> result = genome.neuralNet.activateSingle(
-                        inputs,
-                        XorConstants.bias,
-                        XorConstants.maxStepsPerActivation,
-                        XorConstants.resetStateBeforeActivation);
+        for (int i = 0; i < XorConstants.testSize; i++) {
+
+            for (int j = 0; j < XorConstants.testSize; j++) {
+
+                double expectedValue = (double) (i ^ j);
 
-                double value = result.get(0);
+                double value = results[(i * XorConstants.testSize) + j][0];
 
                 if (Double.isNaN(value)) {
                     throw new AssertionError("Received NaN activation result");
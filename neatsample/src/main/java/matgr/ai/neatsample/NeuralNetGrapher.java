@@ -128,7 +128,7 @@ public class NeuralNetGrapher {
                 NeuronVertex target = neuronVertexMap.get(c.targetId);
 
                 CustomWeightedEdge edge = graph.addEdge(source, target);
-                graph.setEdgeWeight(edge, c.weight);
+                graph.setEdgeWeight(edge, c.getWeight());
             }
 
             JGraphModelAdapter graphModel = new JGraphModelAdapter<>(graph);
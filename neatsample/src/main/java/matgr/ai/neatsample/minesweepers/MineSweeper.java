@@ -23,6 +23,10 @@ public abstract class MineSweeper<GenomeT extends MineSweeperGenome>
 
     private MineSweeperFitnessState fitnessState;
 
+    // NOTE: these are reused for every activation, so updating a sweeper doesn't churn through garbage
+    private double[] neuralNetInputs;
+    private final double[] neuralNetOutputs;
+
     public final MineSweeperSettings settings;
 
     public final double visionConeDistanceSquared;
@@ -36,6 +40,9 @@ public abstract class MineSweeper<GenomeT extends MineSweeperGenome>
 
         this.fitnessState = new MineSweeperFitnessState(0);
 
+        this.neuralNetInputs = new double[0];
+        this.neuralNetOutputs = new double[2];
+
         randomizePositionAndDirection(random, settings.minefieldSize);
 
         visionConeDistanceSquared = settings.visionConeDistance * settings.visionConeDistance;
@@ -421,31 +428,42 @@ public abstract class MineSweeper<GenomeT extends MineSweeperGenome>
         return (slope * rawRotation) + intercept;
     }
 
-    protected abstract List<Double> activateNeuralNet(List<Double> inputs, double bias);
+    protected abstract void activateNeuralNet(double[] inputs, double[] outputs, double bias);
 
     private SpeedAndRotation computeRawSpeedAndDirection(List<MineStatus> closestMines) {
 
-        List<Double> inputsList = new ArrayList<>();
+        int inputCount = 4 + (2 * closestMines.size());
+
+        if (neuralNetInputs.length != inputCount) {
+            neuralNetInputs = new double[inputCount];
+        }
+
+        double[] inputs = neuralNetInputs;
 
         // add position
-        inputsList.add(position.x);
-        inputsList.add(position.y);
+        inputs[0] = position.x;
+        inputs[1] = position.y;
 
         // add direction
-        inputsList.add(direction.vector.x);
-        inputsList.add(direction.vector.y);
+        inputs[2] = direction.vector.x;
+        inputs[3] = direction.vector.y;
+
+        int inputIndex = 4;
+
+        for (int i = 0; i < closestMines.size(); i++) {
+
+            MineStatus mineStatus = closestMines.get(i);
 
-        for (MineStatus mineStatus : closestMines) {
             // add mine
-            inputsList.add(mineStatus.angle);
-            inputsList.add(mineStatus.score);
+            inputs[inputIndex++] = mineStatus.angle;
+            inputs[inputIndex++] = mineStatus.score;
         }
 
         // TODO: reset or not? also how many steps per activation?
-        List<Double> outputs = activateNeuralNet(inputsList, settings.bias);
+        activateNeuralNet(inputs, neuralNetOutputs, settings.bias);
 
-        double rawSpeed = outputs.get(0);
-        double rawRotation = outputs.get(1);
+        double rawSpeed = neuralNetOutputs[0];
+        double rawRotation = neuralNetOutputs[1];
 
         return new SpeedAndRotation(rawSpeed, rawRotation);
     }
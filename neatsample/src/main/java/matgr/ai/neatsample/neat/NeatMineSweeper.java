@@ -2,10 +2,9 @@ package matgr.ai.neatsample.neat;
 
 import matgr.ai.neatsample.minesweepers.MineSweeper;
 import matgr.ai.neatsample.minesweepers.MineSweeperSettings;
+import matgr.ai.neuralnet.cyclic.ActivationSchedule;
 import org.apache.commons.math3.random.RandomGenerator;
 
-import java.util.List;
-
 public class NeatMineSweeper extends MineSweeper<NeatMineSweeperGenome> {
 
     public NeatMineSweeper(RandomGenerator random, NeatMineSweeperGenome genome, MineSweeperSettings settings) {
@@ -13,14 +12,23 @@ public class NeatMineSweeper extends MineSweeper<NeatMineSweeperGenome> {
     }
 
     @Override
-    protected List<Double> activateNeuralNet(List<Double> inputs, double bias) {
+    protected void activateNeuralNet(double[] inputs, double[] outputs, double bias) {
 
         // TODO: pass these in?
         // TODO: what is the right number of steps? should it be based on the max length from an input to output?
         final int maxStepsPerActivation = 10;
         final boolean resetStateBeforeActivation = false;
 
-        return genome.neuralNet.activateSingle(inputs, bias, maxStepsPerActivation, resetStateBeforeActivation);
+        // NOTE: the sensors only change a little from tick to tick (and the state is carried over), so only the changes
+        //       are pushed through the network... this is only for this activation, the genome's network keeps its own
+        //       schedule (so its clones and offspring can still be optimized)
+        genome.neuralNet.activate(
+                inputs,
+                outputs,
+                bias,
+                maxStepsPerActivation,
+                resetStateBeforeActivation,
+                ActivationSchedule.Incremental);
     }
 
     @Override
@@ -0,0 +1,85 @@
+package matgr.ai.neuralnet;
+
+// NOTE: this holds the activation state (pre/post synapse values, etc...) of a network outside of the network itself,
+//       so many callers (or threads) can activate the same network at once, each with its own context... the layout of
+//       the buffers is up to the network that created the context, and a context is only valid for the network (and
+//       the structural version of it) that it was created for
+public class ActivationContext {
+
+    private final Object owner;
+    private final long version;
+
+    private final double[][] buffers;
+
+    public ActivationContext(Object owner, long version, int... bufferSizes) {
+
+        if (null == owner) {
+            throw new IllegalArgumentException("owner not provided");
+        }
+        if (null == bufferSizes) {
+            throw new IllegalArgumentException("bufferSizes not provided");
+        }
+
+        this.owner = owner;
+        this.version = version;
+
+        this.buffers = new double[bufferSizes.length][];
+
+        for (int i = 0; i < bufferSizes.length; i++) {
+            buffers[i] = new double[bufferSizes[i]];
+        }
+    }
+
+    private ActivationContext(ActivationContext other) {
+
+        this.owner = other.owner;
+        this.version = other.version;
+
+        this.buffers = new double[other.buffers.length][];
+
+        for (int i = 0; i < other.buffers.length; i++) {
+            buffers[i] = other.buffers[i].clone();
+        }
+    }
+
+    public boolean isFor(Object owner, long version) {
+        return (this.owner == owner) && (this.version == version);
+    }
+
+    public int bufferCount() {
+        return buffers.length;
+    }
+
+    public double[] buffer(int index) {
+        return buffers[index];
+    }
+
+    public void reset() {
+
+        for (double[] buffer : buffers) {
+
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = 0.0;
+            }
+        }
+    }
+
+    public ActivationContext snapshot() {
+        return new ActivationContext(this);
+    }
+
+    // NOTE: the snapshot must have been taken from a context for the same network (and version)
+    public void restore(ActivationContext snapshot) {
+
+        if (null == snapshot) {
+            throw new IllegalArgumentException("snapshot not provided");
+        }
+        if (!snapshot.isFor(owner, version)) {
+            throw new IllegalArgumentException("Snapshot was taken from a context for a different network");
+        }
+
+        for (int i = 0; i < buffers.length; i++) {
+            System.arraycopy(snapshot.buffers[i], 0, buffers[i], 0, buffers[i].length);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package matgr.ai.neuralnet;
+
+// NOTE: how weights and activations are stored, and how the weighted sums are accumulated... Float32 halves the memory
+//       traffic of Float64 (at roughly 7 significant digits), Float32Accumulate64 stores floats but sums in doubles (so
+//       long sums don't lose precision)... activation functions are always evaluated in doubles
+public enum ComputePrecision {
+    Float64,
+    Float32,
+    Float32Accumulate64
+}
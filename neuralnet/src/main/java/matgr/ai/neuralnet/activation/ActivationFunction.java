@@ -35,6 +35,34 @@ public abstract class ActivationFunction {
         return computeActivationDerivative(activationInput, activationOutput, parameters);
     }
 
+    // NOTE: the parameters are validated (and copied) once here, so the kernel can be called without any checks
+    public ActivationKernel bind(double... parameters) {
+        return bind(ActivationPrecision.Exact, parameters);
+    }
+
+    public ActivationKernel bind(ActivationPrecision precision, double... parameters) {
+
+        if (null == precision) {
+            throw new IllegalArgumentException("precision not provided");
+        }
+
+        validateParameters(parameters);
+
+        double[] boundParameters = (parameters != null) ? parameters.clone() : new double[0];
+
+        switch (precision) {
+
+            case Exact:
+                return createKernel(boundParameters);
+
+            case Approximate:
+                return createApproximateKernel(boundParameters);
+
+            default:
+                throw new IllegalArgumentException("Unknown activation precision");
+        }
+    }
+
     public void validateParameters(double... parameters) {
         int parameterCount = 0;
         if (parameters != null) {
@@ -48,7 +76,38 @@ public abstract class ActivationFunction {
 
     public abstract double[] defaultParameters();
 
+    // NOTE: functions should override this with a specialized kernel, this one just forwards to computeActivation
+    protected ActivationKernel createKernel(double[] parameters) {
+        return new BoundKernel(this, parameters);
+    }
+
+    // NOTE: functions that are expensive to evaluate can override this with a cheaper approximation
+    protected ActivationKernel createApproximateKernel(double[] parameters) {
+        return createKernel(parameters);
+    }
+
     protected abstract double computeActivation(double activationInput, double[] parameters);
 
     protected abstract double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters);
+
+    private static class BoundKernel extends ActivationKernel {
+
+        private final ActivationFunction function;
+        private final double[] parameters;
+
+        public BoundKernel(ActivationFunction function, double[] parameters) {
+            this.function = function;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public double apply(double activationInput) {
+            return function.computeActivation(activationInput, parameters);
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return function.computeActivationDerivative(activationInput, activationOutput, parameters);
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package matgr.ai.neuralnet.activation;
+
+// NOTE: an activation function with its parameters already bound (and validated), so nothing is checked per call... the
+//       bulk versions work on the range [from, to) of the arrays (the same indices are used for every array, and the
+//       output may be the same array as the input)
+public abstract class ActivationKernel {
+
+    public abstract double apply(double activationInput);
+
+    public abstract double derivative(double activationInput, double activationOutput);
+
+    public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+        for (int i = from; i < to; i++) {
+            activationOutputs[i] = apply(activationInputs[i]);
+        }
+    }
+
+    public void derivative(double[] activationInputs,
+                           double[] activationOutputs,
+                           double[] derivatives,
+                           int from,
+                           int to) {
+
+        for (int i = from; i < to; i++) {
+            derivatives[i] = derivative(activationInputs[i], activationOutputs[i]);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package matgr.ai.neuralnet.activation;
+
+// NOTE: Approximate swaps the exp/tanh based functions for interpolated lookup tables (see LookupTableActivationKernel,
+//       the maximum error for each function is noted where its table is built), functions without an approximation
+//       are evaluated exactly either way
+public enum ActivationPrecision {
+    Exact,
+    Approximate
+}
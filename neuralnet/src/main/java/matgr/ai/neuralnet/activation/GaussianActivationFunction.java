@@ -4,6 +4,13 @@ public class GaussianActivationFunction extends ActivationFunction {
 
     public static final GaussianActivationFunction INSTANCE = new GaussianActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
+    // NOTE: exp(-x^2) is within 1.7e-28 of 0 outside of [-8, 8], and |f''| <= 2, so the maximum error is under
+    //       3.9e-6
+    private static final LookupTableActivationKernel APPROXIMATE_KERNEL =
+            new LookupTableActivationKernel(KERNEL, -8.0, 8.0, 4096);
+
     private GaussianActivationFunction() {
         super("gaussian");
     }
@@ -13,6 +20,16 @@ public class GaussianActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected ActivationKernel createApproximateKernel(double[] parameters) {
+        return APPROXIMATE_KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return Math.exp(-(activationInput * activationInput));
@@ -22,4 +39,37 @@ public class GaussianActivationFunction extends ActivationFunction {
     protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
         return -2.0 * activationInput * activationOutput;
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.exp(-(activationInput * activationInput));
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return -2.0 * activationInput * activationOutput;
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.exp(-(activationInputs[i] * activationInputs[i]));
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = -2.0 * activationInputs[i] * activationOutputs[i];
+            }
+        }
+    }
 }
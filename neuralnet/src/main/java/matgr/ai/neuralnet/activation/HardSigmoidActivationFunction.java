@@ -0,0 +1,66 @@
+package matgr.ai.neuralnet.activation;
+
+// NOTE: a piecewise linear approximation of the sigmoid (clamp(0.25x + 0.5, 0, 1)), with the same slope at 0
+public class HardSigmoidActivationFunction extends ActivationFunction {
+
+    public static final HardSigmoidActivationFunction INSTANCE = new HardSigmoidActivationFunction();
+
+    private static final Kernel KERNEL = new Kernel();
+
+    private HardSigmoidActivationFunction() {
+        super("hard sigmoid");
+    }
+
+    @Override
+    public double[] defaultParameters() {
+        return new double[0];
+    }
+
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected double computeActivation(double activationInput, double[] parameters) {
+        return KERNEL.apply(activationInput);
+    }
+
+    @Override
+    protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
+        return KERNEL.derivative(activationInput, activationOutput);
+    }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.max(0.0, Math.min(1.0, (0.25 * activationInput) + 0.5));
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return ((activationInput > -2.0) && (activationInput < 2.0)) ? 0.25 : 0.0;
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.max(0.0, Math.min(1.0, (0.25 * activationInputs[i]) + 0.5));
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = ((activationInputs[i] > -2.0) && (activationInputs[i] < 2.0)) ? 0.25 : 0.0;
+            }
+        }
+    }
+}
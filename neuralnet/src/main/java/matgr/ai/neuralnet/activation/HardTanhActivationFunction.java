@@ -0,0 +1,66 @@
+package matgr.ai.neuralnet.activation;
+
+// NOTE: a piecewise linear approximation of tanh (clamp(x, -1, 1)), with the same slope at 0
+public class HardTanhActivationFunction extends ActivationFunction {
+
+    public static final HardTanhActivationFunction INSTANCE = new HardTanhActivationFunction();
+
+    private static final Kernel KERNEL = new Kernel();
+
+    private HardTanhActivationFunction() {
+        super("hard tanh");
+    }
+
+    @Override
+    public double[] defaultParameters() {
+        return new double[0];
+    }
+
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected double computeActivation(double activationInput, double[] parameters) {
+        return KERNEL.apply(activationInput);
+    }
+
+    @Override
+    protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
+        return KERNEL.derivative(activationInput, activationOutput);
+    }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.max(-1.0, Math.min(1.0, activationInput));
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return ((activationInput > -1.0) && (activationInput < 1.0)) ? 1.0 : 0.0;
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.max(-1.0, Math.min(1.0, activationInputs[i]));
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = ((activationInputs[i] > -1.0) && (activationInputs[i] < 1.0)) ? 1.0 : 0.0;
+            }
+        }
+    }
+}
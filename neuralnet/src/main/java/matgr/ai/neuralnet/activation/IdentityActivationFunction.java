@@ -4,6 +4,8 @@ public class IdentityActivationFunction extends ActivationFunction {
 
     public static final IdentityActivationFunction INSTANCE = new IdentityActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
     private IdentityActivationFunction() {
         super("pass through");
     }
@@ -13,6 +15,11 @@ public class IdentityActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return activationInput;
@@ -22,4 +29,37 @@ public class IdentityActivationFunction extends ActivationFunction {
     protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
         return 1.0;
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return activationInput;
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return 1.0;
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            if (activationInputs != activationOutputs) {
+                System.arraycopy(activationInputs, from, activationOutputs, from, to - from);
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = 1.0;
+            }
+        }
+    }
 }
@@ -14,6 +14,18 @@ public class KnownActivationFunctions {
     public static final TanhActivationFunction TANH;
     public static final ReluActivationFunction RELU;
     public static final GaussianActivationFunction GAUSSIAN;
+    public static final HardSigmoidActivationFunction HARD_SIGMOID;
+    public static final HardTanhActivationFunction HARD_TANH;
+
+    // NOTE: the known functions bound with their default parameters
+    public static final ActivationKernel IDENTITY_KERNEL;
+    public static final ActivationKernel SIGMOID_KERNEL;
+    public static final ActivationKernel SOFT_PLUS_KERNEL;
+    public static final ActivationKernel TANH_KERNEL;
+    public static final ActivationKernel RELU_KERNEL;
+    public static final ActivationKernel GAUSSIAN_KERNEL;
+    public static final ActivationKernel HARD_SIGMOID_KERNEL;
+    public static final ActivationKernel HARD_TANH_KERNEL;
 
     public static final Map<String, ActivationFunction> ALL;
 
@@ -28,10 +40,25 @@ public class KnownActivationFunctions {
         TANH = addFunction(TanhActivationFunction.INSTANCE);
         RELU = addFunction(ReluActivationFunction.INSTANCE);
         GAUSSIAN = addFunction(GaussianActivationFunction.INSTANCE);
+        HARD_SIGMOID = addFunction(HardSigmoidActivationFunction.INSTANCE);
+        HARD_TANH = addFunction(HardTanhActivationFunction.INSTANCE);
+
+        IDENTITY_KERNEL = bindDefault(IDENTITY);
+        SIGMOID_KERNEL = bindDefault(SIGMOID);
+        SOFT_PLUS_KERNEL = bindDefault(SOFT_PLUS);
+        TANH_KERNEL = bindDefault(TANH);
+        RELU_KERNEL = bindDefault(RELU);
+        GAUSSIAN_KERNEL = bindDefault(GAUSSIAN);
+        HARD_SIGMOID_KERNEL = bindDefault(HARD_SIGMOID);
+        HARD_TANH_KERNEL = bindDefault(HARD_TANH);
     }
 
     private static <TFunction extends ActivationFunction> TFunction addFunction(TFunction function) {
         writableAll.put(function.name, function);
         return function;
     }
+
+    private static ActivationKernel bindDefault(ActivationFunction function) {
+        return function.bind(function.defaultParameters());
+    }
 }
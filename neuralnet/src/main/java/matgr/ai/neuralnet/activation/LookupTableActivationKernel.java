@@ -0,0 +1,126 @@
+package matgr.ai.neuralnet.activation;
+
+// NOTE: linearly interpolates a table of the exact kernel's values over [min, max], with intervalCount equally sized
+//       intervals... the interpolation error is at most (h * h / 8) * max|f''| (where h is the interval width), and
+//       outside of the range the values at the ends of the table are used (unless applyBelow/applyAbove are
+//       overridden)... derivatives are always computed by the exact kernel
+public class LookupTableActivationKernel extends ActivationKernel {
+
+    private final ActivationKernel exactKernel;
+
+    private final double min;
+    private final double max;
+    private final double scale;
+
+    private final double[] table;
+
+    public LookupTableActivationKernel(ActivationKernel exactKernel, double min, double max, int intervalCount) {
+
+        if (null == exactKernel) {
+            throw new IllegalArgumentException("exactKernel not provided");
+        }
+        if (!(max > min)) {
+            throw new IllegalArgumentException("max must be greater than min");
+        }
+        if (intervalCount < 1) {
+            throw new IllegalArgumentException("intervalCount must be at least 1");
+        }
+
+        this.exactKernel = exactKernel;
+
+        this.min = min;
+        this.max = max;
+        this.scale = intervalCount / (max - min);
+
+        // NOTE: the last entry is repeated, so rounding right at the top of the range can't read past the end
+        this.table = new double[intervalCount + 2];
+
+        for (int i = 0; i <= intervalCount; i++) {
+            table[i] = exactKernel.apply(min + ((max - min) * i / intervalCount));
+        }
+
+        table[intervalCount + 1] = table[intervalCount];
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    @Override
+    public double apply(double activationInput) {
+
+        if (activationInput <= min) {
+            return applyBelow(activationInput);
+        }
+        if (activationInput >= max) {
+            return applyAbove(activationInput);
+        }
+
+        return interpolate(activationInput);
+    }
+
+    @Override
+    public double derivative(double activationInput, double activationOutput) {
+        return exactKernel.derivative(activationInput, activationOutput);
+    }
+
+    @Override
+    public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+        double[] table = this.table;
+
+        for (int i = from; i < to; i++) {
+
+            double activationInput = activationInputs[i];
+
+            if (activationInput <= min) {
+
+                activationOutputs[i] = applyBelow(activationInput);
+
+            } else if (activationInput >= max) {
+
+                activationOutputs[i] = applyAbove(activationInput);
+
+            } else {
+
+                double position = (activationInput - min) * scale;
+                int index = (int) position;
+
+                double lower = table[index];
+                activationOutputs[i] = lower + ((table[index + 1] - lower) * (position - index));
+            }
+        }
+    }
+
+    @Override
+    public void derivative(double[] activationInputs,
+                           double[] activationOutputs,
+                           double[] derivatives,
+                           int from,
+                           int to) {
+
+        exactKernel.derivative(activationInputs, activationOutputs, derivatives, from, to);
+    }
+
+    protected double applyBelow(double activationInput) {
+        return table[0];
+    }
+
+    protected double applyAbove(double activationInput) {
+        return table[table.length - 1];
+    }
+
+    private double interpolate(double activationInput) {
+
+        // NOTE: a NaN input ends up here (all of the comparisons fail), and interpolates to NaN
+        double position = (activationInput - min) * scale;
+        int index = (int) position;
+
+        double lower = table[index];
+        return lower + ((table[index + 1] - lower) * (position - index));
+    }
+}
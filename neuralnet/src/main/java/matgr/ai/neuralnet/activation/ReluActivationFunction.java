@@ -4,6 +4,8 @@ public class ReluActivationFunction extends ActivationFunction {
 
     public static final ReluActivationFunction INSTANCE = new ReluActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
     private ReluActivationFunction() {
         super("ReLU");
     }
@@ -13,6 +15,11 @@ public class ReluActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return Math.max(0, activationInput);
@@ -27,4 +34,37 @@ public class ReluActivationFunction extends ActivationFunction {
 
         return 1.0;
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.max(0, activationInput);
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return (activationInput <= 0) ? 0.0 : 1.0;
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.max(0, activationInputs[i]);
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = (activationInputs[i] <= 0) ? 0.0 : 1.0;
+            }
+        }
+    }
 }
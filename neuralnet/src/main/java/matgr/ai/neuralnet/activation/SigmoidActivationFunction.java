@@ -6,6 +6,13 @@ public class SigmoidActivationFunction extends ActivationFunction {
 
     public static final SigmoidActivationFunction INSTANCE = new SigmoidActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
+    // NOTE: sigmoid(x) is within 1.2e-7 of 0/1 outside of [-16, 16], and |f''| <= 0.097, so the maximum error is
+    //       under 7.5e-7
+    private static final LookupTableActivationKernel APPROXIMATE_KERNEL =
+            new LookupTableActivationKernel(KERNEL, -16.0, 16.0, 4096);
+
     private SigmoidActivationFunction() {
         super("sigmoid");
     }
@@ -15,6 +22,16 @@ public class SigmoidActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected ActivationKernel createApproximateKernel(double[] parameters) {
+        return APPROXIMATE_KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return MathFunctions.sigmoid(activationInput);
@@ -24,4 +41,37 @@ public class SigmoidActivationFunction extends ActivationFunction {
     protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
         return activationOutput * (1 - activationOutput);
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return MathFunctions.sigmoid(activationInput);
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return activationOutput * (1 - activationOutput);
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = MathFunctions.sigmoid(activationInputs[i]);
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = activationOutputs[i] * (1 - activationOutputs[i]);
+            }
+        }
+    }
 }
@@ -6,6 +6,19 @@ public class SoftplusActivationFunction extends ActivationFunction {
 
     public static final SoftplusActivationFunction INSTANCE = new SoftplusActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
+    // NOTE: softplus(x) is within 1.2e-7 of 0 below -16 (and of x above 16), and |f''| <= 0.25, so the maximum
+    //       error is under 2e-6
+    private static final LookupTableActivationKernel APPROXIMATE_KERNEL =
+            new LookupTableActivationKernel(KERNEL, -16.0, 16.0, 4096) {
+
+                @Override
+                protected double applyAbove(double activationInput) {
+                    return activationInput;
+                }
+            };
+
     private SoftplusActivationFunction() {
         super("softplus");
     }
@@ -15,6 +28,16 @@ public class SoftplusActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected ActivationKernel createApproximateKernel(double[] parameters) {
+        return APPROXIMATE_KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return Math.log(1 + Math.exp(activationInput));
@@ -24,4 +47,37 @@ public class SoftplusActivationFunction extends ActivationFunction {
     protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
         return 1.0 / (1 + Math.exp(-activationInput));
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.log(1 + Math.exp(activationInput));
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return 1.0 / (1 + Math.exp(-activationInput));
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.log(1 + Math.exp(activationInputs[i]));
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = 1.0 / (1 + Math.exp(-activationInputs[i]));
+            }
+        }
+    }
 }
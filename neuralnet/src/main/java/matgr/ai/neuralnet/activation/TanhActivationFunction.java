@@ -4,6 +4,13 @@ public class TanhActivationFunction extends ActivationFunction {
 
     public static final TanhActivationFunction INSTANCE = new TanhActivationFunction();
 
+    private static final Kernel KERNEL = new Kernel();
+
+    // NOTE: tanh(x) is within 2.3e-7 of -1/1 outside of [-8, 8], and |f''| <= 0.77, so the maximum error is under
+    //       1.5e-6
+    private static final LookupTableActivationKernel APPROXIMATE_KERNEL =
+            new LookupTableActivationKernel(KERNEL, -8.0, 8.0, 4096);
+
     private TanhActivationFunction() {
         super("tanh");
     }
@@ -13,6 +20,16 @@ public class TanhActivationFunction extends ActivationFunction {
         return new double[0];
     }
 
+    @Override
+    protected ActivationKernel createKernel(double[] parameters) {
+        return KERNEL;
+    }
+
+    @Override
+    protected ActivationKernel createApproximateKernel(double[] parameters) {
+        return APPROXIMATE_KERNEL;
+    }
+
     @Override
     protected double computeActivation(double activationInput, double[] parameters) {
         return Math.tanh(activationInput);
@@ -22,4 +39,37 @@ public class TanhActivationFunction extends ActivationFunction {
     protected double computeActivationDerivative(double activationInput, double activationOutput, double[] parameters) {
         return 1.0 - (activationOutput * activationOutput);
     }
+
+    private static class Kernel extends ActivationKernel {
+
+        @Override
+        public double apply(double activationInput) {
+            return Math.tanh(activationInput);
+        }
+
+        @Override
+        public double derivative(double activationInput, double activationOutput) {
+            return 1.0 - (activationOutput * activationOutput);
+        }
+
+        @Override
+        public void apply(double[] activationInputs, double[] activationOutputs, int from, int to) {
+
+            for (int i = from; i < to; i++) {
+                activationOutputs[i] = Math.tanh(activationInputs[i]);
+            }
+        }
+
+        @Override
+        public void derivative(double[] activationInputs,
+                               double[] activationOutputs,
+                               double[] derivatives,
+                               int from,
+                               int to) {
+
+            for (int i = from; i < to; i++) {
+                derivatives[i] = 1.0 - (activationOutputs[i] * activationOutputs[i]);
+            }
+        }
+    }
 }
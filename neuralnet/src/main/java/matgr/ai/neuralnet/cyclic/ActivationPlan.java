@@ -0,0 +1,1113 @@
+package matgr.ai.neuralnet.cyclic;
+
+import matgr.ai.math.MathFunctions;
+import matgr.ai.neuralnet.NeuronState;
+import matgr.ai.neuralnet.NeuronType;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
+import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// NOTE: this is a flattened snapshot of the structure of a CyclicNeuralNet (neurons are given dense indices and the
+//       connections are stored grouped by target neuron, CSR style), it is only valid for the network version it was
+//       compiled from... the structure itself is interned (see ActivationTopology), so networks that differ only in
+//       their weights (or activation functions) share it, and only the per-network arrays are held here
+class ActivationPlan<NeuronT extends CyclicNeuron> {
+
+    public final long version;
+
+    final ActivationTopology topology;
+
+    final NeuronState<NeuronT>[] states;
+
+    final int biasIndex;
+    final int[] inputIndices;
+    final int[] outputIndices;
+
+    final int[] activatableIndices;
+    final CyclicNeuron[] activatableNeurons;
+    final ActivationKernel[] activatableKernels;
+
+    final int[] incomingOffsets;
+    final int[] sourceIndices;
+    final Connection[] connections;
+    final double[] weights;
+
+    private final double[] preSynapses;
+    private final double[] postSynapses;
+
+    private ActivationPrecision activationPrecision;
+
+    // NOTE: the sweep order and components for the current set of active connections (enabled, with a non-zero weight),
+    //       they come from the topology (which shares them between networks) and only need looking up again when a
+    //       connection switches between active and inactive
+    private ActivationTopology.Orderings orderings;
+    private boolean orderingsStale;
+
+    private ActivationTopology.Components components;
+    private boolean componentsStale;
+
+    // NOTE: for the incremental schedule, the weighted input sum of every neuron for the activations that are currently
+    //       stored (along with the bias and input values the sums were last brought up to date with)... they're only
+    //       valid while nothing else changes the state, weights or kernels, and are rebuilt every so often (so rounding
+    //       errors can't build up)
+    private static final int INCREMENTAL_REBUILD_INTERVAL = 1024;
+
+    private double[] incrementalSums;
+    private double[] incrementalSources;
+    private boolean incrementalSumsValid;
+    private int incrementalActivationCount;
+
+    // NOTE: neurons whose sums have changed since they were last evaluated (a FIFO ring, each neuron is only in it
+    //       once), anything left in it when an activation runs out of steps is carried over to the next one
+    private int[] incrementalQueue;
+    private boolean[] incrementalQueued;
+    private int incrementalQueueHead;
+    private int incrementalQueueSize;
+
+    private ActivationPlan(long version,
+                           ActivationTopology topology,
+                           NeuronState<NeuronT>[] states,
+                           CyclicNeuron[] activatableNeurons,
+                           Connection[] connections) {
+
+        this.version = version;
+
+        this.topology = topology;
+
+        this.states = states;
+
+        this.biasIndex = topology.biasIndex;
+        this.inputIndices = topology.inputIndices;
+        this.outputIndices = topology.outputIndices;
+
+        this.activatableIndices = topology.activatableIndices;
+        this.activatableNeurons = activatableNeurons;
+        this.activatableKernels = new ActivationKernel[activatableNeurons.length];
+
+        this.incomingOffsets = topology.incomingOffsets;
+        this.sourceIndices = topology.sourceIndices;
+        this.connections = connections;
+        this.weights = new double[connections.length];
+
+        this.preSynapses = new double[states.length];
+        this.postSynapses = new double[states.length];
+
+        this.orderingsStale = true;
+        this.componentsStale = true;
+
+        this.activationPrecision = ActivationPrecision.Exact;
+    }
+
+    public static <ConnectionT extends Connection, NeuronT extends CyclicNeuron> ActivationPlan<NeuronT> compile(
+            NeuronMap<NeuronT> neurons,
+            ConnectionMap<ConnectionT> connections,
+            long version) {
+
+        int neuronCount = neurons.count();
+
+        @SuppressWarnings("unchecked")
+        NeuronState<NeuronT>[] states = (NeuronState<NeuronT>[]) new NeuronState[neuronCount];
+
+        NeuronType[] neuronTypes = new NeuronType[neuronCount];
+
+        int index = 0;
+
+        for (NeuronState<NeuronT> neuron : neurons.values()) {
+
+            neuronTypes[index] = neuron.neuron.type;
+            states[index++] = neuron;
+        }
+
+        int biasIndex = -1;
+
+        NeuronState<NeuronT> biasNeuron = neurons.getSingle(NeuronType.Bias);
+        if (biasNeuron != null) {
+            biasIndex = neurons.indexOf(biasNeuron.neuron.id);
+        }
+
+        int[] inputIndices = getIndices(neurons, NeuronType.Input);
+        int[] outputIndices = getIndices(neurons, NeuronType.Output);
+        int[] hiddenIndices = getIndices(neurons, NeuronType.Hidden);
+
+        int[] activatableIndices = new int[hiddenIndices.length + outputIndices.length];
+        System.arraycopy(hiddenIndices, 0, activatableIndices, 0, hiddenIndices.length);
+        System.arraycopy(outputIndices, 0, activatableIndices, hiddenIndices.length, outputIndices.length);
+
+        CyclicNeuron[] activatableNeurons = new CyclicNeuron[activatableIndices.length];
+
+        for (int i = 0; i < activatableIndices.length; i++) {
+            activatableNeurons[i] = states[activatableIndices[i]].neuron;
+        }
+
+        // NOTE: connections are bucketed by target (a stable counting sort) in the order that they are enumerated, so
+        //       the sum for each target is accumulated in exactly the same order as it would be when walking the
+        //       connection map directly
+        int connectionCount = connections.count();
+
+        int[] incomingOffsets = new int[neuronCount + 1];
+        int[] sourceIndices = new int[connectionCount];
+        Connection[] connectionArray = new Connection[connectionCount];
+
+        for (ConnectionT connection : connections.values()) {
+            incomingOffsets[neurons.indexOf(connection.targetId) + 1]++;
+        }
+
+        for (int i = 0; i < neuronCount; i++) {
+            incomingOffsets[i + 1] += incomingOffsets[i];
+        }
+
+        int[] nextOffsets = Arrays.copyOf(incomingOffsets, neuronCount);
+
+        for (ConnectionT connection : connections.values()) {
+
+            int offset = nextOffsets[neurons.indexOf(connection.targetId)]++;
+
+            sourceIndices[offset] = neurons.indexOf(connection.sourceId);
+            connectionArray[offset] = connection;
+        }
+
+        // NOTE: if another network already has exactly the same structure, its (immutable) topology is used instead of
+        //       this one, along with any orderings it has already worked out
+        ActivationTopology topology = ActivationTopology.intern(new ActivationTopology(
+                neuronTypes,
+                biasIndex,
+                inputIndices,
+                outputIndices,
+                activatableIndices,
+                incomingOffsets,
+                sourceIndices));
+
+        return new ActivationPlan<>(version, topology, states, activatableNeurons, connectionArray);
+    }
+
+    public int inputCount() {
+        return inputIndices.length;
+    }
+
+    public int outputCount() {
+        return outputIndices.length;
+    }
+
+    // NOTE: this is picked up when the kernels are next refreshed (at the start of the next activation)
+    public void setActivationPrecision(ActivationPrecision activationPrecision) {
+        this.activationPrecision = activationPrecision;
+    }
+
+    public void resetState() {
+
+        for (NeuronState<NeuronT> neuron : states) {
+            neuron.preSynapse = 0.0;
+            neuron.postSynapse = 0.0;
+        }
+
+        incrementalSumsValid = false;
+    }
+
+    public boolean activate(List<List<Double>> inputSets,
+                            double bias,
+                            int maxStepsPerActivation,
+                            ActivationSchedule schedule) {
+
+        // NOTE: weights and enabled flags are public fields on the connections (and activation functions can be changed
+        //       on the neurons), so they can change without the network version changing... they are cheap to refresh
+        //       once per activation though (as opposed to once per step)
+        refresh();
+        loadState();
+
+        if (biasIndex >= 0) {
+            postSynapses[biasIndex] = bias;
+        }
+
+        if (schedule == ActivationSchedule.Incremental) {
+
+            boolean completed = true;
+
+            // NOTE: each input set is settled in turn (rather than being pipelined)
+            for (List<Double> inputs : inputSets) {
+
+                setInputs(postSynapses, inputs);
+
+                if (!activateIncremental(postSynapses, maxStepsPerActivation)) {
+                    completed = false;
+                }
+            }
+
+            storeState();
+
+            return completed;
+        }
+
+        // NOTE: anything else changes the state without keeping the incremental sums up to date
+        incrementalSumsValid = false;
+
+        if (schedule == ActivationSchedule.Components) {
+
+            boolean completed = true;
+
+            // NOTE: each input set is settled in turn (rather than being pipelined)
+            for (List<Double> inputs : inputSets) {
+
+                setInputs(postSynapses, inputs);
+
+                if (!activateComponents(preSynapses, postSynapses, maxStepsPerActivation)) {
+                    completed = false;
+                }
+            }
+
+            storeState();
+
+            return completed;
+        }
+
+        // NOTE: an acyclic network settles at exactly the values a single topologically ordered pass gives, so there's
+        //       no need to iterate (unless it would run out of steps first, or input sets are being pipelined)
+        if ((inputSets.size() == 1) && canSweep(maxStepsPerActivation)) {
+
+            setInputs(postSynapses, inputSets.get(0));
+            sweep(preSynapses, postSynapses);
+
+            storeState();
+
+            return true;
+        }
+
+        // pipeline the input sets...
+        int numSteps = maxStepsPerActivation + (inputSets.size() - 1);
+
+        boolean completed = false;
+
+        for (int step = 0; step < numSteps; step++) {
+
+            if (step < inputSets.size()) {
+                setInputs(postSynapses, inputSets.get(step));
+            }
+
+            if (!step(preSynapses, postSynapses)) {
+                completed = true;
+                break;
+            }
+        }
+
+        storeState();
+
+        return completed;
+    }
+
+    // NOTE: this is the single input set case of the above, without any allocations (or boxing)
+    public boolean activate(double[] inputs, double bias, int maxStepsPerActivation, ActivationSchedule schedule) {
+
+        refresh();
+        loadState();
+
+        boolean completed;
+
+        if (schedule == ActivationSchedule.Incremental) {
+
+            if (biasIndex >= 0) {
+                postSynapses[biasIndex] = bias;
+            }
+
+            setInputs(postSynapses, inputs);
+
+            completed = activateIncremental(postSynapses, maxStepsPerActivation);
+
+        } else {
+
+            incrementalSumsValid = false;
+
+            completed = activate(preSynapses, postSynapses, inputs, bias, maxStepsPerActivation, schedule);
+        }
+
+        storeState();
+
+        return completed;
+    }
+
+    // NOTE: this is the same as the above, but the state is provided by the caller (rather than coming from the
+    //       neurons), and nothing is refreshed (prepare must be called first)... nothing on the plan is modified here,
+    //       so many threads can do this at once (each with their own state), as long as the network isn't changed...
+    //       the incremental schedule needs sums that are kept alongside the state, so that is run synchronously here
+    public boolean activate(double[] preSynapses,
+                            double[] postSynapses,
+                            double[] inputs,
+                            double bias,
+                            int maxStepsPerActivation,
+                            ActivationSchedule schedule) {
+
+        if (biasIndex >= 0) {
+            postSynapses[biasIndex] = bias;
+        }
+
+        setInputs(postSynapses, inputs);
+
+        if (schedule == ActivationSchedule.Components) {
+            return activateComponents(preSynapses, postSynapses, maxStepsPerActivation);
+        }
+
+        if (canSweep(maxStepsPerActivation)) {
+
+            sweep(preSynapses, postSynapses);
+            return true;
+        }
+
+        for (int step = 0; step < maxStepsPerActivation; step++) {
+
+            if (!step(preSynapses, postSynapses)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // NOTE: this brings the weights, kernels and any cached orderings up to date, so that the caller provided state
+    //       version of activate doesn't need to modify the plan
+    public synchronized void prepare(ActivationSchedule schedule) {
+
+        refresh();
+        refreshOrderings();
+
+        if (schedule == ActivationSchedule.Components) {
+            refreshComponents();
+        }
+    }
+
+    public int neuronCount() {
+        return states.length;
+    }
+
+    public void getOutputs(double[] outputs) {
+
+        if (outputs.length != outputIndices.length) {
+            throw new IllegalArgumentException("Output signal array has an incorrect number of outputs");
+        }
+
+        for (int i = 0; i < outputIndices.length; i++) {
+            outputs[i] = states[outputIndices[i]].postSynapse;
+        }
+    }
+
+    public void getOutputs(double[] postSynapses, double[] outputs) {
+
+        if (outputs.length != outputIndices.length) {
+            throw new IllegalArgumentException("Output signal array has an incorrect number of outputs");
+        }
+
+        for (int i = 0; i < outputIndices.length; i++) {
+            outputs[i] = postSynapses[outputIndices[i]];
+        }
+    }
+
+    public List<Double> getOutputs() {
+
+        List<Double> outputs = new ArrayList<>(outputIndices.length);
+
+        for (int outputIndex : outputIndices) {
+            outputs.add(states[outputIndex].postSynapse);
+        }
+
+        return outputs;
+    }
+
+    // NOTE: each input set is evaluated in its own lane, starting from a reset state, and lanes do not share any state
+    //       with each other (or with the network)... lane state is stored neuron major (all of the lanes for a neuron
+    //       are adjacent), so a single pass over the connections updates every lane
+    public double[][] activateLanes(double[][] inputSets, double bias, int maxStepsPerActivation) {
+
+        int laneCount = inputSets.length;
+        int neuronCount = states.length;
+
+        refresh();
+
+        double[] preSynapses = new double[neuronCount * laneCount];
+        double[] postSynapses = new double[neuronCount * laneCount];
+
+        boolean[] laneActive = new boolean[laneCount];
+        boolean[] laneMoreWork = new boolean[laneCount];
+
+        for (int lane = 0; lane < laneCount; lane++) {
+
+            double[] inputs = inputSets[lane];
+
+            if (inputs.length != inputIndices.length) {
+                throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
+            }
+
+            if (biasIndex >= 0) {
+                postSynapses[(biasIndex * laneCount) + lane] = bias;
+            }
+
+            for (int i = 0; i < inputIndices.length; i++) {
+
+                double inputValue = inputs[i];
+
+                if (Double.isNaN(inputValue)) {
+                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                    //       return a status code from this function)... if it fails, then set this to 0.0
+                    inputValue = 0.0;
+                }
+
+                postSynapses[(inputIndices[i] * laneCount) + lane] = inputValue;
+            }
+
+            laneActive[lane] = true;
+        }
+
+        if (canSweep(maxStepsPerActivation)) {
+
+            sweepLanes(laneCount, preSynapses, postSynapses);
+
+            return getLaneOutputs(laneCount, postSynapses);
+        }
+
+        double[] activations = new double[neuronCount * laneCount];
+
+        int activeLaneCount = laneCount;
+
+        for (int step = 0; (step < maxStepsPerActivation) && (activeLaneCount > 0); step++) {
+
+            stepLanes(laneCount, preSynapses, postSynapses, activations, laneActive, laneMoreWork);
+
+            for (int lane = 0; lane < laneCount; lane++) {
+
+                // NOTE: a lane stops as soon as it converges (exactly when a single activation would), it must not
+                //       take any more steps after that point
+                if (laneActive[lane] && !laneMoreWork[lane]) {
+
+                    laneActive[lane] = false;
+                    activeLaneCount--;
+                }
+            }
+        }
+
+        return getLaneOutputs(laneCount, postSynapses);
+    }
+
+    int[] getSweepOrder() {
+
+        refresh();
+        refreshOrderings();
+
+        return orderings.sweepOrder;
+    }
+
+    int getSweepDepth() {
+        return orderings.sweepDepth;
+    }
+
+    private boolean canSweep(int maxStepsPerActivation) {
+
+        refreshOrderings();
+
+        // NOTE: iterating takes depth steps to settle, so if there are fewer steps than that the result would differ
+        return (orderings.sweepOrder != null) && (orderings.sweepDepth < maxStepsPerActivation);
+    }
+
+    private void refreshOrderings() {
+
+        if (!orderingsStale) {
+            return;
+        }
+
+        BitSet activeConnections = new BitSet(weights.length);
+
+        for (int i = 0; i < weights.length; i++) {
+
+            if (weights[i] != 0.0) {
+                activeConnections.set(i);
+            }
+        }
+
+        orderings = topology.getOrderings(activeConnections);
+        orderingsStale = false;
+    }
+
+    private void refreshComponents() {
+
+        refreshOrderings();
+
+        if (componentsStale) {
+
+            components = orderings.getComponents();
+            componentsStale = false;
+        }
+    }
+
+    // NOTE: components are evaluated in condensation order, so everything feeding a component has already settled...
+    //       acyclic components only need evaluating once, and cyclic ones are iterated (synchronously, within the
+    //       component only) until they converge
+    private boolean activateComponents(double[] preSynapses, double[] postSynapses, int maxStepsPerActivation) {
+
+        refreshComponents();
+
+        int[] componentOrder = components.order;
+        int[] componentOffsets = components.offsets;
+        boolean[] componentCyclic = components.cyclic;
+
+        boolean completed = true;
+
+        for (int component = 0; component < componentCyclic.length; component++) {
+
+            int start = componentOffsets[component];
+            int end = componentOffsets[component + 1];
+
+            if (!componentCyclic[component]) {
+
+                int position = componentOrder[start];
+                int neuronIndex = activatableIndices[position];
+
+                double preSynapse = sumIncoming(preSynapses, postSynapses, neuronIndex);
+
+                postSynapses[neuronIndex] = computeActivation(activatableKernels[position], preSynapse);
+                preSynapses[neuronIndex] = 0.0;
+
+                continue;
+            }
+
+            boolean moreWork = true;
+
+            for (int step = 0; (step < maxStepsPerActivation) && moreWork; step++) {
+
+                for (int i = start; i < end; i++) {
+
+                    int neuronIndex = activatableIndices[componentOrder[i]];
+                    preSynapses[neuronIndex] = sumIncoming(preSynapses, postSynapses, neuronIndex);
+                }
+
+                moreWork = false;
+
+                for (int i = start; i < end; i++) {
+
+                    int position = componentOrder[i];
+                    int neuronIndex = activatableIndices[position];
+
+                    double value = computeActivation(activatableKernels[position], preSynapses[neuronIndex]);
+
+                    if (!MathFunctions.fuzzyCompare(value, postSynapses[neuronIndex])) {
+                        moreWork = true;
+                    }
+
+                    postSynapses[neuronIndex] = value;
+                    preSynapses[neuronIndex] = 0.0;
+                }
+            }
+
+            if (moreWork) {
+                completed = false;
+            }
+        }
+
+        return completed;
+    }
+
+    // NOTE: the bias and inputs have already been written to postSynapses, their changes (since the sums were last
+    //       brought up to date) are pushed forwards, and every neuron reached is re-evaluated... a neuron's change is
+    //       only passed on if it's more than the convergence check allows (its sum stays exact either way, so small
+    //       changes still count once they add up)
+    private boolean activateIncremental(double[] postSynapses, int maxStepsPerActivation) {
+
+        ActivationTopology.OutgoingConnections outgoing = topology.getOutgoingConnections();
+
+        if (incrementalSums == null) {
+
+            incrementalSums = new double[states.length];
+            incrementalSources = new double[inputIndices.length + 1];
+
+            incrementalQueue = new int[activatableIndices.length];
+            incrementalQueued = new boolean[states.length];
+        }
+
+        if (++incrementalActivationCount >= INCREMENTAL_REBUILD_INTERVAL) {
+
+            incrementalActivationCount = 0;
+            incrementalSumsValid = false;
+        }
+
+        if (!incrementalSumsValid) {
+
+            rebuildIncrementalSums(postSynapses);
+
+        } else {
+
+            if (biasIndex >= 0) {
+                pushIncrementalSource(outgoing, postSynapses, biasIndex, 0);
+            }
+
+            for (int i = 0; i < inputIndices.length; i++) {
+                pushIncrementalSource(outgoing, postSynapses, inputIndices[i], i + 1);
+            }
+        }
+
+        int remainingEvaluations = Math.max(1, maxStepsPerActivation) * Math.max(1, activatableIndices.length);
+
+        while (incrementalQueueSize > 0) {
+
+            if (remainingEvaluations-- <= 0) {
+                return false;
+            }
+
+            int neuronIndex = incrementalQueue[incrementalQueueHead];
+
+            incrementalQueueHead = (incrementalQueueHead + 1) % incrementalQueue.length;
+            incrementalQueueSize--;
+            incrementalQueued[neuronIndex] = false;
+
+            int position = outgoing.positions[neuronIndex];
+            double value = computeActivation(activatableKernels[position], incrementalSums[neuronIndex]);
+
+            if (MathFunctions.fuzzyCompare(value, postSynapses[neuronIndex])) {
+                continue;
+            }
+
+            double change = value - postSynapses[neuronIndex];
+
+            postSynapses[neuronIndex] = value;
+
+            if (!pushIncrementalChange(outgoing, neuronIndex, change)) {
+
+                // NOTE: infinities/NaNs can't be pushed as changes, so everything is worked out again from scratch
+                rebuildIncrementalSums(postSynapses);
+            }
+        }
+
+        return true;
+    }
+
+    private void pushIncrementalSource(ActivationTopology.OutgoingConnections outgoing,
+                                       double[] postSynapses,
+                                       int neuronIndex,
+                                       int source) {
+
+        double value = postSynapses[neuronIndex];
+        double change = value - incrementalSources[source];
+
+        incrementalSources[source] = value;
+
+        if ((change != 0.0) && !pushIncrementalChange(outgoing, neuronIndex, change)) {
+            rebuildIncrementalSums(postSynapses);
+        }
+    }
+
+    // NOTE: returns false if the change (or any of the sums it reaches) isn't finite
+    private boolean pushIncrementalChange(ActivationTopology.OutgoingConnections outgoing,
+                                          int neuronIndex,
+                                          double change) {
+
+        if (Double.isNaN(change) || Double.isInfinite(change)) {
+            return false;
+        }
+
+        boolean finite = true;
+
+        int end = outgoing.offsets[neuronIndex + 1];
+
+        for (int i = outgoing.offsets[neuronIndex]; i < end; i++) {
+
+            double weight = weights[outgoing.slots[i]];
+
+            if (weight != 0.0) {
+
+                int targetIndex = outgoing.targets[i];
+
+                double sum = incrementalSums[targetIndex] + (change * weight);
+
+                if (Double.isNaN(sum) || Double.isInfinite(sum)) {
+                    finite = false;
+                }
+
+                incrementalSums[targetIndex] = sum;
+
+                enqueueIncremental(targetIndex);
+            }
+        }
+
+        return finite;
+    }
+
+    // NOTE: the sums are worked out from scratch (the same way a synchronous step would), and every neuron is queued
+    //       to be evaluated
+    private void rebuildIncrementalSums(double[] postSynapses) {
+
+        for (int targetIndex = 0; targetIndex < incrementalSums.length; targetIndex++) {
+
+            double sum = 0.0;
+
+            for (int i = incomingOffsets[targetIndex]; i < incomingOffsets[targetIndex + 1]; i++) {
+
+                double weight = weights[i];
+
+                if (weight != 0.0) {
+
+                    sum += postSynapses[sourceIndices[i]] * weight;
+
+                    if (Double.isNaN(sum)) {
+                        sum = 0.0;
+                    }
+                }
+            }
+
+            incrementalSums[targetIndex] = sum;
+        }
+
+        if (biasIndex >= 0) {
+            incrementalSources[0] = postSynapses[biasIndex];
+        }
+
+        for (int i = 0; i < inputIndices.length; i++) {
+            incrementalSources[i + 1] = postSynapses[inputIndices[i]];
+        }
+
+        for (int neuronIndex : activatableIndices) {
+            enqueueIncremental(neuronIndex);
+        }
+
+        incrementalSumsValid = true;
+    }
+
+    private void enqueueIncremental(int neuronIndex) {
+
+        if (incrementalQueued[neuronIndex]) {
+            return;
+        }
+
+        incrementalQueued[neuronIndex] = true;
+
+        incrementalQueue[(incrementalQueueHead + incrementalQueueSize) % incrementalQueue.length] = neuronIndex;
+        incrementalQueueSize++;
+    }
+
+    private void sweep(double[] preSynapses, double[] postSynapses) {
+
+        for (int position : orderings.sweepOrder) {
+
+            int neuronIndex = activatableIndices[position];
+
+            double preSynapse = sumIncoming(preSynapses, postSynapses, neuronIndex);
+
+            postSynapses[neuronIndex] = computeActivation(activatableKernels[position], preSynapse);
+            preSynapses[neuronIndex] = 0.0;
+        }
+    }
+
+    private void sweepLanes(int laneCount, double[] preSynapses, double[] postSynapses) {
+
+        for (int position : orderings.sweepOrder) {
+
+            int targetIndex = activatableIndices[position];
+            int targetOffset = targetIndex * laneCount;
+
+            int end = incomingOffsets[targetIndex + 1];
+
+            for (int i = incomingOffsets[targetIndex]; i < end; i++) {
+
+                double weight = weights[i];
+
+                if (weight != 0.0) {
+
+                    int sourceOffset = sourceIndices[i] * laneCount;
+
+                    for (int lane = 0; lane < laneCount; lane++) {
+
+                        double preSynapse = preSynapses[targetOffset + lane];
+                        preSynapse += postSynapses[sourceOffset + lane] * weight;
+
+                        if (Double.isNaN(preSynapse)) {
+                            preSynapse = 0.0;
+                        }
+
+                        preSynapses[targetOffset + lane] = preSynapse;
+                    }
+                }
+            }
+
+            int targetEnd = targetOffset + laneCount;
+
+            activatableKernels[position].apply(preSynapses, postSynapses, targetOffset, targetEnd);
+
+            for (int i = targetOffset; i < targetEnd; i++) {
+
+                if (Double.isNaN(postSynapses[i])) {
+                    postSynapses[i] = computeFallbackActivation(preSynapses[i]);
+                }
+
+                preSynapses[i] = 0.0;
+            }
+        }
+    }
+
+    private double[][] getLaneOutputs(int laneCount, double[] postSynapses) {
+
+        double[][] outputs = new double[laneCount][outputIndices.length];
+
+        for (int i = 0; i < outputIndices.length; i++) {
+
+            int offset = outputIndices[i] * laneCount;
+
+            for (int lane = 0; lane < laneCount; lane++) {
+                outputs[lane][i] = postSynapses[offset + lane];
+            }
+        }
+
+        return outputs;
+    }
+
+    private void stepLanes(int laneCount,
+                           double[] preSynapses,
+                           double[] postSynapses,
+                           double[] activations,
+                           boolean[] laneActive,
+                           boolean[] laneMoreWork) {
+
+        int[] incomingOffsets = this.incomingOffsets;
+        int[] sourceIndices = this.sourceIndices;
+        double[] weights = this.weights;
+
+        int neuronCount = states.length;
+
+        // update all connection sums (for every lane at once, inactive lanes are just ignored later)
+        for (int targetIndex = 0; targetIndex < neuronCount; targetIndex++) {
+
+            int targetOffset = targetIndex * laneCount;
+            int end = incomingOffsets[targetIndex + 1];
+
+            for (int i = incomingOffsets[targetIndex]; i < end; i++) {
+
+                double weight = weights[i];
+
+                if (weight != 0.0) {
+
+                    int sourceOffset = sourceIndices[i] * laneCount;
+
+                    for (int lane = 0; lane < laneCount; lane++) {
+
+                        double preSynapse = preSynapses[targetOffset + lane];
+                        preSynapse += postSynapses[sourceOffset + lane] * weight;
+
+                        if (Double.isNaN(preSynapse)) {
+                            preSynapse = 0.0;
+                        }
+
+                        preSynapses[targetOffset + lane] = preSynapse;
+                    }
+                }
+            }
+        }
+
+        for (int lane = 0; lane < laneCount; lane++) {
+            laneMoreWork[lane] = false;
+        }
+
+        // propagate inputs through each hidden and output neuron's activation function
+        for (int i = 0; i < activatableIndices.length; i++) {
+
+            int neuronOffset = activatableIndices[i] * laneCount;
+
+            // NOTE: every lane is computed in bulk (it's cheaper than skipping the inactive ones individually)
+            activatableKernels[i].apply(preSynapses, activations, neuronOffset, neuronOffset + laneCount);
+
+            for (int lane = 0; lane < laneCount; lane++) {
+
+                int index = neuronOffset + lane;
+
+                if (laneActive[lane]) {
+
+                    double value = activations[index];
+
+                    if (Double.isNaN(value)) {
+                        value = computeFallbackActivation(preSynapses[index]);
+                    }
+
+                    if (!MathFunctions.fuzzyCompare(value, postSynapses[index])) {
+                        laneMoreWork[lane] = true;
+                    }
+
+                    postSynapses[index] = value;
+                }
+
+                preSynapses[index] = 0.0;
+            }
+        }
+    }
+
+    private boolean step(double[] preSynapses, double[] postSynapses) {
+
+        // update all connection sums
+        for (int targetIndex = 0; targetIndex < preSynapses.length; targetIndex++) {
+            preSynapses[targetIndex] = sumIncoming(preSynapses, postSynapses, targetIndex);
+        }
+
+        boolean moreWork = false;
+
+        // propagate inputs through each hidden and output neuron's activation function
+        for (int i = 0; i < activatableIndices.length; i++) {
+
+            int neuronIndex = activatableIndices[i];
+            double value = computeActivation(activatableKernels[i], preSynapses[neuronIndex]);
+
+            // NOTE: this may only help for very simple networks...
+            if (!MathFunctions.fuzzyCompare(value, postSynapses[neuronIndex])) {
+                moreWork = true;
+            }
+
+            postSynapses[neuronIndex] = value;
+            preSynapses[neuronIndex] = 0.0;
+        }
+
+        return moreWork;
+    }
+
+    private double sumIncoming(double[] preSynapses, double[] postSynapses, int targetIndex) {
+
+        double[] weights = this.weights;
+
+        int end = incomingOffsets[targetIndex + 1];
+
+        double preSynapse = preSynapses[targetIndex];
+
+        for (int i = incomingOffsets[targetIndex]; i < end; i++) {
+
+            double weight = weights[i];
+
+            if (weight != 0.0) {
+
+                preSynapse += postSynapses[sourceIndices[i]] * weight;
+
+                if (Double.isNaN(preSynapse)) {
+                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                    //       return a status code from this function)... it should be given
+                    //       "sourceNeuron.postSynapse" and "connection.weight" (so it can decide what to do
+                    //       based on input values being infinite/NaN/etc... if it fails, then set this to 0.0
+                    preSynapse = 0.0;
+                }
+            }
+        }
+
+        return preSynapse;
+    }
+
+    private void setInputs(double[] postSynapses, List<Double> inputs) {
+
+        if (inputs.size() != inputIndices.length) {
+            throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
+        }
+
+        for (int i = 0; i < inputIndices.length; i++) {
+            setInput(postSynapses, i, inputs.get(i));
+        }
+    }
+
+    private void setInputs(double[] postSynapses, double[] inputs) {
+
+        if (inputs.length != inputIndices.length) {
+            throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
+        }
+
+        for (int i = 0; i < inputIndices.length; i++) {
+            setInput(postSynapses, i, inputs[i]);
+        }
+    }
+
+    private void setInput(double[] postSynapses, int input, double inputValue) {
+
+        if (Double.isNaN(inputValue)) {
+            // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+            //       return a status code from this function)... if it fails, then set this to 0.0
+            inputValue = 0.0;
+        }
+
+        postSynapses[inputIndices[input]] = inputValue;
+    }
+
+    private void refresh() {
+
+        // NOTE: only changes are written, so refreshing doesn't disturb any other threads that are activating
+        for (int i = 0; i < activatableNeurons.length; i++) {
+
+            ActivationKernel kernel = activatableNeurons[i].getActivationKernel(activationPrecision);
+
+            if (activatableKernels[i] != kernel) {
+
+                activatableKernels[i] = kernel;
+                incrementalSumsValid = false;
+            }
+        }
+
+        for (int i = 0; i < connections.length; i++) {
+
+            Connection connection = connections[i];
+
+            // NOTE: a disabled connection is treated the same as a zero weight one (both are skipped)
+            double weight = connection.isEnabled() ? connection.getWeight() : 0.0;
+
+            if (weights[i] != weight) {
+
+                if ((weight != 0.0) != (weights[i] != 0.0)) {
+                    orderingsStale = true;
+                    componentsStale = true;
+                }
+
+                weights[i] = weight;
+                incrementalSumsValid = false;
+            }
+        }
+    }
+
+    private void loadState() {
+
+        for (int i = 0; i < states.length; i++) {
+
+            NeuronState<NeuronT> neuron = states[i];
+
+            preSynapses[i] = neuron.preSynapse;
+            postSynapses[i] = neuron.postSynapse;
+        }
+    }
+
+    private void storeState() {
+
+        for (int i = 0; i < states.length; i++) {
+
+            NeuronState<NeuronT> neuron = states[i];
+
+            neuron.preSynapse = preSynapses[i];
+            neuron.postSynapse = postSynapses[i];
+        }
+    }
+
+    static double computeActivation(ActivationKernel kernel, double preSynapse) {
+
+        double value = kernel.apply(preSynapse);
+
+        if (Double.isNaN(value)) {
+            value = computeFallbackActivation(preSynapse);
+        }
+
+        return value;
+    }
+
+    static double computeFallbackActivation(double preSynapse) {
+
+        // NOTE: sigmoid shouldn't produce NaN, so fallback to this one for now...
+        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and return a
+        //       status code from this function)... if it fails, then try this
+        return KnownActivationFunctions.SIGMOID_KERNEL.apply(preSynapse);
+    }
+
+    private static <NeuronT extends CyclicNeuron> int[] getIndices(NeuronMap<NeuronT> neurons, NeuronType type) {
+
+        int[] indices = new int[neurons.count(type)];
+
+        int index = 0;
+
+        for (NeuronState<NeuronT> neuron : neurons.values(type)) {
+            indices[index++] = neurons.indexOf(neuron.neuron.id);
+        }
+
+        return indices;
+    }
+}
@@ -0,0 +1,13 @@
+package matgr.ai.neuralnet.cyclic;
+
+// NOTE: Synchronous steps every hidden and output neuron together until nothing changes (with input sets pipelined one
+//       per step), Components settles each strongly connected component in turn (only iterating inside components
+//       that actually contain a cycle, with each input set settled before the next one is applied), Incremental keeps
+//       the weighted input sum of every neuron between activations and only pushes changes forwards (so the cost of an
+//       activation depends on how much the inputs changed, rather than on the size of the network)... it settles to
+//       the same values as the others when they converge (to within the convergence check), one input set at a time
+public enum ActivationSchedule {
+    Synchronous,
+    Components,
+    Incremental
+}
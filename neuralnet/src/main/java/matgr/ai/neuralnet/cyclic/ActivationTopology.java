@@ -0,0 +1,488 @@
+package matgr.ai.neuralnet.cyclic;
+
+import matgr.ai.neuralnet.NeuronType;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// NOTE: this is the structural part of an activation plan (the neuron layout and the CSR connection layout), which is
+//       immutable and is interned, so every network with exactly the same structure shares one copy of it (along with
+//       the orderings derived from it)... the weights, kernels and state stay on each network's own plan
+final class ActivationTopology {
+
+    private static final int MAX_CACHED_ORDERINGS = 8;
+
+    // NOTE: a canonicalizing map, topologies are dropped from it once no plan is using them any more
+    private static final Map<ActivationTopology, WeakReference<ActivationTopology>> internTable = new WeakHashMap<>();
+
+    final NeuronType[] neuronTypes;
+
+    final int biasIndex;
+    final int[] inputIndices;
+    final int[] outputIndices;
+    final int[] activatableIndices;
+
+    final int[] incomingOffsets;
+    final int[] sourceIndices;
+
+    private final int hash;
+
+    // NOTE: the orderings depend on which connections are active (enabled, with a non-zero weight), so they're cached
+    //       by the set of active connections (most networks sharing a topology have all of them active)
+    private final Map<BitSet, Orderings> orderings;
+
+    private OutgoingConnections outgoingConnections;
+
+    ActivationTopology(NeuronType[] neuronTypes,
+                       int biasIndex,
+                       int[] inputIndices,
+                       int[] outputIndices,
+                       int[] activatableIndices,
+                       int[] incomingOffsets,
+                       int[] sourceIndices) {
+
+        this.neuronTypes = neuronTypes;
+
+        this.biasIndex = biasIndex;
+        this.inputIndices = inputIndices;
+        this.outputIndices = outputIndices;
+        this.activatableIndices = activatableIndices;
+
+        this.incomingOffsets = incomingOffsets;
+        this.sourceIndices = sourceIndices;
+
+        int hash = Arrays.hashCode(neuronTypes);
+        hash = (31 * hash) + Arrays.hashCode(incomingOffsets);
+        hash = (31 * hash) + Arrays.hashCode(sourceIndices);
+
+        this.hash = hash;
+
+        this.orderings = new LinkedHashMap<BitSet, Orderings>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BitSet, Orderings> eldest) {
+                return size() > MAX_CACHED_ORDERINGS;
+            }
+        };
+    }
+
+    // NOTE: returns the shared topology that is structurally equal to this one (or this one, if it's the first)
+    static ActivationTopology intern(ActivationTopology topology) {
+
+        synchronized (internTable) {
+
+            WeakReference<ActivationTopology> existingReference = internTable.get(topology);
+
+            if (existingReference != null) {
+
+                ActivationTopology existing = existingReference.get();
+
+                if (existing != null) {
+                    return existing;
+                }
+            }
+
+            internTable.put(topology, new WeakReference<>(topology));
+
+            return topology;
+        }
+    }
+
+    int neuronCount() {
+        return neuronTypes.length;
+    }
+
+    int connectionCount() {
+        return sourceIndices.length;
+    }
+
+    synchronized Orderings getOrderings(BitSet activeConnections) {
+
+        Orderings cached = orderings.get(activeConnections);
+
+        if (cached == null) {
+
+            cached = new Orderings(getActiveGraph(activeConnections));
+            orderings.put((BitSet) activeConnections.clone(), cached);
+        }
+
+        return cached;
+    }
+
+    synchronized OutgoingConnections getOutgoingConnections() {
+
+        if (outgoingConnections == null) {
+            outgoingConnections = new OutgoingConnections(this);
+        }
+
+        return outgoingConnections;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof ActivationTopology)) {
+            return false;
+        }
+
+        ActivationTopology other = (ActivationTopology) obj;
+
+        return (hash == other.hash)
+                && Arrays.equals(neuronTypes, other.neuronTypes)
+                && Arrays.equals(incomingOffsets, other.incomingOffsets)
+                && Arrays.equals(sourceIndices, other.sourceIndices);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // NOTE: the active connections between activatable neurons, as an outgoing adjacency list (CSR style) indexed by
+    //       position in activatableIndices (inputs and the bias are always ready, so they're left out)
+    private ActiveGraph getActiveGraph(BitSet activeConnections) {
+
+        int neuronCount = neuronTypes.length;
+        int activatableCount = activatableIndices.length;
+
+        int[] positions = new int[neuronCount];
+        Arrays.fill(positions, -1);
+
+        for (int i = 0; i < activatableCount; i++) {
+            positions[activatableIndices[i]] = i;
+        }
+
+        int[] outgoingOffsets = new int[activatableCount + 1];
+
+        for (int i = 0; i < activatableCount; i++) {
+
+            int targetIndex = activatableIndices[i];
+            int end = incomingOffsets[targetIndex + 1];
+
+            for (int j = incomingOffsets[targetIndex]; j < end; j++) {
+
+                int sourcePosition = positions[sourceIndices[j]];
+
+                if (activeConnections.get(j) && (sourcePosition >= 0)) {
+                    outgoingOffsets[sourcePosition + 1]++;
+                }
+            }
+        }
+
+        for (int i = 0; i < activatableCount; i++) {
+            outgoingOffsets[i + 1] += outgoingOffsets[i];
+        }
+
+        int[] outgoingTargets = new int[outgoingOffsets[activatableCount]];
+        int[] nextOffsets = Arrays.copyOf(outgoingOffsets, activatableCount);
+
+        for (int i = 0; i < activatableCount; i++) {
+
+            int targetIndex = activatableIndices[i];
+            int end = incomingOffsets[targetIndex + 1];
+
+            for (int j = incomingOffsets[targetIndex]; j < end; j++) {
+
+                int sourcePosition = positions[sourceIndices[j]];
+
+                if (activeConnections.get(j) && (sourcePosition >= 0)) {
+                    outgoingTargets[nextOffsets[sourcePosition]++] = i;
+                }
+            }
+        }
+
+        return new ActiveGraph(outgoingOffsets, outgoingTargets);
+    }
+
+    // NOTE: when the active connections form an acyclic graph, sweepOrder is a topological ordering of the activatable
+    //       neurons (as positions in activatableIndices), otherwise it is null... the strongly connected components are
+    //       only worked out if they're asked for (they're only needed by the components schedule)
+    static class Orderings {
+
+        final int[] sweepOrder;
+        final int sweepDepth;
+
+        private final ActiveGraph graph;
+        private Components components;
+
+        private Orderings(ActiveGraph graph) {
+
+            this.graph = graph;
+
+            int activatableCount = graph.outgoingOffsets.length - 1;
+
+            int[] outgoingOffsets = graph.outgoingOffsets;
+            int[] outgoingTargets = graph.outgoingTargets;
+
+            int[] pendingCounts = new int[activatableCount];
+
+            for (int targetPosition : outgoingTargets) {
+                pendingCounts[targetPosition]++;
+            }
+
+            // Kahn's algorithm (the order array doubles as the queue), tracking the longest path to each neuron
+            int[] order = new int[activatableCount];
+            int[] depths = new int[activatableCount];
+
+            int tail = 0;
+
+            for (int i = 0; i < activatableCount; i++) {
+
+                if (pendingCounts[i] == 0) {
+
+                    depths[i] = 1;
+                    order[tail++] = i;
+                }
+            }
+
+            int depth = 0;
+
+            for (int head = 0; head < tail; head++) {
+
+                int position = order[head];
+                depth = Math.max(depth, depths[position]);
+
+                for (int j = outgoingOffsets[position]; j < outgoingOffsets[position + 1]; j++) {
+
+                    int targetPosition = outgoingTargets[j];
+                    depths[targetPosition] = Math.max(depths[targetPosition], depths[position] + 1);
+
+                    if (--pendingCounts[targetPosition] == 0) {
+                        order[tail++] = targetPosition;
+                    }
+                }
+            }
+
+            if (tail < activatableCount) {
+
+                // there's a cycle
+                this.sweepOrder = null;
+                this.sweepDepth = 0;
+
+            } else {
+
+                this.sweepOrder = order;
+                this.sweepDepth = depth;
+            }
+        }
+
+        synchronized Components getComponents() {
+
+            if (components == null) {
+                components = new Components(graph);
+            }
+
+            return components;
+        }
+    }
+
+    // NOTE: the strongly connected components of the active connections, in condensation (topological) order... each
+    //       component is a range of order (positions in activatableIndices)
+    static class Components {
+
+        final int[] order;
+        final int[] offsets;
+        final boolean[] cyclic;
+
+        // NOTE: Tarjan's algorithm (done iteratively, since component chains can be long)... it finds components in
+        //       reverse topological order, so they are written from the back of the order array
+        private Components(ActiveGraph graph) {
+
+            int[] outgoingOffsets = graph.outgoingOffsets;
+            int[] outgoingTargets = graph.outgoingTargets;
+
+            int activatableCount = outgoingOffsets.length - 1;
+
+            int[] visitIndices = new int[activatableCount];
+            int[] lowLinks = new int[activatableCount];
+            boolean[] onStack = new boolean[activatableCount];
+
+            Arrays.fill(visitIndices, -1);
+
+            int[] stack = new int[activatableCount];
+            int stackSize = 0;
+
+            int[] callStack = new int[activatableCount];
+            int[] callEdges = new int[activatableCount];
+            int callStackSize = 0;
+
+            int[] order = new int[activatableCount];
+            int orderStart = activatableCount;
+
+            List<Integer> reversedOffsets = new ArrayList<>();
+            List<Boolean> reversedCyclic = new ArrayList<>();
+
+            int nextVisitIndex = 0;
+
+            for (int root = 0; root < activatableCount; root++) {
+
+                if (visitIndices[root] >= 0) {
+                    continue;
+                }
+
+                visitIndices[root] = lowLinks[root] = nextVisitIndex++;
+                stack[stackSize++] = root;
+                onStack[root] = true;
+
+                callStack[callStackSize] = root;
+                callEdges[callStackSize] = outgoingOffsets[root];
+                callStackSize++;
+
+                while (callStackSize > 0) {
+
+                    int position = callStack[callStackSize - 1];
+                    int edge = callEdges[callStackSize - 1];
+
+                    if (edge < outgoingOffsets[position + 1]) {
+
+                        callEdges[callStackSize - 1]++;
+
+                        int targetPosition = outgoingTargets[edge];
+
+                        if (visitIndices[targetPosition] < 0) {
+
+                            visitIndices[targetPosition] = lowLinks[targetPosition] = nextVisitIndex++;
+                            stack[stackSize++] = targetPosition;
+                            onStack[targetPosition] = true;
+
+                            callStack[callStackSize] = targetPosition;
+                            callEdges[callStackSize] = outgoingOffsets[targetPosition];
+                            callStackSize++;
+
+                        } else if (onStack[targetPosition]) {
+
+                            lowLinks[position] = Math.min(lowLinks[position], visitIndices[targetPosition]);
+                        }
+
+                        continue;
+                    }
+
+                    callStackSize--;
+
+                    if (callStackSize > 0) {
+
+                        int parent = callStack[callStackSize - 1];
+                        lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[position]);
+                    }
+
+                    if (lowLinks[position] == visitIndices[position]) {
+
+                        // position is the root of a component, pop it (and everything above it) off the stack
+                        int componentEnd = orderStart;
+                        int member;
+
+                        do {
+
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+
+                            order[--orderStart] = member;
+
+                        } while (member != position);
+
+                        boolean cyclic = (componentEnd - orderStart) > 1;
+
+                        if (!cyclic) {
+
+                            for (int i = outgoingOffsets[position]; i < outgoingOffsets[position + 1]; i++) {
+
+                                if (outgoingTargets[i] == position) {
+                                    cyclic = true;
+                                }
+                            }
+                        }
+
+                        reversedOffsets.add(orderStart);
+                        reversedCyclic.add(cyclic);
+                    }
+                }
+            }
+
+            int componentCount = reversedOffsets.size();
+
+            this.order = order;
+            this.offsets = new int[componentCount + 1];
+            this.cyclic = new boolean[componentCount];
+
+            for (int i = 0; i < componentCount; i++) {
+
+                this.offsets[i] = reversedOffsets.get(componentCount - i - 1);
+                this.cyclic[i] = reversedCyclic.get(componentCount - i - 1);
+            }
+
+            this.offsets[componentCount] = activatableCount;
+        }
+    }
+
+    // NOTE: the connections leaving each neuron (as slots in the CSR arrays, with the target of each slot), so changes
+    //       can be pushed forwards through the network... positions maps each neuron to its position in
+    //       activatableIndices (or -1 for inputs and the bias)
+    static class OutgoingConnections {
+
+        final int[] offsets;
+        final int[] slots;
+        final int[] targets;
+        final int[] positions;
+
+        private OutgoingConnections(ActivationTopology topology) {
+
+            int neuronCount = topology.neuronTypes.length;
+            int connectionCount = topology.sourceIndices.length;
+
+            int[] incomingOffsets = topology.incomingOffsets;
+            int[] sourceIndices = topology.sourceIndices;
+
+            this.offsets = new int[neuronCount + 1];
+            this.slots = new int[connectionCount];
+            this.targets = new int[connectionCount];
+            this.positions = new int[neuronCount];
+
+            Arrays.fill(positions, -1);
+
+            for (int i = 0; i < topology.activatableIndices.length; i++) {
+                positions[topology.activatableIndices[i]] = i;
+            }
+
+            for (int slot = 0; slot < connectionCount; slot++) {
+                offsets[sourceIndices[slot] + 1]++;
+            }
+
+            for (int i = 0; i < neuronCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            int[] nextOffsets = Arrays.copyOf(offsets, neuronCount);
+
+            for (int targetIndex = 0; targetIndex < neuronCount; targetIndex++) {
+
+                for (int slot = incomingOffsets[targetIndex]; slot < incomingOffsets[targetIndex + 1]; slot++) {
+
+                    int offset = nextOffsets[sourceIndices[slot]]++;
+
+                    slots[offset] = slot;
+                    targets[offset] = targetIndex;
+                }
+            }
+        }
+    }
+
+    private static class ActiveGraph {
+
+        public final int[] outgoingOffsets;
+        public final int[] outgoingTargets;
+
+        public ActiveGraph(int[] outgoingOffsets, int[] outgoingTargets) {
+            this.outgoingOffsets = outgoingOffsets;
+            this.outgoingTargets = outgoingTargets;
+        }
+    }
+}
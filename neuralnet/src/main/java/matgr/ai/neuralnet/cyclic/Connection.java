@@ -5,8 +5,8 @@ public class Connection {
     public final long sourceId;
     public final long targetId;
 
-    public boolean enabled;
-    public double weight;
+    private boolean enabled;
+    private double weight;
 
     public Connection(long sourceId, long targetId, boolean enabled, double weight) {
 
@@ -17,6 +17,24 @@ public class Connection {
         this.weight = weight;
     }
 
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    // NOTE: connections may be shared between clones of a network (copy-on-write), so these are only used by the
+    //       network once it has claimed the connection (see CyclicNeuralNet.setConnectionWeight/setConnectionEnabled)
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void setWeight(double weight) {
+        this.weight = weight;
+    }
+
     public static <ConnectionT extends Connection> ConnectionT deepClone(ConnectionT connection) {
 
         @SuppressWarnings("unchecked")
@@ -1,138 +1,222 @@
 package matgr.ai.neuralnet.cyclic;
 
-import matgr.ai.common.NestedIterator;
+import matgr.ai.common.LongHashMap;
+import matgr.ai.common.SelectIterable;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+// NOTE: the tables (and the incoming/outgoing lists and connections in them) can be shared with copies of this map,
+//       they are copied the first time they are written to... connections are mutable, so they are also copied the
+//       first time they are claimed (anything handed out for modification has to be claimed first, anything read is
+//       handed out as it is, and must not be modified)
 class ConnectionMap<ConnectionT extends Connection> {
 
-    private final Map<Long, Map<Long, ConnectionT>> connections;
+    private static final long MAX_NEURON_ID = 0xffffffffL;
 
-    private final Map<Long, List<ConnectionT>> incomingConnections;
-    private final Map<Long, List<ConnectionT>> outgoingConnections;
+    // NOTE: entries (and lists) created (or claimed) by this map are tagged with this, anything else may still be
+    //       shared
+    private Object owner;
 
-    private int connectionCount;
+    // NOTE: set when a copy of this map is made, this is the only thing a copy writes to the map it copies (so a map
+    //       can be copied while it's being read)... the map stops owning anything the next time it writes
+    private volatile boolean copied;
+
+    private boolean tablesShared;
+    private boolean allClaimed;
+
+    private int claimCount;
+
+    private LongHashMap<ConnectionEntry<ConnectionT>> connections;
+
+    private LongHashMap<ConnectionList<ConnectionT>> incomingConnections;
+    private LongHashMap<ConnectionList<ConnectionT>> outgoingConnections;
 
     public ConnectionMap() {
 
-        connectionCount = 0;
+        owner = new Object();
+
+        tablesShared = false;
+        allClaimed = true;
+
+        connections = new LongHashMap<>();
+        incomingConnections = new LongHashMap<>();
+        outgoingConnections = new LongHashMap<>();
+    }
+
+    // NOTE: this is O(1), everything is shared until one of the maps writes to it... the other map is only marked as
+    //       copied, so this can happen at the same time as reads on it (but not writes)
+    public ConnectionMap(ConnectionMap<ConnectionT> other) {
+
+        other.copied = true;
+
+        owner = new Object();
+
+        tablesShared = true;
+        allClaimed = false;
 
-        connections = new HashMap<>();
-        incomingConnections = new HashMap<>();
-        outgoingConnections = new HashMap<>();
+        connections = other.connections;
+        incomingConnections = other.incomingConnections;
+        outgoingConnections = other.outgoingConnections;
     }
 
+    // NOTE: the connections returned from here may be shared, so they must not be modified (see claimAll)
     public Iterable<ConnectionT> values() {
-        return new ConnectionMapIterable(connections);
+        return new SelectIterable<>(connections.values(), e -> e.connection);
     }
 
     public Set<Long> sourceIds() {
-        return connections.keySet();
+        return outgoingConnections.keySet();
     }
 
     public Set<Long> targetIds(long sourceId) {
-        Map<Long, ConnectionT> targetMap = connections.get(sourceId);
 
-        if (targetMap == null) {
-            return new HashSet<>();
+        ConnectionList<ConnectionT> outgoing = outgoingConnections.get(sourceId);
+
+        if (outgoing == null) {
+            return Collections.emptySet();
         }
 
-        return targetMap.keySet();
+        return new TargetIdSet(sourceId, outgoing);
     }
 
     public boolean isConnected(long sourceId, long targetId) {
-
-        Map<Long, ConnectionT> targetConnectionMap = connections.get(sourceId);
-
-        if (targetConnectionMap != null) {
-
-            ConnectionT connection = targetConnectionMap.get(targetId);
-
-            if (connection != null) {
-                return true;
-            }
-        }
-
-        return false;
+        return getEntry(sourceId, targetId) != null;
     }
 
+    // NOTE: the connection returned from here may be shared, so it must not be modified (see claimConnection)
     public ConnectionT getConnection(long sourceId, long targetId) {
 
-        Map<Long, ConnectionT> targetConnectionMap = connections.get(sourceId);
+        ConnectionEntry<ConnectionT> entry = getEntry(sourceId, targetId);
 
-        if (targetConnectionMap != null) {
-
-            return targetConnectionMap.get(targetId);
+        if (entry != null) {
+            return entry.connection;
         }
 
         return null;
     }
 
     public int count() {
-        return connectionCount;
+        return connections.size();
     }
 
     public int getIncomingConnectionCount(long neuronId) {
 
-        int count = 0;
+        ConnectionList<ConnectionT> incoming = incomingConnections.get(neuronId);
 
-        List<ConnectionT> incoming = incomingConnections.get(neuronId);
         if (incoming != null) {
-            count += incoming.size();
+            return incoming.size;
         }
 
-        return count;
+        return 0;
     }
 
     public int getOutgoingConnectionCount(long neuronId) {
 
-        int count = 0;
+        ConnectionList<ConnectionT> outgoing = outgoingConnections.get(neuronId);
 
-        List<ConnectionT> outgoing = outgoingConnections.get(neuronId);
         if (outgoing != null) {
-            count += outgoing.size();
+            return outgoing.size;
         }
 
-        return count;
+        return 0;
     }
 
+    // NOTE: the connections returned from here may be shared, so they must not be modified (see claimConnection)
     public List<ConnectionT> getIncomingConnections(long neuronId) {
 
-        List<ConnectionT> incoming = incomingConnections.get(neuronId);
+        ConnectionList<ConnectionT> incoming = incomingConnections.get(neuronId);
 
         if (incoming == null) {
-            incoming = new ArrayList<>();
+            return Collections.emptyList();
         }
 
-        return Collections.unmodifiableList(incoming);
+        return new ConnectionListView<>(incoming);
     }
 
+    // NOTE: the connections returned from here may be shared, so they must not be modified (see claimConnection)
     public List<ConnectionT> getOutgoingConnections(long neuronId) {
 
-        List<ConnectionT> outgoing = outgoingConnections.get(neuronId);
+        ConnectionList<ConnectionT> outgoing = outgoingConnections.get(neuronId);
 
         if (outgoing == null) {
-            outgoing = new ArrayList<>();
+            return Collections.emptyList();
+        }
+
+        return new ConnectionListView<>(outgoing);
+    }
+
+    // NOTE: the number of times a shared connection has been replaced by a copy, anything holding on to connections
+    //       from this map (e.g. an activation plan) is out of date when this changes
+    public int claimCount() {
+        return claimCount;
+    }
+
+    // NOTE: this makes sure the connection belongs only to this map (copying it if it's shared), so it can be modified
+    public ConnectionT claimConnection(long sourceId, long targetId) {
+
+        ConnectionEntry<ConnectionT> entry = getEntry(sourceId, targetId);
+
+        if (entry == null) {
+            return null;
+        }
+
+        detachIfCopied();
+
+        return claim(entry).connection;
+    }
+
+    public void claimAll() {
+
+        detachIfCopied();
+
+        if (allClaimed) {
+            return;
+        }
+
+        ensureTablesOwned();
+
+        // NOTE: replacing the value of an existing key doesn't disturb the iteration
+        for (ConnectionEntry<ConnectionT> entry : connections.values()) {
+
+            if (entry.owner != owner) {
+
+                ConnectionT connection = entry.connection;
+
+                connections.put(
+                        connectionKey(connection.sourceId, connection.targetId),
+                        new ConnectionEntry<>(owner, Connection.deepClone(connection)));
+
+                claimCount++;
+            }
         }
 
-        return Collections.unmodifiableList(outgoing);
+        // NOTE: the lists are brought up to date in bulk, rather than searching them for each connection
+        claimLists(incomingConnections, true);
+        claimLists(outgoingConnections, false);
+
+        allClaimed = true;
     }
 
     public void addConnection(ConnectionT connection) {
 
-        Map<Long, ConnectionT> targetMap = connections.computeIfAbsent(connection.sourceId, k -> new HashMap<>());
+        if (!isValidNeuronId(connection.sourceId) || !isValidNeuronId(connection.targetId)) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "The connection %s-->%s has a neuron id out of the supported range",
+                            connection.sourceId,
+                            connection.targetId));
+        }
 
-        ConnectionT existing = targetMap.get(connection.targetId);
+        long key = connectionKey(connection.sourceId, connection.targetId);
 
-        if (existing != null) {
+        if (connections.containsKey(key)) {
             throw new IllegalStateException(
                     String.format(
                             "The connection %s-->%s is already present",
@@ -140,75 +224,331 @@ class ConnectionMap<ConnectionT extends Connection> {
                             connection.targetId));
         }
 
-        List<ConnectionT> incoming = incomingConnections.computeIfAbsent(connection.targetId, k -> new ArrayList<>());
-        List<ConnectionT> outgoing = outgoingConnections.computeIfAbsent(connection.sourceId, k -> new ArrayList<>());
+        detachIfCopied();
+        ensureTablesOwned();
 
-        targetMap.put(connection.targetId, connection);
+        ConnectionList<ConnectionT> incoming = claimList(incomingConnections, connection.targetId, true, true);
+        ConnectionList<ConnectionT> outgoing = claimList(outgoingConnections, connection.sourceId, false, true);
 
-        incoming.add(connection);
-        outgoing.add(connection);
+        ConnectionEntry<ConnectionT> entry = new ConnectionEntry<>(owner, connection);
 
-        connectionCount++;
+        connections.put(key, entry);
+
+        incoming.add(entry);
+        outgoing.add(entry);
     }
 
     public boolean removeConnection(ConnectionT connection) {
 
-        Map<Long, ConnectionT> targetMap = connections.get(connection.sourceId);
+        ConnectionEntry<ConnectionT> entry = getEntry(connection.sourceId, connection.targetId);
+
+        if (entry == null) {
+            return false;
+        }
+
+        detachIfCopied();
+        ensureTablesOwned();
+
+        connections.remove(connectionKey(connection.sourceId, connection.targetId));
+
+        ConnectionList<ConnectionT> incoming = claimList(incomingConnections, connection.targetId, true, false);
+        removeFromList(incoming, entry);
+
+        if (incoming.size < 1) {
+            incomingConnections.remove(connection.targetId);
+        }
+
+        ConnectionList<ConnectionT> outgoing = claimList(outgoingConnections, connection.sourceId, false, false);
+        removeFromList(outgoing, entry);
+
+        if (outgoing.size < 1) {
+            outgoingConnections.remove(connection.sourceId);
+        }
+
+        return true;
+    }
+
+    // NOTE: once copied, everything this map has is shared with the copy
+    private void detachIfCopied() {
+
+        if (!copied) {
+            return;
+        }
+
+        copied = false;
+
+        owner = new Object();
+
+        tablesShared = true;
+        allClaimed = false;
+    }
+
+    private ConnectionEntry<ConnectionT> getEntry(long sourceId, long targetId) {
+
+        if (!isValidNeuronId(sourceId) || !isValidNeuronId(targetId)) {
+            return null;
+        }
+
+        return connections.get(connectionKey(sourceId, targetId));
+    }
+
+    private ConnectionEntry<ConnectionT> claim(ConnectionEntry<ConnectionT> entry) {
+
+        if (entry.owner == owner) {
+            return entry;
+        }
+
+        ensureTablesOwned();
+
+        ConnectionT connection = entry.connection;
+        ConnectionEntry<ConnectionT> claimed = new ConnectionEntry<>(owner, Connection.deepClone(connection));
+
+        // NOTE: copied lists keep the order of the lists they were copied from, so the slots are still right
+        claimed.incomingSlot = entry.incomingSlot;
+        claimed.outgoingSlot = entry.outgoingSlot;
+
+        connections.put(connectionKey(connection.sourceId, connection.targetId), claimed);
+
+        claimList(incomingConnections, connection.targetId, true, false).replace(entry, claimed);
+        claimList(outgoingConnections, connection.sourceId, false, false).replace(entry, claimed);
+
+        claimCount++;
+
+        return claimed;
+    }
+
+    // NOTE: the list must already be owned
+    private void removeFromList(ConnectionList<ConnectionT> list, ConnectionEntry<ConnectionT> entry) {
 
-        if (targetMap != null) {
+        int index = list.slotOf(entry);
 
-            connection = targetMap.get(connection.targetId);
+        // swap the last entry into the removed slot
+        int last = list.size - 1;
 
-            if (connection != null) {
+        if (index != last) {
 
-                targetMap.remove(connection.targetId);
+            ConnectionEntry<ConnectionT> moved = list.entries[last];
 
-                if (targetMap.size() < 1) {
-                    connections.remove(connection.sourceId);
-                }
+            // NOTE: the slots of a shared entry belong to the maps it's shared with, so it's claimed before it moves
+            moved = claim(moved);
 
-                ConnectionT conn = connection;
+            list.entries[index] = moved;
+            list.setSlot(moved, index);
+        }
+
+        list.entries[last] = null;
+        list.size = last;
+    }
+
+    private void claimLists(LongHashMap<ConnectionList<ConnectionT>> lists, boolean incoming) {
+
+        for (ConnectionList<ConnectionT> list : lists.values()) {
+
+            ConnectionList<ConnectionT> claimedList = list;
+
+            if (list.owner != owner) {
+
+                // NOTE: lists are removed when they become empty, so there's always a connection to get the id from
+                ConnectionT first = list.entries[0].connection;
+
+                claimedList = new ConnectionList<>(owner, list);
+                lists.put(incoming ? first.targetId : first.sourceId, claimedList);
+            }
+
+            for (int i = 0; i < claimedList.size; i++) {
+
+                ConnectionT connection = claimedList.entries[i].connection;
+
+                ConnectionEntry<ConnectionT> entry = connections.get(
+                        connectionKey(connection.sourceId, connection.targetId));
+
+                claimedList.setSlot(entry, i);
+                claimedList.entries[i] = entry;
+            }
+        }
+    }
+
+    // NOTE: the tables must already be owned
+    private ConnectionList<ConnectionT> claimList(LongHashMap<ConnectionList<ConnectionT>> lists,
+                                                  long neuronId,
+                                                  boolean incoming,
+                                                  boolean create) {
+
+        ConnectionList<ConnectionT> list = lists.get(neuronId);
+
+        if (list == null) {
+
+            if (!create) {
+                throw new AssertionError("Connection list not found");
+            }
+
+            list = new ConnectionList<>(owner, incoming);
+            lists.put(neuronId, list);
+
+        } else if (list.owner != owner) {
+
+            list = new ConnectionList<>(owner, list);
+            lists.put(neuronId, list);
+        }
+
+        return list;
+    }
+
+    private void ensureTablesOwned() {
+
+        if (!tablesShared) {
+            return;
+        }
+
+        connections = new LongHashMap<>(connections);
+        incomingConnections = new LongHashMap<>(incomingConnections);
+        outgoingConnections = new LongHashMap<>(outgoingConnections);
+
+        tablesShared = false;
+    }
+
+    private static boolean isValidNeuronId(long neuronId) {
+        return (neuronId >= 0) && (neuronId <= MAX_NEURON_ID);
+    }
+
+    // NOTE: both ids are packed into a single key, so neuron ids are limited to 32 bits (unsigned)
+    private static long connectionKey(long sourceId, long targetId) {
+        return (sourceId << 32) | targetId;
+    }
+
+    private static class ConnectionEntry<ConnectionT extends Connection> {
+
+        public final Object owner;
+        public final ConnectionT connection;
+
+        // NOTE: where this is in the incoming list of its target and the outgoing list of its source, so it's found
+        //       (and removed) without searching either list... only written by the map that owns the entry
+        public int incomingSlot;
+        public int outgoingSlot;
+
+        public ConnectionEntry(Object owner, ConnectionT connection) {
+            this.owner = owner;
+            this.connection = connection;
+        }
+    }
+
+    private static class ConnectionList<ConnectionT extends Connection> {
+
+        public final Object owner;
+
+        public final boolean incoming;
+
+        public ConnectionEntry<ConnectionT>[] entries;
+        public int size;
+
+        @SuppressWarnings("unchecked")
+        public ConnectionList(Object owner, boolean incoming) {
 
-                List<ConnectionT> incoming = incomingConnections.get(connection.targetId);
+            this.owner = owner;
+            this.incoming = incoming;
 
-                if (!incoming.removeIf(c -> (c.sourceId == conn.sourceId) && (c.targetId == conn.targetId))) {
-                    throw new AssertionError("Failed to remove connection");
-                }
+            this.entries = (ConnectionEntry<ConnectionT>[]) new ConnectionEntry[4];
+            this.size = 0;
+        }
+
+        public ConnectionList(Object owner, ConnectionList<ConnectionT> other) {
+
+            this.owner = owner;
+            this.incoming = other.incoming;
+
+            this.entries = Arrays.copyOf(other.entries, Math.max(4, other.size));
+            this.size = other.size;
+        }
 
-                if (incoming.size() < 1) {
-                    incomingConnections.remove(connection.targetId);
-                }
+        public ConnectionT get(int index) {
 
-                List<ConnectionT> outgoing = outgoingConnections.get(connection.sourceId);
+            if (index >= size) {
+                throw new IndexOutOfBoundsException();
+            }
 
-                if (!outgoing.removeIf(c -> (c.sourceId == conn.sourceId) && (c.targetId == conn.targetId))) {
-                    throw new AssertionError("Failed to remove connection");
-                }
+            return entries[index].connection;
+        }
 
-                if (outgoing.size() < 1) {
-                    outgoingConnections.remove(connection.sourceId);
-                }
+        // NOTE: the entry must be owned by the map adding it
+        public void add(ConnectionEntry<ConnectionT> entry) {
 
-                connectionCount--;
-                return true;
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size << 1);
             }
+
+            setSlot(entry, size);
+
+            entries[size++] = entry;
+        }
+
+        public void replace(ConnectionEntry<ConnectionT> entry, ConnectionEntry<ConnectionT> replacement) {
+            entries[slotOf(entry)] = replacement;
         }
 
-        return false;
+        public int slotOf(ConnectionEntry<ConnectionT> entry) {
+
+            int slot = incoming ? entry.incomingSlot : entry.outgoingSlot;
+
+            if ((slot >= size) || (entries[slot] != entry)) {
+                throw new AssertionError("Connection not found in list");
+            }
+
+            return slot;
+        }
+
+        public void setSlot(ConnectionEntry<ConnectionT> entry, int slot) {
+
+            if (incoming) {
+                entry.incomingSlot = slot;
+            } else {
+                entry.outgoingSlot = slot;
+            }
+        }
     }
 
-    private class ConnectionMapIterable implements Iterable<ConnectionT> {
+    private static class ConnectionListView<ConnectionT extends Connection> extends AbstractList<ConnectionT> {
 
-        private final Map<Long, Map<Long, ConnectionT>> connections;
+        private final ConnectionList<ConnectionT> connections;
 
-        public ConnectionMapIterable(Map<Long, Map<Long, ConnectionT>> connections) {
+        public ConnectionListView(ConnectionList<ConnectionT> connections) {
             this.connections = connections;
         }
 
+        @Override
+        public ConnectionT get(int index) {
+            return connections.get(index);
+        }
+
+        @Override
+        public int size() {
+            return connections.size;
+        }
+    }
+
+    private class TargetIdSet extends AbstractSet<Long> {
+
+        private final long sourceId;
+        private final ConnectionList<ConnectionT> outgoing;
+
+        public TargetIdSet(long sourceId, ConnectionList<ConnectionT> outgoing) {
+            this.sourceId = sourceId;
+            this.outgoing = outgoing;
+        }
+
         @Override
         @Nonnull
-        public Iterator<ConnectionT> iterator() {
-            return new NestedIterator<>(connections.values(), Map::values);
+        public Iterator<Long> iterator() {
+            return new SelectIterable<>(new ConnectionListView<>(outgoing), c -> c.targetId).iterator();
+        }
+
+        @Override
+        public int size() {
+            return outgoing.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof Long) && isConnected(sourceId, (Long) o);
         }
     }
 }
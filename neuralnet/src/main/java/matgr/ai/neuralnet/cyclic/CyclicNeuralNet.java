@@ -1,13 +1,10 @@
 package matgr.ai.neuralnet.cyclic;
 
-import com.google.common.collect.Iterators;
-import matgr.ai.math.MathFunctions;
 import matgr.ai.neuralnet.*;
 import matgr.ai.neuralnet.activation.ActivationFunction;
-import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -27,6 +24,13 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
 
     private long version;
 
+    // NOTE: how many shared neurons/connections had been replaced by copies when the activation plan was built
+    private int activationPlanClaimCount;
+
+    private ActivationSchedule activationSchedule;
+    private ActivationPrecision activationPrecision;
+    private ActivationPlan<NeuronT> activationPlan;
+
     public final ReadOnlyNeuronMap<NeuronT> neurons;
     public final ReadOnlyConnectionMap<ConnectionT> connections;
 
@@ -63,33 +67,38 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
         this.version = 0;
     }
 
+    // NOTE: this is O(1), the neurons and connections are shared with the other network (copy-on-write) until either
+    //       network modifies them... the other network is only marked as copied, so this can happen at the same time as
+    //       it's being read (but not modified)
     protected CyclicNeuralNet(CyclicNeuralNet<ConnectionT, NeuronT> other) {
 
-        this(other.neuronFactory, other.connectionFactory);
+        this(
+                other.neuronFactory,
+                other.connectionFactory,
+                new NeuronMap<>(other.writableNeurons),
+                new ConnectionMap<>(other.writableConnections));
 
         // TODO: can this be relaxed?
         if (other.getClass() != this.getClass()) {
             throw new IllegalArgumentException("Cannot copy neural net of a different type");
         }
 
-        for (NeuronState<NeuronT> neuron : other.writableNeurons.values()) {
-
-            NeuronState<NeuronT> neuronClone = neuron.deepClone();
-            writableNeurons.addNeuron(neuronClone);
-        }
-
-        for (ConnectionT connection : other.writableConnections.values()) {
-
-            ConnectionT connectionClone = Connection.deepClone(connection);
-            addConnection(connectionClone);
-        }
-
         this.version = other.version;
+        this.activationSchedule = other.activationSchedule;
+        this.activationPrecision = other.activationPrecision;
     }
 
     private CyclicNeuralNet(CyclicNeuronFactory<NeuronT> neuronFactory,
                             ConnectionFactory<ConnectionT> connectionFactory) {
 
+        this(neuronFactory, connectionFactory, new NeuronMap<>(), new ConnectionMap<>());
+    }
+
+    private CyclicNeuralNet(CyclicNeuronFactory<NeuronT> neuronFactory,
+                            ConnectionFactory<ConnectionT> connectionFactory,
+                            NeuronMap<NeuronT> writableNeurons,
+                            ConnectionMap<ConnectionT> writableConnections) {
+
         if (null == neuronFactory) {
             throw new IllegalArgumentException("neuronFactory not provided");
         }
@@ -100,11 +109,14 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
         this.neuronFactory = neuronFactory;
         this.connectionFactory = connectionFactory;
 
-        this.writableNeurons = new NeuronMap<>();
+        this.writableNeurons = writableNeurons;
         this.neurons = new ReadOnlyNeuronMap<>(this.writableNeurons);
 
-        this.writableConnections = new ConnectionMap<>();
+        this.writableConnections = writableConnections;
         this.connections = new ReadOnlyConnectionMap<>(this.writableConnections);
+
+        this.activationSchedule = ActivationSchedule.Synchronous;
+        this.activationPrecision = ActivationPrecision.Exact;
     }
 
     public NeuronT biasNeuron() {
@@ -115,6 +127,52 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
         return version;
     }
 
+    public ActivationSchedule getActivationSchedule() {
+        return activationSchedule;
+    }
+
+    // NOTE: this only applies to activateSingle/activateSet, batches (and arenas) always use the synchronous schedule
+    public void setActivationSchedule(ActivationSchedule activationSchedule) {
+
+        if (null == activationSchedule) {
+            throw new IllegalArgumentException("activationSchedule not provided");
+        }
+
+        this.activationSchedule = activationSchedule;
+    }
+
+    public ActivationPrecision getActivationPrecision() {
+        return activationPrecision;
+    }
+
+    // NOTE: this applies to every kind of activation (including batches and arenas built after it is set)
+    public void setActivationPrecision(ActivationPrecision activationPrecision) {
+
+        if (null == activationPrecision) {
+            throw new IllegalArgumentException("activationPrecision not provided");
+        }
+
+        this.activationPrecision = activationPrecision;
+    }
+
+    // NOTE: only connections that are enabled and have a non-zero weight are considered, the result is cached with the
+    //       activation plan (so it's only recomputed when the version changes or a connection is switched on/off)
+    public boolean isAcyclic() {
+        return getActivationPlan().getSweepOrder() != null;
+    }
+
+    // NOTE: true when both networks have exactly the same structure (neuron types and connections, in the same order),
+    //       so they share one compiled topology and differ only in their weights/activation functions... networks that
+    //       do can be grouped together for evaluation
+    public boolean hasSameTopology(CyclicNeuralNet<?, ?> other) {
+
+        if (null == other) {
+            throw new IllegalArgumentException("other not provided");
+        }
+
+        return getActivationPlan().topology == other.getActivationPlan().topology;
+    }
+
     public static <
             CyclicNeuralNetT extends CyclicNeuralNet<ConnectionT, NeuronT>,
             ConnectionT extends Connection,
@@ -195,6 +253,29 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
         }
     }
 
+    // NOTE: the connections handed out by the connection map may be shared with clones of the network, so they are
+    //       modified through here (which copies the connection first if it's shared)
+    public void setConnectionWeight(long sourceId, long targetId, double weight) {
+        claimConnection(sourceId, targetId).setWeight(weight);
+    }
+
+    public void setConnectionEnabled(long sourceId, long targetId, boolean enabled) {
+        claimConnection(sourceId, targetId).setEnabled(enabled);
+    }
+
+    public void setActivationFunction(long neuronId,
+                                      ActivationFunction activationFunction,
+                                      double... activationFunctionParameters) {
+
+        NeuronState<NeuronT> neuron = writableNeurons.claim(neuronId);
+
+        if (neuron == null) {
+            throw new IllegalArgumentException("Neuron not found");
+        }
+
+        neuron.neuron.setActivationFunction(activationFunction, activationFunctionParameters);
+    }
+
     public List<Double> activateSingle(List<Double> inputSet,
                                        double bias,
                                        int maxStepsPerActivation,
@@ -225,128 +306,186 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
             throw new IllegalStateException("No output neurons in are present in the network");
         }
 
-        Iterable<NeuronState<NeuronT>> inputNeurons = writableNeurons.values(NeuronType.Input);
-        Iterable<NeuronState<NeuronT>> hiddenNeurons = writableNeurons.values(NeuronType.Hidden);
-        Iterable<NeuronState<NeuronT>> outputNeurons = writableNeurons.values(NeuronType.Output);
+        // NOTE: the activation state is kept on the neurons, so they can't be shared while it is written
+        writableNeurons.claimAll();
+
+        ActivationPlan<NeuronT> plan = getActivationPlan();
 
         // initialize state
         if (resetStateBeforeActivation) {
+            plan.resetState();
+        }
 
-            // TODO: this could maybe be done in one of the other loops?
+        boolean completed = plan.activate(inputSets, bias, maxStepsPerActivation, activationSchedule);
 
-            for (NeuronState<NeuronT> neuron : writableNeurons.values()) {
-                neuron.preSynapse = 0.0;
-                neuron.postSynapse = 0.0;
-            }
+        if (!completed) {
+            logger.fine("Activation reached max steps without converging");
         }
 
-        // pipeline the input sets...
-        int numSteps = maxStepsPerActivation + (inputSets.size() - 1);
-
-        // set the bias neuron value
-        NeuronState<NeuronT> biasNeuron = writableNeurons.getSingle(NeuronType.Bias);
-        biasNeuron.postSynapse = bias;
+        // read the outputs from the output neurons
+        return plan.getOutputs();
+    }
 
-        boolean completed = false;
+    // NOTE: this is the same as activateSingle, but the outputs are written to the provided array (which must be the
+    //       size of the output layer), and nothing is allocated once the activation plan has been built... returns
+    //       false if max steps was reached without converging
+    public boolean activate(double[] inputs,
+                            double[] outputs,
+                            double bias,
+                            int maxStepsPerActivation,
+                            boolean resetStateBeforeActivation) {
+
+        return activate(
+                inputs,
+                outputs,
+                bias,
+                maxStepsPerActivation,
+                resetStateBeforeActivation,
+                activationSchedule);
+    }
 
-        for (int step = 0; step < numSteps; step++) {
+    // NOTE: the same as the above, but with the given schedule rather than the network's own... so a caller can pick a
+    //       schedule for itself, without it being copied to every clone of the network (and stopping them from being
+    //       optimized)
+    public boolean activate(double[] inputs,
+                            double[] outputs,
+                            double bias,
+                            int maxStepsPerActivation,
+                            boolean resetStateBeforeActivation,
+                            ActivationSchedule activationSchedule) {
+
+        if (null == activationSchedule) {
+            throw new IllegalArgumentException("activationSchedule not provided");
+        }
 
-            if (step < inputSets.size()) {
+        if (writableNeurons.count(NeuronType.Input) <= 0) {
+            throw new IllegalStateException("No input neurons in are present in the network");
+        }
+        if (writableNeurons.count(NeuronType.Output) <= 0) {
+            throw new IllegalStateException("No output neurons in are present in the network");
+        }
 
-                // initialize the current input set
-                List<Double> inputs = inputSets.get(step);
+        // NOTE: the activation state is kept on the neurons, so they can't be shared while it is written
+        writableNeurons.claimAll();
 
-                if (inputs.size() != inputNeuronCount) {
-                    throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
-                }
+        ActivationPlan<NeuronT> plan = getActivationPlan();
 
-                Iterator<Double> inputIterator = inputs.iterator();
+        // initialize state
+        if (resetStateBeforeActivation) {
+            plan.resetState();
+        }
 
-                for (NeuronState<NeuronT> neuron : inputNeurons) {
+        boolean completed = plan.activate(inputs, bias, maxStepsPerActivation, activationSchedule);
 
-                    double inputValue = inputIterator.next();
+        if (!completed) {
+            logger.fine("Activation reached max steps without converging");
+        }
 
-                    if (Double.isNaN(inputValue)) {
-                        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                        //       return a status code from this function)...  if it fails, then set this to 0.0
-                        inputValue = 0.0;
-                    }
+        plan.getOutputs(outputs);
 
-                    neuron.postSynapse = inputValue;
-                }
-            }
+        return completed;
+    }
 
-            // update all connection sums
-            for (Connection connection : connections.values()) {
+    // NOTE: the context starts out in the reset state, and is only valid until the structure of the network changes
+    public ActivationContext createActivationContext() {
 
-                if (connection.enabled) {
+        ActivationPlan<NeuronT> plan = prepareActivationPlan();
 
-                    if (connection.weight != 0.0) {
+        return new ActivationContext(this, plan.version, plan.neuronCount(), plan.neuronCount());
+    }
 
-                        NeuronState<NeuronT> sourceNeuron = writableNeurons.get(connection.sourceId);
-                        NeuronState<NeuronT> targetNeuron = writableNeurons.get(connection.targetId);
+    // NOTE: this is the same as the above, but the state comes from (and is left in) the context rather than the
+    //       network, so any number of callers (or threads) can activate the network at once, each with their own
+    //       context... the network must not be modified while this is happening though
+    public boolean activate(ActivationContext context,
+                            double[] inputs,
+                            double[] outputs,
+                            double bias,
+                            int maxStepsPerActivation,
+                            boolean resetStateBeforeActivation) {
+
+        if (null == context) {
+            throw new IllegalArgumentException("context not provided");
+        }
 
-                        targetNeuron.preSynapse += sourceNeuron.postSynapse * connection.weight;
+        ActivationPlan<NeuronT> plan = prepareActivationPlan();
 
-                        if (Double.isNaN(targetNeuron.preSynapse)) {
-                            // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                            //       return a status code from this function)... it should be given
-                            //       "sourceNeuron.postSynapse" and "connection.weight" (so it can decide what to do
-                            //       based on input values being infinite/NaN/etc... if it fails, then set this to 0.0
-                            targetNeuron.preSynapse = 0.0;
-                        }
-                    }
-                }
-            }
+        if (!context.isFor(this, plan.version)) {
+            throw new IllegalArgumentException(
+                    "Activation context was not created for this network (or the network has changed since)");
+        }
 
-            boolean moreWork = false;
+        if (plan.inputCount() <= 0) {
+            throw new IllegalStateException("No input neurons in are present in the network");
+        }
+        if (plan.outputCount() <= 0) {
+            throw new IllegalStateException("No output neurons in are present in the network");
+        }
 
-            Iterator<NeuronState<NeuronT>> hiddenAndOutputNeurons =
-                    Iterators.concat(hiddenNeurons.iterator(), outputNeurons.iterator());
+        // initialize state
+        if (resetStateBeforeActivation) {
+            context.reset();
+        }
 
-            // propagate inputs through each hidden and output neuron's activation function
-            while (hiddenAndOutputNeurons.hasNext()) {
+        double[] preSynapses = context.buffer(0);
+        double[] postSynapses = context.buffer(1);
 
-                NeuronState<NeuronT> neuron = hiddenAndOutputNeurons.next();
+        boolean completed = plan.activate(
+                preSynapses,
+                postSynapses,
+                inputs,
+                bias,
+                maxStepsPerActivation,
+                activationSchedule);
 
-                double value = neuron.neuron.computeActivation(neuron.preSynapse);
+        if (!completed) {
+            logger.fine("Activation reached max steps without converging");
+        }
 
-                if (Double.isNaN(value)) {
-                    // NOTE: sigmoid shouldn't produce NaN, so fallback to this one for now...
-                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and return a
-                    //       status code from this function)... if it fails, then try this
-                    value = KnownActivationFunctions.SIGMOID.compute(
-                            neuron.preSynapse,
-                            KnownActivationFunctions.SIGMOID.defaultParameters());
-                }
+        plan.getOutputs(postSynapses, outputs);
 
-                // NOTE: this may only help for very simple networks...
-                if (!MathFunctions.fuzzyCompare(value, neuron.postSynapse)) {
-                    moreWork = true;
-                }
+        return completed;
+    }
 
-                neuron.postSynapse = value;
-                neuron.preSynapse = 0.0;
-            }
+    // NOTE: this evaluates each input set independently (as if activateSingle was called for each one with state being
+    //       reset first), all of the input sets are run in lanes during a single pass over the network... the state of
+    //       the network itself is not used or modified
+    public double[][] activateBatch(double[][] inputSets, double bias, int maxStepsPerActivation) {
 
-            if (!moreWork) {
-                completed = true;
-                break;
-            }
+        if (inputSets.length <= 0) {
+            throw new IllegalStateException("No input sets provided");
         }
 
-        if (!completed) {
-            logger.fine("Activation reached max steps without converging");
+        if (writableNeurons.count(NeuronType.Input) <= 0) {
+            throw new IllegalStateException("No input neurons in are present in the network");
+        }
+        if (writableNeurons.count(NeuronType.Output) <= 0) {
+            throw new IllegalStateException("No output neurons in are present in the network");
         }
 
-        // read the outputs from the output neurons
-        List<Double> outputs = new ArrayList<>();
+        return getActivationPlan().activateLanes(inputSets, bias, maxStepsPerActivation);
+    }
+
+    // NOTE: this builds a reduced copy of the network for evaluation only (see OptimizedNeuralNet), with the bias and
+    //       max steps fixed... the network itself isn't modified (its current state is copied across)
+    public OptimizedNeuralNet optimize(double bias, int maxStepsPerActivation) {
+        return optimize(bias, maxStepsPerActivation, ComputePrecision.Float64);
+    }
 
-        for (NeuronState<NeuronT> neuron : outputNeurons) {
-            outputs.add(neuron.postSynapse);
+    public OptimizedNeuralNet optimize(double bias, int maxStepsPerActivation, ComputePrecision computePrecision) {
+
+        if (activationSchedule != ActivationSchedule.Synchronous) {
+            throw new IllegalStateException("Only networks using the synchronous activation schedule can be optimized");
         }
 
-        return outputs;
+        if (writableNeurons.count(NeuronType.Input) <= 0) {
+            throw new IllegalStateException("No input neurons in are present in the network");
+        }
+        if (writableNeurons.count(NeuronType.Output) <= 0) {
+            throw new IllegalStateException("No output neurons in are present in the network");
+        }
+
+        return OptimizedNeuralNet.optimize(prepareActivationPlan(), bias, maxStepsPerActivation, computePrecision);
     }
 
     protected CyclicNeuralNet<ConnectionT, NeuronT> deepClone() {
@@ -382,6 +521,44 @@ public class CyclicNeuralNet<ConnectionT extends Connection, NeuronT extends Cyc
         }
     }
 
+    private ConnectionT claimConnection(long sourceId, long targetId) {
+
+        ConnectionT connection = writableConnections.claimConnection(sourceId, targetId);
+
+        if (connection == null) {
+            throw new IllegalArgumentException("Connection not found");
+        }
+
+        return connection;
+    }
+
+    ActivationPlan<NeuronT> getActivationPlan() {
+
+        int claimCount = writableNeurons.claimCount() + writableConnections.claimCount();
+
+        // NOTE: the plan only captures structure, so it only needs rebuilding when the version changes (or when any of
+        //       the neurons/connections it holds have been replaced by copies)
+        if ((activationPlan == null)
+                || (activationPlan.version != version)
+                || (activationPlanClaimCount != claimCount)) {
+
+            activationPlan = ActivationPlan.compile(writableNeurons, writableConnections, version);
+            activationPlanClaimCount = claimCount;
+        }
+
+        activationPlan.setActivationPrecision(activationPrecision);
+
+        return activationPlan;
+    }
+
+    private synchronized ActivationPlan<NeuronT> prepareActivationPlan() {
+
+        ActivationPlan<NeuronT> plan = getActivationPlan();
+        plan.prepare(activationSchedule);
+
+        return plan;
+    }
+
     private NeuronT addHiddenNeuron(Long neuronId,
                                     ActivationFunction activationFunction,
                                     double... activationFunctionParameters) {
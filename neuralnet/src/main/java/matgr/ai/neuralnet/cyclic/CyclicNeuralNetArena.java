@@ -0,0 +1,389 @@
+package matgr.ai.neuralnet.cyclic;
+
+import matgr.ai.math.MathFunctions;
+import matgr.ai.neuralnet.NeuronState;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// NOTE: this packs the compiled structure, weights and state of many networks into a handful of large primitive buffers
+//       (optionally allocated off-heap), so a whole population can be swept without walking each network's object
+//       graph... neuron and connection indices are global across the arena, and each member owns a contiguous range of
+//       them... the structure and weights are captured when the arena is built, so it must be rebuilt if any of the
+//       networks change (the initial state is copied from the networks, but the networks are never written back to)
+public class CyclicNeuralNetArena {
+
+    private final int memberCount;
+    private final int inputCount;
+    private final int outputCount;
+
+    private final boolean offHeap;
+
+    private final IntBuffer neuronOffsets;
+    private final IntBuffer biasIndices;
+    private final IntBuffer inputIndices;
+    private final IntBuffer outputIndices;
+
+    private final IntBuffer activatableOffsets;
+    private final IntBuffer activatableIndices;
+
+    // NOTE: the depth of each acyclic member (or -1 for a cyclic one)... the activatable neurons of acyclic members are
+    //       stored in topological order, so they can be evaluated in a single pass
+    private final IntBuffer sweepDepths;
+
+    // NOTE: activation kernels are objects, so these are the only per-neuron data that stays on the heap
+    private final ActivationKernel[] activatableKernels;
+
+    private final IntBuffer incomingOffsets;
+    private final IntBuffer sourceIndices;
+    private final DoubleBuffer weights;
+
+    private final DoubleBuffer preSynapses;
+    private final DoubleBuffer postSynapses;
+
+    private final boolean[] memberActive;
+
+    public CyclicNeuralNetArena(Iterable<? extends CyclicNeuralNet<?, ?>> networks, boolean offHeap) {
+
+        if (null == networks) {
+            throw new IllegalArgumentException("networks not provided");
+        }
+
+        List<ActivationPlan<?>> plans = new ArrayList<>();
+
+        int neuronCount = 0;
+        int activatableCount = 0;
+        int connectionCount = 0;
+
+        for (CyclicNeuralNet<?, ?> network : networks) {
+
+            ActivationPlan<?> plan = network.getActivationPlan();
+
+            if (plan.inputCount() <= 0) {
+                throw new IllegalStateException("No input neurons in are present in the network");
+            }
+            if (plan.outputCount() <= 0) {
+                throw new IllegalStateException("No output neurons in are present in the network");
+            }
+
+            if (!plans.isEmpty()) {
+
+                if (plan.inputCount() != plans.get(0).inputCount()) {
+                    throw new IllegalArgumentException("All networks must have the same number of inputs");
+                }
+                if (plan.outputCount() != plans.get(0).outputCount()) {
+                    throw new IllegalArgumentException("All networks must have the same number of outputs");
+                }
+            }
+
+            plans.add(plan);
+
+            neuronCount = addCount(neuronCount, plan.states.length);
+            activatableCount = addCount(activatableCount, plan.activatableIndices.length);
+            connectionCount = addCount(connectionCount, plan.connections.length);
+        }
+
+        if (plans.isEmpty()) {
+            throw new IllegalArgumentException("No networks provided");
+        }
+
+        this.memberCount = plans.size();
+        this.inputCount = plans.get(0).inputCount();
+        this.outputCount = plans.get(0).outputCount();
+
+        this.offHeap = offHeap;
+
+        this.neuronOffsets = allocateInts(memberCount + 1, offHeap);
+        this.biasIndices = allocateInts(memberCount, offHeap);
+        this.inputIndices = allocateInts(memberCount * inputCount, offHeap);
+        this.outputIndices = allocateInts(memberCount * outputCount, offHeap);
+
+        this.activatableOffsets = allocateInts(memberCount + 1, offHeap);
+        this.activatableIndices = allocateInts(activatableCount, offHeap);
+        this.sweepDepths = allocateInts(memberCount, offHeap);
+        this.activatableKernels = new ActivationKernel[activatableCount];
+
+        this.incomingOffsets = allocateInts(neuronCount + 1, offHeap);
+        this.sourceIndices = allocateInts(connectionCount, offHeap);
+        this.weights = allocateDoubles(connectionCount, offHeap);
+
+        this.preSynapses = allocateDoubles(neuronCount, offHeap);
+        this.postSynapses = allocateDoubles(neuronCount, offHeap);
+
+        this.memberActive = new boolean[memberCount];
+
+        int neuronOffset = 0;
+        int activatableOffset = 0;
+        int connectionOffset = 0;
+
+        for (int member = 0; member < memberCount; member++) {
+
+            ActivationPlan<?> plan = plans.get(member);
+
+            neuronOffsets.put(member, neuronOffset);
+            activatableOffsets.put(member, activatableOffset);
+
+            biasIndices.put(member, (plan.biasIndex >= 0) ? (neuronOffset + plan.biasIndex) : -1);
+
+            for (int i = 0; i < inputCount; i++) {
+                inputIndices.put((member * inputCount) + i, neuronOffset + plan.inputIndices[i]);
+            }
+
+            for (int i = 0; i < outputCount; i++) {
+                outputIndices.put((member * outputCount) + i, neuronOffset + plan.outputIndices[i]);
+            }
+
+            int[] sweepOrder = plan.getSweepOrder();
+
+            sweepDepths.put(member, (sweepOrder != null) ? plan.getSweepDepth() : -1);
+
+            for (int i = 0; i < plan.activatableIndices.length; i++) {
+
+                int position = (sweepOrder != null) ? sweepOrder[i] : i;
+
+                activatableIndices.put(activatableOffset + i, neuronOffset + plan.activatableIndices[position]);
+                activatableKernels[activatableOffset + i] = plan.activatableKernels[position];
+            }
+
+            for (int i = 0; i < plan.states.length; i++) {
+
+                NeuronState<?> state = plan.states[i];
+
+                incomingOffsets.put(neuronOffset + i, connectionOffset + plan.incomingOffsets[i]);
+
+                preSynapses.put(neuronOffset + i, state.preSynapse);
+                postSynapses.put(neuronOffset + i, state.postSynapse);
+            }
+
+            // NOTE: the plan's weights (and kernels) were refreshed when its sweep order was requested
+            for (int i = 0; i < plan.connections.length; i++) {
+
+                sourceIndices.put(connectionOffset + i, neuronOffset + plan.sourceIndices[i]);
+                weights.put(connectionOffset + i, plan.weights[i]);
+            }
+
+            neuronOffset += plan.states.length;
+            activatableOffset += plan.activatableIndices.length;
+            connectionOffset += plan.connections.length;
+        }
+
+        neuronOffsets.put(memberCount, neuronOffset);
+        activatableOffsets.put(memberCount, activatableOffset);
+        incomingOffsets.put(neuronOffset, connectionOffset);
+    }
+
+    public int memberCount() {
+        return memberCount;
+    }
+
+    public int inputCount() {
+        return inputCount;
+    }
+
+    public int outputCount() {
+        return outputCount;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void resetState() {
+
+        for (int i = 0; i < preSynapses.capacity(); i++) {
+            preSynapses.put(i, 0.0);
+            postSynapses.put(i, 0.0);
+        }
+    }
+
+    // NOTE: inputs and outputs are packed member major (member * inputCount + input), and each member behaves exactly
+    //       as if activateSingle had been called on its network... returns false if any member reached max steps
+    //       without converging
+    public boolean activateAll(double[] inputs,
+                               double[] outputs,
+                               double bias,
+                               int maxStepsPerActivation,
+                               boolean resetStateBeforeActivation) {
+
+        if (inputs.length != (memberCount * inputCount)) {
+            throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
+        }
+        if (outputs.length != (memberCount * outputCount)) {
+            throw new IllegalArgumentException("Output signal array has an incorrect number of outputs");
+        }
+
+        // initialize state
+        if (resetStateBeforeActivation) {
+            resetState();
+        }
+
+        for (int member = 0; member < memberCount; member++) {
+
+            int biasIndex = biasIndices.get(member);
+
+            if (biasIndex >= 0) {
+                postSynapses.put(biasIndex, bias);
+            }
+
+            memberActive[member] = true;
+        }
+
+        for (int i = 0; i < inputs.length; i++) {
+
+            double inputValue = inputs[i];
+
+            if (Double.isNaN(inputValue)) {
+                // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                //       return a status code from this function)... if it fails, then set this to 0.0
+                inputValue = 0.0;
+            }
+
+            postSynapses.put(inputIndices.get(i), inputValue);
+        }
+
+        int activeMemberCount = memberCount;
+
+        for (int member = 0; member < memberCount; member++) {
+
+            int sweepDepth = sweepDepths.get(member);
+
+            // NOTE: acyclic members settle in a single pass (unless iterating would run out of steps first)
+            if ((sweepDepth >= 0) && (sweepDepth < maxStepsPerActivation)) {
+
+                sweepMember(member);
+
+                memberActive[member] = false;
+                activeMemberCount--;
+            }
+        }
+
+        for (int step = 0; (step < maxStepsPerActivation) && (activeMemberCount > 0); step++) {
+
+            for (int member = 0; member < memberCount; member++) {
+
+                // NOTE: a member stops as soon as it converges (exactly when a single activation would)
+                if (memberActive[member] && !stepMember(member)) {
+
+                    memberActive[member] = false;
+                    activeMemberCount--;
+                }
+            }
+        }
+
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = postSynapses.get(outputIndices.get(i));
+        }
+
+        return activeMemberCount == 0;
+    }
+
+    private void sweepMember(int member) {
+
+        int activatableEnd = activatableOffsets.get(member + 1);
+
+        for (int i = activatableOffsets.get(member); i < activatableEnd; i++) {
+
+            int neuronIndex = activatableIndices.get(i);
+
+            double value = ActivationPlan.computeActivation(activatableKernels[i], sumIncoming(neuronIndex));
+
+            postSynapses.put(neuronIndex, value);
+            preSynapses.put(neuronIndex, 0.0);
+        }
+    }
+
+    private boolean stepMember(int member) {
+
+        int neuronEnd = neuronOffsets.get(member + 1);
+
+        // update all connection sums
+        for (int targetIndex = neuronOffsets.get(member); targetIndex < neuronEnd; targetIndex++) {
+            preSynapses.put(targetIndex, sumIncoming(targetIndex));
+        }
+
+        boolean moreWork = false;
+
+        int activatableEnd = activatableOffsets.get(member + 1);
+
+        // propagate inputs through each hidden and output neuron's activation function
+        for (int i = activatableOffsets.get(member); i < activatableEnd; i++) {
+
+            int neuronIndex = activatableIndices.get(i);
+            double value = ActivationPlan.computeActivation(activatableKernels[i], preSynapses.get(neuronIndex));
+
+            if (!MathFunctions.fuzzyCompare(value, postSynapses.get(neuronIndex))) {
+                moreWork = true;
+            }
+
+            postSynapses.put(neuronIndex, value);
+            preSynapses.put(neuronIndex, 0.0);
+        }
+
+        return moreWork;
+    }
+
+    private double sumIncoming(int targetIndex) {
+
+        int end = incomingOffsets.get(targetIndex + 1);
+
+        double preSynapse = preSynapses.get(targetIndex);
+
+        for (int i = incomingOffsets.get(targetIndex); i < end; i++) {
+
+            double weight = weights.get(i);
+
+            if (weight != 0.0) {
+
+                preSynapse += postSynapses.get(sourceIndices.get(i)) * weight;
+
+                if (Double.isNaN(preSynapse)) {
+                    preSynapse = 0.0;
+                }
+            }
+        }
+
+        return preSynapse;
+    }
+
+    private static int addCount(int count, int amount) {
+
+        if (amount > (Integer.MAX_VALUE - count)) {
+            throw new IllegalArgumentException("Too many neurons or connections to fit in a single arena");
+        }
+
+        return count + amount;
+    }
+
+    private static IntBuffer allocateInts(int count, boolean offHeap) {
+
+        if (offHeap) {
+
+            if (count > (Integer.MAX_VALUE / Integer.BYTES)) {
+                throw new IllegalArgumentException("Too many entries to allocate off-heap");
+            }
+
+            return ByteBuffer.allocateDirect(count * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        return IntBuffer.allocate(count);
+    }
+
+    private static DoubleBuffer allocateDoubles(int count, boolean offHeap) {
+
+        if (offHeap) {
+
+            if (count > (Integer.MAX_VALUE / Double.BYTES)) {
+                throw new IllegalArgumentException("Too many entries to allocate off-heap");
+            }
+
+            return ByteBuffer.allocateDirect(count * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+
+        return DoubleBuffer.allocate(count);
+    }
+}
@@ -3,6 +3,8 @@ package matgr.ai.neuralnet.cyclic;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronType;
 import matgr.ai.neuralnet.activation.ActivationFunction;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 
 public class CyclicNeuron extends Neuron {
 
@@ -10,6 +12,8 @@ public class CyclicNeuron extends Neuron {
 
     private ActivationFunction activationFunction;
     private double[] activationFunctionParameters;
+    private ActivationKernel activationKernel;
+    private ActivationKernel approximateActivationKernel;
 
     protected CyclicNeuron(NeuronType type,
                            long id,
@@ -57,7 +61,9 @@ public class CyclicNeuron extends Neuron {
                 activationFunctionParameters);
     }
 
-    public void setActivationFunction(ActivationFunction activationFunction, double... activationFunctionParameters) {
+    // NOTE: neurons may be shared between clones of a network (copy-on-write), so this is only used by the network once
+    //       it has claimed the neuron (see CyclicNeuralNet.setActivationFunction)
+    void setActivationFunction(ActivationFunction activationFunction, double... activationFunctionParameters) {
 
         if (!canActivate()) {
             throw new IllegalStateException("This neuron type cannot be activated");
@@ -67,10 +73,20 @@ public class CyclicNeuron extends Neuron {
             throw new IllegalArgumentException("activationFunction");
         }
 
-        activationFunction.validateParameters(activationFunctionParameters);
+        // NOTE: the parameters are bound (and validated) here, and a copy is kept, so neither the kernel nor the neuron
+        //       will see any later changes to the array
+        ActivationKernel activationKernel = activationFunction.bind(
+                ActivationPrecision.Exact,
+                activationFunctionParameters);
+
+        ActivationKernel approximateActivationKernel = activationFunction.bind(
+                ActivationPrecision.Approximate,
+                activationFunctionParameters);
 
         this.activationFunction = activationFunction;
-        this.activationFunctionParameters = activationFunctionParameters;
+        this.activationFunctionParameters = activationFunctionParameters.clone();
+        this.activationKernel = activationKernel;
+        this.approximateActivationKernel = approximateActivationKernel;
     }
 
     public double computeActivation(double x) {
@@ -79,7 +95,7 @@ public class CyclicNeuron extends Neuron {
             throw new IllegalStateException("This neuron type cannot be activated");
         }
 
-        return activationFunction.compute(x, activationFunctionParameters);
+        return activationKernel.apply(x);
     }
 
     public ActivationFunction getActivationFunction() {
@@ -91,13 +107,32 @@ public class CyclicNeuron extends Neuron {
         return activationFunction;
     }
 
+    public ActivationKernel getActivationKernel() {
+
+        if (!canActivate()) {
+            throw new IllegalStateException("This neuron type cannot be activated");
+        }
+
+        return activationKernel;
+    }
+
+    public ActivationKernel getActivationKernel(ActivationPrecision precision) {
+
+        if (!canActivate()) {
+            throw new IllegalStateException("This neuron type cannot be activated");
+        }
+
+        return (precision == ActivationPrecision.Approximate) ? approximateActivationKernel : activationKernel;
+    }
+
     public double[] getActivationFunctionParameters() {
 
         if (!canActivate()) {
             throw new IllegalStateException("This neuron type cannot be activated");
         }
 
-        return activationFunctionParameters;
+        // NOTE: copied, as the neuron may be shared with clones of the network
+        return activationFunctionParameters.clone();
     }
 
     public boolean canActivate() {
@@ -112,6 +147,6 @@ public class CyclicNeuron extends Neuron {
 
     @Override
     protected CyclicNeuron deepClone() {
-        return new CyclicNeuron(type, id, getActivationFunction(), getActivationFunctionParameters());
+        return new CyclicNeuron(type, id, activationFunction, activationFunctionParameters);
     }
 }
\ No newline at end of file
@@ -1,29 +1,65 @@
 package matgr.ai.neuralnet.cyclic;
 
+import matgr.ai.common.SelectIterable;
+import matgr.ai.common.SortedLongArrayMap;
 import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.NeuronType;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
+// NOTE: the maps (and the neurons in them) can be shared with copies of this map, they are copied the first time they
+//       are written to... neurons are mutable (and hold the activation state), so they are also copied the first time
+//       they are claimed (anything handed out for modification has to be claimed first, anything read is handed out as
+//       it is, and must not be modified)
 class NeuronMap<NeuronT extends CyclicNeuron> {
 
-    private SortedMap<Long, NeuronState<NeuronT>> neuronMap;
-    private Map<NeuronType, SortedMap<Long, NeuronState<NeuronT>>> neuronTypeMap;
+    // NOTE: entries created (or claimed) by this map are tagged with this, anything else may still be shared
+    private Object owner;
+
+    // NOTE: set when a copy of this map is made, this is the only thing a copy writes to the map it copies (so a map
+    //       can be copied while it's being read)... the map stops owning anything the next time it writes
+    private volatile boolean copied;
+
+    private boolean mapsShared;
+    private boolean allClaimed;
+
+    private int claimCount;
+
+    private SortedLongArrayMap<NeuronEntry<NeuronT>> neuronMap;
+    private Map<NeuronType, SortedLongArrayMap<NeuronEntry<NeuronT>>> neuronTypeMap;
 
     public NeuronMap() {
 
-        neuronMap = new TreeMap<>();
-        neuronTypeMap = new HashMap<>();
+        owner = new Object();
+
+        mapsShared = false;
+        allClaimed = true;
+
+        neuronMap = new SortedLongArrayMap<>();
+        neuronTypeMap = new EnumMap<>(NeuronType.class);
 
         for (NeuronType type : NeuronType.values()) {
-            neuronTypeMap.put(type, new TreeMap<>());
+            neuronTypeMap.put(type, new SortedLongArrayMap<>());
         }
     }
 
+    // NOTE: this is O(1), everything is shared until one of the maps writes to it... the other map is only marked as
+    //       copied, so this can happen at the same time as reads on it (but not writes)
+    public NeuronMap(NeuronMap<NeuronT> other) {
+
+        other.copied = true;
+
+        owner = new Object();
+
+        mapsShared = true;
+        allClaimed = false;
+
+        neuronMap = other.neuronMap;
+        neuronTypeMap = other.neuronTypeMap;
+    }
+
     public int count() {
         return neuronMap.size();
     }
@@ -32,8 +68,9 @@ class NeuronMap<NeuronT extends CyclicNeuron> {
         return neuronMap.keySet();
     }
 
+    // NOTE: the neurons returned from here may be shared, so they must not be modified (see claim)
     public Iterable<NeuronState<NeuronT>> values() {
-        return neuronMap.values();
+        return new SelectIterable<>(neuronMap.values(), e -> e.state);
     }
 
     public int count(NeuronType type) {
@@ -44,32 +81,39 @@ class NeuronMap<NeuronT extends CyclicNeuron> {
         return neuronTypeMap.get(type).keySet();
     }
 
+    // NOTE: the neurons returned from here may be shared, so they must not be modified (see claim)
     public Iterable<NeuronState<NeuronT>> values(NeuronType type) {
-        return neuronTypeMap.get(type).values();
+        return new SelectIterable<>(neuronTypeMap.get(type).values(), e -> e.state);
     }
 
+    // NOTE: the neuron returned from here may be shared, so it must not be modified (see claim)
     public NeuronState<NeuronT> get(long neuronId) {
-        return neuronMap.get(neuronId);
-    }
 
-    public NeuronState<NeuronT> getSingle(NeuronType type) {
-
-        SortedMap<Long, NeuronState<NeuronT>> map = neuronTypeMap.get(type);
+        NeuronEntry<NeuronT> entry = neuronMap.get(neuronId);
 
-        if (map == null) {
+        if (entry == null) {
             return null;
         }
 
-        if (map.size() == 0) {
-            return null;
-        }
+        return entry.state;
+    }
 
-        if (map.size() > 1) {
-            throw new IllegalArgumentException(
-                    String.format("The type %s has more than one entry", type.name()));
+    // NOTE: neurons are kept in ascending id order, so this is a dense index for the neuron (which is only valid until
+    //       the next time a neuron is added or removed)
+    public int indexOf(long neuronId) {
+        return neuronMap.indexOf(neuronId);
+    }
+
+    // NOTE: the neuron returned from here may be shared, so it must not be modified (see claim)
+    public NeuronState<NeuronT> getSingle(NeuronType type) {
+
+        NeuronEntry<NeuronT> entry = getSingleEntry(type);
+
+        if (entry == null) {
+            return null;
         }
 
-        return map.get(map.lastKey());
+        return entry.state;
     }
 
     public long getNextFreeNeuronId() {
@@ -81,6 +125,41 @@ class NeuronMap<NeuronT extends CyclicNeuron> {
         return neuronMap.lastKey() + 1;
     }
 
+    // NOTE: the number of times a shared neuron has been replaced by a copy, anything holding on to neurons from this
+    //       map (e.g. an activation plan) is out of date when this changes
+    public int claimCount() {
+        return claimCount;
+    }
+
+    // NOTE: this makes sure the neuron belongs only to this map (copying it if it's shared), so it can be modified
+    public NeuronState<NeuronT> claim(long neuronId) {
+
+        NeuronEntry<NeuronT> entry = neuronMap.get(neuronId);
+
+        if (entry == null) {
+            return null;
+        }
+
+        detachIfCopied();
+
+        return claim(entry).state;
+    }
+
+    public void claimAll() {
+
+        detachIfCopied();
+
+        if (allClaimed) {
+            return;
+        }
+
+        for (int i = 0; i < neuronMap.size(); i++) {
+            claim(neuronMap.valueAt(i));
+        }
+
+        allClaimed = true;
+    }
+
     public void addNeuron(NeuronT neuron) {
         addNeuron(new NeuronState<>(neuron));
     }
@@ -91,28 +170,121 @@ class NeuronMap<NeuronT extends CyclicNeuron> {
             throw new IllegalArgumentException("Neuron already added");
         }
 
+        detachIfCopied();
+        ensureMapsOwned();
+
         if (neuron.neuron.type == NeuronType.Bias) {
-            SortedMap<Long, NeuronState<NeuronT>> neurons = neuronTypeMap.get(neuron.neuron.type);
+
+            SortedLongArrayMap<NeuronEntry<NeuronT>> neurons = neuronTypeMap.get(neuron.neuron.type);
             neurons.clear();
         }
 
-        neuronMap.put(neuron.neuron.id, neuron);
-        neuronTypeMap.get(neuron.neuron.type).put(neuron.neuron.id, neuron);
+        NeuronEntry<NeuronT> entry = new NeuronEntry<>(owner, neuron);
+
+        neuronMap.put(neuron.neuron.id, entry);
+        neuronTypeMap.get(neuron.neuron.type).put(neuron.neuron.id, entry);
     }
 
     public boolean removeNeuron(long neuronId) {
 
-        NeuronState<NeuronT> neuron = neuronMap.get(neuronId);
+        NeuronEntry<NeuronT> entry = neuronMap.get(neuronId);
 
-        if (neuron == null) {
+        if (entry == null) {
             return false;
         }
 
-        SortedMap<Long, NeuronState<NeuronT>> map = neuronTypeMap.get(neuron.neuron.type);
+        detachIfCopied();
+        ensureMapsOwned();
+
+        SortedLongArrayMap<NeuronEntry<NeuronT>> map = neuronTypeMap.get(entry.state.neuron.type);
 
         neuronMap.remove(neuronId);
         map.remove(neuronId);
 
         return true;
     }
+
+    // NOTE: once copied, everything this map has is shared with the copy
+    private void detachIfCopied() {
+
+        if (!copied) {
+            return;
+        }
+
+        copied = false;
+
+        owner = new Object();
+
+        mapsShared = true;
+        allClaimed = false;
+    }
+
+    private NeuronEntry<NeuronT> getSingleEntry(NeuronType type) {
+
+        SortedLongArrayMap<NeuronEntry<NeuronT>> map = neuronTypeMap.get(type);
+
+        if (map == null) {
+            return null;
+        }
+
+        if (map.size() == 0) {
+            return null;
+        }
+
+        if (map.size() > 1) {
+            throw new IllegalArgumentException(
+                    String.format("The type %s has more than one entry", type.name()));
+        }
+
+        return map.valueAt(map.size() - 1);
+    }
+
+    private NeuronEntry<NeuronT> claim(NeuronEntry<NeuronT> entry) {
+
+        if (entry.owner == owner) {
+            return entry;
+        }
+
+        ensureMapsOwned();
+
+        NeuronState<NeuronT> state = entry.state;
+        NeuronEntry<NeuronT> claimed = new NeuronEntry<>(owner, state.deepClone());
+
+        neuronMap.put(state.neuron.id, claimed);
+        neuronTypeMap.get(state.neuron.type).put(state.neuron.id, claimed);
+
+        claimCount++;
+
+        return claimed;
+    }
+
+    private void ensureMapsOwned() {
+
+        if (!mapsShared) {
+            return;
+        }
+
+        neuronMap = new SortedLongArrayMap<>(neuronMap);
+
+        Map<NeuronType, SortedLongArrayMap<NeuronEntry<NeuronT>>> typeMapCopy = new EnumMap<>(NeuronType.class);
+
+        for (Map.Entry<NeuronType, SortedLongArrayMap<NeuronEntry<NeuronT>>> typeEntry : neuronTypeMap.entrySet()) {
+            typeMapCopy.put(typeEntry.getKey(), new SortedLongArrayMap<>(typeEntry.getValue()));
+        }
+
+        neuronTypeMap = typeMapCopy;
+
+        mapsShared = false;
+    }
+
+    private static class NeuronEntry<NeuronT extends CyclicNeuron> {
+
+        public final Object owner;
+        public final NeuronState<NeuronT> state;
+
+        public NeuronEntry(Object owner, NeuronState<NeuronT> state) {
+            this.owner = owner;
+            this.state = state;
+        }
+    }
 }
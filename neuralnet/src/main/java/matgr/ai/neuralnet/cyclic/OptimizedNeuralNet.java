@@ -0,0 +1,632 @@
+package matgr.ai.neuralnet.cyclic;
+
+import matgr.ai.math.MathFunctions;
+import matgr.ai.neuralnet.ComputePrecision;
+import matgr.ai.neuralnet.NeuronType;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// NOTE: this is a reduced copy of a CyclicNeuralNet that can only be evaluated (nothing is shared with the network, so
+//       the network can carry on being modified)... inactive connections and neurons that can't reach an output are
+//       dropped, and the bias (and max steps) are fixed when it's built, so the bias connections become constant
+//       offsets... when the network settles in a single sweep, hidden identity neurons are also folded into the
+//       connections that pass through them (doing that to a network that is iterated would change how many steps
+//       signals take to arrive)
+//
+//       the outputs match the network's to within rounding (sums are done in a different order), although a cyclic
+//       network may stop iterating sooner, since there's no waiting for dropped neurons to settle
+//
+//       with one of the Float32 compute precisions, the weights and activations are stored as floats (and are only as
+//       close to the network's as that allows)
+public class OptimizedNeuralNet {
+
+    private final int inputCount;
+    private final int[] outputIndices;
+
+    private final ComputePrecision computePrecision;
+
+    // NOTE: neurons are laid out as the inputs followed by the activatable neurons, everything below is indexed by the
+    //       position of the activatable neuron (the incoming connections are CSR style)... depending on the compute
+    //       precision, only one of weights/singleWeights (and postSynapses/singlePostSynapses) is used
+    private final ActivationKernel[] kernels;
+    private final double[] offsets;
+    private final int[] incomingOffsets;
+    private final int[] sourceIndices;
+    private final double[] weights;
+    private final float[] singleWeights;
+
+    // NOTE: when this is true, the activatable neurons are in topological order and a single pass settles them
+    private final boolean sweep;
+    private final int maxStepsPerActivation;
+
+    private final double[] preSynapses;
+    private final double[] postSynapses;
+    private final float[] singlePostSynapses;
+
+    private OptimizedNeuralNet(int inputCount,
+                               int[] outputIndices,
+                               ComputePrecision computePrecision,
+                               ActivationKernel[] kernels,
+                               double[] offsets,
+                               int[] incomingOffsets,
+                               int[] sourceIndices,
+                               double[] weights,
+                               boolean sweep,
+                               int maxStepsPerActivation,
+                               double[] postSynapses) {
+
+        this.inputCount = inputCount;
+        this.outputIndices = outputIndices;
+
+        this.computePrecision = computePrecision;
+
+        this.kernels = kernels;
+        this.incomingOffsets = incomingOffsets;
+        this.sourceIndices = sourceIndices;
+
+        this.sweep = sweep;
+        this.maxStepsPerActivation = maxStepsPerActivation;
+
+        this.preSynapses = new double[kernels.length];
+
+        if (computePrecision == ComputePrecision.Float64) {
+
+            this.offsets = offsets;
+            this.weights = weights;
+            this.singleWeights = null;
+
+            this.postSynapses = postSynapses;
+            this.singlePostSynapses = null;
+
+        } else {
+
+            // NOTE: the offsets are per neuron (so they don't cost much bandwidth), they're just rounded to match
+            this.offsets = new double[offsets.length];
+            this.weights = null;
+            this.singleWeights = new float[weights.length];
+
+            this.postSynapses = null;
+            this.singlePostSynapses = new float[postSynapses.length];
+
+            for (int i = 0; i < offsets.length; i++) {
+                this.offsets[i] = (float) offsets[i];
+            }
+
+            for (int i = 0; i < weights.length; i++) {
+                this.singleWeights[i] = (float) weights[i];
+            }
+
+            for (int i = 0; i < postSynapses.length; i++) {
+                this.singlePostSynapses[i] = (float) postSynapses[i];
+            }
+        }
+    }
+
+    // NOTE: the plan must have been prepared (so its weights, kernels and sweep order are up to date)
+    static OptimizedNeuralNet optimize(ActivationPlan<?> plan,
+                                       double bias,
+                                       int maxStepsPerActivation,
+                                       ComputePrecision computePrecision) {
+
+        if (Double.isNaN(bias)) {
+            throw new IllegalArgumentException("bias cannot be NaN");
+        }
+        if (null == computePrecision) {
+            throw new IllegalArgumentException("computePrecision not provided");
+        }
+
+        int neuronCount = plan.states.length;
+        int activatableCount = plan.activatableIndices.length;
+
+        boolean[] live = findLiveNeurons(plan);
+
+        int[] sweepOrder = plan.getSweepOrder();
+        boolean sweep = (sweepOrder != null) && (plan.getSweepDepth() < maxStepsPerActivation);
+
+        int[] order = sweepOrder;
+
+        if (!sweep) {
+
+            order = new int[activatableCount];
+
+            for (int i = 0; i < activatableCount; i++) {
+                order[i] = i;
+            }
+        }
+
+        // work out which neurons are kept (and where they go), and which are folded away
+        int[] newIndices = new int[neuronCount];
+        Arrays.fill(newIndices, -1);
+
+        boolean[] folded = new boolean[neuronCount];
+
+        int inputCount = plan.inputIndices.length;
+
+        for (int i = 0; i < inputCount; i++) {
+            newIndices[plan.inputIndices[i]] = i;
+        }
+
+        int newNeuronCount = inputCount;
+
+        for (int position : order) {
+
+            int neuronIndex = plan.activatableIndices[position];
+
+            if (!live[neuronIndex]) {
+                continue;
+            }
+
+            if (sweep && isFoldable(plan, position)) {
+                folded[neuronIndex] = true;
+            } else {
+                newIndices[neuronIndex] = newNeuronCount++;
+            }
+        }
+
+        int newActivatableCount = newNeuronCount - inputCount;
+
+        ActivationKernel[] kernels = new ActivationKernel[newActivatableCount];
+        double[] offsets = new double[newActivatableCount];
+        int[] incomingOffsets = new int[newActivatableCount + 1];
+
+        int[] sourceIndices = new int[plan.sourceIndices.length];
+        double[] weights = new double[plan.sourceIndices.length];
+
+        int connectionCount = 0;
+
+        // NOTE: folded neurons are replaced by their own (already folded) incoming connections and offset, the sweep
+        //       order guarantees that they've been processed before anything they feed
+        int[][] foldedSources = new int[neuronCount][];
+        double[][] foldedWeights = new double[neuronCount][];
+        double[] foldedOffsets = new double[neuronCount];
+
+        IncomingTerms terms = new IncomingTerms(newNeuronCount);
+
+        for (int position : order) {
+
+            int neuronIndex = plan.activatableIndices[position];
+
+            if (!live[neuronIndex]) {
+                continue;
+            }
+
+            terms.clear();
+
+            for (int j = plan.incomingOffsets[neuronIndex]; j < plan.incomingOffsets[neuronIndex + 1]; j++) {
+
+                double weight = plan.weights[j];
+
+                if (weight == 0.0) {
+                    continue;
+                }
+
+                int sourceIndex = plan.sourceIndices[j];
+
+                if (sourceIndex == plan.biasIndex) {
+
+                    terms.offset += bias * weight;
+
+                } else if (folded[sourceIndex]) {
+
+                    terms.offset += foldedOffsets[sourceIndex] * weight;
+
+                    int[] sources = foldedSources[sourceIndex];
+                    double[] sourceWeights = foldedWeights[sourceIndex];
+
+                    for (int k = 0; k < sources.length; k++) {
+                        terms.add(sources[k], sourceWeights[k] * weight);
+                    }
+
+                } else {
+
+                    terms.add(newIndices[sourceIndex], weight);
+                }
+            }
+
+            if (folded[neuronIndex]) {
+
+                foldedSources[neuronIndex] = terms.getSources();
+                foldedWeights[neuronIndex] = terms.getWeights();
+                foldedOffsets[neuronIndex] = terms.offset;
+
+                continue;
+            }
+
+            int newPosition = newIndices[neuronIndex] - inputCount;
+
+            kernels[newPosition] = plan.activatableKernels[position];
+            offsets[newPosition] = terms.offset;
+
+            // NOTE: folding can produce more connections than there were to start with
+            if (connectionCount + terms.count > weights.length) {
+
+                int capacity = Math.max(weights.length << 1, connectionCount + terms.count);
+
+                sourceIndices = Arrays.copyOf(sourceIndices, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+
+            for (int k = 0; k < terms.count; k++) {
+
+                // NOTE: folding can also cancel connections out completely
+                if (terms.weights[k] != 0.0) {
+
+                    sourceIndices[connectionCount] = terms.sources[k];
+                    weights[connectionCount] = terms.weights[k];
+
+                    connectionCount++;
+                }
+            }
+
+            incomingOffsets[newPosition + 1] = connectionCount;
+        }
+
+        int[] outputIndices = new int[plan.outputIndices.length];
+
+        for (int i = 0; i < outputIndices.length; i++) {
+            outputIndices[i] = newIndices[plan.outputIndices[i]];
+        }
+
+        // NOTE: the current state of the network is carried over (it only matters if the network is iterated)
+        double[] postSynapses = new double[newNeuronCount];
+
+        for (int i = 0; i < neuronCount; i++) {
+
+            if (newIndices[i] >= 0) {
+                postSynapses[newIndices[i]] = plan.states[i].postSynapse;
+            }
+        }
+
+        return new OptimizedNeuralNet(
+                inputCount,
+                outputIndices,
+                computePrecision,
+                kernels,
+                offsets,
+                incomingOffsets,
+                Arrays.copyOf(sourceIndices, connectionCount),
+                Arrays.copyOf(weights, connectionCount),
+                sweep,
+                maxStepsPerActivation,
+                postSynapses);
+    }
+
+    public int inputCount() {
+        return inputCount;
+    }
+
+    public int outputCount() {
+        return outputIndices.length;
+    }
+
+    public int neuronCount() {
+        return inputCount + kernels.length;
+    }
+
+    public int connectionCount() {
+        return sourceIndices.length;
+    }
+
+    public boolean isAcyclic() {
+        return sweep;
+    }
+
+    public ComputePrecision getComputePrecision() {
+        return computePrecision;
+    }
+
+    public void resetState() {
+
+        if (postSynapses != null) {
+            Arrays.fill(postSynapses, 0.0);
+        } else {
+            Arrays.fill(singlePostSynapses, 0.0f);
+        }
+    }
+
+    public List<Double> activateSingle(List<Double> inputSet, boolean resetStateBeforeActivation) {
+
+        double[] inputs = new double[inputSet.size()];
+
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = inputSet.get(i);
+        }
+
+        double[] outputs = new double[outputIndices.length];
+
+        activate(inputs, outputs, resetStateBeforeActivation);
+
+        List<Double> outputList = new ArrayList<>(outputs.length);
+
+        for (double output : outputs) {
+            outputList.add(output);
+        }
+
+        return outputList;
+    }
+
+    // NOTE: returns false if max steps was reached without converging
+    public boolean activate(double[] inputs, double[] outputs, boolean resetStateBeforeActivation) {
+
+        if (inputs.length != inputCount) {
+            throw new IllegalArgumentException("Input signal array has an incorrect number of inputs");
+        }
+        if (outputs.length != outputIndices.length) {
+            throw new IllegalArgumentException("Output signal array has an incorrect number of outputs");
+        }
+
+        if (resetStateBeforeActivation) {
+            resetState();
+        }
+
+        for (int i = 0; i < inputCount; i++) {
+
+            double inputValue = inputs[i];
+
+            if (Double.isNaN(inputValue)) {
+                inputValue = 0.0;
+            }
+
+            setPostSynapse(i, inputValue);
+        }
+
+        boolean completed = true;
+
+        if (sweep) {
+            sweep();
+        } else {
+            completed = iterate();
+        }
+
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = getPostSynapse(outputIndices[i]);
+        }
+
+        return completed;
+    }
+
+    private void sweep() {
+
+        for (int position = 0; position < kernels.length; position++) {
+
+            double preSynapse = sumIncoming(position);
+            setPostSynapse(inputCount + position, ActivationPlan.computeActivation(kernels[position], preSynapse));
+        }
+    }
+
+    private boolean iterate() {
+
+        for (int step = 0; step < maxStepsPerActivation; step++) {
+
+            for (int position = 0; position < kernels.length; position++) {
+                preSynapses[position] = sumIncoming(position);
+            }
+
+            boolean moreWork = false;
+
+            for (int position = 0; position < kernels.length; position++) {
+
+                int neuronIndex = inputCount + position;
+                double value = ActivationPlan.computeActivation(kernels[position], preSynapses[position]);
+
+                double previousValue = getPostSynapse(neuronIndex);
+
+                setPostSynapse(neuronIndex, value);
+
+                // NOTE: compared after storing, so a float network compares the rounded value
+                if (!MathFunctions.fuzzyCompare(getPostSynapse(neuronIndex), previousValue)) {
+                    moreWork = true;
+                }
+            }
+
+            if (!moreWork) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private double getPostSynapse(int neuronIndex) {
+
+        if (postSynapses != null) {
+            return postSynapses[neuronIndex];
+        }
+
+        return singlePostSynapses[neuronIndex];
+    }
+
+    private void setPostSynapse(int neuronIndex, double value) {
+
+        if (postSynapses != null) {
+            postSynapses[neuronIndex] = value;
+        } else {
+            singlePostSynapses[neuronIndex] = (float) value;
+        }
+    }
+
+    private double sumIncoming(int position) {
+
+        switch (computePrecision) {
+
+            case Float32:
+                return sumIncomingSingle(position);
+
+            case Float32Accumulate64:
+                return sumIncomingMixed(position);
+
+            default:
+                return sumIncomingDouble(position);
+        }
+    }
+
+    private double sumIncomingDouble(int position) {
+
+        int end = incomingOffsets[position + 1];
+
+        double preSynapse = offsets[position];
+
+        for (int i = incomingOffsets[position]; i < end; i++) {
+
+            preSynapse += postSynapses[sourceIndices[i]] * weights[i];
+
+            if (Double.isNaN(preSynapse)) {
+                preSynapse = 0.0;
+            }
+        }
+
+        return preSynapse;
+    }
+
+    private double sumIncomingSingle(int position) {
+
+        float[] weights = this.singleWeights;
+        float[] postSynapses = this.singlePostSynapses;
+
+        int end = incomingOffsets[position + 1];
+
+        float preSynapse = (float) offsets[position];
+
+        for (int i = incomingOffsets[position]; i < end; i++) {
+
+            preSynapse += postSynapses[sourceIndices[i]] * weights[i];
+
+            if (Float.isNaN(preSynapse)) {
+                preSynapse = 0.0f;
+            }
+        }
+
+        return preSynapse;
+    }
+
+    private double sumIncomingMixed(int position) {
+
+        float[] weights = this.singleWeights;
+        float[] postSynapses = this.singlePostSynapses;
+
+        int end = incomingOffsets[position + 1];
+
+        double preSynapse = offsets[position];
+
+        for (int i = incomingOffsets[position]; i < end; i++) {
+
+            preSynapse += (double) postSynapses[sourceIndices[i]] * weights[i];
+
+            if (Double.isNaN(preSynapse)) {
+                preSynapse = 0.0;
+            }
+        }
+
+        return preSynapse;
+    }
+
+    // NOTE: finds everything that can reach an output through active connections (working backwards from the outputs)
+    private static boolean[] findLiveNeurons(ActivationPlan<?> plan) {
+
+        boolean[] live = new boolean[plan.states.length];
+
+        int[] stack = new int[plan.states.length];
+        int top = 0;
+
+        for (int outputIndex : plan.outputIndices) {
+
+            if (!live[outputIndex]) {
+
+                live[outputIndex] = true;
+                stack[top++] = outputIndex;
+            }
+        }
+
+        while (top > 0) {
+
+            int targetIndex = stack[--top];
+
+            for (int j = plan.incomingOffsets[targetIndex]; j < plan.incomingOffsets[targetIndex + 1]; j++) {
+
+                int sourceIndex = plan.sourceIndices[j];
+
+                if ((plan.weights[j] != 0.0) && !live[sourceIndex]) {
+
+                    live[sourceIndex] = true;
+                    stack[top++] = sourceIndex;
+                }
+            }
+        }
+
+        return live;
+    }
+
+    private static boolean isFoldable(ActivationPlan<?> plan, int position) {
+
+        int neuronIndex = plan.activatableIndices[position];
+
+        return (plan.states[neuronIndex].neuron.type == NeuronType.Hidden) &&
+                (plan.activatableKernels[position] == KnownActivationFunctions.IDENTITY_KERNEL);
+    }
+
+    // NOTE: the incoming connections of a single neuron while they are being built, connections from the same source
+    //       (which folding can produce) are merged
+    private static class IncomingTerms {
+
+        private final int[] slots;
+
+        public int[] sources;
+        public double[] weights;
+        public int count;
+
+        public double offset;
+
+        public IncomingTerms(int neuronCount) {
+
+            this.slots = new int[neuronCount];
+            Arrays.fill(slots, -1);
+
+            this.sources = new int[4];
+            this.weights = new double[4];
+        }
+
+        public void clear() {
+
+            for (int i = 0; i < count; i++) {
+                slots[sources[i]] = -1;
+            }
+
+            count = 0;
+            offset = 0.0;
+        }
+
+        public void add(int source, double weight) {
+
+            int slot = slots[source];
+
+            if (slot >= 0) {
+                weights[slot] += weight;
+                return;
+            }
+
+            if (count == sources.length) {
+                sources = Arrays.copyOf(sources, count << 1);
+                weights = Arrays.copyOf(weights, count << 1);
+            }
+
+            slots[source] = count;
+
+            sources[count] = source;
+            weights[count] = weight;
+
+            count++;
+        }
+
+        public int[] getSources() {
+            return Arrays.copyOf(sources, count);
+        }
+
+        public double[] getWeights() {
+            return Arrays.copyOf(weights, count);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package matgr.ai.neuralnet.cyclic;
 import java.util.List;
 import java.util.Set;
 
+// NOTE: nothing is claimed by reading it, so the connections handed out from here may be shared with clones of the
+//       network... they can only be modified through the network (see CyclicNeuralNet.setConnectionWeight and
+//       setConnectionEnabled), which copies them first
 public class ReadOnlyConnectionMap<ConnectionT extends Connection> {
 
     private final ConnectionMap<ConnectionT> connections;
@@ -6,6 +6,9 @@ import matgr.ai.neuralnet.NeuronType;
 
 import java.util.Set;
 
+// NOTE: nothing is claimed by reading it, so the neurons handed out from here may be shared with clones of the network...
+//       they can only be modified through the network (see CyclicNeuralNet.setActivationFunction), which copies them
+//       first
 public class ReadOnlyNeuronMap<NeuronT extends CyclicNeuron> {
 
     private NeuronMap<NeuronT> neurons;
@@ -0,0 +1,69 @@
+package matgr.ai.neuralnet.dataset;
+
+// NOTE: items paired with their labels (each an IDX file, see IdxFile)... the inputs of a sample are its item scaled
+//       to [0, 1], and the targets are its label one-hot encoded over classCount classes
+public final class IdxDataset {
+
+    private final IdxFile items;
+    private final IdxFile labels;
+
+    private final int classCount;
+
+    public IdxDataset(IdxFile items, IdxFile labels, int classCount) {
+
+        if (null == items) {
+            throw new IllegalArgumentException("items not provided");
+        }
+        if (null == labels) {
+            throw new IllegalArgumentException("labels not provided");
+        }
+        if (items.itemCount() != labels.itemCount()) {
+            throw new IllegalArgumentException("Number of items and labels don't match");
+        }
+        if (labels.itemSize() != 1) {
+            throw new IllegalArgumentException("Labels must be single values");
+        }
+        if (classCount < 1) {
+            throw new IllegalArgumentException("classCount must be at least 1");
+        }
+
+        this.items = items;
+        this.labels = labels;
+        this.classCount = classCount;
+    }
+
+    public int size() {
+        return items.itemCount();
+    }
+
+    public int inputCount() {
+        return items.itemSize();
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    public int getLabel(int sample) {
+        return labels.get(sample, 0);
+    }
+
+    public void copyInputs(int sample, double[] inputs) {
+        items.copyItem(sample, inputs, 0);
+    }
+
+    public void copyTargets(int sample, double[] targets) {
+
+        int label = getLabel(sample);
+
+        if (label >= classCount) {
+            throw new IllegalStateException("Label is outside of the classes");
+        }
+
+        for (int i = 0; i < classCount; i++) {
+            targets[i] = 0.0;
+        }
+
+        targets[label] = 1.0;
+    }
+}
@@ -0,0 +1,136 @@
+package matgr.ai.neuralnet.dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// NOTE: an IDX file (the format MNIST comes in, see http://yann.lecun.com/exdb/mnist/) memory mapped rather than read
+//       in, so opening one costs the same however big it is, and items are only read (and normalized) when they're
+//       copied out... only unsigned byte data is supported for now... the first dimension is the item count, and the
+//       rest are the shape of each item (which is empty for labels, so each item is a single value)
+public final class IdxFile {
+
+    private static final int UNSIGNED_BYTE = 0x08;
+
+    private static final double DOUBLE_SCALE = 1.0 / 255.0;
+    private static final float FLOAT_SCALE = 1.0f / 255.0f;
+
+    // NOTE: only ever read with absolute gets (which don't touch the position), so any number of threads can copy
+    //       items out at once
+    private final ByteBuffer data;
+
+    private final int itemCount;
+    private final int[] itemShape;
+    private final int itemSize;
+
+    private IdxFile(ByteBuffer data, int itemCount, int[] itemShape, int itemSize) {
+
+        this.data = data;
+
+        this.itemCount = itemCount;
+        this.itemShape = itemShape;
+        this.itemSize = itemSize;
+    }
+
+    public static IdxFile map(Path path) throws IOException {
+
+        if (null == path) {
+            throw new IllegalArgumentException("path not provided");
+        }
+
+        // NOTE: the mapping stays valid after the channel is closed
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        if (buffer.capacity() < 4) {
+            throw new IllegalArgumentException("Invalid IDX file");
+        }
+
+        int magic0 = buffer.get(0) & 0xff;
+        int magic1 = buffer.get(1) & 0xff;
+
+        int dataType = buffer.get(2) & 0xff;
+        int dimensionCount = buffer.get(3) & 0xff;
+
+        if ((magic0 != 0) || (magic1 != 0)) {
+            throw new IllegalArgumentException("Invalid IDX file");
+        }
+
+        if (dataType != UNSIGNED_BYTE) {
+            throw new IllegalArgumentException("Only single byte data supported for now...");
+        }
+
+        if (dimensionCount < 1) {
+            throw new IllegalArgumentException("IDX file has no dimensions");
+        }
+
+        int headerSize = 4 + (4 * dimensionCount);
+
+        if (buffer.capacity() < headerSize) {
+            throw new IllegalArgumentException("Invalid IDX file");
+        }
+
+        int itemCount = buffer.getInt(4);
+        int[] itemShape = new int[dimensionCount - 1];
+
+        long itemSize = 1;
+
+        for (int i = 0; i < itemShape.length; i++) {
+
+            itemShape[i] = buffer.getInt(8 + (4 * i));
+            itemSize *= itemShape[i];
+        }
+
+        if ((itemCount < 0) || (itemSize < 0) || (headerSize + (itemCount * itemSize) > buffer.capacity())) {
+            throw new IllegalArgumentException("IDX file is smaller than its dimensions");
+        }
+
+        buffer.position(headerSize);
+
+        return new IdxFile(buffer.slice(), itemCount, itemShape, (int) itemSize);
+    }
+
+    public int itemCount() {
+        return itemCount;
+    }
+
+    public int[] itemShape() {
+        return itemShape.clone();
+    }
+
+    public int itemSize() {
+        return itemSize;
+    }
+
+    // NOTE: the raw (unsigned) value
+    public int get(int item, int index) {
+        return data.get((item * itemSize) + index) & 0xff;
+    }
+
+    // NOTE: the values of the item scaled to [0, 1], written to target starting at offset
+    public void copyItem(int item, double[] target, int offset) {
+
+        int start = item * itemSize;
+
+        for (int i = 0; i < itemSize; i++) {
+            target[offset + i] = (data.get(start + i) & 0xff) * DOUBLE_SCALE;
+        }
+    }
+
+    public void copyItem(int item, float[] target, int offset) {
+
+        int start = item * itemSize;
+
+        for (int i = 0; i < itemSize; i++) {
+            target[offset + i] = (data.get(start + i) & 0xff) * FLOAT_SCALE;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package matgr.ai.neuralnet.dataset;
+
+import java.util.Arrays;
+
+// NOTE: the inputs and targets of a batch of samples, laid out for FeedForwardNeuralNet.train... the rows are
+//       allocated once and refilled for every batch (see MiniBatchPrefetcher), so nothing is allocated per batch
+//       except when a batch is shorter than the ones before it (the last one of an epoch)
+public final class MiniBatch {
+
+    private final double[][] inputRows;
+    private final double[][] targetRows;
+
+    // NOTE: the first size rows of the above (the same arrays)
+    private double[][] inputs;
+    private double[][] targets;
+
+    MiniBatch(int capacity, int inputCount, int targetCount) {
+
+        this.inputRows = new double[capacity][inputCount];
+        this.targetRows = new double[capacity][targetCount];
+
+        this.inputs = inputRows;
+        this.targets = targetRows;
+    }
+
+    public int size() {
+        return inputs.length;
+    }
+
+    public double[][] inputs() {
+        return inputs;
+    }
+
+    public double[][] targets() {
+        return targets;
+    }
+
+    int capacity() {
+        return inputRows.length;
+    }
+
+    // NOTE: fills the batch with the samples at order[from] to order[from + size - 1]
+    void fill(IdxDataset dataset, int[] order, int from, int size) {
+
+        if (size != inputs.length) {
+
+            inputs = (size == inputRows.length) ? inputRows : Arrays.copyOf(inputRows, size);
+            targets = (size == targetRows.length) ? targetRows : Arrays.copyOf(targetRows, size);
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            int sample = order[from + i];
+
+            dataset.copyInputs(sample, inputs[i]);
+            dataset.copyTargets(sample, targets[i]);
+        }
+    }
+}
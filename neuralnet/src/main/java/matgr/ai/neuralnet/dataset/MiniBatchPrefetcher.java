@@ -0,0 +1,177 @@
+package matgr.ai.neuralnet.dataset;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// NOTE: shuffled mini-batches of a dataset, prepared on a background thread while the caller trains on the ones
+//       before them... up to prefetchCount batches are prepared ahead, each in a batch that was released back after
+//       training on it (so the same few batches are reused for every epoch)... only one thread should take batches
+//
+//       for each epoch: startEpoch(), then next() (and release() once done with it) until next() returns null
+//
+//       the samples are copied (and normalized) into the batches, rather than the batches being views over the
+//       mapped files, since training takes double[][] rows... only the batches are reused, not the samples
+public class MiniBatchPrefetcher implements AutoCloseable {
+
+    private final IdxDataset dataset;
+    private final int batchSize;
+    private final RandomGenerator random;
+
+    // NOTE: the order the samples are taken in (shuffled for each epoch)
+    private final int[] order;
+
+    private final BlockingQueue<MiniBatch> freeBatches;
+    private final BlockingQueue<MiniBatch> readyBatches;
+
+    // NOTE: put in readyBatches after the last batch of an epoch
+    private final MiniBatch endOfEpoch;
+
+    private final ExecutorService executor;
+
+    private Future<?> epoch;
+
+    public MiniBatchPrefetcher(IdxDataset dataset, int batchSize, int prefetchCount, RandomGenerator random) {
+
+        if (null == dataset) {
+            throw new IllegalArgumentException("dataset not provided");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (prefetchCount < 1) {
+            throw new IllegalArgumentException("prefetchCount must be at least 1");
+        }
+        if (null == random) {
+            throw new IllegalArgumentException("random not provided");
+        }
+
+        this.dataset = dataset;
+        this.batchSize = batchSize;
+        this.random = random;
+
+        this.order = new int[dataset.size()];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        // NOTE: one more than is prefetched, for the batch the caller is training on
+        int batchCount = prefetchCount + 1;
+
+        this.freeBatches = new ArrayBlockingQueue<>(batchCount);
+        this.readyBatches = new ArrayBlockingQueue<>(batchCount + 1);
+
+        for (int i = 0; i < batchCount; i++) {
+            freeBatches.add(new MiniBatch(batchSize, dataset.inputCount(), dataset.classCount()));
+        }
+
+        this.endOfEpoch = new MiniBatch(0, 0, 0);
+
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+
+            Thread thread = new Thread(runnable, "MiniBatchPrefetcher");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int batchCount() {
+        return (order.length + batchSize - 1) / batchSize;
+    }
+
+    public void startEpoch() {
+
+        if (null != epoch) {
+            throw new IllegalStateException("The previous epoch hasn't finished");
+        }
+
+        // NOTE: Fisher-Yates (done here rather than in the background, since the random generator isn't thread safe)
+        for (int i = order.length - 1; i > 0; i--) {
+
+            int j = random.nextInt(i + 1);
+
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+
+        epoch = executor.submit(this::prepareEpoch);
+    }
+
+    // NOTE: waits for the next batch if it isn't ready yet, and returns null once every batch of the epoch has been
+    //       taken... batches are only prepared into released batches, so this waits forever once prefetchCount + 1
+    //       batches have been taken without being released
+    public MiniBatch next() throws InterruptedException {
+
+        if (null == epoch) {
+            throw new IllegalStateException("No epoch has been started");
+        }
+
+        MiniBatch batch = readyBatches.take();
+
+        if (batch != endOfEpoch) {
+            return batch;
+        }
+
+        try {
+
+            epoch.get();
+
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to prepare mini-batches", e.getCause());
+
+        } finally {
+            epoch = null;
+        }
+
+        return null;
+    }
+
+    public void release(MiniBatch batch) {
+
+        if (null == batch) {
+            throw new IllegalArgumentException("batch not provided");
+        }
+        if (batch.capacity() != batchSize) {
+            throw new IllegalArgumentException("batch is not from this prefetcher");
+        }
+
+        freeBatches.add(batch);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Void prepareEpoch() throws InterruptedException {
+
+        try {
+
+            for (int from = 0; from < order.length; from += batchSize) {
+
+                MiniBatch batch = freeBatches.take();
+
+                batch.fill(dataset, order, from, Math.min(batchSize, order.length - from));
+
+                readyBatches.put(batch);
+            }
+
+        } finally {
+            readyBatches.put(endOfEpoch);
+        }
+
+        return null;
+    }
+}
@@ -2,14 +2,19 @@ package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.activation.ActivationFunction;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 import matgr.ai.neuralnet.activation.KnownActivationFunctions;
 
 public abstract class ActivatableLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
 
     private final ActivationFunction activationFunction;
     private final double[] activationFunctionParameters;
+    private final ActivationKernel exactActivationKernel;
+    private final ActivationKernel approximateActivationKernel;
+
+    private ActivationKernel activationKernel;
 
     protected ActivatableLayer(NeuronFactory<NeuronT> neuronFactory,
                                ActivationFunction activationFunction,
@@ -25,6 +30,15 @@ public abstract class ActivatableLayer<NeuronT extends Neuron> extends NeuronLay
 
         this.activationFunction = activationFunction;
         this.activationFunctionParameters = activationFunctionParameters;
+        this.exactActivationKernel = activationFunction.bind(
+                ActivationPrecision.Exact,
+                activationFunctionParameters);
+
+        this.approximateActivationKernel = activationFunction.bind(
+                ActivationPrecision.Approximate,
+                activationFunctionParameters);
+
+        this.activationKernel = exactActivationKernel;
     }
 
     protected ActivatableLayer(ActivatableLayer<NeuronT> other) {
@@ -33,26 +47,50 @@ public abstract class ActivatableLayer<NeuronT extends Neuron> extends NeuronLay
 
         this.activationFunction = other.activationFunction;
         this.activationFunctionParameters = other.activationFunctionParameters;
+        this.exactActivationKernel = other.exactActivationKernel;
+        this.approximateActivationKernel = other.approximateActivationKernel;
+        this.activationKernel = other.activationKernel;
     }
 
-    protected void activateNeuron(NeuronState<NeuronT> neuron) {
+    @Override
+    void setActivationPrecision(ActivationPrecision activationPrecision) {
+
+        if (activationPrecision == ActivationPrecision.Approximate) {
+            activationKernel = approximateActivationKernel;
+        } else {
+            activationKernel = exactActivationKernel;
+        }
+    }
 
-        neuron.postSynapse = activationFunction.compute(neuron.preSynapse, activationFunctionParameters);
+    // NOTE: activates the range [from, to) of the arrays
+    protected void activateNeurons(double[] preSynapses, double[] postSynapses, int from, int to) {
 
-        if (Double.isNaN(neuron.postSynapse)) {
-            // NOTE: sigmoid shouldn't produce NaN, so fallback to this one for now...
-            // TODO: pass in some sort of NaN handler (with the ability to completely bail out and return a
-            //       status code from this function)... if it fails, then try this
-            neuron.postSynapse = KnownActivationFunctions.SIGMOID.compute(
-                    neuron.preSynapse,
-                    KnownActivationFunctions.SIGMOID.defaultParameters());
+        activationKernel.apply(preSynapses, postSynapses, from, to);
+
+        for (int i = from; i < to; i++) {
+
+            if (Double.isNaN(postSynapses[i])) {
+                postSynapses[i] = computeFallbackActivation(preSynapses[i]);
+            }
         }
     }
 
-    protected double computePreSynapseOutputDerivative(NeuronState<NeuronT> neuron) {
+    // NOTE: dOut/dIn for the range [from, to) of the arrays
+    protected void computePreSynapseOutputDerivatives(double[] preSynapses,
+                                                      double[] postSynapses,
+                                                      double[] derivatives,
+                                                      int from,
+                                                      int to) {
 
         // TODO: handle NaNs
-        double neuronOutput = neuron.postSynapse;
-        return activationFunction.computeDerivative(neuron.postSynapse, neuronOutput, activationFunctionParameters);
+        activationKernel.derivative(preSynapses, postSynapses, derivatives, from, to);
+    }
+
+    private static double computeFallbackActivation(double preSynapse) {
+
+        // NOTE: sigmoid shouldn't produce NaN, so fallback to this one for now...
+        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and return a
+        //       status code from this function)... if it fails, then try this
+        return KnownActivationFunctions.SIGMOID_KERNEL.apply(preSynapse);
     }
 }
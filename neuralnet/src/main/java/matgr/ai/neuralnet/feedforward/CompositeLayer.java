@@ -1,9 +1,11 @@
 package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.SizedIterable;
+import matgr.ai.neuralnet.ActivationContext;
+import matgr.ai.neuralnet.ComputePrecision;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.ArrayList;
@@ -59,8 +61,13 @@ public class CompositeLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT>
     }
 
     @Override
-    SizedIterable<NeuronState<NeuronT>> outputWritableNeurons() {
-        return lastLayer().outputWritableNeurons();
+    Tensor outputs() {
+        return lastLayer().outputs();
+    }
+
+    @Override
+    Tensor outputErrorDerivatives() {
+        return lastLayer().outputErrorDerivatives();
     }
 
     @Override
@@ -85,48 +92,231 @@ public class CompositeLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT>
     }
 
     @Override
-    void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias) {
+    void activate(Tensor previousOutputs, double bias) {
+
+        Tensor previous = previousOutputs;
+
+        for (int i = 0; i < layers.size(); i++) {
+
+            NeuronLayer<NeuronT> layer = layers.get(i);
+
+            layer.activate(previous, bias);
+            previous = layer.outputs();
+        }
+    }
+
+    @Override
+    int stateBufferCount() {
 
-        SizedIterable<NeuronState<NeuronT>> previousNeurons = previousLayerNeurons;
+        int count = 0;
 
         for (NeuronLayer<NeuronT> layer : layers) {
+            count += layer.stateBufferCount();
+        }
+
+        return count;
+    }
 
-            layer.activate(previousNeurons, bias);
-            previousNeurons = layer.outputWritableNeurons();
+    @Override
+    void getStateBufferSizes(int[] sizes, int offset) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.getStateBufferSizes(sizes, offset);
+            offset += layer.stateBufferCount();
         }
     }
 
     @Override
-    void resetPostSynapseErrorDerivatives(double value) {
+    int outputBufferIndex(int offset) {
+        return lastLayer().outputBufferIndex(offset + stateBufferCount() - lastLayer().stateBufferCount());
+    }
+
+    @Override
+    void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias) {
+
+        double[] previous = previousPostSynapses;
+
+        for (int i = 0; i < layers.size(); i++) {
+
+            NeuronLayer<NeuronT> layer = layers.get(i);
+
+            layer.activate(previous, context, offset, bias);
+            previous = context.buffer(layer.outputBufferIndex(offset));
+
+            offset += layer.stateBufferCount();
+        }
+    }
+
+    @Override
+    void setActivationPrecision(ActivationPrecision activationPrecision) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.setActivationPrecision(activationPrecision);
+        }
+    }
+
+    @Override
+    void setComputePrecision(ComputePrecision computePrecision) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.setComputePrecision(computePrecision);
+        }
+    }
+
+    @Override
+    void foldBias(double bias) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.foldBias(bias);
+        }
+    }
+
+    @Override
+    void setSparseInputs(boolean sparseInputs) {
+
+        // NOTE: only the first layer gets the inputs
+        firstLayer().setSparseInputs(sparseInputs);
+    }
+
+    @Override
+    void setTrainingErrorType(ErrorType errorType) {
 
         for (NeuronLayer<NeuronT> layer : layers) {
 
-            layer.resetPostSynapseErrorDerivatives(value);
+            layer.setTrainingErrorType(errorType);
+        }
+    }
+
+    @Override
+    void backPropagate(Tensor previousOutputs,
+                       Tensor previousErrorDerivatives,
+                       double bias,
+                       double learningRate) {
+
+        for (int layerIndex = layers.size() - 1; layerIndex >= 0; layerIndex--) {
+
+            Tensor previous;
+            Tensor previousErrors;
+
+            if (layerIndex > 0) {
+
+                NeuronLayer<NeuronT> previousLayer = layers.get(layerIndex - 1);
+
+                previous = previousLayer.outputs();
+                previousErrors = previousLayer.outputErrorDerivatives();
+
+            } else {
+
+                previous = previousOutputs;
+                previousErrors = previousErrorDerivatives;
+            }
+
+            layers.get(layerIndex).backPropagate(previous, previousErrors, bias, learningRate);
+        }
+    }
+
+    @Override
+    void activateBatch(double[] previousPostSynapses,
+                       TrainingContext context,
+                       int offset,
+                       int batchSize,
+                       double bias) {
+
+        double[] previous = previousPostSynapses;
+
+        for (int i = 0; i < layers.size(); i++) {
+
+            NeuronLayer<NeuronT> layer = layers.get(i);
+
+            layer.activateBatch(previous, context, offset, batchSize, bias);
+            previous = context.state(layer.outputBufferIndex(offset));
+
+            offset += layer.stateBufferCount();
         }
     }
 
     @Override
-    void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias, double learningRate) {
+    void backPropagateBatch(double[] previousPostSynapses,
+                            double[] previousErrorDerivatives,
+                            TrainingContext context,
+                            int offset,
+                            int gradientOffset,
+                            int batchSize,
+                            double bias) {
 
-        NeuronLayer<NeuronT> layer = lastLayer();
+        int layerOffset = offset + stateBufferCount();
+        int layerGradientOffset = gradientOffset + gradientBufferCount();
 
         for (int layerIndex = layers.size() - 1; layerIndex >= 0; layerIndex--) {
 
-            NeuronLayer<NeuronT> previousLayer = null;
+            NeuronLayer<NeuronT> layer = layers.get(layerIndex);
+
+            layerOffset -= layer.stateBufferCount();
+            layerGradientOffset -= layer.gradientBufferCount();
+
+            double[] previous;
+            double[] previousErrors;
 
-            SizedIterable<NeuronState<NeuronT>> previousNeurons;
             if (layerIndex > 0) {
 
-                previousLayer = layers.get(layerIndex - 1);
-                previousNeurons = previousLayer.outputWritableNeurons();
+                NeuronLayer<NeuronT> previousLayer = layers.get(layerIndex - 1);
+
+                int previousOutputIndex = previousLayer.outputBufferIndex(
+                        layerOffset - previousLayer.stateBufferCount());
+
+                previous = context.state(previousOutputIndex);
+                previousErrors = context.errorDerivatives(previousOutputIndex);
 
             } else {
 
-                previousNeurons = previousLayerNeurons;
+                previous = previousPostSynapses;
+                previousErrors = previousErrorDerivatives;
             }
 
-            layer.backPropagate(previousNeurons, bias, learningRate);
-            layer = previousLayer;
+            layer.backPropagateBatch(
+                    previous,
+                    previousErrors,
+                    context,
+                    layerOffset,
+                    layerGradientOffset,
+                    batchSize,
+                    bias);
+        }
+    }
+
+    @Override
+    int gradientBufferCount() {
+
+        int count = 0;
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+            count += layer.gradientBufferCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    void getGradientBufferSizes(int[] sizes, int offset) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.getGradientBufferSizes(sizes, offset);
+            offset += layer.gradientBufferCount();
+        }
+    }
+
+    @Override
+    void applyGradients(TrainingContext context, int gradientOffset, double learningRate) {
+
+        for (NeuronLayer<NeuronT> layer : layers) {
+
+            layer.applyGradients(context, gradientOffset, learningRate);
+            gradientOffset += layer.gradientBufferCount();
         }
     }
 
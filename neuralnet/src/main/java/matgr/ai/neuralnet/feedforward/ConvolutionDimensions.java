@@ -1,11 +1,5 @@
 package matgr.ai.neuralnet.feedforward;
 
-import matgr.ai.neuralnet.Neuron;
-import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
-
-import java.lang.reflect.Array;
-
 public class ConvolutionDimensions {
 
     public final int inputWidth;
@@ -41,22 +35,21 @@ public class ConvolutionDimensions {
         this(inputWidth, inputHeight, kernelWidth, kernelHeight, strideX, strideY, 0, 0);
     }
 
-    private ConvolutionDimensions(int inputWidth,
-                                  int inputHeight,
-                                  int kernelWidth,
-                                  int kernelHeight,
-                                  int strideX,
-                                  int strideY,
-                                  int paddingX,
-                                  int paddingY) {
-
-        // TODO: pretty sure larger strides don't make sense... (there will be gaps... if gaps end up being
-        //       valid, the convolutions should center the kernels?)
-        if (strideX > kernelWidth) {
-            throw new IllegalArgumentException("Invalid horizontal stride");
+    public ConvolutionDimensions(int inputWidth,
+                                 int inputHeight,
+                                 int kernelWidth,
+                                 int kernelHeight,
+                                 int strideX,
+                                 int strideY,
+                                 int paddingX,
+                                 int paddingY) {
+
+        // NOTE: strides larger than the kernel are fine, they just leave inputs that no kernel position covers
+        if ((strideX < 1) || (strideY < 1)) {
+            throw new IllegalArgumentException("Invalid stride");
         }
-        if (strideY > kernelHeight) {
-            throw new IllegalArgumentException("Invalid vertical stride");
+        if ((paddingX < 0) || (paddingY < 0)) {
+            throw new IllegalArgumentException("Invalid padding");
         }
 
         this.kernelWidth = kernelWidth;
@@ -75,10 +68,10 @@ public class ConvolutionDimensions {
         this.outputWidth = 1 + (this.inputWidth - this.kernelWidth + (2 * paddingX)) / strideX;
         this.outputHeight = 1 + (this.inputHeight - this.kernelHeight + (2 * paddingY)) / strideY;
 
-        if (this.outputWidth < 0) {
+        if ((this.kernelWidth < 1) || (this.kernelWidth > this.inputWidth + (2 * paddingX))) {
             throw new IllegalArgumentException("Invalid kernel width");
         }
-        if (this.outputHeight < 0) {
+        if ((this.kernelHeight < 1) || (this.kernelHeight > this.inputHeight + (2 * paddingY))) {
             throw new IllegalArgumentException("Invalid kernel height");
         }
     }
@@ -103,57 +96,4 @@ public class ConvolutionDimensions {
     public int outputCount() {
         return outputWidth * outputHeight;
     }
-
-    public static <NeuronT extends Neuron> NeuronState<NeuronT>[][] createHiddenNeuronArray(
-            NeuronFactory<NeuronT> neuronFactory,
-            int width,
-            int height) {
-
-        NeuronState<NeuronT>[][] neurons = createEmptyNeuronArray(width, height);
-
-        for (int y = 0; y < height; y++) {
-
-            NeuronState<NeuronT>[] row = neurons[y];
-
-            for (int x = 0; x < width; x++) {
-
-                NeuronT neuron = neuronFactory.createHidden();
-                row[x] = new NeuronState<>(neuron);
-            }
-        }
-
-        return neurons;
-    }
-
-    public static <NeuronT extends Neuron> NeuronState<NeuronT>[][] deepCloneNeuronArray(
-            NeuronState<NeuronT>[][] neurons,
-            int width,
-            int height) {
-
-        NeuronState<NeuronT>[][] neuronsClone = createEmptyNeuronArray(width, height);
-
-        for (int y = 0; y < height; y++) {
-
-            NeuronState<NeuronT>[] sourceRow = neurons[y];
-            NeuronState<NeuronT>[] targetRow = neuronsClone[y];
-
-            for (int x = 0; x < width; x++) {
-
-                targetRow[x] = sourceRow[x].deepClone();
-            }
-        }
-
-        return neurons;
-    }
-
-    public static <NeuronT extends Neuron> NeuronState<NeuronT>[][] createEmptyNeuronArray(int width, int height) {
-
-        @SuppressWarnings("unchecked")
-        NeuronState<NeuronT>[][] neurons = (NeuronState<NeuronT>[][]) Array.newInstance(
-                NeuronState.class,
-                height,
-                width);
-
-        return neurons;
-    }
 }
@@ -1,22 +1,67 @@
 package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.SizedIterable;
-import matgr.ai.common.SizedSelectIterable;
+import matgr.ai.common.DefaultSizedIterable;
+import matgr.ai.neuralnet.ActivationContext;
+import matgr.ai.neuralnet.ComputePrecision;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.activation.ActivationFunction;
 import org.apache.commons.math3.random.RandomGenerator;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.util.List;
+
+// NOTE: inputs and outputs are channel major (so [channel][y][x], and [filter][y][x] for the outputs), which is the
+//       same as plain row major when there is only one of each... the convolution is done by lowering each sample to
+//       one row per output position, holding every input the filters see at that position (with zeros where a filter
+//       hangs over the padding), so the whole thing becomes a single matrix multiply with the filter weights (see
+//       MatrixKernels), and back propagation is the same multiply in reverse, with the errors of each row then added
+//       back onto the inputs they came from
+// NOTE: this might technically be cross-correlation rather than convolution... does that really matter?
+//       it shouldn't as long as the derivatives are calculated correctly during back propagation?)
 public class ConvolutionalLayer<NeuronT extends Neuron> extends ActivatableLayer<NeuronT> {
 
     private final ConvolutionDimensions dimensions;
 
-    private final NeuronState<NeuronT>[][] neurons;
-
-    private double[][] weights;
-    private double biasWeight;
+    private final int channelCount;
+    private final int filterCount;
+
+    // NOTE: the number of inputs each filter sees at one position (and so the number of weights in each filter)
+    private final int patchSize;
+
+    // NOTE: in the same order as the outputs
+    private final List<NeuronT> writableNeurons;
+    private final SizedIterable<NeuronT> neurons;
+
+    private ComputePrecision computePrecision;
+
+    // NOTE: row major, one row of [channel][kernelY][kernelX] weights per filter... depending on the compute precision,
+    //       only one of weights/singleWeights (and biasWeights/singleBiasWeights) is used
+    private double[] weights;
+    private double[] biasWeights;
+    private float[] singleWeights;
+    private float[] singleBiasWeights;
+
+    // NOTE: set once the bias is folded in (see NeuronLayer.foldBias), these are always doubles
+    private double[] foldedBiases;
+
+    // NOTE: the state from the last activate (the tensors are over the arrays, unless the compute precision is single,
+    //       see FullyConnectedLayer)
+    private double[] preSynapses;
+    private double[] postSynapses;
+    private double[] postSynapseErrorDerivatives;
+    private Tensor outputs;
+    private Tensor outputErrorDerivatives;
+
+    // NOTE: scratch space for activating (and back propagating) without a context
+    private double[] inputs;
+    private double[] patches;
+    private double[] patchErrorDerivatives;
+    private double[] lowered;
+    private double[] preSynapseErrorDerivatives;
+    private double[] inputErrorDerivatives;
+    private double[] weightGradients;
+    private double[] biasGradients;
 
     public ConvolutionalLayer(NeuronFactory<NeuronT> neuronFactory,
                               int inputWidth,
@@ -26,17 +71,48 @@ public class ConvolutionalLayer<NeuronT extends Neuron> extends ActivatableLayer
                               ActivationFunction activationFunction,
                               double... activationFunctionParameters) {
 
+        this(
+                neuronFactory,
+                new ConvolutionDimensions(inputWidth, inputHeight, kernelWidth, kernelHeight),
+                1,
+                1,
+                activationFunction,
+                activationFunctionParameters);
+    }
+
+    public ConvolutionalLayer(NeuronFactory<NeuronT> neuronFactory,
+                              ConvolutionDimensions dimensions,
+                              int channelCount,
+                              int filterCount,
+                              ActivationFunction activationFunction,
+                              double... activationFunctionParameters) {
+
         super(neuronFactory, activationFunction, activationFunctionParameters);
 
-        this.dimensions = new ConvolutionDimensions(inputWidth, inputHeight, kernelWidth, kernelHeight);
+        if (null == dimensions) {
+            throw new IllegalArgumentException("dimensions not provided");
+        }
+        if (channelCount < 1) {
+            throw new IllegalArgumentException("channelCount must be at least 1");
+        }
+        if (filterCount < 1) {
+            throw new IllegalArgumentException("filterCount must be at least 1");
+        }
+
+        this.dimensions = dimensions.deepClone();
+
+        this.channelCount = channelCount;
+        this.filterCount = filterCount;
+        this.patchSize = channelCount * this.dimensions.kernelWidth * this.dimensions.kernelHeight;
 
-        this.neurons = ConvolutionDimensions.createHiddenNeuronArray(
-                this.neuronFactory,
-                this.dimensions.outputWidth,
-                this.dimensions.outputHeight);
+        this.writableNeurons = createHiddenNeurons(filterCount * this.dimensions.outputCount());
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
 
-        this.weights = new double[this.dimensions.kernelHeight][this.dimensions.kernelWidth];
-        this.biasWeight = 0.0;
+        this.computePrecision = ComputePrecision.Float64;
+        this.weights = new double[filterCount * patchSize];
+        this.biasWeights = new double[filterCount];
+
+        allocateScratch();
     }
 
     protected ConvolutionalLayer(ConvolutionalLayer<NeuronT> other) {
@@ -45,57 +121,157 @@ public class ConvolutionalLayer<NeuronT extends Neuron> extends ActivatableLayer
 
         this.dimensions = other.dimensions.deepClone();
 
-        this.neurons = ConvolutionDimensions.deepCloneNeuronArray(
-                other.neurons,
-                this.dimensions.outputWidth,
-                this.dimensions.outputHeight);
+        this.channelCount = other.channelCount;
+        this.filterCount = other.filterCount;
+        this.patchSize = other.patchSize;
 
-        this.weights = new double[this.dimensions.kernelHeight][this.dimensions.kernelWidth];
+        this.writableNeurons = deepCloneNeurons(other.writableNeurons);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
 
-        for (int y = 0; y < this.dimensions.kernelHeight; y++) {
+        this.computePrecision = other.computePrecision;
+        this.weights = (null != other.weights) ? other.weights.clone() : null;
+        this.biasWeights = (null != other.biasWeights) ? other.biasWeights.clone() : null;
+        this.singleWeights = (null != other.singleWeights) ? other.singleWeights.clone() : null;
+        this.singleBiasWeights = (null != other.singleBiasWeights) ? other.singleBiasWeights.clone() : null;
+        this.foldedBiases = (null != other.foldedBiases) ? other.foldedBiases.clone() : null;
 
-            double[] sourceRow = other.weights[y];
-            double[] targetRow = this.weights[y];
+        allocateScratch();
 
-            System.arraycopy(sourceRow, 0, targetRow, 0, this.dimensions.kernelWidth);
-        }
+        System.arraycopy(other.preSynapses, 0, preSynapses, 0, preSynapses.length);
+        System.arraycopy(other.postSynapses, 0, postSynapses, 0, postSynapses.length);
+        other.outputErrorDerivatives.copyTo(postSynapseErrorDerivatives, 0);
+
+        outputs.copyFrom(postSynapses, 0);
+        outputErrorDerivatives.copyFrom(postSynapseErrorDerivatives, 0);
     }
 
     @Override
     public int inputCount() {
-        return dimensions.inputCount();
+        return channelCount * dimensions.inputCount();
     }
 
     @Override
     public int outputCount() {
-        return dimensions.outputCount();
+        return filterCount * dimensions.outputCount();
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getFilterCount() {
+        return filterCount;
+    }
+
+    public ComputePrecision getComputePrecision() {
+        return computePrecision;
+    }
+
+    // NOTE: these are the layer's own arrays (not copies), see the NOTE on weights for the layout... only the ones
+    //       matching the compute precision are available
+    public double[] getWeights() {
+
+        if (null == weights) {
+            throw new IllegalStateException("Layer is not double precision");
+        }
+
+        return weights;
+    }
+
+    public double[] getBiasWeights() {
+
+        if (null == biasWeights) {
+            throw new IllegalStateException("Layer is not double precision");
+        }
+
+        return biasWeights;
+    }
+
+    public float[] getSingleWeights() {
+
+        if (null == singleWeights) {
+            throw new IllegalStateException("Layer is not single precision");
+        }
+
+        return singleWeights;
+    }
+
+    public float[] getSingleBiasWeights() {
+
+        if (null == singleBiasWeights) {
+            throw new IllegalStateException("Layer is not single precision");
+        }
+
+        return singleBiasWeights;
     }
 
     @Override
     public SizedIterable<NeuronT> outputNeurons() {
-
-        return new SizedSelectIterable<>(outputWritableNeurons(), n -> n.neuron);
+        return neurons;
     }
 
     @Override
-    protected SizedIterable<NeuronState<NeuronT>> outputWritableNeurons() {
+    Tensor outputs() {
+        return outputs;
+    }
 
-        return new NeuronArrayIterable<>(dimensions.outputWidth, dimensions.outputHeight, neurons);
+    @Override
+    Tensor outputErrorDerivatives() {
+        return outputErrorDerivatives;
     }
 
     @Override
     void randomizeWeights(RandomGenerator random) {
 
-        for (int y = 0; y < dimensions.kernelHeight; y++) {
+        for (int filter = 0; filter < filterCount; filter++) {
 
-            double[] row = weights[y];
+            int filterOffset = filter * patchSize;
 
-            for (int x = 0; x < dimensions.kernelWidth; x++) {
-                row[x] = getRandomWeight(random);
+            for (int i = 0; i < patchSize; i++) {
+                setWeight(filterOffset + i, getRandomWeight(random));
             }
+
+            setBiasWeight(filter, getRandomWeight(random));
         }
+    }
+
+    @Override
+    void setComputePrecision(ComputePrecision computePrecision) {
 
-        biasWeight = getRandomWeight(random);
+        if (null == computePrecision) {
+            throw new IllegalArgumentException("computePrecision not provided");
+        }
+
+        boolean single = (computePrecision != ComputePrecision.Float64);
+
+        if (single && (null != weights)) {
+
+            singleWeights = MatrixKernels.toSingle(weights);
+            singleBiasWeights = MatrixKernels.toSingle(biasWeights);
+            weights = null;
+            biasWeights = null;
+
+        } else if (!single && (null != singleWeights)) {
+
+            weights = MatrixKernels.toDouble(singleWeights);
+            biasWeights = MatrixKernels.toDouble(singleBiasWeights);
+            singleWeights = null;
+            singleBiasWeights = null;
+        }
+
+        this.computePrecision = computePrecision;
+
+        allocateScratch();
+    }
+
+    @Override
+    void foldBias(double bias) {
+
+        foldedBiases = new double[filterCount];
+
+        for (int i = 0; i < foldedBiases.length; i++) {
+            foldedBiases[i] = getBiasWeight(i) * bias;
+        }
     }
 
     @Override
@@ -113,176 +289,478 @@ public class ConvolutionalLayer<NeuronT extends Neuron> extends ActivatableLayer
         }
     }
 
+    // NOTE: besides the pre and post synapse buffers, there is one for the lowered inputs (patchSize values for each
+    //       output position) and one for the output of the multiply (filterCount values for each output position)
     @Override
-    void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias) {
+    int stateBufferCount() {
+        return 4;
+    }
 
-        // TODO: need parameters for wide vs narrow filter (wide means zero padding, narrow is what is currently
-        //       implemented below) ...could maybe just control this based on settings for input/output dimensions and
-        //       the kernel size
-        // TODO: need parameters for stride size (how much to shift filter at each step, below is stride size 1)
+    @Override
+    void getStateBufferSizes(int[] sizes, int offset) {
+        sizes[offset] = outputCount();
+        sizes[offset + 1] = outputCount();
+        sizes[offset + 2] = dimensions.outputCount() * patchSize;
+        sizes[offset + 3] = outputCount();
+    }
 
-        // TODO: this could be way more efficient... would definitely benefit from GPGPU processing
-        // TODO: would also benefit from an array representation of the previous layer neurons... currently accessing
-        //       neurons will likely be absurdly slow...
+    @Override
+    void activate(Tensor previousOutputs, double bias) {
 
         // TODO: handle NaNs
 
-        // NOTE: this might technically be cross-correlation rather than convolution... does that really matter?
-        //       it shouldn't as long as the derivatives are calculated correctly during back propagation?)
+        convolve(previousOutputs.asDoubles(inputs), patches, lowered, preSynapses, 1, bias);
 
-        if ((dimensions.strideX != 1) || (dimensions.strideY != 1) ||
-                (dimensions.paddingX != 0) || (dimensions.paddingY != 0)) {
+        activateNeurons(preSynapses, postSynapses, 0, preSynapses.length);
 
-            // TODO: handle this (see above)
-            throw new NotImplementedException();
-        }
+        outputs.copyFrom(postSynapses, 0);
+    }
 
-        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+    @Override
+    void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias) {
 
-            NeuronState<NeuronT>[] outputRow = neurons[outputY];
+        double[] preSynapses = context.buffer(offset);
+        double[] postSynapses = context.buffer(offset + 1);
 
-            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+        convolve(previousPostSynapses, context.buffer(offset + 2), context.buffer(offset + 3), preSynapses, 1, bias);
 
-                NeuronState<NeuronT> outputNeuron = outputRow[outputX];
-                outputNeuron.preSynapse = 0.0;
+        activateNeurons(preSynapses, postSynapses, 0, outputCount());
+    }
 
-                for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+    @Override
+    void activateBatch(double[] previousPostSynapses,
+                       TrainingContext context,
+                       int offset,
+                       int batchSize,
+                       double bias) {
+
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+
+        convolve(
+                previousPostSynapses,
+                context.state(offset + 2),
+                context.state(offset + 3),
+                preSynapses,
+                batchSize,
+                bias);
+
+        activateNeurons(preSynapses, postSynapses, 0, batchSize * outputCount());
+    }
 
-                    double[] weightsRow = weights[kernelY];
+    @Override
+    void backPropagate(Tensor previousOutputs,
+                       Tensor previousErrorDerivatives,
+                       double bias,
+                       double learningRate) {
 
-                    int inputY = kernelY + outputY;
-                    int inputRowIndex = inputY * dimensions.inputWidth;
+        int outputCount = outputCount();
 
-                    for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+        double[] postSynapseErrorDerivatives = outputErrorDerivatives.asDoubles(this.postSynapseErrorDerivatives);
 
-                        double weight = weightsRow[kernelX];
+        // NOTE: the lowered inputs could be kept from activate, but this is cheap next to the multiply
+        lowerSample(previousOutputs.asDoubles(inputs), 0, patches, 0);
 
-                        int inputX = kernelX + outputX;
-                        int inputIndex = inputRowIndex + inputX;
+        computePreSynapseOutputDerivatives(preSynapses, postSynapses, preSynapseErrorDerivatives, 0, outputCount);
 
-                        NeuronState<NeuronT> inputNeuron = previousLayerNeurons.get(inputIndex);
+        for (int i = 0; i < outputCount; i++) {
+            preSynapseErrorDerivatives[i] = postSynapseErrorDerivatives[i] * preSynapseErrorDerivatives[i];
+        }
 
-                        outputNeuron.preSynapse += (weight * inputNeuron.postSynapse);
+        for (int i = 0; i < weightGradients.length; i++) {
+            weightGradients[i] = 0.0;
+        }
 
-                        if (Double.isNaN(outputNeuron.preSynapse)) {
-                            // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                            //       return a status code from this function)... it should be given
-                            //       "input" and "weight" (so it can decide what to do based on input values being
-                            //       infinite/NaN/etc... if it fails, then set this to 0.0
-                            outputNeuron.preSynapse = 0.0;
-                        }
-                    }
-                }
+        for (int i = 0; i < biasGradients.length; i++) {
+            biasGradients[i] = 0.0;
+        }
 
-                outputNeuron.preSynapse += (biasWeight * bias);
+        double[] previousErrors = null;
 
-                if (Double.isNaN(outputNeuron.preSynapse)) {
-                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                    //       return a status code from this function)... it should be given
-                    //       "neuron.incomingBiasWeight" and "bias" (so it can decide what to do based on input values being
-                    //       infinite/NaN/etc... if it fails, then set this to 0.0
-                    outputNeuron.preSynapse = 0.0;
-                }
+        if (null != previousErrorDerivatives) {
+            previousErrors = previousErrorDerivatives.asDoubles(inputErrorDerivatives);
+        }
 
-                activateNeuron(outputNeuron);
-            }
+        convolveBackwards(
+                patches,
+                preSynapseErrorDerivatives,
+                lowered,
+                patchErrorDerivatives,
+                previousErrors,
+                weightGradients,
+                biasGradients,
+                1,
+                bias);
+
+        // update previous layer dE/dOut
+        if (null != previousErrorDerivatives) {
+            previousErrorDerivatives.copyFrom(previousErrors, 0);
         }
+
+        // update incoming connection (and bias) weights
+        applyGradients(weightGradients, biasGradients, learningRate);
     }
 
     @Override
-    void resetPostSynapseErrorDerivatives(double value) {
+    void backPropagateBatch(double[] previousPostSynapses,
+                            double[] previousErrorDerivatives,
+                            TrainingContext context,
+                            int offset,
+                            int gradientOffset,
+                            int batchSize,
+                            double bias) {
 
-        for (int y = 0; y < dimensions.outputHeight; y++) {
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+        double[] postSynapseErrorDerivatives = context.errorDerivatives(offset + 1);
 
-            NeuronState<NeuronT>[] row = neurons[y];
+        // NOTE: dE/dIn goes in the pre synapse error derivatives (nothing else uses them)
+        double[] preSynapseErrorDerivatives = context.errorDerivatives(offset);
 
-            for (int x = 0; x < dimensions.outputWidth; x++) {
+        int count = batchSize * outputCount();
 
-                NeuronState<NeuronT> neuron = row[x];
-                neuron.postSynapseErrorDerivative = value;
-            }
+        computePreSynapseOutputDerivatives(preSynapses, postSynapses, preSynapseErrorDerivatives, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            preSynapseErrorDerivatives[i] = postSynapseErrorDerivatives[i] * preSynapseErrorDerivatives[i];
         }
+
+        convolveBackwards(
+                context.state(offset + 2),
+                preSynapseErrorDerivatives,
+                context.errorDerivatives(offset + 3),
+                context.errorDerivatives(offset + 2),
+                previousErrorDerivatives,
+                context.gradient(gradientOffset),
+                context.gradient(gradientOffset + 1),
+                batchSize,
+                bias);
     }
 
     @Override
-    void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons,
-                       double bias,
-                       double learningRate) {
+    int gradientBufferCount() {
+        return 2;
+    }
 
-        if ((dimensions.strideX != 1) || (dimensions.strideY != 1) ||
-                (dimensions.paddingX != 0) || (dimensions.paddingY != 0)) {
+    @Override
+    void getGradientBufferSizes(int[] sizes, int offset) {
+        sizes[offset] = filterCount * patchSize;
+        sizes[offset + 1] = filterCount;
+    }
 
-            // TODO: handle this (see above)
-            throw new NotImplementedException();
+    @Override
+    void applyGradients(TrainingContext context, int gradientOffset, double learningRate) {
+        applyGradients(context.gradient(gradientOffset), context.gradient(gradientOffset + 1), learningRate);
+    }
+
+    private void applyGradients(double[] weightGradients, double[] biasGradients, double learningRate) {
+
+        if (null != weights) {
+
+            MatrixKernels.applyGradients(weights, weightGradients, learningRate);
+            MatrixKernels.applyGradients(biasWeights, biasGradients, learningRate);
+
+        } else {
+
+            MatrixKernels.applyGradients(singleWeights, weightGradients, learningRate);
+            MatrixKernels.applyGradients(singleBiasWeights, biasGradients, learningRate);
+        }
+    }
+
+    // NOTE: lowered holds the output of the multiply, which has one row (of filterCount values) per output position
+    //       of each sample, so it's transposed into preSynapses (along with adding the biases)
+    private void convolve(double[] inputs,
+                          double[] patches,
+                          double[] lowered,
+                          double[] preSynapses,
+                          int sampleCount,
+                          double bias) {
+
+        int positionCount = dimensions.outputCount();
+
+        for (int sample = 0; sample < sampleCount; sample++) {
+            lowerSample(inputs, sample * inputCount(), patches, sample * positionCount * patchSize);
         }
 
-        double[][] newWeights = new double[dimensions.kernelHeight][dimensions.kernelWidth];
+        if (null != weights) {
 
-        for (int y = 0; y < dimensions.kernelHeight; y++) {
+            MatrixKernels.multiplyBatch(weights, filterCount, patchSize, patches, lowered, sampleCount * positionCount);
 
-            double[] weightsRow = weights[y];
-            double[] newWeightsRow = newWeights[y];
+        } else {
 
-            System.arraycopy(weightsRow, 0, newWeightsRow, 0, dimensions.kernelWidth);
+            MatrixKernels.multiplyBatch(
+                    singleWeights,
+                    filterCount,
+                    patchSize,
+                    patches,
+                    lowered,
+                    sampleCount * positionCount,
+                    computePrecision == ComputePrecision.Float32);
         }
 
-        double newBiasWeight = biasWeight;
+        for (int sample = 0; sample < sampleCount; sample++) {
 
-        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+            int sampleOffset = sample * outputCount();
 
-            NeuronState<NeuronT>[] outputRow = neurons[outputY];
+            for (int filter = 0; filter < filterCount; filter++) {
 
-            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+                int outputOffset = sampleOffset + (filter * positionCount);
+
+                double filterBias = biasAt(filter, bias);
+
+                for (int position = 0; position < positionCount; position++) {
+
+                    double preSynapse = lowered[sampleOffset + (position * filterCount) + filter];
+
+                    preSynapse += filterBias;
+
+                    if (Double.isNaN(preSynapse)) {
+                        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                        //       return a status code from this function)... it should be given
+                        //       "biasWeights[filter]" and "bias" (so it can decide what to do based on input values
+                        //       being infinite/NaN/etc... if it fails, then set this to 0.0
+                        preSynapse = 0.0;
+                    }
+
+                    preSynapses[outputOffset + position] = preSynapse;
+                }
+            }
+        }
+    }
+
+    // NOTE: the reverse of the above... dE/dIn is transposed into loweredErrorDerivatives (one row per output
+    //       position), then multiplied back through the weights into patchErrorDerivatives, which are added onto the
+    //       inputs they came from (unless inputErrorDerivatives is null)... gradients are added to
+    private void convolveBackwards(double[] patches,
+                                   double[] preSynapseErrorDerivatives,
+                                   double[] loweredErrorDerivatives,
+                                   double[] patchErrorDerivatives,
+                                   double[] inputErrorDerivatives,
+                                   double[] weightGradients,
+                                   double[] biasGradients,
+                                   int sampleCount,
+                                   double bias) {
+
+        int positionCount = dimensions.outputCount();
+
+        for (int sample = 0; sample < sampleCount; sample++) {
+
+            int sampleOffset = sample * outputCount();
+
+            for (int filter = 0; filter < filterCount; filter++) {
+
+                int outputOffset = sampleOffset + (filter * positionCount);
+
+                for (int position = 0; position < positionCount; position++) {
+
+                    double dE_dIn = preSynapseErrorDerivatives[outputOffset + position];
+
+                    loweredErrorDerivatives[sampleOffset + (position * filterCount) + filter] = dE_dIn;
+
+                    // update incoming bias weight gradient
+                    biasGradients[filter] += dE_dIn * bias;
+                }
+            }
+        }
+
+        double[] patchErrors = (null != inputErrorDerivatives) ? patchErrorDerivatives : null;
+
+        if (null != weights) {
+
+            MatrixKernels.backPropagateBatch(
+                    weights,
+                    filterCount,
+                    patchSize,
+                    loweredErrorDerivatives,
+                    patches,
+                    patchErrors,
+                    weightGradients,
+                    sampleCount * positionCount);
+
+        } else {
+
+            MatrixKernels.backPropagateBatch(
+                    singleWeights,
+                    filterCount,
+                    patchSize,
+                    loweredErrorDerivatives,
+                    patches,
+                    patchErrors,
+                    weightGradients,
+                    sampleCount * positionCount);
+        }
+
+        if (null == inputErrorDerivatives) {
+            return;
+        }
+
+        for (int i = 0; i < sampleCount * inputCount(); i++) {
+            inputErrorDerivatives[i] = 0.0;
+        }
+
+        for (int sample = 0; sample < sampleCount; sample++) {
+            raiseSample(
+                    patchErrorDerivatives,
+                    sample * positionCount * patchSize,
+                    inputErrorDerivatives,
+                    sample * inputCount());
+        }
+    }
+
+    // NOTE: lowers one sample to a row of patchSize values per output position (im2col)
+    private void lowerSample(double[] inputs, int inputOffset, double[] patches, int patchOffset) {
 
-                NeuronState<NeuronT> outputNeuron = outputRow[outputX];
+        int channelSize = dimensions.inputCount();
 
-                // TODO: share this with FullyConnectedLayer
-                double dE_dOut = outputNeuron.postSynapseErrorDerivative;
-                double dOut_dIn = computePreSynapseOutputDerivative(outputNeuron);
+        int patchIndex = patchOffset;
 
-                double dE_dIn = dE_dOut * dOut_dIn;
+        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+
+            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
 
-                for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+                int inputStartX = (outputX * dimensions.strideX) - dimensions.paddingX;
+                int inputStartY = (outputY * dimensions.strideY) - dimensions.paddingY;
 
-                    double[] weightsRow = weights[kernelY];
-                    double[] newWeightsRow = newWeights[kernelY];
+                for (int channel = 0; channel < channelCount; channel++) {
 
-                    int inputY = kernelY + outputY;
-                    int inputRowIndex = inputY * dimensions.inputWidth;
+                    int channelOffset = inputOffset + (channel * channelSize);
 
-                    for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+                    for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
 
-                        double currentWeight = weightsRow[kernelX];
+                        int inputY = inputStartY + kernelY;
+                        boolean rowInside = (inputY >= 0) && (inputY < dimensions.inputHeight);
 
-                        int inputX = kernelX + outputX;
-                        int inputIndex = inputRowIndex + inputX;
+                        int inputRowIndex = channelOffset + (inputY * dimensions.inputWidth);
 
-                        NeuronState<NeuronT> previousNeuron = previousLayerNeurons.get(inputIndex);
+                        for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
 
-                        double dIn_dW = previousNeuron.postSynapse;
-                        double dE_dW = dE_dIn * dIn_dW;
+                            int inputX = inputStartX + kernelX;
 
-                        // update incoming connection weight
-                        newWeightsRow[kernelX] -= (dE_dW * learningRate);
+                            if (rowInside && (inputX >= 0) && (inputX < dimensions.inputWidth)) {
+                                patches[patchIndex] = inputs[inputRowIndex + inputX];
+                            } else {
+                                patches[patchIndex] = 0.0;
+                            }
 
-                        // update previous neuron dE/dOut
-                        // TODO: don't need to compute this on the last pass
-                        double dIn_dOutPrev = currentWeight;
-                        double dE_dOutPrev = (dE_dIn * dIn_dOutPrev);
-                        previousNeuron.postSynapseErrorDerivative += dE_dOutPrev;
+                            patchIndex++;
+                        }
                     }
                 }
+            }
+        }
+    }
+
+    // NOTE: the reverse of lowerSample (col2im), adding each value onto the input it came from (padding is dropped)
+    private void raiseSample(double[] patchValues, int patchOffset, double[] inputValues, int inputOffset) {
+
+        int channelSize = dimensions.inputCount();
+
+        int patchIndex = patchOffset;
+
+        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
 
-                // update incoming bias weight
-                double dIn_dW_Bias = bias;
-                double dE_dW_Bias = dE_dIn * dIn_dW_Bias;
+            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+
+                int inputStartX = (outputX * dimensions.strideX) - dimensions.paddingX;
+                int inputStartY = (outputY * dimensions.strideY) - dimensions.paddingY;
+
+                for (int channel = 0; channel < channelCount; channel++) {
+
+                    int channelOffset = inputOffset + (channel * channelSize);
+
+                    for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+
+                        int inputY = inputStartY + kernelY;
+                        boolean rowInside = (inputY >= 0) && (inputY < dimensions.inputHeight);
 
-                newBiasWeight -= (dE_dW_Bias * learningRate);
+                        int inputRowIndex = channelOffset + (inputY * dimensions.inputWidth);
+
+                        for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+
+                            int inputX = inputStartX + kernelX;
+
+                            if (rowInside && (inputX >= 0) && (inputX < dimensions.inputWidth)) {
+                                inputValues[inputRowIndex + inputX] += patchValues[patchIndex];
+                            }
+
+                            patchIndex++;
+                        }
+                    }
+                }
             }
         }
+    }
+
+    private void allocateScratch() {
+
+        int positionCount = dimensions.outputCount();
+
+        inputs = new double[inputCount()];
+        patches = new double[positionCount * patchSize];
+        patchErrorDerivatives = new double[positionCount * patchSize];
+        lowered = new double[outputCount()];
+
+        preSynapses = new double[outputCount()];
+        postSynapses = new double[outputCount()];
+        postSynapseErrorDerivatives = new double[outputCount()];
+
+        if (computePrecision == ComputePrecision.Float64) {
+
+            outputs = Tensor.wrap(postSynapses, 0, filterCount, dimensions.outputHeight, dimensions.outputWidth);
+            outputErrorDerivatives = Tensor.wrap(
+                    postSynapseErrorDerivatives,
+                    0,
+                    filterCount,
+                    dimensions.outputHeight,
+                    dimensions.outputWidth);
+
+        } else {
+
+            outputs = Tensor.wrap(
+                    new float[outputCount()],
+                    0,
+                    filterCount,
+                    dimensions.outputHeight,
+                    dimensions.outputWidth);
+
+            outputErrorDerivatives = Tensor.wrap(
+                    new float[outputCount()],
+                    0,
+                    filterCount,
+                    dimensions.outputHeight,
+                    dimensions.outputWidth);
+        }
 
-        weights = newWeights;
-        biasWeight = newBiasWeight;
+        preSynapseErrorDerivatives = new double[outputCount()];
+        inputErrorDerivatives = new double[inputCount()];
+        weightGradients = new double[filterCount * patchSize];
+        biasGradients = new double[filterCount];
+    }
+
+    private double getBiasWeight(int filter) {
+        return (null != biasWeights) ? biasWeights[filter] : singleBiasWeights[filter];
+    }
+
+    private double biasAt(int filter, double bias) {
+        return (null != foldedBiases) ? foldedBiases[filter] : (getBiasWeight(filter) * bias);
+    }
+
+    private void setBiasWeight(int filter, double value) {
+
+        if (null != biasWeights) {
+            biasWeights[filter] = value;
+        } else {
+            singleBiasWeights[filter] = (float) value;
+        }
+    }
+
+    private void setWeight(int index, double value) {
+
+        if (null != weights) {
+            weights[index] = value;
+        } else {
+            singleWeights[index] = (float) value;
+        }
     }
 
     @Override
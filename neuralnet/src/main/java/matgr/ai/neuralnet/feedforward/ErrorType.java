@@ -2,5 +2,6 @@ package matgr.ai.neuralnet.feedforward;
 
 public enum ErrorType {
     Rms,
-    HalfSumOfSquares
+    HalfSumOfSquares,
+    CrossEntropy
 }
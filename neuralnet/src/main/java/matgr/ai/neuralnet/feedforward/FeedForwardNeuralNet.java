@@ -2,11 +2,12 @@ package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.DefaultSizedIterable;
 import matgr.ai.common.SizedIterable;
-import matgr.ai.common.SizedSelectIterable;
+import matgr.ai.neuralnet.ActivationContext;
+import matgr.ai.neuralnet.ComputePrecision;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.activation.ActivationFunction;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 import org.apache.commons.math3.random.RandomGenerator;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -20,14 +21,27 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
 
     private final NeuronFactory<NeuronT> neuronFactory;
 
-    private final List<NeuronState<NeuronT>> writableInputNeurons;
+    private final List<NeuronT> writableInputNeurons;
     private final List<NeuronLayer<NeuronT>> writableHiddenLayers;
 
+    // NOTE: the values of the input neurons from the last activate (the tensor is over the array)
+    private double[] inputValues;
+    private Tensor inputs;
+
     public final SizedIterable<NeuronT> inputNeurons;
     public final List<NeuronLayer<NeuronT>> hiddenLayers;
 
     public final NeuronLayer<NeuronT> outputLayer;
 
+    private boolean outputAppliesSoftmax;
+
+    private ComputePrecision computePrecision;
+    private ActivationPrecision activationPrecision;
+    private ErrorType trainingErrorType;
+    private boolean sparseInputs;
+
+    // NOTE: this only changes when layers are added (so activation contexts know when they are out of date)
+    private long version;
 
     public FeedForwardNeuralNet(NeuronFactory<NeuronT> neuronFactory,
                                 int inputCount,
@@ -36,6 +50,27 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
                                 ActivationFunction outputActivationFunction,
                                 double... outputActivationFunctionParameters) {
 
+        this(
+                neuronFactory,
+                ComputePrecision.Float64,
+                inputCount,
+                outputCount,
+                outputApplySoftmax,
+                outputActivationFunction,
+                outputActivationFunctionParameters);
+    }
+
+    // NOTE: the compute precision is how the weights of the fully connected and convolutional layers are stored (and
+    //       summed), along with the outputs they pass to the next layer (see ComputePrecision)... it's fixed for the
+    //       life of the network, the activation (and training) contexts are always double precision
+    public FeedForwardNeuralNet(NeuronFactory<NeuronT> neuronFactory,
+                                ComputePrecision computePrecision,
+                                int inputCount,
+                                int outputCount,
+                                boolean outputApplySoftmax,
+                                ActivationFunction outputActivationFunction,
+                                double... outputActivationFunctionParameters) {
+
         this(
                 neuronFactory,
                 FeedForwardNeuralNet.createOutputLayer(
@@ -48,11 +83,21 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
         for (int i = 0; i < inputCount; i++) {
 
             NeuronT inputNeuron = neuronFactory.createInput();
-            NeuronState<NeuronT> inputNeuronState = new NeuronState<>(inputNeuron);
+            writableInputNeurons.add(inputNeuron);
+        }
+
+        this.inputValues = new double[inputCount];
+        this.inputs = Tensor.wrap(this.inputValues, 0, inputCount);
+
+        this.outputAppliesSoftmax = outputApplySoftmax;
 
-            writableInputNeurons.add(inputNeuronState);
+        if (null == computePrecision) {
+            throw new IllegalArgumentException("computePrecision not provided");
         }
 
+        this.computePrecision = computePrecision;
+
+        this.outputLayer.setComputePrecision(computePrecision);
         this.outputLayer.connect(inputNeurons);
     }
 
@@ -65,19 +110,28 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
             throw new IllegalArgumentException("Cannot copy neural net of a different type");
         }
 
-        for (NeuronState<NeuronT> neuron : other.writableInputNeurons) {
-
-            NeuronState<NeuronT> neuronClone = neuron.deepClone();
-            NeuronState<NeuronT> neuronCloneState = new NeuronState<>(neuronClone);
+        for (NeuronT neuron : other.writableInputNeurons) {
 
-            writableInputNeurons.add(neuronCloneState);
+            NeuronT neuronClone = Neuron.deepClone(neuron);
+            writableInputNeurons.add(neuronClone);
         }
 
+        this.inputValues = other.inputValues.clone();
+        this.inputs = Tensor.wrap(this.inputValues, 0, this.inputValues.length);
+
         for (NeuronLayer<NeuronT> layer : other.writableHiddenLayers) {
 
             NeuronLayer<NeuronT> layerClone = layer.deepClone();
             writableHiddenLayers.add(layerClone);
         }
+
+        this.outputAppliesSoftmax = other.outputAppliesSoftmax;
+
+        this.computePrecision = other.computePrecision;
+        this.activationPrecision = other.activationPrecision;
+        this.trainingErrorType = other.trainingErrorType;
+        this.sparseInputs = other.sparseInputs;
+        this.version = other.version;
     }
 
     private FeedForwardNeuralNet(NeuronFactory<NeuronT> neuronFactory, NeuronLayer<NeuronT> outputLayer) {
@@ -89,18 +143,38 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
         this.neuronFactory = neuronFactory;
 
         this.writableInputNeurons = new ArrayList<>();
-        this.inputNeurons = new SizedSelectIterable<>(this.writableInputNeurons, n -> n.neuron);
+        this.inputNeurons = new DefaultSizedIterable<>(this.writableInputNeurons);
 
         this.writableHiddenLayers = new ArrayList<>();
         this.hiddenLayers = Collections.unmodifiableList(this.writableHiddenLayers);
 
         this.outputLayer = outputLayer;
+
+        this.computePrecision = ComputePrecision.Float64;
+        this.activationPrecision = ActivationPrecision.Exact;
+        this.trainingErrorType = ErrorType.HalfSumOfSquares;
+        this.version = 0;
     }
 
-    public FeedForwardNeuralNet deepClone() {
+    public FeedForwardNeuralNet<NeuronT> deepClone() {
         return new FeedForwardNeuralNet<>(this);
     }
 
+    // NOTE: an activate-only copy of the network as it is now (with the given bias), which any number of threads can
+    //       activate at once... training this network afterwards doesn't change it
+    public FrozenFeedForwardNeuralNet freeze(double bias) {
+
+        FeedForwardNeuralNet<NeuronT> frozen = deepClone();
+
+        for (NeuronLayer<NeuronT> layer : frozen.writableHiddenLayers) {
+            layer.foldBias(bias);
+        }
+
+        frozen.outputLayer.foldBias(bias);
+
+        return new FrozenFeedForwardNeuralNet(frozen, bias);
+    }
+
     public int inputNeuronCount() {
         return writableInputNeurons.size();
     }
@@ -109,6 +183,75 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
         return writableHiddenLayers.size();
     }
 
+    public ComputePrecision getComputePrecision() {
+        return computePrecision;
+    }
+
+    public ActivationPrecision getActivationPrecision() {
+        return activationPrecision;
+    }
+
+    public void setActivationPrecision(ActivationPrecision activationPrecision) {
+
+        if (null == activationPrecision) {
+            throw new IllegalArgumentException("activationPrecision not provided");
+        }
+
+        this.activationPrecision = activationPrecision;
+
+        for (NeuronLayer<NeuronT> layer : writableHiddenLayers) {
+            layer.setActivationPrecision(activationPrecision);
+        }
+
+        outputLayer.setActivationPrecision(activationPrecision);
+    }
+
+    public boolean isSparseInputs() {
+        return sparseInputs;
+    }
+
+    // NOTE: for inputs that are mostly zero... the first layer then skips the weights of the inputs that are zero when
+    //       training (see FullyConnectedLayer), which gives the same results, just quicker (or slower if most inputs
+    //       aren't zero)
+    public void setSparseInputs(boolean sparseInputs) {
+
+        this.sparseInputs = sparseInputs;
+
+        applySparseInputs();
+    }
+
+    public ErrorType getTrainingErrorType() {
+        return trainingErrorType;
+    }
+
+    // NOTE: the error that backPropagate and train minimize... cross entropy is only supported with a softmax output
+    //       layer, which it is fused with (see SoftMaxLayer), and expects each sample's targets to sum to 1
+    public void setTrainingErrorType(ErrorType trainingErrorType) {
+
+        if (null == trainingErrorType) {
+            throw new IllegalArgumentException("trainingErrorType not provided");
+        }
+
+        switch (trainingErrorType) {
+
+            case HalfSumOfSquares:
+                break;
+
+            case CrossEntropy:
+                if (!outputAppliesSoftmax) {
+                    throw new IllegalStateException("Cross entropy training requires a softmax output layer");
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported training error type");
+        }
+
+        this.trainingErrorType = trainingErrorType;
+
+        outputLayer.setTrainingErrorType(trainingErrorType);
+    }
+
     public void randomizeWeights(RandomGenerator random) {
 
         for (NeuronLayer<NeuronT> layer : hiddenLayers) {
@@ -151,6 +294,23 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
         addNewLayer(layer);
     }
 
+    public void addConvolutionalHiddenLayer(ConvolutionDimensions dimensions,
+                                            int channelCount,
+                                            int filterCount,
+                                            ActivationFunction activationFunction,
+                                            double... activationFunctionParameters) {
+
+        ConvolutionalLayer<NeuronT> layer = new ConvolutionalLayer<>(
+                neuronFactory,
+                dimensions,
+                channelCount,
+                filterCount,
+                activationFunction,
+                activationFunctionParameters);
+
+        addNewLayer(layer);
+    }
+
     public void addMaxPoolingHiddenLayer(int width,
                                          int height,
                                          int kernelWidth,
@@ -174,6 +334,21 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
         addNewLayer(layer);
     }
 
+    public void addMaxPoolingHiddenLayer(ConvolutionDimensions dimensions,
+                                         int channelCount,
+                                         ActivationFunction activationFunction,
+                                         double... activationFunctionParameters) {
+
+        MaxPoolingLayer<NeuronT> layer = new MaxPoolingLayer<>(
+                neuronFactory,
+                dimensions,
+                channelCount,
+                activationFunction,
+                activationFunctionParameters);
+
+        addNewLayer(layer);
+    }
+
     private static <NeuronT extends Neuron> NeuronLayer<NeuronT> createOutputLayer(
             NeuronFactory<NeuronT> neuronFactory,
             int outputCount,
@@ -207,10 +382,28 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
             previousLayerNeurons = inputNeurons;
         }
 
+        layer.setComputePrecision(computePrecision);
+
         layer.connect(previousLayerNeurons);
         outputLayer.connect(layer.outputNeurons());
 
+        layer.setActivationPrecision(activationPrecision);
+
         writableHiddenLayers.add(layer);
+
+        // NOTE: the new layer may now be the first
+        applySparseInputs();
+
+        version++;
+    }
+
+    private void applySparseInputs() {
+
+        int layerCount = writableHiddenLayers.size() + 1;
+
+        for (int i = 0; i < layerCount; i++) {
+            getLayer(i).setSparseInputs(sparseInputs && (i == 0));
+        }
     }
 
     public void removeHiddenLayer(int index) {
@@ -226,89 +419,370 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
 
         // initialize inputs
         Iterator<Double> inputIterator = inputs.iterator();
-        for (NeuronState<NeuronT> inputNeuron : writableInputNeurons) {
+        for (int i = 0; i < inputValues.length; i++) {
 
-            inputNeuron.postSynapse = inputIterator.next();
+            inputValues[i] = inputIterator.next();
         }
 
-        SizedIterable<NeuronState<NeuronT>> previousNeurons = new DefaultSizedIterable<>(writableInputNeurons);
+        activateLayers(bias);
 
-        for (NeuronLayer<NeuronT> layer : hiddenLayers) {
+        return getCurrentOutputs();
+    }
+
+    // NOTE: this is the same as the above, but it doesn't allocate anything (the outputs are written to the provided
+    //       array, which must be the size of the output layer)
+    public void activate(double[] inputs, double[] outputs, double bias) {
+
+        if (inputNeuronCount() != inputs.length) {
+            throw new IllegalArgumentException("Incorrect number of inputs");
+        }
+        if (outputLayer.outputCount() != outputs.length) {
+            throw new IllegalArgumentException("Incorrect number of outputs");
+        }
+
+        // initialize inputs
+        System.arraycopy(inputs, 0, inputValues, 0, inputs.length);
+
+        activateLayers(bias);
+
+        outputLayer.outputs().copyTo(outputs, 0);
+    }
+
+    // NOTE: the context holds the state of every layer, and is only valid until another layer is added
+    public ActivationContext createActivationContext() {
 
-            layer.activate(previousNeurons, bias);
-            previousNeurons = layer.outputWritableNeurons();
+        int bufferCount = outputLayer.stateBufferCount();
+
+        for (NeuronLayer<NeuronT> layer : writableHiddenLayers) {
+            bufferCount += layer.stateBufferCount();
         }
 
-        outputLayer.activate(previousNeurons, bias);
+        int[] bufferSizes = new int[bufferCount];
+        int offset = 0;
 
-        List<Double> outputs = new ArrayList<>();
+        for (NeuronLayer<NeuronT> layer : writableHiddenLayers) {
 
-        for (NeuronState<NeuronT> neuron : outputLayer.outputWritableNeurons()) {
-            outputs.add(neuron.postSynapse);
+            layer.getStateBufferSizes(bufferSizes, offset);
+            offset += layer.stateBufferCount();
         }
 
-        return outputs;
+        outputLayer.getStateBufferSizes(bufferSizes, offset);
+
+        return new ActivationContext(this, version, bufferSizes);
     }
 
-    public void backPropagate(double learningRate, double bias, List<Double> expectedOutputs) {
+    // NOTE: this is the same as the above, but the state of each layer is kept in the context rather than in the
+    //       network, so any number of callers (or threads) can activate the network at once, each with their own
+    //       context... the network must not be modified (or trained) while this is happening though
+    public void activate(ActivationContext context, double[] inputs, double[] outputs, double bias) {
 
-        // TODO: handle NaNs
+        if (null == context) {
+            throw new IllegalArgumentException("context not provided");
+        }
+        if (!context.isFor(this, version)) {
+            throw new IllegalArgumentException(
+                    "Activation context was not created for this network (or the network has changed since)");
+        }
+
+        if (inputNeuronCount() != inputs.length) {
+            throw new IllegalArgumentException("Incorrect number of inputs");
+        }
+        if (outputLayer.outputCount() != outputs.length) {
+            throw new IllegalArgumentException("Incorrect number of outputs");
+        }
+
+        double[] previousPostSynapses = inputs;
+        int offset = 0;
+
+        for (int i = 0; i < writableHiddenLayers.size(); i++) {
+
+            NeuronLayer<NeuronT> layer = writableHiddenLayers.get(i);
 
-        // initialize post synapse derivatives...
-        // TODO: this could maybe be done in one of the other loops?
-        // TODO: maybe do a computation version number and if it's less than current values can be initialized..
-        for (NeuronLayer<NeuronT> hiddenLayer : writableHiddenLayers) {
+            layer.activate(previousPostSynapses, context, offset, bias);
 
-            hiddenLayer.resetPostSynapseErrorDerivatives(0.0);
+            previousPostSynapses = context.buffer(layer.outputBufferIndex(offset));
+            offset += layer.stateBufferCount();
         }
 
-        outputLayer.resetPostSynapseErrorDerivatives(0.0);
+        outputLayer.activate(previousPostSynapses, context, offset, bias);
 
-        for (int neuronIdx = 0; neuronIdx < outputLayer.outputCount(); neuronIdx++) {
+        System.arraycopy(context.buffer(outputLayer.outputBufferIndex(offset)), 0, outputs, 0, outputs.length);
+    }
 
-            NeuronState<NeuronT> neuron = outputLayer.outputWritableNeurons().get(neuronIdx);
-            double neuronOutput = neuron.postSynapse;
+    private void activateLayers(double bias) {
 
-            double neuronExpectedOutput = expectedOutputs.get(neuronIdx);
-            double dE_dOut = -(neuronExpectedOutput - neuronOutput);
+        Tensor previousOutputs = inputs;
+
+        for (int i = 0; i < writableHiddenLayers.size(); i++) {
+
+            NeuronLayer<NeuronT> layer = writableHiddenLayers.get(i);
 
-            neuron.postSynapseErrorDerivative = dE_dOut;
+            layer.activate(previousOutputs, bias);
+            previousOutputs = layer.outputs();
         }
 
-        // run backpropagation...
-        NeuronLayer<NeuronT> layer = outputLayer;
+        outputLayer.activate(previousOutputs, bias);
+    }
+
+    public void backPropagate(double learningRate, double bias, List<Double> expectedOutputs) {
 
+        // TODO: handle NaNs
+
+        Tensor outputs = outputLayer.outputs();
+        Tensor outputErrorDerivatives = outputLayer.outputErrorDerivatives();
+
+        for (int i = 0; i < outputs.size(); i++) {
+
+            double neuronOutput = outputs.get(i);
+
+            double neuronExpectedOutput = expectedOutputs.get(i);
+
+            // NOTE: for cross entropy this is dE/dIn of the softmax instead (see SoftMaxLayer)
+            double dE_dOut = -(neuronExpectedOutput - neuronOutput);
+
+            outputErrorDerivatives.set(i, dE_dOut);
+        }
+
+        // run backpropagation... (each layer overwrites the error derivatives of the one before it)
         for (int layerIndex = hiddenLayerCount(); layerIndex >= 0; layerIndex--) {
 
-            NeuronLayer<NeuronT> previousLayer = null;
+            Tensor previousOutputs;
+            Tensor previousErrorDerivatives;
 
-            SizedIterable<NeuronState<NeuronT>> previousNeurons;
             if (layerIndex > 0) {
 
-                previousLayer = writableHiddenLayers.get(layerIndex - 1);
-                previousNeurons = previousLayer.outputWritableNeurons();
+                NeuronLayer<NeuronT> previousLayer = writableHiddenLayers.get(layerIndex - 1);
+
+                previousOutputs = previousLayer.outputs();
+                previousErrorDerivatives = previousLayer.outputErrorDerivatives();
+
+            } else {
+
+                // NOTE: nothing needs the error derivatives of the inputs, so they aren't computed
+                previousOutputs = inputs;
+                previousErrorDerivatives = null;
+            }
+
+            getLayer(layerIndex).backPropagate(previousOutputs, previousErrorDerivatives, bias, learningRate);
+        }
+    }
+
+    // NOTE: the context holds the state of every sample in a batch (up to batchSize of them), and is only valid until
+    //       another layer is added
+    public TrainingContext createTrainingContext(int batchSize) {
+
+        int layerCount = writableHiddenLayers.size() + 1;
+
+        int[] stateOffsets = new int[layerCount];
+        int[] gradientOffsets = new int[layerCount];
+
+        int stateBufferCount = 0;
+        int gradientBufferCount = 0;
+
+        for (int i = 0; i < layerCount; i++) {
+
+            NeuronLayer<NeuronT> layer = getLayer(i);
+
+            stateOffsets[i] = stateBufferCount;
+            gradientOffsets[i] = gradientBufferCount;
+
+            stateBufferCount += layer.stateBufferCount();
+            gradientBufferCount += layer.gradientBufferCount();
+        }
+
+        int[] stateBufferSizes = new int[stateBufferCount];
+        int[] gradientBufferSizes = new int[gradientBufferCount];
+
+        for (int i = 0; i < layerCount; i++) {
+
+            NeuronLayer<NeuronT> layer = getLayer(i);
+
+            layer.getStateBufferSizes(stateBufferSizes, stateOffsets[i]);
+            layer.getGradientBufferSizes(gradientBufferSizes, gradientOffsets[i]);
+        }
+
+        return new TrainingContext(
+                this,
+                version,
+                batchSize,
+                inputNeuronCount(),
+                stateOffsets,
+                stateBufferSizes,
+                gradientOffsets,
+                gradientBufferSizes);
+    }
+
+    public void train(double[][] inputs, double[][] targets, int batchSize, double learningRate, double bias) {
+
+        train(createTrainingContext(batchSize), inputs, targets, learningRate, bias);
+    }
+
+    // NOTE: mini-batch training... the samples are taken in order, batchSize (of the context) at a time, and the
+    //       gradients of each batch are averaged and applied once... with a batchSize of 1 this is the same as
+    //       activating and back propagating each sample in turn... the state of the network's neurons isn't touched
+    //       (it's all kept in the context)
+    public void train(TrainingContext context,
+                      double[][] inputs,
+                      double[][] targets,
+                      double learningRate,
+                      double bias) {
+
+        if (null == context) {
+            throw new IllegalArgumentException("context not provided");
+        }
+        if (!isCurrent(context)) {
+            throw new IllegalArgumentException(
+                    "Training context was not created for this network (or the network has changed since)");
+        }
+
+        if (null == inputs) {
+            throw new IllegalArgumentException("inputs not provided");
+        }
+        if (null == targets) {
+            throw new IllegalArgumentException("targets not provided");
+        }
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Number of inputs and targets don't match");
+        }
+
+        for (int start = 0; start < inputs.length; start += context.batchSize()) {
+
+            int batchSize = Math.min(context.batchSize(), inputs.length - start);
+
+            computeGradients(context, inputs, targets, start, batchSize, bias);
+            applyGradients(context, learningRate / batchSize);
+        }
+    }
+
+    boolean isCurrent(TrainingContext context) {
+        return context.isFor(this, version);
+    }
+
+    // NOTE: this only reads the weights (everything it writes is in the context), so it can be run for different
+    //       contexts on different threads at once
+    void computeGradients(TrainingContext context,
+                          double[][] inputs,
+                          double[][] targets,
+                          int start,
+                          int batchSize,
+                          double bias) {
+
+        int inputCount = inputNeuronCount();
+        int outputCount = outputLayer.outputCount();
+
+        double[] batchInputs = context.inputs();
+
+        for (int sample = 0; sample < batchSize; sample++) {
+
+            double[] sampleInputs = inputs[start + sample];
+
+            if (sampleInputs.length != inputCount) {
+                throw new IllegalArgumentException("Incorrect number of inputs");
+            }
+
+            System.arraycopy(sampleInputs, 0, batchInputs, sample * inputCount, inputCount);
+        }
+
+        int layerCount = writableHiddenLayers.size() + 1;
+
+        double[] previousPostSynapses = batchInputs;
+
+        for (int i = 0; i < layerCount; i++) {
+
+            NeuronLayer<NeuronT> layer = getLayer(i);
+            int offset = context.stateOffset(i);
+
+            layer.activateBatch(previousPostSynapses, context, offset, batchSize, bias);
+            previousPostSynapses = context.state(layer.outputBufferIndex(offset));
+        }
+
+        int outputIndex = outputLayer.outputBufferIndex(context.stateOffset(layerCount - 1));
+
+        double[] outputs = context.state(outputIndex);
+        double[] outputErrorDerivatives = context.errorDerivatives(outputIndex);
+
+        for (int sample = 0; sample < batchSize; sample++) {
+
+            double[] sampleTargets = targets[start + sample];
+
+            if (sampleTargets.length != outputCount) {
+                throw new IllegalArgumentException("Incorrect number of targets");
+            }
+
+            for (int i = 0; i < outputCount; i++) {
+
+                int index = (sample * outputCount) + i;
+
+                // NOTE: the same as backPropagate
+                outputErrorDerivatives[index] = -(sampleTargets[i] - outputs[index]);
+            }
+        }
+
+        context.clearGradients();
+
+        for (int i = layerCount - 1; i >= 0; i--) {
+
+            double[] previous;
+            double[] previousErrorDerivatives;
+
+            if (i > 0) {
+
+                NeuronLayer<NeuronT> previousLayer = getLayer(i - 1);
+                int previousOutputIndex = previousLayer.outputBufferIndex(context.stateOffset(i - 1));
+
+                previous = context.state(previousOutputIndex);
+                previousErrorDerivatives = context.errorDerivatives(previousOutputIndex);
 
             } else {
 
-                previousNeurons = new DefaultSizedIterable<>(writableInputNeurons);
+                // NOTE: nothing needs the error derivatives of the inputs, so they aren't computed
+                previous = batchInputs;
+                previousErrorDerivatives = null;
             }
 
-            layer.backPropagate(previousNeurons, bias, learningRate);
-            layer = previousLayer;
+            getLayer(i).backPropagateBatch(
+                    previous,
+                    previousErrorDerivatives,
+                    context,
+                    context.stateOffset(i),
+                    context.gradientOffset(i),
+                    batchSize,
+                    bias);
+        }
+    }
+
+    // NOTE: the gradients in the context are sums over a batch, so the learning rate should already be divided by
+    //       the batch size
+    void applyGradients(TrainingContext context, double learningRate) {
+
+        int layerCount = writableHiddenLayers.size() + 1;
+
+        for (int i = 0; i < layerCount; i++) {
+            getLayer(i).applyGradients(context, context.gradientOffset(i), learningRate);
+        }
+    }
+
+    // NOTE: the hidden layers followed by the output layer
+    private NeuronLayer<NeuronT> getLayer(int index) {
+
+        if (index < writableHiddenLayers.size()) {
+            return writableHiddenLayers.get(index);
         }
+
+        return outputLayer;
     }
 
     public List<Double> getCurrentOutputs() {
 
-        List<Double> outputs = new ArrayList<>();
+        Tensor outputs = outputLayer.outputs();
 
-        for (NeuronState<NeuronT> outputNeuron : outputLayer.outputWritableNeurons()) {
+        List<Double> values = new ArrayList<>();
 
-            double output = outputNeuron.postSynapse;
-            outputs.add(output);
+        for (int i = 0; i < outputs.size(); i++) {
+            values.add(outputs.get(i));
         }
 
-        return outputs;
+        return values;
     }
 
     public double getCurrentError(Collection<Double> expectedOutputs, ErrorType errorType) {
@@ -321,11 +795,23 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
 
         double errorSum = 0.0;
 
-        for (NeuronState<NeuronT> outputNeuron : outputLayer.outputWritableNeurons()) {
+        Tensor outputs = outputLayer.outputs();
+
+        for (int i = 0; i < outputs.size(); i++) {
 
-            double output = outputNeuron.postSynapse;
+            double output = outputs.get(i);
             double expectedOutput = expectedOutputIterator.next();
 
+            if (ErrorType.CrossEntropy == errorType) {
+
+                if (expectedOutput != 0.0) {
+                    // NOTE: clamped so that an output which underflowed to 0 doesn't make the error infinite
+                    errorSum -= expectedOutput * Math.log(Math.max(output, Double.MIN_NORMAL));
+                }
+
+                continue;
+            }
+
             double error = expectedOutput - output;
             double errorSquared = (error * error);
 
@@ -340,6 +826,9 @@ public class FeedForwardNeuralNet<NeuronT extends Neuron> {
             case HalfSumOfSquares:
                 return 0.5 * errorSum;
 
+            case CrossEntropy:
+                return errorSum;
+
             default:
                 throw new IllegalArgumentException("Unknown error type");
         }
@@ -0,0 +1,127 @@
+package matgr.ai.neuralnet.feedforward;
+
+import matgr.ai.neuralnet.ActivationContext;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// NOTE: a trained network that can only be activated... it has its own copy of the network (which nothing else can
+//       get at, so it never changes) with the bias fixed when it was frozen, and already multiplied into the copy's
+//       bias weights (so activating just adds them)... activating only reads the weights, and each thread gets its
+//       own context (created the first time that thread activates), so any number of threads can activate it at once
+//       without allocating anything
+//
+//       the per thread contexts are kept until close() (a pooled thread would otherwise keep its context for as long
+//       as the thread lives), callers that manage their own contexts don't need to close it
+public final class FrozenFeedForwardNeuralNet implements AutoCloseable {
+
+    private final FeedForwardNeuralNet<?> neuralNet;
+    private final double bias;
+
+    private final int inputCount;
+    private final int outputCount;
+
+    private final ThreadLocal<ContextHolder> contexts;
+
+    // NOTE: the holders of every thread's context, so they can all be let go of when closed (a thread local can only
+    //       be removed by its own thread)
+    private final Set<ContextHolder> contextHolders;
+
+    private volatile boolean closed;
+
+    FrozenFeedForwardNeuralNet(FeedForwardNeuralNet<?> neuralNet, double bias) {
+
+        if (null == neuralNet) {
+            throw new IllegalArgumentException("neuralNet not provided");
+        }
+
+        this.neuralNet = neuralNet;
+        this.bias = bias;
+
+        this.inputCount = neuralNet.inputNeuronCount();
+        this.outputCount = neuralNet.outputLayer.outputCount();
+
+        this.contextHolders = ConcurrentHashMap.newKeySet();
+
+        this.contexts = ThreadLocal.withInitial(() -> {
+
+            ContextHolder holder = new ContextHolder(neuralNet.createActivationContext());
+            contextHolders.add(holder);
+
+            // NOTE: in case it was closed after this thread checked, but before the holder was added
+            if (closed) {
+                holder.context = null;
+            }
+
+            return holder;
+        });
+    }
+
+    public int inputCount() {
+        return inputCount;
+    }
+
+    public int outputCount() {
+        return outputCount;
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    public double[] activate(double[] inputs) {
+
+        double[] outputs = new double[outputCount];
+
+        activate(inputs, outputs);
+
+        return outputs;
+    }
+
+    // NOTE: the outputs are written to the provided array, which must be the size of the output layer
+    public void activate(double[] inputs, double[] outputs) {
+
+        ActivationContext context = closed ? null : contexts.get().context;
+
+        if (null == context) {
+            throw new IllegalStateException("The network has been closed");
+        }
+
+        neuralNet.activate(context, inputs, outputs, bias);
+    }
+
+    // NOTE: for callers that would rather manage contexts themselves than have one kept per thread (any context from
+    //       here works, but only one thread can use it at a time)
+    public ActivationContext createActivationContext() {
+        return neuralNet.createActivationContext();
+    }
+
+    public void activate(ActivationContext context, double[] inputs, double[] outputs) {
+
+        neuralNet.activate(context, inputs, outputs, bias);
+    }
+
+    // NOTE: lets go of the per thread contexts, after this only the activations given a context can be used... the
+    //       (empty) holders are left in the thread locals of the other threads until those are cleaned up
+    @Override
+    public void close() {
+
+        closed = true;
+
+        for (ContextHolder holder : contextHolders) {
+            holder.context = null;
+        }
+
+        contextHolders.clear();
+        contexts.remove();
+    }
+
+    private static class ContextHolder {
+
+        public volatile ActivationContext context;
+
+        public ContextHolder(ActivationContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -2,23 +2,57 @@ package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.DefaultSizedIterable;
 import matgr.ai.common.SizedIterable;
-import matgr.ai.common.SizedSelectIterable;
+import matgr.ai.neuralnet.ActivationContext;
+import matgr.ai.neuralnet.ComputePrecision;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.activation.ActivationFunction;
 import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 public class FullyConnectedLayer<NeuronT extends Neuron> extends ActivatableLayer<NeuronT> {
 
+    private final List<NeuronT> writableNeurons;
     private final SizedIterable<NeuronT> neurons;
-    private final List<IncomingConnections> connections;
 
-    private final List<NeuronState<NeuronT>> writableNeurons;
+    private ComputePrecision computePrecision;
+
+    // NOTE: row major (one row of incoming weights per neuron, one column per previous layer neuron)... depending on
+    //       the compute precision, only one of weights/singleWeights (and biasWeights/singleBiasWeights) is used
+    private double[] weights;
+    private double[] biasWeights;
+    private float[] singleWeights;
+    private float[] singleBiasWeights;
+    private int weightColumnCount;
+
+    // NOTE: set once the bias is folded in (see NeuronLayer.foldBias), these are always doubles
+    private double[] foldedBiases;
+
+    // NOTE: when set (which the network only does for its first layer), each sample's inputs that are zero are found
+    //       first, and only the weight columns of the rest are used when activating and back propagating... this
+    //       is quicker when most inputs are zero (like the background pixels of an image), and gives the same results
+    //       either way... activating with an ActivationContext is always dense though
+    private boolean sparseInputs;
+
+    // NOTE: the state from the last activate (the tensors are over the arrays, unless the compute precision is single,
+    //       in which case they have float arrays of their own which the outputs are copied to, and the error
+    //       derivatives copied from... activation functions are always evaluated in doubles)
+    private double[] preSynapses;
+    private double[] postSynapses;
+    private double[] postSynapseErrorDerivatives;
+    private Tensor outputs;
+    private Tensor outputErrorDerivatives;
+
+    // NOTE: scratch space for dE/dIn, and for the previous layer's values when they aren't already flat doubles
+    private double[] derivatives;
+    private double[] previousPostSynapses;
+    private double[] previousErrorDerivatives;
+
+    // NOTE: scratch space for the columns of the non-zero inputs (see sparseInputs)
+    private int[] nonZeroColumns;
 
     protected FullyConnectedLayer(NeuronFactory<NeuronT> neuronFactory,
                                   ActivationFunction activationFunction,
@@ -27,31 +61,47 @@ public class FullyConnectedLayer<NeuronT extends Neuron> extends ActivatableLaye
         super(neuronFactory, activationFunction, activationFunctionParameters);
 
         this.writableNeurons = new ArrayList<>();
-        this.neurons = new SizedSelectIterable<>(this.writableNeurons, n -> n.neuron);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
 
-        this.connections = new ArrayList<>();
+        this.computePrecision = ComputePrecision.Float64;
+        this.weights = new double[0];
+        this.biasWeights = new double[0];
+        this.weightColumnCount = 0;
+
+        allocateScratch();
     }
 
     protected FullyConnectedLayer(FullyConnectedLayer<NeuronT> other) {
 
         super(other);
 
-        this.connections = new ArrayList<>();
-
         this.writableNeurons = new ArrayList<>();
-        this.neurons = new SizedSelectIterable<>(this.writableNeurons, n -> n.neuron);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
 
-        for (NeuronState<NeuronT> neuron : other.writableNeurons) {
+        for (NeuronT neuron : other.writableNeurons) {
 
-            NeuronState<NeuronT> neuronClone = neuron.deepClone();
+            NeuronT neuronClone = Neuron.deepClone(neuron);
             writableNeurons.add(neuronClone);
         }
 
-        for (IncomingConnections connection : other.connections) {
+        this.computePrecision = other.computePrecision;
+        this.weights = (null != other.weights) ? other.weights.clone() : null;
+        this.biasWeights = (null != other.biasWeights) ? other.biasWeights.clone() : null;
+        this.singleWeights = (null != other.singleWeights) ? other.singleWeights.clone() : null;
+        this.singleBiasWeights = (null != other.singleBiasWeights) ? other.singleBiasWeights.clone() : null;
+        this.weightColumnCount = other.weightColumnCount;
+        this.foldedBiases = (null != other.foldedBiases) ? other.foldedBiases.clone() : null;
 
-            IncomingConnections copy = connection.deepClone();
-            connections.add(copy);
-        }
+        this.sparseInputs = other.sparseInputs;
+
+        allocateScratch();
+
+        System.arraycopy(other.preSynapses, 0, preSynapses, 0, preSynapses.length);
+        System.arraycopy(other.postSynapses, 0, postSynapses, 0, postSynapses.length);
+        other.outputErrorDerivatives.copyTo(postSynapseErrorDerivatives, 0);
+
+        outputs.copyFrom(postSynapses, 0);
+        outputErrorDerivatives.copyFrom(postSynapseErrorDerivatives, 0);
     }
 
     @Override
@@ -75,21 +125,77 @@ public class FullyConnectedLayer<NeuronT extends Neuron> extends ActivatableLaye
     }
 
     @Override
-    protected SizedIterable<NeuronState<NeuronT>> outputWritableNeurons() {
-        return new DefaultSizedIterable<>(writableNeurons);
+    Tensor outputs() {
+        return outputs;
+    }
+
+    @Override
+    Tensor outputErrorDerivatives() {
+        return outputErrorDerivatives;
+    }
+
+    public ComputePrecision getComputePrecision() {
+        return computePrecision;
+    }
+
+    // NOTE: the weight of the connection from previous layer neuron j to this layer's neuron i is at
+    //       [i * getWeightColumnCount() + j]... these are the layer's own arrays (not copies), so writes go straight
+    //       into the network... only the ones matching the compute precision are available
+    public double[] getWeights() {
+
+        if (null == weights) {
+            throw new IllegalStateException("Layer is not double precision");
+        }
+
+        return weights;
+    }
+
+    public double[] getBiasWeights() {
+
+        if (null == biasWeights) {
+            throw new IllegalStateException("Layer is not double precision");
+        }
+
+        return biasWeights;
+    }
+
+    public float[] getSingleWeights() {
+
+        if (null == singleWeights) {
+            throw new IllegalStateException("Layer is not single precision");
+        }
+
+        return singleWeights;
+    }
+
+    public float[] getSingleBiasWeights() {
+
+        if (null == singleBiasWeights) {
+            throw new IllegalStateException("Layer is not single precision");
+        }
+
+        return singleBiasWeights;
+    }
+
+    public int getWeightColumnCount() {
+        return weightColumnCount;
     }
 
     @Override
     void randomizeWeights(RandomGenerator random) {
 
-        for (IncomingConnections neuronConnections : connections) {
+        int neuronCount = writableNeurons.size();
+
+        for (int i = 0; i < neuronCount; i++) {
 
-            for (IncomingConnection neuronConnection : neuronConnections.connections) {
+            int rowOffset = i * weightColumnCount;
 
-                neuronConnection.weight = getRandomWeight(random);
+            for (int j = 0; j < weightColumnCount; j++) {
+
+                setWeight(rowOffset + j, getRandomWeight(random));
             }
 
-            neuronConnections.biasWeight = getRandomWeight(random);
+            setBiasWeight(i, getRandomWeight(random));
         }
     }
 
@@ -102,174 +208,538 @@ public class FullyConnectedLayer<NeuronT extends Neuron> extends ActivatableLaye
         for (int i = 0; i < count; i++) {
 
             NeuronT newNeuron = neuronFactory.createHidden();
-            NeuronState<NeuronT> newNeuronState = new NeuronState<>(newNeuron);
-
-            writableNeurons.add(newNeuronState);
+            writableNeurons.add(newNeuron);
         }
+
+        allocateScratch();
     }
 
     @Override
-    void connect(SizedIterable<NeuronT> previousLayerNeurons) {
+    void setComputePrecision(ComputePrecision computePrecision) {
 
-        // TODO: this just needs to make sure the sizes are correct... so don't really need to clear,
-        //       just make sure the size of the connections list matches this layers neuron counts
-        //       (probably should really do this in setNeurons), and make sure that each entry in the
-        //       connections list has the right number of weights (that number being the size of
-        //       previousLayerNeurons...)
+        if (null == computePrecision) {
+            throw new IllegalArgumentException("computePrecision not provided");
+        }
 
-        connections.clear();
+        boolean single = (computePrecision != ComputePrecision.Float64);
 
-        for (int i = 0; i < writableNeurons.size(); i++) {
+        if (single && (null != weights)) {
 
-            IncomingConnections neuronConnections = new IncomingConnections();
-            connections.add(neuronConnections);
+            singleWeights = MatrixKernels.toSingle(weights);
+            singleBiasWeights = MatrixKernels.toSingle(biasWeights);
+            weights = null;
+            biasWeights = null;
 
-            for (NeuronT ignored : previousLayerNeurons) {
+        } else if (!single && (null != singleWeights)) {
 
-                IncomingConnection neuronConnection = new IncomingConnection();
-                neuronConnections.connections.add(neuronConnection);
-            }
+            weights = MatrixKernels.toDouble(singleWeights);
+            biasWeights = MatrixKernels.toDouble(singleBiasWeights);
+            singleWeights = null;
+            singleBiasWeights = null;
         }
+
+        this.computePrecision = computePrecision;
+
+        allocateScratch();
     }
 
     @Override
-    void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias) {
+    void foldBias(double bias) {
 
-        Iterator<IncomingConnections> connectionsIterator = connections.iterator();
+        foldedBiases = new double[writableNeurons.size()];
 
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+        for (int i = 0; i < foldedBiases.length; i++) {
+            foldedBiases[i] = getBiasWeight(i) * bias;
+        }
+    }
 
-            neuron.preSynapse = 0.0;
+    @Override
+    void setSparseInputs(boolean sparseInputs) {
+        this.sparseInputs = sparseInputs;
+    }
 
-            IncomingConnections neuronConnections = connectionsIterator.next();
-            Iterator<IncomingConnection> neuronConnectionIterator = neuronConnections.connections.iterator();
+    @Override
+    void connect(SizedIterable<NeuronT> previousLayerNeurons) {
 
-            for (NeuronState<NeuronT> previousNeuron : previousLayerNeurons) {
+        // NOTE: the weights always start over, even when the sizes haven't changed (the previous layer may be a
+        //       different one that happens to be the same size)
 
-                IncomingConnection neuronConnection = neuronConnectionIterator.next();
+        int neuronCount = writableNeurons.size();
 
-                neuron.preSynapse += previousNeuron.postSynapse * neuronConnection.weight;
+        weightColumnCount = previousLayerNeurons.size();
 
-                if (Double.isNaN(neuron.preSynapse)) {
-                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                    //       return a status code from this function)... it should be given
-                    //       "input" and "weight" (so it can decide what to do based on input values being
-                    //       infinite/NaN/etc... if it fails, then set this to 0.0
-                    neuron.preSynapse = 0.0;
-                }
-            }
+        if (computePrecision == ComputePrecision.Float64) {
 
-            neuron.preSynapse += (neuronConnections.biasWeight * bias);
+            weights = new double[neuronCount * weightColumnCount];
+            biasWeights = new double[neuronCount];
 
-            if (Double.isNaN(neuron.preSynapse)) {
-                // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                //       return a status code from this function)... it should be given
-                //       "neuron.incomingBiasWeight" and "bias" (so it can decide what to do based on input values being
-                //       infinite/NaN/etc... if it fails, then set this to 0.0
-                neuron.preSynapse = 0.0;
-            }
+        } else {
 
-            activateNeuron(neuron);
+            singleWeights = new float[neuronCount * weightColumnCount];
+            singleBiasWeights = new float[neuronCount];
         }
+
+        allocateScratch();
     }
 
     @Override
-    void resetPostSynapseErrorDerivatives(double value) {
+    void activate(Tensor previousOutputs, double bias) {
+
+        double[] previous = previousOutputs.asDoubles(previousPostSynapses);
+
+        if (sparseInputs) {
 
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+            int nonZeroCount = MatrixKernels.gatherNonZeroColumns(
+                    previous,
+                    0,
+                    weightColumnCount,
+                    nonZeroColumns,
+                    0);
 
-            neuron.postSynapseErrorDerivative = value;
+            multiplySparse(previous, 0, nonZeroColumns, 0, nonZeroCount, preSynapses, 0);
+
+            addBiases(preSynapses, 1, bias);
+
+        } else {
+
+            sumIncoming(previous, preSynapses, bias);
         }
+
+        activateNeurons(preSynapses, postSynapses, 0, writableNeurons.size());
+
+        outputs.copyFrom(postSynapses, 0);
+    }
+
+    @Override
+    void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias) {
+
+        double[] preSynapses = context.buffer(offset);
+        double[] postSynapses = context.buffer(offset + 1);
+
+        sumIncoming(previousPostSynapses, preSynapses, bias);
+
+        activateNeurons(preSynapses, postSynapses, 0, writableNeurons.size());
     }
 
     @Override
-    void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons,
+    void backPropagate(Tensor previousOutputs,
+                       Tensor previousErrorDerivatives,
                        double bias,
                        double learningRate) {
 
-        Iterator<IncomingConnections> connectionsIterator = connections.iterator();
+        int neuronCount = writableNeurons.size();
 
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+        double[] postSynapseErrorDerivatives = outputErrorDerivatives.asDoubles(this.postSynapseErrorDerivatives);
 
-            IncomingConnections neuronConnections = connectionsIterator.next();
-            Iterator<IncomingConnection> neuronConnectionIterator = neuronConnections.connections.iterator();
+        computePreSynapseOutputDerivatives(preSynapses, postSynapses, derivatives, 0, neuronCount);
 
-            double dE_dOut = neuron.postSynapseErrorDerivative;
-            double dOut_dIn = computePreSynapseOutputDerivative(neuron);
+        // NOTE: dE/dIn = dE/dOut * dOut/dIn (reusing the derivatives scratch, since each is only read once)
+        for (int i = 0; i < neuronCount; i++) {
+            derivatives[i] = postSynapseErrorDerivatives[i] * derivatives[i];
+        }
 
-            double dE_dIn = dE_dOut * dOut_dIn;
+        double[] previousErrors = null;
 
-            for (NeuronState<NeuronT> previousNeuron : previousLayerNeurons) {
+        if (null != previousErrorDerivatives) {
 
-                double dIn_dW = previousNeuron.postSynapse;
-                double dE_dW = dE_dIn * dIn_dW;
+            previousErrors = previousErrorDerivatives.asDoubles(this.previousErrorDerivatives);
+            Arrays.fill(previousErrors, 0, weightColumnCount, 0.0);
+        }
 
-                IncomingConnection neuronConnection = neuronConnectionIterator.next();
-                double currentWeight = neuronConnection.weight;
+        double[] previous = previousOutputs.asDoubles(previousPostSynapses);
+
+        // update incoming connection weights, and the previous layer's dE/dOut
+        if (sparseInputs && (null == previousErrors)) {
+
+            // NOTE: found again rather than kept from activate, so this is right however the inputs got here
+            int nonZeroCount = MatrixKernels.gatherNonZeroColumns(
+                    previous,
+                    0,
+                    weightColumnCount,
+                    nonZeroColumns,
+                    0);
+
+            if (null != weights) {
+
+                MatrixKernels.backPropagateSparse(
+                        weights,
+                        neuronCount,
+                        weightColumnCount,
+                        derivatives,
+                        previous,
+                        nonZeroColumns,
+                        nonZeroCount,
+                        learningRate);
+
+            } else {
+
+                MatrixKernels.backPropagateSparse(
+                        singleWeights,
+                        neuronCount,
+                        weightColumnCount,
+                        derivatives,
+                        previous,
+                        nonZeroColumns,
+                        nonZeroCount,
+                        learningRate);
+            }
 
-                // update incoming connection weight
-                neuronConnection.weight = currentWeight - (dE_dW * learningRate);
+        } else if (null != weights) {
+
+            MatrixKernels.backPropagate(
+                    weights,
+                    neuronCount,
+                    weightColumnCount,
+                    derivatives,
+                    previous,
+                    previousErrors,
+                    learningRate);
+
+        } else {
+
+            MatrixKernels.backPropagate(
+                    singleWeights,
+                    neuronCount,
+                    weightColumnCount,
+                    derivatives,
+                    previous,
+                    previousErrors,
+                    learningRate);
+        }
 
-                // update previous neuron dE/dOut
-                // TODO: don't need to compute this on the last pass
-                double dIn_dOutPrev = currentWeight;
-                double dE_dOutPrev = (dE_dIn * dIn_dOutPrev);
-                previousNeuron.postSynapseErrorDerivative += dE_dOutPrev;
-            }
+        if (null != previousErrorDerivatives) {
+            previousErrorDerivatives.copyFrom(previousErrors, 0);
+        }
+
+        // update incoming bias weights
+        for (int i = 0; i < neuronCount; i++) {
 
-            // update incoming bias weight
             double dIn_dW_Bias = bias;
-            double dE_dW_Bias = dE_dIn * dIn_dW_Bias;
+            double dE_dW_Bias = derivatives[i] * dIn_dW_Bias;
 
-            double currentWeight_Bias = neuronConnections.biasWeight;
-            double newWeight_Bias = currentWeight_Bias - (dE_dW_Bias * learningRate);
+            setBiasWeight(i, getBiasWeight(i) - (dE_dW_Bias * learningRate));
+        }
+    }
+
+    @Override
+    void activateBatch(double[] previousPostSynapses,
+                       TrainingContext context,
+                       int offset,
+                       int batchSize,
+                       double bias) {
+
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+
+        int neuronCount = writableNeurons.size();
+
+        if (sparseInputs) {
+
+            // NOTE: the non-zero columns of each sample are kept for backPropagateBatch (with the count of each in
+            //       the indices of the post synapse buffer)
+            int[] columns = context.indices(offset, weightColumnCount);
+            int[] nonZeroCounts = context.indices(offset + 1, 1);
+
+            for (int sample = 0; sample < batchSize; sample++) {
+
+                int inputOffset = sample * weightColumnCount;
+
+                nonZeroCounts[sample] = MatrixKernels.gatherNonZeroColumns(
+                        previousPostSynapses,
+                        inputOffset,
+                        weightColumnCount,
+                        columns,
+                        inputOffset);
+
+                multiplySparse(
+                        previousPostSynapses,
+                        inputOffset,
+                        columns,
+                        inputOffset,
+                        nonZeroCounts[sample],
+                        preSynapses,
+                        sample * neuronCount);
+            }
 
-            neuronConnections.biasWeight = newWeight_Bias;
+        } else if (null != weights) {
+
+            MatrixKernels.multiplyBatch(
+                    weights,
+                    neuronCount,
+                    weightColumnCount,
+                    previousPostSynapses,
+                    preSynapses,
+                    batchSize);
+
+        } else {
+
+            MatrixKernels.multiplyBatch(
+                    singleWeights,
+                    neuronCount,
+                    weightColumnCount,
+                    previousPostSynapses,
+                    preSynapses,
+                    batchSize,
+                    accumulateSingle());
         }
+
+        addBiases(preSynapses, batchSize, bias);
+
+        activateNeurons(preSynapses, postSynapses, 0, batchSize * neuronCount);
     }
 
-    protected static class IncomingConnections {
+    @Override
+    void backPropagateBatch(double[] previousPostSynapses,
+                            double[] previousErrorDerivatives,
+                            TrainingContext context,
+                            int offset,
+                            int gradientOffset,
+                            int batchSize,
+                            double bias) {
+
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+        double[] postSynapseErrorDerivatives = context.errorDerivatives(offset + 1);
+
+        // NOTE: dE/dIn goes in the pre synapse error derivatives (nothing else uses them)
+        double[] preSynapseErrorDerivatives = context.errorDerivatives(offset);
 
-        public double biasWeight;
-        public final List<IncomingConnection> connections;
+        int neuronCount = writableNeurons.size();
+        int count = batchSize * neuronCount;
 
-        public IncomingConnections() {
+        computePreSynapseOutputDerivatives(preSynapses, postSynapses, preSynapseErrorDerivatives, 0, count);
 
-            biasWeight = 0.0;
-            connections = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            preSynapseErrorDerivatives[i] = postSynapseErrorDerivatives[i] * preSynapseErrorDerivatives[i];
         }
 
-        private IncomingConnections(IncomingConnections other) {
+        if (sparseInputs && (null == previousErrorDerivatives)) {
+
+            int[] columns = context.indices(offset, weightColumnCount);
+            int[] nonZeroCounts = context.indices(offset + 1, 1);
 
-            biasWeight = other.biasWeight;
-            connections = new ArrayList<>();
+            for (int sample = 0; sample < batchSize; sample++) {
 
-            for (IncomingConnection connection : other.connections) {
+                int inputOffset = sample * weightColumnCount;
 
-                IncomingConnection connectionCopy = connection.deepClone();
-                connections.add(connectionCopy);
+                MatrixKernels.accumulateGradientsSparse(
+                        neuronCount,
+                        weightColumnCount,
+                        preSynapseErrorDerivatives,
+                        sample * neuronCount,
+                        previousPostSynapses,
+                        inputOffset,
+                        columns,
+                        inputOffset,
+                        nonZeroCounts[sample],
+                        context.gradient(gradientOffset));
             }
+
+        } else if (null != weights) {
+
+            MatrixKernels.backPropagateBatch(
+                    weights,
+                    neuronCount,
+                    weightColumnCount,
+                    preSynapseErrorDerivatives,
+                    previousPostSynapses,
+                    previousErrorDerivatives,
+                    context.gradient(gradientOffset),
+                    batchSize);
+
+        } else {
+
+            MatrixKernels.backPropagateBatch(
+                    singleWeights,
+                    neuronCount,
+                    weightColumnCount,
+                    preSynapseErrorDerivatives,
+                    previousPostSynapses,
+                    previousErrorDerivatives,
+                    context.gradient(gradientOffset),
+                    batchSize);
         }
 
-        public IncomingConnections deepClone() {
-            return new IncomingConnections(this);
+        double[] biasGradients = context.gradient(gradientOffset + 1);
+
+        for (int sample = 0; sample < batchSize; sample++) {
+
+            int sampleOffset = sample * neuronCount;
+
+            for (int i = 0; i < neuronCount; i++) {
+                biasGradients[i] += preSynapseErrorDerivatives[sampleOffset + i] * bias;
+            }
         }
     }
 
-    protected static class IncomingConnection {
+    @Override
+    int gradientBufferCount() {
+        return 2;
+    }
+
+    @Override
+    void getGradientBufferSizes(int[] sizes, int offset) {
+        sizes[offset] = writableNeurons.size() * weightColumnCount;
+        sizes[offset + 1] = writableNeurons.size();
+    }
+
+    @Override
+    void applyGradients(TrainingContext context, int gradientOffset, double learningRate) {
+
+        if (null != weights) {
+
+            MatrixKernels.applyGradients(weights, context.gradient(gradientOffset), learningRate);
+            MatrixKernels.applyGradients(biasWeights, context.gradient(gradientOffset + 1), learningRate);
 
-        public double weight;
+        } else {
 
-        public IncomingConnection() {
-            weight = 0.0;
+            MatrixKernels.applyGradients(singleWeights, context.gradient(gradientOffset), learningRate);
+            MatrixKernels.applyGradients(singleBiasWeights, context.gradient(gradientOffset + 1), learningRate);
         }
+    }
+
+    private void sumIncoming(double[] previousPostSynapses, double[] preSynapses, double bias) {
+
+        int neuronCount = writableNeurons.size();
 
-        public IncomingConnection(IncomingConnection other) {
-            weight = other.weight;
+        if (null != weights) {
+
+            MatrixKernels.multiply(weights, neuronCount, weightColumnCount, previousPostSynapses, preSynapses);
+
+        } else {
+
+            MatrixKernels.multiply(
+                    singleWeights,
+                    neuronCount,
+                    weightColumnCount,
+                    previousPostSynapses,
+                    preSynapses,
+                    accumulateSingle());
         }
 
-        public IncomingConnection deepClone() {
-            return new IncomingConnection(this);
+        addBiases(preSynapses, 1, bias);
+    }
+
+    private void multiplySparse(double[] inputs,
+                                int inputOffset,
+                                int[] columns,
+                                int columnsOffset,
+                                int nonZeroCount,
+                                double[] outputs,
+                                int outputOffset) {
+
+        int neuronCount = writableNeurons.size();
+
+        if (null != weights) {
+
+            MatrixKernels.multiplySparse(
+                    weights,
+                    neuronCount,
+                    weightColumnCount,
+                    inputs,
+                    inputOffset,
+                    columns,
+                    columnsOffset,
+                    nonZeroCount,
+                    outputs,
+                    outputOffset);
+
+        } else {
+
+            MatrixKernels.multiplySparse(
+                    singleWeights,
+                    neuronCount,
+                    weightColumnCount,
+                    inputs,
+                    inputOffset,
+                    columns,
+                    columnsOffset,
+                    nonZeroCount,
+                    outputs,
+                    outputOffset,
+                    accumulateSingle());
         }
     }
+
+    private boolean accumulateSingle() {
+        return computePrecision == ComputePrecision.Float32;
+    }
+
+    private double getBiasWeight(int index) {
+        return (null != biasWeights) ? biasWeights[index] : singleBiasWeights[index];
+    }
+
+    private double biasAt(int index, double bias) {
+        return (null != foldedBiases) ? foldedBiases[index] : (getBiasWeight(index) * bias);
+    }
+
+    private void setBiasWeight(int index, double value) {
+
+        if (null != biasWeights) {
+            biasWeights[index] = value;
+        } else {
+            singleBiasWeights[index] = (float) value;
+        }
+    }
+
+    private void setWeight(int index, double value) {
+
+        if (null != weights) {
+            weights[index] = value;
+        } else {
+            singleWeights[index] = (float) value;
+        }
+    }
+
+    private void addBiases(double[] preSynapses, int batchSize, double bias) {
+
+        int neuronCount = writableNeurons.size();
+
+        for (int sample = 0; sample < batchSize; sample++) {
+
+            int sampleOffset = sample * neuronCount;
+
+            for (int i = 0; i < neuronCount; i++) {
+
+                double preSynapse = preSynapses[sampleOffset + i] + biasAt(i, bias);
+
+                if (Double.isNaN(preSynapse)) {
+                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                    //       return a status code from this function)... it should be given
+                    //       "biasWeights[i]" and "bias" (so it can decide what to do based on input values being
+                    //       infinite/NaN/etc... if it fails, then set this to 0.0
+                    preSynapse = 0.0;
+                }
+
+                preSynapses[sampleOffset + i] = preSynapse;
+            }
+        }
+    }
+
+    private void allocateScratch() {
+
+        int neuronCount = writableNeurons.size();
+
+        preSynapses = new double[neuronCount];
+        postSynapses = new double[neuronCount];
+        postSynapseErrorDerivatives = new double[neuronCount];
+
+        if (computePrecision == ComputePrecision.Float64) {
+
+            outputs = Tensor.wrap(postSynapses, 0, neuronCount);
+            outputErrorDerivatives = Tensor.wrap(postSynapseErrorDerivatives, 0, neuronCount);
+
+        } else {
+
+            outputs = Tensor.wrap(new float[neuronCount], 0, neuronCount);
+            outputErrorDerivatives = Tensor.wrap(new float[neuronCount], 0, neuronCount);
+        }
+
+        derivatives = new double[neuronCount];
+
+        previousPostSynapses = new double[weightColumnCount];
+        previousErrorDerivatives = new double[weightColumnCount];
+
+        nonZeroColumns = new int[weightColumnCount];
+    }
 }
@@ -0,0 +1,760 @@
+package matgr.ai.neuralnet.feedforward;
+
+// NOTE: matrices are row major (one row per output neuron, one column per input), and are walked in blocks of columns
+//       so each block of the inputs stays in cache while every row passes over it... each row is still accumulated in
+//       column order though, since a NaN sum is reset to 0.0 part way through (so the order matters)
+final class MatrixKernels {
+
+    private static final int COLUMN_BLOCK_SIZE = 512;
+    private static final int SAMPLE_BLOCK_SIZE = 4;
+
+    private MatrixKernels() {
+    }
+
+    // NOTE: outputs = weights * inputs
+    static void multiply(double[] weights, int rowCount, int columnCount, double[] inputs, double[] outputs) {
+
+        for (int row = 0; row < rowCount; row++) {
+            outputs[row] = 0.0;
+        }
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                double sum = outputs[row];
+
+                for (int column = blockStart; column < blockEnd; column++) {
+
+                    sum += inputs[column] * weights[rowOffset + column];
+
+                    if (Double.isNaN(sum)) {
+                        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                        //       return a status code from this function)... it should be given
+                        //       "input" and "weight" (so it can decide what to do based on input values being
+                        //       infinite/NaN/etc... if it fails, then set this to 0.0
+                        sum = 0.0;
+                    }
+                }
+
+                outputs[row] = sum;
+            }
+        }
+    }
+
+    // NOTE: inputErrors += transpose(weights) * rowErrors (using the weights as they were), and each weight is moved
+    //       against its gradient (rowErrors[row] * inputs[column]) in the same pass... inputErrors can be null when
+    //       nothing needs them (for the first layer)
+    static void backPropagate(double[] weights,
+                              int rowCount,
+                              int columnCount,
+                              double[] rowErrors,
+                              double[] inputs,
+                              double[] inputErrors,
+                              double learningRate) {
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                double dE_dIn = rowErrors[row];
+
+                for (int column = blockStart; column < blockEnd; column++) {
+
+                    double currentWeight = weights[rowOffset + column];
+
+                    double dE_dW = dE_dIn * inputs[column];
+
+                    weights[rowOffset + column] = currentWeight - (dE_dW * learningRate);
+
+                    if (null != inputErrors) {
+                        inputErrors[column] += (dE_dIn * currentWeight);
+                    }
+                }
+            }
+        }
+    }
+
+    // NOTE: the batch versions of the above, for batchSize samples at once (each sample is a row of the inputs and
+    //       outputs)... each block of a weight row is used for every sample while it is in cache (rather than the whole
+    //       matrix being streamed through once per sample), and samples (or rows) are taken SAMPLE_BLOCK_SIZE at a time
+    //       so each weight (or input) that is loaded is used for all of them... every sum is still accumulated in the
+    //       same order as the single sample versions
+
+    // NOTE: outputs = inputs * transpose(weights)
+    static void multiplyBatch(double[] weights,
+                              int rowCount,
+                              int columnCount,
+                              double[] inputs,
+                              double[] outputs,
+                              int batchSize) {
+
+        for (int i = 0; i < batchSize * rowCount; i++) {
+            outputs[i] = 0.0;
+        }
+
+        int blockedBatchSize = batchSize - (batchSize % SAMPLE_BLOCK_SIZE);
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                int sample = 0;
+
+                for (; sample < blockedBatchSize; sample += SAMPLE_BLOCK_SIZE) {
+
+                    int inputOffset0 = sample * columnCount;
+                    int inputOffset1 = inputOffset0 + columnCount;
+                    int inputOffset2 = inputOffset1 + columnCount;
+                    int inputOffset3 = inputOffset2 + columnCount;
+
+                    int outputIndex0 = (sample * rowCount) + row;
+                    int outputIndex1 = outputIndex0 + rowCount;
+                    int outputIndex2 = outputIndex1 + rowCount;
+                    int outputIndex3 = outputIndex2 + rowCount;
+
+                    double sum0 = outputs[outputIndex0];
+                    double sum1 = outputs[outputIndex1];
+                    double sum2 = outputs[outputIndex2];
+                    double sum3 = outputs[outputIndex3];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+
+                        double weight = weights[rowOffset + column];
+
+                        sum0 += inputs[inputOffset0 + column] * weight;
+                        sum1 += inputs[inputOffset1 + column] * weight;
+                        sum2 += inputs[inputOffset2 + column] * weight;
+                        sum3 += inputs[inputOffset3 + column] * weight;
+
+                        if (Double.isNaN(sum0 + sum1 + sum2 + sum3)) {
+                            sum0 = Double.isNaN(sum0) ? 0.0 : sum0;
+                            sum1 = Double.isNaN(sum1) ? 0.0 : sum1;
+                            sum2 = Double.isNaN(sum2) ? 0.0 : sum2;
+                            sum3 = Double.isNaN(sum3) ? 0.0 : sum3;
+                        }
+                    }
+
+                    outputs[outputIndex0] = sum0;
+                    outputs[outputIndex1] = sum1;
+                    outputs[outputIndex2] = sum2;
+                    outputs[outputIndex3] = sum3;
+                }
+
+                for (; sample < batchSize; sample++) {
+
+                    int inputOffset = sample * columnCount;
+                    int outputIndex = (sample * rowCount) + row;
+
+                    double sum = outputs[outputIndex];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+
+                        sum += inputs[inputOffset + column] * weights[rowOffset + column];
+
+                        if (Double.isNaN(sum)) {
+                            sum = 0.0;
+                        }
+                    }
+
+                    outputs[outputIndex] = sum;
+                }
+            }
+        }
+    }
+
+    // NOTE: gradients += transpose(rowErrors) * inputs, and inputErrors = rowErrors * weights (unless inputErrors is
+    //       null)... the weights themselves are left alone
+    static void backPropagateBatch(double[] weights,
+                                   int rowCount,
+                                   int columnCount,
+                                   double[] rowErrors,
+                                   double[] inputs,
+                                   double[] inputErrors,
+                                   double[] gradients,
+                                   int batchSize) {
+
+        accumulateGradients(rowCount, columnCount, rowErrors, inputs, gradients, batchSize);
+
+        if (null != inputErrors) {
+            multiplyErrors(weights, rowCount, columnCount, rowErrors, inputErrors, batchSize);
+        }
+    }
+
+    private static void accumulateGradients(int rowCount,
+                                            int columnCount,
+                                            double[] rowErrors,
+                                            double[] inputs,
+                                            double[] gradients,
+                                            int batchSize) {
+
+        int blockedBatchSize = batchSize - (batchSize % SAMPLE_BLOCK_SIZE);
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                int sample = 0;
+
+                for (; sample < blockedBatchSize; sample += SAMPLE_BLOCK_SIZE) {
+
+                    int inputOffset0 = sample * columnCount;
+                    int inputOffset1 = inputOffset0 + columnCount;
+                    int inputOffset2 = inputOffset1 + columnCount;
+                    int inputOffset3 = inputOffset2 + columnCount;
+
+                    double dE_dIn0 = rowErrors[(sample * rowCount) + row];
+                    double dE_dIn1 = rowErrors[((sample + 1) * rowCount) + row];
+                    double dE_dIn2 = rowErrors[((sample + 2) * rowCount) + row];
+                    double dE_dIn3 = rowErrors[((sample + 3) * rowCount) + row];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+
+                        double gradient = gradients[rowOffset + column];
+
+                        gradient += dE_dIn0 * inputs[inputOffset0 + column];
+                        gradient += dE_dIn1 * inputs[inputOffset1 + column];
+                        gradient += dE_dIn2 * inputs[inputOffset2 + column];
+                        gradient += dE_dIn3 * inputs[inputOffset3 + column];
+
+                        gradients[rowOffset + column] = gradient;
+                    }
+                }
+
+                for (; sample < batchSize; sample++) {
+
+                    int inputOffset = sample * columnCount;
+
+                    double dE_dIn = rowErrors[(sample * rowCount) + row];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+                        gradients[rowOffset + column] += dE_dIn * inputs[inputOffset + column];
+                    }
+                }
+            }
+        }
+    }
+
+    private static void multiplyErrors(double[] weights,
+                                       int rowCount,
+                                       int columnCount,
+                                       double[] rowErrors,
+                                       double[] inputErrors,
+                                       int batchSize) {
+
+        for (int i = 0; i < batchSize * columnCount; i++) {
+            inputErrors[i] = 0.0;
+        }
+
+        int blockedRowCount = rowCount - (rowCount % SAMPLE_BLOCK_SIZE);
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int sample = 0; sample < batchSize; sample++) {
+
+                int inputOffset = sample * columnCount;
+                int rowErrorOffset = sample * rowCount;
+
+                int row = 0;
+
+                for (; row < blockedRowCount; row += SAMPLE_BLOCK_SIZE) {
+
+                    int rowOffset0 = row * columnCount;
+                    int rowOffset1 = rowOffset0 + columnCount;
+                    int rowOffset2 = rowOffset1 + columnCount;
+                    int rowOffset3 = rowOffset2 + columnCount;
+
+                    double dE_dIn0 = rowErrors[rowErrorOffset + row];
+                    double dE_dIn1 = rowErrors[rowErrorOffset + row + 1];
+                    double dE_dIn2 = rowErrors[rowErrorOffset + row + 2];
+                    double dE_dIn3 = rowErrors[rowErrorOffset + row + 3];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+
+                        double inputError = inputErrors[inputOffset + column];
+
+                        inputError += (dE_dIn0 * weights[rowOffset0 + column]);
+                        inputError += (dE_dIn1 * weights[rowOffset1 + column]);
+                        inputError += (dE_dIn2 * weights[rowOffset2 + column]);
+                        inputError += (dE_dIn3 * weights[rowOffset3 + column]);
+
+                        inputErrors[inputOffset + column] = inputError;
+                    }
+                }
+
+                for (; row < rowCount; row++) {
+
+                    int rowOffset = row * columnCount;
+
+                    double dE_dIn = rowErrors[rowErrorOffset + row];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+                        inputErrors[inputOffset + column] += (dE_dIn * weights[rowOffset + column]);
+                    }
+                }
+            }
+        }
+    }
+
+    // NOTE: the sparse versions of the above, which only touch the columns of the inputs that aren't zero (see
+    //       gatherNonZeroColumns)... a zero input adds nothing to a sum (or a gradient), so as long as the weights are
+    //       finite these give the same results as the dense versions, but are only quicker when most inputs are
+    //       zero... there's no sparse version of the input errors, since only the first layer has sparse inputs (and
+    //       nothing needs its input errors)
+
+    // NOTE: writes the index of each non-zero input (in order) to columns, and returns how many there are... NaNs
+    //       count as non-zero
+    static int gatherNonZeroColumns(double[] inputs,
+                                    int inputOffset,
+                                    int columnCount,
+                                    int[] columns,
+                                    int columnsOffset) {
+
+        int count = 0;
+
+        for (int column = 0; column < columnCount; column++) {
+
+            if (inputs[inputOffset + column] != 0.0) {
+
+                columns[columnsOffset + count] = column;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // NOTE: outputs = weights * inputs (for the sample at the offsets)
+    static void multiplySparse(double[] weights,
+                               int rowCount,
+                               int columnCount,
+                               double[] inputs,
+                               int inputOffset,
+                               int[] columns,
+                               int columnsOffset,
+                               int nonZeroCount,
+                               double[] outputs,
+                               int outputOffset) {
+
+        for (int row = 0; row < rowCount; row++) {
+
+            int rowOffset = row * columnCount;
+
+            double sum = 0.0;
+
+            for (int i = columnsOffset; i < columnsOffset + nonZeroCount; i++) {
+
+                int column = columns[i];
+
+                sum += inputs[inputOffset + column] * weights[rowOffset + column];
+
+                if (Double.isNaN(sum)) {
+                    sum = 0.0;
+                }
+            }
+
+            outputs[outputOffset + row] = sum;
+        }
+    }
+
+    // NOTE: each weight of a non-zero column is moved against its gradient (rowErrors[row] * inputs[column])
+    static void backPropagateSparse(double[] weights,
+                                    int rowCount,
+                                    int columnCount,
+                                    double[] rowErrors,
+                                    double[] inputs,
+                                    int[] columns,
+                                    int nonZeroCount,
+                                    double learningRate) {
+
+        for (int row = 0; row < rowCount; row++) {
+
+            int rowOffset = row * columnCount;
+
+            double dE_dIn = rowErrors[row];
+
+            for (int i = 0; i < nonZeroCount; i++) {
+
+                int column = columns[i];
+
+                double dE_dW = dE_dIn * inputs[column];
+
+                weights[rowOffset + column] = weights[rowOffset + column] - (dE_dW * learningRate);
+            }
+        }
+    }
+
+    // NOTE: gradients += transpose(rowErrors) * inputs (for the sample at the offsets)
+    static void accumulateGradientsSparse(int rowCount,
+                                          int columnCount,
+                                          double[] rowErrors,
+                                          int rowErrorOffset,
+                                          double[] inputs,
+                                          int inputOffset,
+                                          int[] columns,
+                                          int columnsOffset,
+                                          int nonZeroCount,
+                                          double[] gradients) {
+
+        for (int row = 0; row < rowCount; row++) {
+
+            int rowOffset = row * columnCount;
+
+            double dE_dIn = rowErrors[rowErrorOffset + row];
+
+            for (int i = columnsOffset; i < columnsOffset + nonZeroCount; i++) {
+
+                int column = columns[i];
+
+                gradients[rowOffset + column] += dE_dIn * inputs[inputOffset + column];
+            }
+        }
+    }
+
+    // NOTE: weights -= gradients * learningRate
+    static void applyGradients(double[] weights, double[] gradients, double learningRate) {
+
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = weights[i] - (gradients[i] * learningRate);
+        }
+    }
+
+    // NOTE: the single precision versions of the above, for layers that store their weights as floats (see
+    //       ComputePrecision)... the activations and errors passed in are still doubles (activation functions are
+    //       evaluated in doubles), and the sums of the multiplies are accumulated in floats when accumulateSingle is
+    //       set (otherwise in doubles)... the errors and gradients are always accumulated in doubles, and the weights
+    //       are only rounded back to floats when they're updated
+
+    // NOTE: outputs = weights * inputs
+    static void multiply(float[] weights,
+                         int rowCount,
+                         int columnCount,
+                         double[] inputs,
+                         double[] outputs,
+                         boolean accumulateSingle) {
+
+        for (int row = 0; row < rowCount; row++) {
+            outputs[row] = 0.0;
+        }
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                if (accumulateSingle) {
+                    outputs[row] = sumSingle(weights, rowOffset, inputs, 0, blockStart, blockEnd, (float) outputs[row]);
+                } else {
+                    outputs[row] = sumMixed(weights, rowOffset, inputs, 0, blockStart, blockEnd, outputs[row]);
+                }
+            }
+        }
+    }
+
+    // NOTE: inputErrors += transpose(weights) * rowErrors, and the weights are moved against their gradients
+    static void backPropagate(float[] weights,
+                              int rowCount,
+                              int columnCount,
+                              double[] rowErrors,
+                              double[] inputs,
+                              double[] inputErrors,
+                              double learningRate) {
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                double dE_dIn = rowErrors[row];
+
+                for (int column = blockStart; column < blockEnd; column++) {
+
+                    double currentWeight = weights[rowOffset + column];
+
+                    double dE_dW = dE_dIn * inputs[column];
+
+                    weights[rowOffset + column] = (float) (currentWeight - (dE_dW * learningRate));
+
+                    if (null != inputErrors) {
+                        inputErrors[column] += (dE_dIn * currentWeight);
+                    }
+                }
+            }
+        }
+    }
+
+    // NOTE: outputs = inputs * transpose(weights)... one weight row block at a time for every sample (but without the
+    //       samples being taken in blocks, the single precision weights already halve what's loaded)
+    static void multiplyBatch(float[] weights,
+                              int rowCount,
+                              int columnCount,
+                              double[] inputs,
+                              double[] outputs,
+                              int batchSize,
+                              boolean accumulateSingle) {
+
+        for (int i = 0; i < batchSize * rowCount; i++) {
+            outputs[i] = 0.0;
+        }
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                int rowOffset = row * columnCount;
+
+                for (int sample = 0; sample < batchSize; sample++) {
+
+                    int inputOffset = sample * columnCount;
+                    int outputIndex = (sample * rowCount) + row;
+
+                    if (accumulateSingle) {
+
+                        outputs[outputIndex] = sumSingle(
+                                weights,
+                                rowOffset,
+                                inputs,
+                                inputOffset,
+                                blockStart,
+                                blockEnd,
+                                (float) outputs[outputIndex]);
+
+                    } else {
+
+                        outputs[outputIndex] = sumMixed(
+                                weights,
+                                rowOffset,
+                                inputs,
+                                inputOffset,
+                                blockStart,
+                                blockEnd,
+                                outputs[outputIndex]);
+                    }
+                }
+            }
+        }
+    }
+
+    // NOTE: gradients += transpose(rowErrors) * inputs, and inputErrors = rowErrors * weights (unless inputErrors is
+    //       null)
+    static void backPropagateBatch(float[] weights,
+                                   int rowCount,
+                                   int columnCount,
+                                   double[] rowErrors,
+                                   double[] inputs,
+                                   double[] inputErrors,
+                                   double[] gradients,
+                                   int batchSize) {
+
+        accumulateGradients(rowCount, columnCount, rowErrors, inputs, gradients, batchSize);
+
+        if (null == inputErrors) {
+            return;
+        }
+
+        for (int i = 0; i < batchSize * columnCount; i++) {
+            inputErrors[i] = 0.0;
+        }
+
+        for (int blockStart = 0; blockStart < columnCount; blockStart += COLUMN_BLOCK_SIZE) {
+
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnCount);
+
+            for (int sample = 0; sample < batchSize; sample++) {
+
+                int inputOffset = sample * columnCount;
+                int rowErrorOffset = sample * rowCount;
+
+                for (int row = 0; row < rowCount; row++) {
+
+                    int rowOffset = row * columnCount;
+
+                    double dE_dIn = rowErrors[rowErrorOffset + row];
+
+                    for (int column = blockStart; column < blockEnd; column++) {
+                        inputErrors[inputOffset + column] += (dE_dIn * weights[rowOffset + column]);
+                    }
+                }
+            }
+        }
+    }
+
+    // NOTE: outputs = weights * inputs (for the sample at the offsets, only using the non-zero columns)
+    static void multiplySparse(float[] weights,
+                               int rowCount,
+                               int columnCount,
+                               double[] inputs,
+                               int inputOffset,
+                               int[] columns,
+                               int columnsOffset,
+                               int nonZeroCount,
+                               double[] outputs,
+                               int outputOffset,
+                               boolean accumulateSingle) {
+
+        for (int row = 0; row < rowCount; row++) {
+
+            int rowOffset = row * columnCount;
+
+            if (accumulateSingle) {
+
+                float sum = 0.0f;
+
+                for (int i = columnsOffset; i < columnsOffset + nonZeroCount; i++) {
+
+                    int column = columns[i];
+
+                    sum += (float) inputs[inputOffset + column] * weights[rowOffset + column];
+
+                    if (Float.isNaN(sum)) {
+                        sum = 0.0f;
+                    }
+                }
+
+                outputs[outputOffset + row] = sum;
+
+            } else {
+
+                double sum = 0.0;
+
+                for (int i = columnsOffset; i < columnsOffset + nonZeroCount; i++) {
+
+                    int column = columns[i];
+
+                    sum += inputs[inputOffset + column] * weights[rowOffset + column];
+
+                    if (Double.isNaN(sum)) {
+                        sum = 0.0;
+                    }
+                }
+
+                outputs[outputOffset + row] = sum;
+            }
+        }
+    }
+
+    // NOTE: each weight of a non-zero column is moved against its gradient
+    static void backPropagateSparse(float[] weights,
+                                    int rowCount,
+                                    int columnCount,
+                                    double[] rowErrors,
+                                    double[] inputs,
+                                    int[] columns,
+                                    int nonZeroCount,
+                                    double learningRate) {
+
+        for (int row = 0; row < rowCount; row++) {
+
+            int rowOffset = row * columnCount;
+
+            double dE_dIn = rowErrors[row];
+
+            for (int i = 0; i < nonZeroCount; i++) {
+
+                int column = columns[i];
+
+                double dE_dW = dE_dIn * inputs[column];
+
+                weights[rowOffset + column] = (float) (weights[rowOffset + column] - (dE_dW * learningRate));
+            }
+        }
+    }
+
+    // NOTE: weights -= gradients * learningRate
+    static void applyGradients(float[] weights, double[] gradients, double learningRate) {
+
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) (weights[i] - (gradients[i] * learningRate));
+        }
+    }
+
+    static float[] toSingle(double[] values) {
+
+        float[] singleValues = new float[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            singleValues[i] = (float) values[i];
+        }
+
+        return singleValues;
+    }
+
+    static double[] toDouble(float[] values) {
+
+        double[] doubleValues = new double[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            doubleValues[i] = values[i];
+        }
+
+        return doubleValues;
+    }
+
+    // NOTE: sum + (the columns [blockStart, blockEnd) of a weight row * the inputs), in floats
+    private static float sumSingle(float[] weights,
+                                   int rowOffset,
+                                   double[] inputs,
+                                   int inputOffset,
+                                   int blockStart,
+                                   int blockEnd,
+                                   float sum) {
+
+        for (int column = blockStart; column < blockEnd; column++) {
+
+            sum += (float) inputs[inputOffset + column] * weights[rowOffset + column];
+
+            if (Float.isNaN(sum)) {
+                sum = 0.0f;
+            }
+        }
+
+        return sum;
+    }
+
+    // NOTE: the same as the above, in doubles
+    private static double sumMixed(float[] weights,
+                                   int rowOffset,
+                                   double[] inputs,
+                                   int inputOffset,
+                                   int blockStart,
+                                   int blockEnd,
+                                   double sum) {
+
+        for (int column = blockStart; column < blockEnd; column++) {
+
+            sum += inputs[inputOffset + column] * weights[rowOffset + column];
+
+            if (Double.isNaN(sum)) {
+                sum = 0.0;
+            }
+        }
+
+        return sum;
+    }
+}
@@ -1,19 +1,44 @@
 package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.SizedIterable;
-import matgr.ai.common.SizedSelectIterable;
+import matgr.ai.common.DefaultSizedIterable;
+import matgr.ai.neuralnet.ActivationContext;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
 import matgr.ai.neuralnet.activation.ActivationFunction;
 import org.apache.commons.math3.random.RandomGenerator;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.util.List;
+
+// NOTE: each channel is pooled separately (inputs and outputs are channel major, the same as ConvolutionalLayer)...
+//       the input each output came from is recorded when activating, so back propagation just sends each output's
+//       dE/dIn straight back to that input, without searching the windows again
 public class MaxPoolingLayer<NeuronT extends Neuron> extends ActivatableLayer<NeuronT> {
 
+    // NOTE: recorded for outputs whose window is entirely in the padding (so nothing gets back propagated)
+    private static final int NO_INPUT = -1;
+
     private final ConvolutionDimensions dimensions;
 
-    private final NeuronState<NeuronT>[][] neurons;
+    private final int channelCount;
+
+    // NOTE: in the same order as the outputs
+    private final List<NeuronT> writableNeurons;
+    private final SizedIterable<NeuronT> neurons;
+
+    // NOTE: the state from the last activate (the tensors are over the arrays)... the max input indices are relative
+    //       to the start of the sample
+    private double[] preSynapses;
+    private double[] postSynapses;
+    private double[] postSynapseErrorDerivatives;
+    private int[] maxInputIndices;
+    private Tensor outputs;
+    private Tensor outputErrorDerivatives;
+
+    // NOTE: scratch space for the previous layer's values when they aren't already flat doubles, and for dOut/dIn
+    private double[] previousPostSynapses;
+    private double[] previousErrorDerivatives;
+    private double[] derivatives;
 
     protected MaxPoolingLayer(NeuronFactory<NeuronT> neuronFactory,
                               int inputWidth,
@@ -25,20 +50,36 @@ public class MaxPoolingLayer<NeuronT extends Neuron> extends ActivatableLayer<Ne
                               ActivationFunction activationFunction,
                               double... activationFunctionParameters) {
 
+        this(
+                neuronFactory,
+                new ConvolutionDimensions(inputWidth, inputHeight, kernelWidth, kernelHeight, strideX, strideY),
+                1,
+                activationFunction,
+                activationFunctionParameters);
+    }
+
+    protected MaxPoolingLayer(NeuronFactory<NeuronT> neuronFactory,
+                              ConvolutionDimensions dimensions,
+                              int channelCount,
+                              ActivationFunction activationFunction,
+                              double... activationFunctionParameters) {
+
         super(neuronFactory, activationFunction, activationFunctionParameters);
 
-        this.dimensions = new ConvolutionDimensions(
-                inputWidth,
-                inputHeight,
-                kernelWidth,
-                kernelHeight,
-                strideX,
-                strideY);
+        if (null == dimensions) {
+            throw new IllegalArgumentException("dimensions not provided");
+        }
+        if (channelCount < 1) {
+            throw new IllegalArgumentException("channelCount must be at least 1");
+        }
+
+        this.dimensions = dimensions.deepClone();
+        this.channelCount = channelCount;
 
-        this.neurons = ConvolutionDimensions.createHiddenNeuronArray(
-                this.neuronFactory,
-                this.dimensions.outputWidth,
-                this.dimensions.outputHeight);
+        this.writableNeurons = createHiddenNeurons(channelCount * this.dimensions.outputCount());
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
+
+        allocateState();
     }
 
     protected MaxPoolingLayer(MaxPoolingLayer<NeuronT> other) {
@@ -46,11 +87,22 @@ public class MaxPoolingLayer<NeuronT extends Neuron> extends ActivatableLayer<Ne
         super(other);
 
         this.dimensions = other.dimensions.deepClone();
-
-        this.neurons = ConvolutionDimensions.deepCloneNeuronArray(
-                other.neurons,
-                this.dimensions.outputWidth,
-                this.dimensions.outputHeight);
+        this.channelCount = other.channelCount;
+
+        this.writableNeurons = deepCloneNeurons(other.writableNeurons);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
+
+        allocateState();
+
+        System.arraycopy(other.preSynapses, 0, preSynapses, 0, preSynapses.length);
+        System.arraycopy(other.postSynapses, 0, postSynapses, 0, postSynapses.length);
+        System.arraycopy(
+                other.postSynapseErrorDerivatives,
+                0,
+                postSynapseErrorDerivatives,
+                0,
+                postSynapseErrorDerivatives.length);
+        System.arraycopy(other.maxInputIndices, 0, maxInputIndices, 0, maxInputIndices.length);
     }
 
     @Override
@@ -60,24 +112,31 @@ public class MaxPoolingLayer<NeuronT extends Neuron> extends ActivatableLayer<Ne
 
     @Override
     public int inputCount() {
-        return dimensions.inputCount();
+        return channelCount * dimensions.inputCount();
     }
 
     @Override
     public int outputCount() {
-        return dimensions.outputCount();
+        return channelCount * dimensions.outputCount();
+    }
+
+    public int getChannelCount() {
+        return channelCount;
     }
 
     @Override
     public SizedIterable<NeuronT> outputNeurons() {
-
-        return new SizedSelectIterable<>(outputWritableNeurons(), n -> n.neuron);
+        return neurons;
     }
 
     @Override
-    SizedIterable<NeuronState<NeuronT>> outputWritableNeurons() {
+    Tensor outputs() {
+        return outputs;
+    }
 
-        return new NeuronArrayIterable<>(dimensions.outputWidth, dimensions.outputHeight, neurons);
+    @Override
+    Tensor outputErrorDerivatives() {
+        return outputErrorDerivatives;
     }
 
     @Override
@@ -102,128 +161,250 @@ public class MaxPoolingLayer<NeuronT extends Neuron> extends ActivatableLayer<Ne
     }
 
     @Override
-    void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias) {
+    void activate(Tensor previousOutputs, double bias) {
 
-        // TODO: need parameters for wide vs narrow filter (wide means zero padding, narrow is what is currently
-        //       implemented below) ...could maybe just control this based on settings for input/output dimensions and
-        //       the kernel size
+        // TODO: handle NaNs
 
-        // TODO: this could be way more efficient... would definitely benefit from GPGPU processing
-        // TODO: would also benefit from an array representation of the previous layer neurons... currently accessing
-        //       neurons will likely be absurdly slow...
+        poolSample(previousOutputs.asDoubles(previousPostSynapses), 0, preSynapses, maxInputIndices, 0);
 
-        // TODO: handle NaNs
+        activateNeurons(preSynapses, postSynapses, 0, outputCount());
+    }
 
-        if ((dimensions.paddingX != 0) || (dimensions.paddingY != 0)) {
+    @Override
+    void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias) {
 
-            // TODO: handle this (see above)
-            throw new NotImplementedException();
-        }
+        double[] preSynapses = context.buffer(offset);
+        double[] postSynapses = context.buffer(offset + 1);
 
-        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+        // NOTE: nothing is back propagated from an activation context, so the max inputs aren't recorded
+        poolSample(previousPostSynapses, 0, preSynapses, null, 0);
 
-            NeuronState<NeuronT>[] outputRow = neurons[outputY];
+        activateNeurons(preSynapses, postSynapses, 0, outputCount());
+    }
 
-            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+    @Override
+    void activateBatch(double[] previousPostSynapses,
+                       TrainingContext context,
+                       int offset,
+                       int batchSize,
+                       double bias) {
 
-                NeuronState<NeuronT> outputNeuron = outputRow[outputX];
-                NeuronState<NeuronT> maxInputNeuron = getMaxInputNeuron(previousLayerNeurons, outputX, outputY);
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
 
-                outputNeuron.preSynapse = maxInputNeuron.postSynapse;
+        int[] maxInputIndices = context.indices(offset, outputCount());
 
-                if (Double.isNaN(outputNeuron.preSynapse)) {
-                    // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
-                    //       return a status code from this function)... it should be given
-                    //       "neuron.incomingBiasWeight" and "bias" (so it can decide what to do based on input values being
-                    //       infinite/NaN/etc... if it fails, then set this to 0.0
-                    outputNeuron.preSynapse = 0.0;
-                }
+        for (int sample = 0; sample < batchSize; sample++) {
 
-                activateNeuron(outputNeuron);
-            }
+            poolSample(
+                    previousPostSynapses,
+                    sample * inputCount(),
+                    preSynapses,
+                    maxInputIndices,
+                    sample * outputCount());
         }
+
+        activateNeurons(preSynapses, postSynapses, 0, batchSize * outputCount());
     }
 
     @Override
-    void resetPostSynapseErrorDerivatives(double value) {
+    void backPropagate(Tensor previousOutputs,
+                       Tensor previousErrorDerivatives,
+                       double bias,
+                       double learningRate) {
+
+        if (null == previousErrorDerivatives) {
+            // NOTE: no weights, so there's nothing else to do
+            return;
+        }
 
-        for (int y = 0; y < dimensions.outputHeight; y++) {
+        double[] previousErrors = previousErrorDerivatives.asDoubles(this.previousErrorDerivatives);
 
-            NeuronState<NeuronT>[] row = neurons[y];
+        computePreSynapseOutputDerivatives(preSynapses, postSynapses, derivatives, 0, outputCount());
 
-            for (int x = 0; x < dimensions.outputWidth; x++) {
+        unpoolSample(previousErrors, 0, derivatives, postSynapseErrorDerivatives, maxInputIndices, 0);
 
-                NeuronState<NeuronT> neuron = row[x];
-                neuron.postSynapseErrorDerivative = value;
-            }
-        }
+        previousErrorDerivatives.copyFrom(previousErrors, 0);
     }
 
     @Override
-    void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias, double learningRate) {
+    void backPropagateBatch(double[] previousPostSynapses,
+                            double[] previousErrorDerivatives,
+                            TrainingContext context,
+                            int offset,
+                            int gradientOffset,
+                            int batchSize,
+                            double bias) {
+
+        if (null == previousErrorDerivatives) {
+            // NOTE: no weights, so there's nothing else to do
+            return;
+        }
+
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+        double[] postSynapseErrorDerivatives = context.errorDerivatives(offset + 1);
 
-        if ((dimensions.paddingX != 0) || (dimensions.paddingY != 0)) {
+        // NOTE: dOut/dIn goes in the pre synapse error derivatives (nothing else uses them)
+        double[] preSynapseErrorDerivatives = context.errorDerivatives(offset);
 
-            // TODO: handle this (see above)
-            throw new NotImplementedException();
+        int[] maxInputIndices = context.indices(offset, outputCount());
+
+        computePreSynapseOutputDerivatives(
+                preSynapses,
+                postSynapses,
+                preSynapseErrorDerivatives,
+                0,
+                batchSize * outputCount());
+
+        for (int sample = 0; sample < batchSize; sample++) {
+
+            unpoolSample(
+                    previousErrorDerivatives,
+                    sample * inputCount(),
+                    preSynapseErrorDerivatives,
+                    postSynapseErrorDerivatives,
+                    maxInputIndices,
+                    sample * outputCount());
         }
+    }
 
-        for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+    // NOTE: records the max input of each output in maxInputIndices (unless it's null), and NaNs are set to 0.0
+    private void poolSample(double[] previousPostSynapses,
+                            int inputOffset,
+                            double[] preSynapses,
+                            int[] maxInputIndices,
+                            int outputOffset) {
 
-            NeuronState<NeuronT>[] outputRow = neurons[outputY];
+        int outputIndex = outputOffset;
 
-            for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+        for (int channel = 0; channel < channelCount; channel++) {
 
-                NeuronState<NeuronT> outputNeuron = outputRow[outputX];
-                NeuronState<NeuronT> maxInputNeuron = getMaxInputNeuron(previousLayerNeurons, outputX, outputY);
+            int channelOffset = channel * dimensions.inputCount();
 
-                double dE_dOut = outputNeuron.postSynapseErrorDerivative;
-                double dOut_dIn = computePreSynapseOutputDerivative(outputNeuron);
+            for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
 
-                double dE_dIn = dE_dOut * dOut_dIn;
+                for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
 
-                // update previous neuron dE/dOut
-                // TODO: don't need to compute this on the last pass
-                double dIn_dOutPrev = 1.0; // NOTE: weights are all effectively "1"
-                double dE_dOutPrev = (dE_dIn * dIn_dOutPrev);
+                    int maxInputIndex = getMaxInputIndex(
+                            previousPostSynapses,
+                            inputOffset,
+                            channelOffset,
+                            outputX,
+                            outputY);
+
+                    double preSynapse = 0.0;
+
+                    if (maxInputIndex != NO_INPUT) {
+                        preSynapse = previousPostSynapses[inputOffset + maxInputIndex];
+                    }
+
+                    if (Double.isNaN(preSynapse)) {
+                        // TODO: pass in some sort of NaN handler (with the ability to completely bail out and
+                        //       return a status code from this function)... if it fails, then set this to 0.0
+                        preSynapse = 0.0;
+                    }
+
+                    preSynapses[outputIndex] = preSynapse;
+
+                    if (null != maxInputIndices) {
+                        maxInputIndices[outputIndex] = maxInputIndex;
+                    }
 
-                maxInputNeuron.postSynapseErrorDerivative = dE_dOutPrev;
+                    outputIndex++;
+                }
             }
         }
     }
 
-    private NeuronState<NeuronT> getMaxInputNeuron(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons,
-                                                   int outputX,
-                                                   int outputY) {
+    // NOTE: overwrites the previous error derivatives of the sample... where windows overlap, an input that is the
+    //       max of several of them gets the sum of their dE/dIn
+    private void unpoolSample(double[] previousErrorDerivatives,
+                              int inputOffset,
+                              double[] derivatives,
+                              double[] postSynapseErrorDerivatives,
+                              int[] maxInputIndices,
+                              int outputOffset) {
 
-        NeuronState<NeuronT> maxInputNeuron = null;
+        int inputCount = inputCount();
+        int outputCount = outputCount();
 
-        for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+        for (int i = inputOffset; i < inputOffset + inputCount; i++) {
+            previousErrorDerivatives[i] = 0.0;
+        }
 
-            int inputY = kernelY + (outputY * dimensions.strideY);
-            int inputRowIndex = inputY * dimensions.inputWidth;
+        for (int i = outputOffset; i < outputOffset + outputCount; i++) {
 
-            for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+            int maxInputIndex = maxInputIndices[i];
 
-                int inputX = kernelX + (outputX * dimensions.strideX);
-                int inputIndex = inputRowIndex + inputX;
+            if (maxInputIndex == NO_INPUT) {
+                continue;
+            }
 
-                NeuronState<NeuronT> inputNeuron = previousLayerNeurons.get(inputIndex);
+            double dE_dOut = postSynapseErrorDerivatives[i];
+            double dOut_dIn = derivatives[i];
 
-                if (maxInputNeuron == null) {
+            // NOTE: weights are all effectively "1"
+            previousErrorDerivatives[inputOffset + maxInputIndex] += dE_dOut * dOut_dIn;
+        }
+    }
 
-                    maxInputNeuron = inputNeuron;
+    // NOTE: the index is relative to inputOffset (and only inputs inside the padding are considered)
+    private int getMaxInputIndex(double[] previousPostSynapses,
+                                 int inputOffset,
+                                 int channelOffset,
+                                 int outputX,
+                                 int outputY) {
 
-                } else {
+        int inputStartX = (outputX * dimensions.strideX) - dimensions.paddingX;
+        int inputStartY = (outputY * dimensions.strideY) - dimensions.paddingY;
 
-                    if (inputNeuron.postSynapse > maxInputNeuron.postSynapse) {
+        int fromX = Math.max(inputStartX, 0);
+        int fromY = Math.max(inputStartY, 0);
+        int toX = Math.min(inputStartX + dimensions.kernelWidth, dimensions.inputWidth);
+        int toY = Math.min(inputStartY + dimensions.kernelHeight, dimensions.inputHeight);
 
-                        maxInputNeuron = inputNeuron;
-                    }
+        int maxInputIndex = NO_INPUT;
+        double maxValue = 0.0;
+
+        for (int inputY = fromY; inputY < toY; inputY++) {
+
+            int inputRowIndex = channelOffset + (inputY * dimensions.inputWidth);
+
+            for (int inputX = fromX; inputX < toX; inputX++) {
+
+                int inputIndex = inputRowIndex + inputX;
+                double value = previousPostSynapses[inputOffset + inputIndex];
+
+                if ((maxInputIndex == NO_INPUT) || (value > maxValue)) {
+
+                    maxInputIndex = inputIndex;
+                    maxValue = value;
                 }
             }
         }
 
-        return maxInputNeuron;
+        return maxInputIndex;
+    }
+
+    private void allocateState() {
+
+        int outputCount = outputCount();
+
+        preSynapses = new double[outputCount];
+        postSynapses = new double[outputCount];
+        postSynapseErrorDerivatives = new double[outputCount];
+        maxInputIndices = new int[outputCount];
+        outputs = Tensor.wrap(postSynapses, 0, channelCount, dimensions.outputHeight, dimensions.outputWidth);
+        outputErrorDerivatives = Tensor.wrap(
+                postSynapseErrorDerivatives,
+                0,
+                channelCount,
+                dimensions.outputHeight,
+                dimensions.outputWidth);
+
+        previousPostSynapses = new double[inputCount()];
+        previousErrorDerivatives = new double[inputCount()];
+        derivatives = new double[outputCount];
     }
 }
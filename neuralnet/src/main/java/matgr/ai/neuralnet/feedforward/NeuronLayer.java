@@ -2,11 +2,16 @@ package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.SizedIterable;
 import matgr.ai.math.RandomFunctions;
+import matgr.ai.neuralnet.ActivationContext;
+import matgr.ai.neuralnet.ComputePrecision;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 import org.apache.commons.math3.random.RandomGenerator;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class NeuronLayer<NeuronT extends Neuron> {
 
     protected final NeuronFactory<NeuronT> neuronFactory;
@@ -50,20 +55,120 @@ public abstract class NeuronLayer<NeuronT extends Neuron> {
 
     public abstract SizedIterable<NeuronT> outputNeurons();
 
-    abstract SizedIterable<NeuronState<NeuronT>> outputWritableNeurons();
-
     abstract void randomizeWeights(RandomGenerator random);
 
     abstract void connect(SizedIterable<NeuronT> previousLayerNeurons);
 
-    abstract void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias);
+    // NOTE: the layer keeps its own state from the last activate... these are its post synapse values, and dE/dOut
+    //       for each of them (which is written by whatever comes after the layer, before it's back propagated)
+    abstract Tensor outputs();
+
+    abstract Tensor outputErrorDerivatives();
+
+    abstract void activate(Tensor previousOutputs, double bias);
+
+    // NOTE: for activating with an ActivationContext, the state of the layer is kept in the context's buffers (starting
+    //       at offset) instead of in its neurons, and nothing on the layer itself is modified... by default a layer has
+    //       a pre synapse buffer followed by a post synapse buffer
+    int stateBufferCount() {
+        return 2;
+    }
+
+    void getStateBufferSizes(int[] sizes, int offset) {
+        sizes[offset] = outputCount();
+        sizes[offset + 1] = outputCount();
+    }
+
+    int outputBufferIndex(int offset) {
+        return offset + 1;
+    }
+
+    abstract void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias);
+
+    // NOTE: layers without an activation function have nothing to approximate
+    void setActivationPrecision(ActivationPrecision activationPrecision) {
+    }
+
+    // NOTE: only layers with weights store anything in single precision (see FullyConnectedLayer), this is set before
+    //       the layer is connected
+    void setComputePrecision(ComputePrecision computePrecision) {
+    }
+
+    // NOTE: only for the network's frozen copies (see FrozenFeedForwardNeuralNet), which are always activated with
+    //       the same bias... layers with bias weights keep their product with it, and use that from then on instead
+    //       of the bias they're given
+    void foldBias(double bias) {
+    }
+
+    // NOTE: only layers that fuse their derivatives with the error need to know what it is (see SoftMaxLayer)
+    void setTrainingErrorType(ErrorType errorType) {
+    }
 
-    abstract void resetPostSynapseErrorDerivatives(double value);
+    // NOTE: only layers with weights per input have anything to skip for inputs that are zero (see
+    //       FullyConnectedLayer)
+    void setSparseInputs(boolean sparseInputs) {
+    }
 
-    abstract void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons,
+    // NOTE: this must overwrite (not add to) previousErrorDerivatives, which is null for the input layer (see
+    //       backPropagateBatch)... the weights are updated straight away
+    abstract void backPropagate(Tensor previousOutputs,
+                                Tensor previousErrorDerivatives,
                                 double bias,
                                 double learningRate);
 
+    // NOTE: for mini-batch training, the state buffers (see above) are kept in a TrainingContext with one row per
+    //       sample, so a whole batch goes through each layer at once... the first batchSize rows are used... these
+    //       must only write to the context (never to the layer), so batches can be run on several threads at once
+    abstract void activateBatch(double[] previousPostSynapses,
+                                TrainingContext context,
+                                int offset,
+                                int batchSize,
+                                double bias);
+
+    // NOTE: the error derivatives of the output buffer are set before this is called, and this must overwrite (not
+    //       add to) the previous layer's error derivatives... which are null for the input layer, since nothing needs
+    //       them... weight gradients are only accumulated in the context here, they are applied in applyGradients
+    abstract void backPropagateBatch(double[] previousPostSynapses,
+                                     double[] previousErrorDerivatives,
+                                     TrainingContext context,
+                                     int offset,
+                                     int gradientOffset,
+                                     int batchSize,
+                                     double bias);
+
+    // NOTE: layers without weights have nothing to accumulate
+    int gradientBufferCount() {
+        return 0;
+    }
+
+    void getGradientBufferSizes(int[] sizes, int offset) {
+    }
+
+    void applyGradients(TrainingContext context, int gradientOffset, double learningRate) {
+    }
+
+    protected List<NeuronT> createHiddenNeurons(int count) {
+
+        List<NeuronT> neurons = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            neurons.add(neuronFactory.createHidden());
+        }
+
+        return neurons;
+    }
+
+    protected static <NeuronT extends Neuron> List<NeuronT> deepCloneNeurons(List<NeuronT> neurons) {
+
+        List<NeuronT> clones = new ArrayList<>();
+
+        for (NeuronT neuron : neurons) {
+            clones.add(Neuron.deepClone(neuron));
+        }
+
+        return clones;
+    }
+
     protected static double getRandomWeight(RandomGenerator random) {
         return RandomFunctions.nextDouble(random, -1.0, 1.0);
     }
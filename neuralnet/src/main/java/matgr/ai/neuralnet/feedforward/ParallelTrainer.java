@@ -0,0 +1,238 @@
+package matgr.ai.neuralnet.feedforward;
+
+import matgr.ai.neuralnet.Neuron;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// NOTE: data parallel mini-batch training (see ParallelTrainingMode)... there is one worker (with its own training
+//       context) per thread of the pool, and the network must not be used for anything else while this is training it
+public class ParallelTrainer<NeuronT extends Neuron> {
+
+    // NOTE: the gradient buffers are summed in chunks of this size, so the reduction is spread over the workers too
+    private static final int REDUCTION_CHUNK_SIZE = 16384;
+
+    private final FeedForwardNeuralNet<NeuronT> neuralNet;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final ParallelTrainingMode mode;
+
+    private final int workerCount;
+    private final TrainingContext[] contexts;
+
+    // NOTE: each is {gradient buffer index, from, to}
+    private final List<int[]> reductionChunks;
+
+    public ParallelTrainer(FeedForwardNeuralNet<NeuronT> neuralNet,
+                           ForkJoinPool pool,
+                           int batchSize,
+                           ParallelTrainingMode mode) {
+
+        if (null == neuralNet) {
+            throw new IllegalArgumentException("neuralNet not provided");
+        }
+        if (null == pool) {
+            throw new IllegalArgumentException("pool not provided");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (null == mode) {
+            throw new IllegalArgumentException("mode not provided");
+        }
+
+        this.neuralNet = neuralNet;
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.mode = mode;
+
+        this.workerCount = pool.getParallelism();
+        this.contexts = new TrainingContext[workerCount];
+        this.reductionChunks = new ArrayList<>();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public ParallelTrainingMode getMode() {
+        return mode;
+    }
+
+    public void train(double[][] inputs, double[][] targets, double learningRate, double bias) {
+
+        if (null == inputs) {
+            throw new IllegalArgumentException("inputs not provided");
+        }
+        if (null == targets) {
+            throw new IllegalArgumentException("targets not provided");
+        }
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Number of inputs and targets don't match");
+        }
+
+        updateContexts();
+
+        switch (mode) {
+
+            case Synchronous:
+                trainSynchronous(inputs, targets, learningRate, bias);
+                break;
+
+            case Asynchronous:
+                trainAsynchronous(inputs, targets, learningRate, bias);
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown training mode");
+        }
+    }
+
+    private void trainSynchronous(double[][] inputs, double[][] targets, double learningRate, double bias) {
+
+        for (int start = 0; start < inputs.length; start += batchSize) {
+
+            final int batchStart = start;
+            final int currentBatchSize = Math.min(batchSize, inputs.length - start);
+
+            int currentShardSize = shardSize(currentBatchSize);
+            int shardCount = (currentBatchSize + currentShardSize - 1) / currentShardSize;
+
+            // NOTE: every shard reads the same weights, since nothing is applied until they are all done
+            runInParallel(shardCount, shard -> {
+
+                int shardStart = shard * currentShardSize;
+                int shardEnd = Math.min(shardStart + currentShardSize, currentBatchSize);
+
+                neuralNet.computeGradients(
+                        contexts[shard],
+                        inputs,
+                        targets,
+                        batchStart + shardStart,
+                        shardEnd - shardStart,
+                        bias);
+            });
+
+            reduceGradients(shardCount);
+
+            neuralNet.applyGradients(contexts[0], learningRate / currentBatchSize);
+        }
+    }
+
+    private void trainAsynchronous(double[][] inputs, double[][] targets, double learningRate, double bias) {
+
+        int batchCount = (inputs.length + batchSize - 1) / batchSize;
+        int activeWorkerCount = Math.min(workerCount, batchCount);
+
+        if (activeWorkerCount == 0) {
+            return;
+        }
+
+        // NOTE: no locking at all here... see ParallelTrainingMode
+        runInParallel(activeWorkerCount, worker -> {
+
+            TrainingContext context = contexts[worker];
+
+            // NOTE: the batches are dealt out in turn (worker w takes batches w, w + n, w + 2n...), so the workers move
+            //       through the samples together, rather than each training on a block of them
+            for (int batch = worker; batch < batchCount; batch += activeWorkerCount) {
+
+                int start = batch * batchSize;
+                int currentBatchSize = Math.min(batchSize, inputs.length - start);
+
+                neuralNet.computeGradients(context, inputs, targets, start, currentBatchSize, bias);
+                neuralNet.applyGradients(context, learningRate / currentBatchSize);
+            }
+        });
+    }
+
+    // NOTE: sums the gradients of every shard into the first one, always adding the shards in order
+    private void reduceGradients(int shardCount) {
+
+        if (shardCount < 2) {
+            return;
+        }
+
+        TrainingContext target = contexts[0];
+
+        runInParallel(reductionChunks.size(), chunkIndex -> {
+
+            int[] chunk = reductionChunks.get(chunkIndex);
+
+            double[] targetGradient = target.gradient(chunk[0]);
+
+            for (int shard = 1; shard < shardCount; shard++) {
+
+                double[] shardGradient = contexts[shard].gradient(chunk[0]);
+
+                for (int i = chunk[1]; i < chunk[2]; i++) {
+                    targetGradient[i] += shardGradient[i];
+                }
+            }
+        });
+    }
+
+    private int shardSize(int currentBatchSize) {
+        return (currentBatchSize + workerCount - 1) / workerCount;
+    }
+
+    // NOTE: the contexts only need to be recreated when layers are added to the network
+    private void updateContexts() {
+
+        if ((null != contexts[0]) && neuralNet.isCurrent(contexts[0])) {
+            return;
+        }
+
+        int contextBatchSize = (mode == ParallelTrainingMode.Synchronous) ? shardSize(batchSize) : batchSize;
+
+        for (int i = 0; i < workerCount; i++) {
+            contexts[i] = neuralNet.createTrainingContext(contextBatchSize);
+        }
+
+        reductionChunks.clear();
+
+        for (int buffer = 0; buffer < contexts[0].gradientBufferCount(); buffer++) {
+
+            int length = contexts[0].gradient(buffer).length;
+
+            for (int from = 0; from < length; from += REDUCTION_CHUNK_SIZE) {
+                reductionChunks.add(new int[]{buffer, from, Math.min(from + REDUCTION_CHUNK_SIZE, length)});
+            }
+        }
+    }
+
+    private void runInParallel(int taskCount, IntConsumer task) {
+
+        if (taskCount == 1) {
+            task.accept(0);
+            return;
+        }
+
+        pool.invoke(new RecursiveAction() {
+
+            @Override
+            protected void compute() {
+
+                List<RecursiveAction> tasks = new ArrayList<>();
+
+                for (int i = 0; i < taskCount; i++) {
+
+                    final int index = i;
+
+                    tasks.add(new RecursiveAction() {
+
+                        @Override
+                        protected void compute() {
+                            task.accept(index);
+                        }
+                    });
+                }
+
+                invokeAll(tasks);
+            }
+        });
+    }
+}
@@ -0,0 +1,15 @@
+package matgr.ai.neuralnet.feedforward;
+
+// NOTE: Synchronous splits each mini-batch across the workers, which all compute gradients against the same weights,
+//       and the gradients are then summed (always in the same order, so the result doesn't depend on thread timing) and
+//       applied once... Asynchronous (a.k.a. "Hogwild") deals the mini-batches out to the workers in turn, and each
+//       worker applies its own mini-batch gradients straight to the shared weights without any locking (so workers can
+//       see partly updated weights, and an update can occasionally be lost, which sparse-ish gradients tolerate well)
+//
+//       with more than one worker, the order the batches are applied in (and so the final weights) depends on thread
+//       scheduling, so Asynchronous training isn't repeatable... it's only the same as plain mini-batch training with a
+//       single worker
+public enum ParallelTrainingMode {
+    Synchronous,
+    Asynchronous
+}
@@ -2,28 +2,43 @@ package matgr.ai.neuralnet.feedforward;
 
 import matgr.ai.common.DefaultSizedIterable;
 import matgr.ai.common.SizedIterable;
-import matgr.ai.common.SizedSelectIterable;
+import matgr.ai.neuralnet.ActivationContext;
 import matgr.ai.neuralnet.Neuron;
 import matgr.ai.neuralnet.NeuronFactory;
-import matgr.ai.neuralnet.NeuronState;
-import org.apache.commons.collections4.iterators.ArrayIterator;
 import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
 
+    private final List<NeuronT> writableNeurons;
     private final SizedIterable<NeuronT> neurons;
-    private final List<NeuronState<NeuronT>> writableNeurons;
+
+    // NOTE: when training with cross entropy, the derivative of the error with respect to the inputs is just the
+    //       outputs minus the targets... so the network sets that as the output error derivatives (the same as it does
+    //       for half sum of squares), and back propagation passes them straight through rather than multiplying them
+    //       by the softmax derivatives
+    private boolean fusedCrossEntropy;
+
+    // NOTE: the state from the last activate (the tensors are over the arrays)
+    private double[] preSynapses;
+    private double[] postSynapses;
+    private double[] postSynapseErrorDerivatives;
+    private Tensor outputs;
+    private Tensor outputErrorDerivatives;
+
+    // NOTE: scratch space for the previous layer's error derivatives when they aren't already flat doubles
+    private double[] previousErrorDerivatives;
 
     protected SoftMaxLayer(NeuronFactory<NeuronT> neuronFactory) {
 
         super(neuronFactory);
 
         this.writableNeurons = new ArrayList<>();
-        this.neurons = new SizedSelectIterable<>(this.writableNeurons, n -> n.neuron);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
+
+        allocateState();
     }
 
     protected SoftMaxLayer(SoftMaxLayer<NeuronT> other) {
@@ -31,13 +46,26 @@ public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
         super(other);
 
         this.writableNeurons = new ArrayList<>();
-        this.neurons = new SizedSelectIterable<>(this.writableNeurons, n -> n.neuron);
+        this.neurons = new DefaultSizedIterable<>(this.writableNeurons);
 
-        for (NeuronState<NeuronT> neuron : other.writableNeurons) {
+        this.fusedCrossEntropy = other.fusedCrossEntropy;
 
-            NeuronState<NeuronT> neuronClone = neuron.deepClone();
+        for (NeuronT neuron : other.writableNeurons) {
+
+            NeuronT neuronClone = Neuron.deepClone(neuron);
             writableNeurons.add(neuronClone);
         }
+
+        allocateState();
+
+        System.arraycopy(other.preSynapses, 0, preSynapses, 0, preSynapses.length);
+        System.arraycopy(other.postSynapses, 0, postSynapses, 0, postSynapses.length);
+        System.arraycopy(
+                other.postSynapseErrorDerivatives,
+                0,
+                postSynapseErrorDerivatives,
+                0,
+                postSynapseErrorDerivatives.length);
     }
 
     @Override
@@ -61,8 +89,13 @@ public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
     }
 
     @Override
-    protected SizedIterable<NeuronState<NeuronT>> outputWritableNeurons() {
-        return new DefaultSizedIterable<>(writableNeurons);
+    Tensor outputs() {
+        return outputs;
+    }
+
+    @Override
+    Tensor outputErrorDerivatives() {
+        return outputErrorDerivatives;
     }
 
     @Override
@@ -71,6 +104,11 @@ public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
         // NOTE: nothing to do here... no weights...
     }
 
+    @Override
+    void setTrainingErrorType(ErrorType errorType) {
+        this.fusedCrossEntropy = (errorType == ErrorType.CrossEntropy);
+    }
+
     @Override
     void connect(SizedIterable<NeuronT> previousLayerNeurons) {
 
@@ -81,79 +119,162 @@ public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
         for (int i = 0; i < previousLayerNeurons.size(); i++) {
 
             NeuronT newNeuron = neuronFactory.createHidden();
-            NeuronState<NeuronT> newNeuronState = new NeuronState<>(newNeuron);
-
-            writableNeurons.add(newNeuronState);
+            writableNeurons.add(newNeuron);
         }
+
+        allocateState();
     }
 
     @Override
-    void activate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias) {
+    void activate(Tensor previousOutputs, double bias) {
+
+        // NOTE: the pre synapses are only a copy of the previous outputs, so they can be the scratch space too
+        activateSample(previousOutputs.asDoubles(preSynapses), preSynapses, postSynapses, 0);
+    }
+
+    @Override
+    void activate(double[] previousPostSynapses, ActivationContext context, int offset, double bias) {
+
+        activateSample(previousPostSynapses, context.buffer(offset), context.buffer(offset + 1), 0);
+    }
+
+    @Override
+    void activateBatch(double[] previousPostSynapses,
+                       TrainingContext context,
+                       int offset,
+                       int batchSize,
+                       double bias) {
+
+        double[] preSynapses = context.state(offset);
+        double[] postSynapses = context.state(offset + 1);
+
+        int neuronCount = writableNeurons.size();
+
+        for (int sample = 0; sample < batchSize; sample++) {
+            activateSample(previousPostSynapses, preSynapses, postSynapses, sample * neuronCount);
+        }
+    }
+
+    // NOTE: for the sample at sampleOffset in each of the arrays
+    private void activateSample(double[] previousPostSynapses,
+                                double[] preSynapses,
+                                double[] postSynapses,
+                                int sampleOffset) {
 
         // NOTE: this helps mitigate numerical stability issues... (see here:
         //       https://eli.thegreenplace.net/2016/the-softmax-function-and-its-derivative/)
 
-        Iterator<NeuronState<NeuronT>> neurons = writableNeurons.iterator();
+        int neuronCount = writableNeurons.size();
 
         double maxPreSynapse = Double.NEGATIVE_INFINITY;
 
-        for (NeuronState<NeuronT> previousLayerNeuron : previousLayerNeurons) {
+        for (int i = sampleOffset; i < sampleOffset + neuronCount; i++) {
 
-            NeuronState<NeuronT> neuron = neurons.next();
-
-            neuron.preSynapse = previousLayerNeuron.postSynapse;
-            maxPreSynapse = Math.max(maxPreSynapse, neuron.preSynapse);
+            preSynapses[i] = previousPostSynapses[i];
+            maxPreSynapse = Math.max(maxPreSynapse, preSynapses[i]);
         }
 
         double d = -maxPreSynapse;
 
-        // compute the overall sum (and save the intermediate values)
+        // compute the overall sum (the intermediate values are kept in postSynapses, so nothing is allocated)
 
         double expSum = 0.0;
-        double[] exps = new double[writableNeurons.size()];
-
-        int index = 0;
 
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+        for (int i = sampleOffset; i < sampleOffset + neuronCount; i++) {
 
-            double curExp = Math.exp(neuron.preSynapse + d);
+            double curExp = Math.exp(preSynapses[i] + d);
 
-            exps[index++] = curExp;
+            postSynapses[i] = curExp;
             expSum += curExp;
         }
 
         // compute the activations
 
-        ArrayIterator<Double> expsIterator = new ArrayIterator<>(exps);
-
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+        for (int i = sampleOffset; i < sampleOffset + neuronCount; i++) {
+            postSynapses[i] = postSynapses[i] / expSum;
+        }
+    }
 
-            double curExp = expsIterator.next();
-            neuron.postSynapse = curExp / expSum;
+    @Override
+    void backPropagate(Tensor previousOutputs,
+                       Tensor previousErrorDerivatives,
+                       double bias,
+                       double learningRate) {
+
+        if (null == previousErrorDerivatives) {
+            // NOTE: no weights, so there's nothing else to do
+            return;
         }
+
+        double[] previousErrors = previousErrorDerivatives.asDoubles(this.previousErrorDerivatives);
+
+        backPropagateSample(postSynapses, postSynapseErrorDerivatives, previousErrors, 0);
+
+        previousErrorDerivatives.copyFrom(previousErrors, 0);
     }
 
     @Override
-    void resetPostSynapseErrorDerivatives(double value) {
+    void backPropagateBatch(double[] previousPostSynapses,
+                            double[] previousErrorDerivatives,
+                            TrainingContext context,
+                            int offset,
+                            int gradientOffset,
+                            int batchSize,
+                            double bias) {
+
+        if (null == previousErrorDerivatives) {
+            // NOTE: no weights, so there's nothing else to do
+            return;
+        }
+
+        double[] postSynapses = context.state(offset + 1);
+        double[] postSynapseErrorDerivatives = context.errorDerivatives(offset + 1);
+
+        int neuronCount = writableNeurons.size();
 
-        for (NeuronState<NeuronT> neuron : writableNeurons) {
+        for (int sample = 0; sample < batchSize; sample++) {
 
-            neuron.postSynapseErrorDerivative = value;
+            backPropagateSample(
+                    postSynapses,
+                    postSynapseErrorDerivatives,
+                    previousErrorDerivatives,
+                    sample * neuronCount);
         }
     }
 
-    @Override
-    void backPropagate(SizedIterable<NeuronState<NeuronT>> previousLayerNeurons, double bias, double learningRate) {
+    // NOTE: for the sample at sampleOffset in each of the arrays (the previous error derivatives are overwritten)
+    private void backPropagateSample(double[] postSynapses,
+                                     double[] postSynapseErrorDerivatives,
+                                     double[] previousErrorDerivatives,
+                                     int sampleOffset) {
+
+        int neuronCount = writableNeurons.size();
+
+        if (fusedCrossEntropy) {
+
+            // NOTE: these are already dE/dIn (see fusedCrossEntropy)
+            System.arraycopy(
+                    postSynapseErrorDerivatives,
+                    sampleOffset,
+                    previousErrorDerivatives,
+                    sampleOffset,
+                    neuronCount);
 
-        for (int i = 0; i < writableNeurons.size(); i++) {
+            return;
+        }
+
+        for (int j = 0; j < neuronCount; j++) {
+            previousErrorDerivatives[sampleOffset + j] = 0.0;
+        }
 
-            NeuronState<NeuronT> neuron_i = writableNeurons.get(i);
+        for (int i = 0; i < neuronCount; i++) {
 
-            double dE_dOut_i = neuron_i.postSynapseErrorDerivative;
+            double postSynapse_i = postSynapses[sampleOffset + i];
+            double dE_dOut_i = postSynapseErrorDerivatives[sampleOffset + i];
 
-            for (int j = 0; j < writableNeurons.size(); j++) {
+            for (int j = 0; j < neuronCount; j++) {
 
-                NeuronState<NeuronT> neuron_j = writableNeurons.get(j);
+                double postSynapse_j = postSynapses[sampleOffset + j];
 
                 // update previous neuron dE/dOut
                 // TODO: don't need to compute this on the last pass
@@ -164,18 +285,28 @@ public class SoftMaxLayer<NeuronT extends Neuron> extends NeuronLayer<NeuronT> {
 
                 if (i == j) {
 
-                    dOut_i_dOutPrev_j = neuron_i.postSynapse * (1.0 - neuron_j.postSynapse);
+                    dOut_i_dOutPrev_j = postSynapse_i * (1.0 - postSynapse_j);
 
                 } else {
 
-                    dOut_i_dOutPrev_j = -neuron_j.postSynapse * neuron_i.postSynapse;
+                    dOut_i_dOutPrev_j = -postSynapse_j * postSynapse_i;
                 }
 
-                double dE_dOutPrev_j = dE_dOut_i * dOut_i_dOutPrev_j;
-
-                NeuronState<NeuronT> previousNeuron_j = previousLayerNeurons.get(j);
-                previousNeuron_j.postSynapseErrorDerivative += dE_dOutPrev_j;
+                previousErrorDerivatives[sampleOffset + j] += dE_dOut_i * dOut_i_dOutPrev_j;
             }
         }
     }
+
+    private void allocateState() {
+
+        int neuronCount = writableNeurons.size();
+
+        preSynapses = new double[neuronCount];
+        postSynapses = new double[neuronCount];
+        postSynapseErrorDerivatives = new double[neuronCount];
+        outputs = Tensor.wrap(postSynapses, 0, neuronCount);
+        outputErrorDerivatives = Tensor.wrap(postSynapseErrorDerivatives, 0, neuronCount);
+
+        previousErrorDerivatives = new double[neuronCount];
+    }
 }
@@ -0,0 +1,195 @@
+package matgr.ai.neuralnet.feedforward;
+
+import matgr.ai.neuralnet.ComputePrecision;
+
+import java.util.Arrays;
+
+// NOTE: a shape over a flat primitive array (either doubles or floats, starting at offset), stored row major... this
+//       is how layers hand activations (and error derivatives) to each other, so nothing at a layer boundary is per
+//       neuron... a tensor doesn't own its array, so views of the same array (see reshape) all see the same values
+public final class Tensor {
+
+    private final int[] shape;
+    private final int size;
+
+    private final double[] doubles;
+    private final float[] floats;
+    private final int offset;
+
+    public Tensor(int... shape) {
+        this(new double[checkShape(shape)], null, 0, shape);
+    }
+
+    private Tensor(double[] doubles, float[] floats, int offset, int[] shape) {
+
+        this.shape = shape.clone();
+        this.size = checkShape(shape);
+
+        int length = (null != doubles) ? doubles.length : floats.length;
+
+        if ((offset < 0) || (offset + size > length)) {
+            throw new IllegalArgumentException("Shape doesn't fit in the array at the given offset");
+        }
+
+        this.doubles = doubles;
+        this.floats = floats;
+        this.offset = offset;
+    }
+
+    public static Tensor wrap(double[] values, int offset, int... shape) {
+
+        if (null == values) {
+            throw new IllegalArgumentException("values not provided");
+        }
+
+        return new Tensor(values, null, offset, shape);
+    }
+
+    public static Tensor wrap(float[] values, int offset, int... shape) {
+
+        if (null == values) {
+            throw new IllegalArgumentException("values not provided");
+        }
+
+        return new Tensor(null, values, offset, shape);
+    }
+
+    public ComputePrecision precision() {
+        return (null != doubles) ? ComputePrecision.Float64 : ComputePrecision.Float32;
+    }
+
+    public int rank() {
+        return shape.length;
+    }
+
+    public int dimension(int index) {
+        return shape[index];
+    }
+
+    public int[] shape() {
+        return shape.clone();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    // NOTE: the backing arrays (not copies)... only the one matching precision() is available
+    public double[] doubles() {
+
+        if (null == doubles) {
+            throw new IllegalStateException("Tensor is not double precision");
+        }
+
+        return doubles;
+    }
+
+    public float[] floats() {
+
+        if (null == floats) {
+            throw new IllegalStateException("Tensor is not single precision");
+        }
+
+        return floats;
+    }
+
+    public double get(int index) {
+        return (null != doubles) ? doubles[offset + index] : floats[offset + index];
+    }
+
+    public void set(int index, double value) {
+
+        if (null != doubles) {
+            doubles[offset + index] = value;
+        } else {
+            floats[offset + index] = (float) value;
+        }
+    }
+
+    public void fill(double value) {
+
+        if (null != doubles) {
+            Arrays.fill(doubles, offset, offset + size, value);
+        } else {
+            Arrays.fill(floats, offset, offset + size, (float) value);
+        }
+    }
+
+    // NOTE: the same values with a different shape (of the same size)
+    public Tensor reshape(int... shape) {
+
+        if (checkShape(shape) != size) {
+            throw new IllegalArgumentException("Shape size doesn't match");
+        }
+
+        return new Tensor(doubles, floats, offset, shape);
+    }
+
+    // NOTE: the values as doubles starting at index 0... which is the backing array itself when it already is that,
+    //       so nothing is copied in the common case (otherwise they're copied into scratch, which must be big enough)
+    public double[] asDoubles(double[] scratch) {
+
+        if ((null != doubles) && (offset == 0)) {
+            return doubles;
+        }
+
+        copyTo(scratch, 0);
+
+        return scratch;
+    }
+
+    public void copyTo(double[] target, int targetOffset) {
+
+        if (null != doubles) {
+
+            System.arraycopy(doubles, offset, target, targetOffset, size);
+
+        } else {
+
+            for (int i = 0; i < size; i++) {
+                target[targetOffset + i] = floats[offset + i];
+            }
+        }
+    }
+
+    // NOTE: does nothing when source is what asDoubles returned without copying
+    public void copyFrom(double[] source, int sourceOffset) {
+
+        if (null != doubles) {
+
+            if ((source != doubles) || (sourceOffset != offset)) {
+                System.arraycopy(source, sourceOffset, doubles, offset, size);
+            }
+
+        } else {
+
+            for (int i = 0; i < size; i++) {
+                floats[offset + i] = (float) source[sourceOffset + i];
+            }
+        }
+    }
+
+    private static int checkShape(int[] shape) {
+
+        if ((null == shape) || (shape.length < 1)) {
+            throw new IllegalArgumentException("shape not provided");
+        }
+
+        int size = 1;
+
+        for (int dimension : shape) {
+
+            if (dimension < 0) {
+                throw new IllegalArgumentException("Invalid shape");
+            }
+
+            size *= dimension;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,124 @@
+package matgr.ai.neuralnet.feedforward;
+
+// NOTE: this holds everything mini-batch training needs outside of the network itself... each layer's state buffers
+//       (laid out the same as an ActivationContext, but with one row per sample in the batch), the error derivatives
+//       for each of those buffers, and the gradients each layer accumulates over a batch before they are applied... a
+//       context is only valid for the network (and the structural version of it) that it was created for
+public class TrainingContext {
+
+    private final Object owner;
+    private final long version;
+
+    private final int batchSize;
+
+    private final int[] stateOffsets;
+    private final int[] gradientOffsets;
+
+    private final double[] inputs;
+
+    private final double[][] states;
+    private final double[][] errorDerivatives;
+    private final double[][] gradients;
+
+    // NOTE: per sample integer state (like which input each max pooling output came from), indexed the same as the
+    //       state buffers... allocated the first time a layer asks for it, since most layers don't need any
+    private final int[][] indices;
+
+    TrainingContext(Object owner,
+                    long version,
+                    int batchSize,
+                    int inputCount,
+                    int[] stateOffsets,
+                    int[] stateBufferSizes,
+                    int[] gradientOffsets,
+                    int[] gradientBufferSizes) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+
+        this.owner = owner;
+        this.version = version;
+
+        this.batchSize = batchSize;
+
+        this.stateOffsets = stateOffsets;
+        this.gradientOffsets = gradientOffsets;
+
+        this.inputs = new double[batchSize * inputCount];
+
+        this.states = new double[stateBufferSizes.length][];
+        this.errorDerivatives = new double[stateBufferSizes.length][];
+
+        for (int i = 0; i < stateBufferSizes.length; i++) {
+
+            states[i] = new double[batchSize * stateBufferSizes[i]];
+            errorDerivatives[i] = new double[batchSize * stateBufferSizes[i]];
+        }
+
+        this.gradients = new double[gradientBufferSizes.length][];
+
+        for (int i = 0; i < gradientBufferSizes.length; i++) {
+            gradients[i] = new double[gradientBufferSizes[i]];
+        }
+
+        this.indices = new int[stateBufferSizes.length][];
+    }
+
+    public boolean isFor(Object owner, long version) {
+        return (this.owner == owner) && (this.version == version);
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    // NOTE: where each layer's state (and gradient) buffers start, indexed the same as the network's layers (with the
+    //       output layer last)
+    int stateOffset(int layerIndex) {
+        return stateOffsets[layerIndex];
+    }
+
+    int gradientOffset(int layerIndex) {
+        return gradientOffsets[layerIndex];
+    }
+
+    double[] inputs() {
+        return inputs;
+    }
+
+    double[] state(int index) {
+        return states[index];
+    }
+
+    double[] errorDerivatives(int index) {
+        return errorDerivatives[index];
+    }
+
+    int[] indices(int index, int rowSize) {
+
+        if (null == indices[index]) {
+            indices[index] = new int[batchSize * rowSize];
+        }
+
+        return indices[index];
+    }
+
+    int gradientBufferCount() {
+        return gradients.length;
+    }
+
+    double[] gradient(int index) {
+        return gradients[index];
+    }
+
+    void clearGradients() {
+
+        for (double[] gradient : gradients) {
+
+            for (int i = 0; i < gradient.length; i++) {
+                gradient[i] = 0.0;
+            }
+        }
+    }
+}
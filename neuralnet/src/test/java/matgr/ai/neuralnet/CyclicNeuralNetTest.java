@@ -0,0 +1,1420 @@
+package matgr.ai.neuralnet;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import matgr.ai.math.MathFunctions;
+import matgr.ai.neuralnet.activation.ActivationFunction;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
+import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+import matgr.ai.neuralnet.cyclic.ActivationSchedule;
+import matgr.ai.neuralnet.cyclic.Connection;
+import matgr.ai.neuralnet.cyclic.CyclicNeuralNet;
+import matgr.ai.neuralnet.cyclic.CyclicNeuralNetArena;
+import matgr.ai.neuralnet.cyclic.CyclicNeuron;
+import matgr.ai.neuralnet.cyclic.DefaultConnectionFactory;
+import matgr.ai.neuralnet.cyclic.DefaultCyclicNeuronFactory;
+import matgr.ai.neuralnet.cyclic.NeuronParameters;
+import matgr.ai.neuralnet.cyclic.OptimizedNeuralNet;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Unit test for the cyclic neural net.
+ */
+public class CyclicNeuralNetTest extends TestCase {
+
+    private static final int inputCount = 4;
+    private static final int outputCount = 2;
+
+    private static final double bias = -1.0;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CyclicNeuralNetTest(String testName) {
+
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(CyclicNeuralNetTest.class);
+    }
+
+    public void testActivationMatchesReference() {
+
+        RandomGenerator random = new MersenneTwister(1234);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 8, 30);
+            ReferenceActivation reference = new ReferenceActivation(neuralNet);
+
+            for (int activation = 0; activation < 10; activation++) {
+
+                boolean reset = (activation % 3) == 0;
+
+                List<List<Double>> inputSets = new ArrayList<>();
+
+                int setCount = 1 + (activation % 2);
+
+                for (int set = 0; set < setCount; set++) {
+                    inputSets.add(randomInputs(random));
+                }
+
+                List<Double> expected = reference.activateSet(inputSets, bias, 10, reset);
+                List<Double> actual = neuralNet.activateSet(inputSets, bias, 10, reset);
+
+                assertOutputsEqual(expected, actual);
+            }
+        }
+    }
+
+    public void testWeightChangesAreSeenWithoutStructuralChange() {
+
+        RandomGenerator random = new MersenneTwister(4321);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 4, 12);
+        ReferenceActivation reference = new ReferenceActivation(neuralNet);
+
+        List<Double> inputs = randomInputs(random);
+
+        neuralNet.activateSingle(inputs, bias, 10, true);
+        long version = neuralNet.version();
+
+        for (Connection connection : neuralNet.connections.values()) {
+            neuralNet.setConnectionWeight(connection.sourceId, connection.targetId, -connection.getWeight());
+            neuralNet.setConnectionEnabled(connection.sourceId, connection.targetId, !connection.isEnabled());
+        }
+
+        assertEquals(version, neuralNet.version());
+
+        List<Double> expected = reference.activateSingle(inputs, bias, 10, true);
+        List<Double> actual = neuralNet.activateSingle(inputs, bias, 10, true);
+
+        assertOutputsEqual(expected, actual);
+    }
+
+    public void testStructuralChangesAreSeen() {
+
+        RandomGenerator random = new MersenneTwister(5678);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 4, 12);
+
+        List<Double> inputs = randomInputs(random);
+
+        for (int change = 0; change < 20; change++) {
+
+            neuralNet.activateSingle(inputs, bias, 10, false);
+
+            addRandomStructure(random, neuralNet, 1, 3);
+
+            ReferenceActivation reference = new ReferenceActivation(neuralNet);
+
+            List<Double> expected = reference.activateSingle(inputs, bias, 10, true);
+            List<Double> actual = neuralNet.activateSingle(inputs, bias, 10, true);
+
+            assertOutputsEqual(expected, actual);
+        }
+    }
+
+    public void testBatchMatchesSingleActivations() {
+
+        RandomGenerator random = new MersenneTwister(2468);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 8, 30);
+
+            int laneCount = 1 + random.nextInt(9);
+
+            double[][] inputSets = new double[laneCount][];
+            List<List<Double>> expected = new ArrayList<>();
+
+            for (int lane = 0; lane < laneCount; lane++) {
+
+                List<Double> inputs = randomInputs(random);
+
+                inputSets[lane] = new double[inputs.size()];
+
+                for (int i = 0; i < inputs.size(); i++) {
+                    inputSets[lane][i] = inputs.get(i);
+                }
+
+                expected.add(neuralNet.activateSingle(inputs, bias, 10, true));
+            }
+
+            // NOTE: leave some state behind, batches must not be affected by it
+            neuralNet.activateSingle(randomInputs(random), bias, 10, true);
+
+            double[][] actual = neuralNet.activateBatch(inputSets, bias, 10);
+
+            assertEquals(laneCount, actual.length);
+
+            for (int lane = 0; lane < laneCount; lane++) {
+
+                List<Double> actualLane = new ArrayList<>();
+
+                for (double value : actual[lane]) {
+                    actualLane.add(value);
+                }
+
+                assertOutputsEqual(expected.get(lane), actualLane);
+            }
+        }
+    }
+
+    public void testArenaMatchesSingleActivations() {
+
+        RandomGenerator random = new MersenneTwister(1357);
+
+        for (boolean offHeap : new boolean[]{false, true}) {
+
+            List<CyclicNeuralNet<Connection, CyclicNeuron>> neuralNets = new ArrayList<>();
+
+            for (int network = 0; network < 40; network++) {
+
+                CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = ((network % 2) == 0)
+                        ? createRandomNetwork(random, 8, 30)
+                        : createRandomAcyclicNetwork(random, 8, 30);
+
+                // NOTE: leave some state behind, the arena starts from it
+                neuralNet.activateSingle(randomInputs(random), bias, 10, true);
+
+                neuralNets.add(neuralNet);
+            }
+
+            CyclicNeuralNetArena arena = new CyclicNeuralNetArena(neuralNets, offHeap);
+
+            assertEquals(neuralNets.size(), arena.memberCount());
+            assertEquals(offHeap, arena.isOffHeap());
+
+            for (int round = 0; round < 3; round++) {
+
+                boolean reset = (round == 2);
+
+                double[] inputs = new double[neuralNets.size() * inputCount];
+                double[] outputs = new double[neuralNets.size() * outputCount];
+
+                List<List<Double>> expected = new ArrayList<>();
+
+                for (int member = 0; member < neuralNets.size(); member++) {
+
+                    List<Double> memberInputs = randomInputs(random);
+
+                    for (int i = 0; i < inputCount; i++) {
+                        inputs[(member * inputCount) + i] = memberInputs.get(i);
+                    }
+
+                    expected.add(neuralNets.get(member).activateSingle(memberInputs, bias, 10, reset));
+                }
+
+                arena.activateAll(inputs, outputs, bias, 10, reset);
+
+                for (int member = 0; member < neuralNets.size(); member++) {
+
+                    List<Double> actual = new ArrayList<>();
+
+                    for (int i = 0; i < outputCount; i++) {
+                        actual.add(outputs[(member * outputCount) + i]);
+                    }
+
+                    assertOutputsEqual(expected.get(member), actual);
+                }
+            }
+        }
+    }
+
+    public void testAcyclicSweepMatchesReference() {
+
+        RandomGenerator random = new MersenneTwister(9753);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomAcyclicNetwork(random, 8, 30);
+            ReferenceActivation reference = new ReferenceActivation(neuralNet);
+
+            assertTrue(neuralNet.isAcyclic());
+
+            for (int activation = 0; activation < 5; activation++) {
+
+                boolean reset = (activation % 2) == 0;
+
+                List<Double> inputs = randomInputs(random);
+
+                List<Double> expected = reference.activateSingle(inputs, bias, 20, reset);
+                List<Double> actual = neuralNet.activateSingle(inputs, bias, 20, reset);
+
+                assertOutputsEqual(expected, actual);
+            }
+        }
+    }
+
+    public void testAcyclicDetectionFollowsEnabledConnections() {
+
+        RandomGenerator random = new MersenneTwister(8642);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomAcyclicNetwork(random, 4, 12);
+
+        assertTrue(neuralNet.isAcyclic());
+
+        List<Long> hiddenIds = new ArrayList<>(neuralNet.neurons.ids(NeuronType.Hidden));
+        long hiddenId = hiddenIds.get(0);
+
+        if (!neuralNet.isConnected(hiddenId, hiddenId)) {
+            neuralNet.addConnection(hiddenId, hiddenId, true, 0.5);
+        }
+
+        neuralNet.setConnectionEnabled(hiddenId, hiddenId, true);
+        neuralNet.setConnectionWeight(hiddenId, hiddenId, 0.5);
+
+        assertFalse(neuralNet.isAcyclic());
+
+        long version = neuralNet.version();
+
+        neuralNet.setConnectionEnabled(hiddenId, hiddenId, false);
+        assertTrue(neuralNet.isAcyclic());
+
+        neuralNet.setConnectionEnabled(hiddenId, hiddenId, true);
+        neuralNet.setConnectionWeight(hiddenId, hiddenId, 0.0);
+        assertTrue(neuralNet.isAcyclic());
+
+        neuralNet.setConnectionWeight(hiddenId, hiddenId, -0.5);
+        assertFalse(neuralNet.isAcyclic());
+
+        assertEquals(version, neuralNet.version());
+    }
+
+    public void testComponentScheduleMatchesSweepWhenAcyclic() {
+
+        RandomGenerator random = new MersenneTwister(3141);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomAcyclicNetwork(random, 8, 30);
+
+            List<Double> inputs = randomInputs(random);
+
+            List<Double> expected = neuralNet.activateSingle(inputs, bias, 20, true);
+
+            neuralNet.setActivationSchedule(ActivationSchedule.Components);
+            List<Double> actual = neuralNet.activateSingle(inputs, bias, 20, true);
+
+            assertOutputsEqual(expected, actual);
+        }
+    }
+
+    public void testComponentScheduleSettlesToAFixedPoint() {
+
+        RandomGenerator random = new MersenneTwister(2718);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 8, 30);
+
+            // NOTE: keep the weights small, so any loops are contractions (and are guaranteed to settle)
+            for (Connection connection : neuralNet.connections.values()) {
+                neuralNet.setConnectionWeight(connection.sourceId, connection.targetId, connection.getWeight() * 0.1);
+            }
+
+            neuralNet.setActivationSchedule(ActivationSchedule.Components);
+
+            List<Double> inputs = randomInputs(random);
+            List<Double> settled = neuralNet.activateSingle(inputs, bias, 200, true);
+
+            // one more synchronous step from the settled state shouldn't change anything
+            neuralNet.setActivationSchedule(ActivationSchedule.Synchronous);
+            List<Double> stepped = neuralNet.activateSingle(inputs, bias, 1, false);
+
+            for (int i = 0; i < settled.size(); i++) {
+                assertTrue(MathFunctions.fuzzyCompare(settled.get(i), stepped.get(i)));
+            }
+        }
+    }
+
+    public void testIncrementalScheduleTracksSynchronousActivation() {
+
+        RandomGenerator random = new MersenneTwister(3579);
+
+        for (int network = 0; network < 30; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> synchronous = createRandomAcyclicNetwork(random, 12, 50);
+            CyclicNeuralNet<Connection, CyclicNeuron> incremental = CyclicNeuralNet.deepClone(synchronous);
+
+            incremental.setActivationSchedule(ActivationSchedule.Incremental);
+
+            double[] inputs = new double[inputCount];
+
+            for (int i = 0; i < inputCount; i++) {
+                inputs[i] = random.nextDouble() * 2.0 - 1.0;
+            }
+
+            double[] expected = new double[outputCount];
+            double[] actual = new double[outputCount];
+
+            for (int tick = 0; tick < 200; tick++) {
+
+                // NOTE: the inputs drift slowly, with the occasional input left unchanged
+                for (int i = 0; i < inputCount; i++) {
+
+                    if (random.nextDouble() < 0.7) {
+                        inputs[i] += random.nextDouble() * 0.02 - 0.01;
+                    }
+                }
+
+                // the incremental sums must notice weight changes (and resets)
+                if (tick == 100) {
+
+                    for (CyclicNeuralNet<Connection, CyclicNeuron> net : Arrays.asList(synchronous, incremental)) {
+
+                        Connection connection = net.connections.values().iterator().next();
+                        net.setConnectionWeight(connection.sourceId, connection.targetId, -connection.getWeight());
+                    }
+                }
+
+                boolean reset = (tick == 150);
+
+                assertTrue(synchronous.activate(inputs, expected, bias, 20, reset));
+                assertTrue(incremental.activate(inputs, actual, bias, 20, reset));
+
+                for (int i = 0; i < outputCount; i++) {
+                    assertEquals(expected[i], actual[i], 1e-4 * Math.max(1.0, Math.abs(expected[i])));
+                }
+            }
+        }
+    }
+
+    public void testPerActivationScheduleLeavesClonesOptimizable() {
+
+        RandomGenerator random = new MersenneTwister(8642);
+
+        for (int network = 0; network < 20; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomAcyclicNetwork(random, 12, 50);
+
+            double[] inputs = new double[inputCount];
+            double[] outputs = new double[outputCount];
+
+            // NOTE: activated the way the mine sweepers activate their genomes' networks
+            for (int tick = 0; tick < 20; tick++) {
+
+                for (int i = 0; i < inputCount; i++) {
+                    inputs[i] = random.nextDouble() * 2.0 - 1.0;
+                }
+
+                assertTrue(neuralNet.activate(inputs, outputs, bias, 20, false, ActivationSchedule.Incremental));
+            }
+
+            assertEquals(ActivationSchedule.Synchronous, neuralNet.getActivationSchedule());
+
+            CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(neuralNet);
+
+            assertEquals(ActivationSchedule.Synchronous, clone.getActivationSchedule());
+
+            OptimizedNeuralNet optimized = clone.optimize(bias, 20);
+
+            for (int activation = 0; activation < 5; activation++) {
+
+                List<Double> activationInputs = randomInputs(random);
+
+                List<Double> expected = clone.activateSingle(activationInputs, bias, 20, true);
+                List<Double> actual = optimized.activateSingle(activationInputs, true);
+
+                assertEquals(expected.size(), actual.size());
+
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i), actual.get(i), 1e-12 * Math.max(1.0, Math.abs(expected.get(i))));
+                }
+            }
+        }
+    }
+
+    public void testPrimitiveActivationMatchesListActivation() {
+
+        RandomGenerator random = new MersenneTwister(1470);
+
+        for (int network = 0; network < 50; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> original = ((network % 2) == 0)
+                    ? createRandomNetwork(random, 8, 30)
+                    : createRandomAcyclicNetwork(random, 8, 30);
+
+            // NOTE: both are clones, so their connections are enumerated (and summed) in exactly the same order
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = CyclicNeuralNet.deepClone(original);
+            CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+            double[] inputs = new double[inputCount];
+            double[] outputs = new double[outputCount];
+
+            for (int activation = 0; activation < 5; activation++) {
+
+                boolean reset = (activation % 2) == 0;
+
+                List<Double> inputList = randomInputs(random);
+
+                for (int i = 0; i < inputCount; i++) {
+                    inputs[i] = inputList.get(i);
+                }
+
+                List<Double> expected = neuralNet.activateSingle(inputList, bias, 10, reset);
+                clone.activate(inputs, outputs, bias, 10, reset);
+
+                List<Double> actual = new ArrayList<>();
+
+                for (double output : outputs) {
+                    actual.add(output);
+                }
+
+                assertOutputsEqual(expected, actual);
+            }
+        }
+    }
+
+    public void testApproximatePrecisionStaysCloseToExact() {
+
+        RandomGenerator random = new MersenneTwister(8642);
+
+        for (int network = 0; network < 20; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomAcyclicNetwork(random, 8, 30);
+
+            for (int activation = 0; activation < 5; activation++) {
+
+                List<Double> inputs = randomInputs(random);
+
+                neuralNet.setActivationPrecision(ActivationPrecision.Exact);
+                List<Double> expected = neuralNet.activateSingle(inputs, bias, 20, true);
+
+                neuralNet.setActivationPrecision(ActivationPrecision.Approximate);
+                List<Double> actual = neuralNet.activateSingle(inputs, bias, 20, true);
+
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i), actual.get(i), 1e-4 * Math.max(1.0, Math.abs(expected.get(i))));
+                }
+            }
+        }
+    }
+
+    public void testActivationContextMatchesNetworkState() {
+
+        RandomGenerator random = new MersenneTwister(2581);
+
+        for (int network = 0; network < 30; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> original = ((network % 2) == 0)
+                    ? createRandomNetwork(random, 8, 30)
+                    : createRandomAcyclicNetwork(random, 8, 30);
+
+            // NOTE: both are clones, so their connections are enumerated (and summed) in exactly the same order
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = CyclicNeuralNet.deepClone(original);
+            CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+            ActivationContext context = clone.createActivationContext();
+            ActivationContext snapshot = null;
+
+            double[] inputs = new double[inputCount];
+            double[] expected = new double[outputCount];
+            double[] actual = new double[outputCount];
+
+            List<double[]> snapshotOutputs = new ArrayList<>();
+
+            for (int activation = 0; activation < 6; activation++) {
+
+                for (int i = 0; i < inputCount; i++) {
+                    inputs[i] = random.nextDouble() * 2.0 - 1.0;
+                }
+
+                if (activation == 3) {
+                    snapshot = context.snapshot();
+                }
+
+                neuralNet.activate(inputs, expected, bias, 10, false);
+                clone.activate(context, inputs, actual, bias, 10, false);
+
+                assertTrue(Arrays.equals(expected, actual));
+
+                if (activation >= 3) {
+                    snapshotOutputs.add(inputs.clone());
+                    snapshotOutputs.add(actual.clone());
+                }
+            }
+
+            // NOTE: restoring the snapshot replays exactly the same activations (the network's own state is untouched)
+            context.restore(snapshot);
+
+            for (int i = 0; i < snapshotOutputs.size(); i += 2) {
+
+                clone.activate(context, snapshotOutputs.get(i), actual, bias, 10, false);
+                assertTrue(Arrays.equals(snapshotOutputs.get(i + 1), actual));
+            }
+
+            // NOTE: the clone's own state was never touched, so it still matches a fresh copy
+            CyclicNeuralNet<Connection, CyclicNeuron> fresh = CyclicNeuralNet.deepClone(original);
+
+            fresh.activate(inputs, expected, bias, 10, false);
+            clone.activate(inputs, actual, bias, 10, false);
+
+            assertTrue(Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testActivationContextsCanBeUsedConcurrently() throws Exception {
+
+        final int threadCount = 4;
+        final int activationCount = 200;
+
+        RandomGenerator random = new MersenneTwister(3692);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 12, 60);
+
+        double[][] inputSets = new double[activationCount][inputCount];
+
+        for (double[] inputs : inputSets) {
+            for (int i = 0; i < inputCount; i++) {
+                inputs[i] = random.nextDouble() * 2.0 - 1.0;
+            }
+        }
+
+        // NOTE: the expected outputs for a single (recurrent) context, computed up front
+        double[][] expected = new double[activationCount][outputCount];
+
+        ActivationContext expectedContext = neuralNet.createActivationContext();
+
+        for (int i = 0; i < activationCount; i++) {
+            neuralNet.activate(expectedContext, inputSets[i], expected[i], bias, 10, false);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (int thread = 0; thread < threadCount; thread++) {
+
+                results.add(executor.submit(() -> {
+
+                    ActivationContext context = neuralNet.createActivationContext();
+                    double[] outputs = new double[outputCount];
+
+                    for (int i = 0; i < activationCount; i++) {
+
+                        neuralNet.activate(context, inputSets[i], outputs, bias, 10, false);
+
+                        if (!Arrays.equals(expected[i], outputs)) {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+
+        } finally {
+
+            executor.shutdown();
+        }
+    }
+
+    public void testConnectionAndNeuronMapsStayConsistent() {
+
+        RandomGenerator random = new MersenneTwister(8765);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 10, 0);
+
+        List<Long> ids = new ArrayList<>(neuralNet.neurons.ids());
+        Map<String, Connection> expected = new HashMap<>();
+
+        for (int operation = 0; operation < 5000; operation++) {
+
+            long sourceId = ids.get(random.nextInt(ids.size()));
+            long targetId = ids.get(random.nextInt(ids.size()));
+
+            CyclicNeuron target = neuralNet.neurons.get(targetId);
+
+            if (!target.canActivate()) {
+                continue;
+            }
+
+            String key = sourceId + "-->" + targetId;
+
+            if (expected.containsKey(key)) {
+
+                assertTrue(neuralNet.removeConnection(expected.remove(key)));
+                assertFalse(neuralNet.isConnected(sourceId, targetId));
+
+            } else {
+
+                expected.put(key, neuralNet.addConnection(sourceId, targetId, true, 1.0));
+                assertTrue(neuralNet.isConnected(sourceId, targetId));
+            }
+        }
+
+        assertEquals(expected.size(), neuralNet.connections.count());
+
+        int incomingTotal = 0;
+        int outgoingTotal = 0;
+
+        for (long neuronId : ids) {
+
+            List<Connection> incoming = neuralNet.connections.getIncomingConnections(neuronId);
+            List<Connection> outgoing = neuralNet.connections.getOutgoingConnections(neuronId);
+
+            assertEquals(incoming.size(), neuralNet.connections.getIncomingConnectionCount(neuronId));
+            assertEquals(outgoing.size(), neuralNet.connections.getOutgoingConnectionCount(neuronId));
+
+            for (Connection connection : incoming) {
+                assertEquals(neuronId, connection.targetId);
+                assertSame(connection, expected.get(connection.sourceId + "-->" + connection.targetId));
+            }
+
+            for (Connection connection : outgoing) {
+                assertEquals(neuronId, connection.sourceId);
+                assertTrue(neuralNet.connections.targetIds(neuronId).contains(connection.targetId));
+            }
+
+            assertEquals(outgoing.size() > 0, neuralNet.connections.sourceIds().contains(neuronId));
+
+            incomingTotal += incoming.size();
+            outgoingTotal += outgoing.size();
+        }
+
+        assertEquals(expected.size(), incomingTotal);
+        assertEquals(expected.size(), outgoingTotal);
+
+        long maxId = ids.get(ids.size() - 1);
+        assertEquals(maxId + 1, neuralNet.addHiddenNeuron(KnownActivationFunctions.TANH).id);
+
+        for (long neuronId : ids) {
+            assertEquals(neuronId, neuralNet.neurons.get(neuronId).id);
+        }
+    }
+
+    public void testRemovingConnectionsFromAClonedNetworkKeepsBothConsistent() {
+
+        RandomGenerator random = new MersenneTwister(3579);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> original = createRandomNetwork(random, 10, 60);
+        CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+        List<Connection> connections = new ArrayList<>();
+
+        for (Connection connection : original.connections.values()) {
+            connections.add(connection);
+        }
+
+        // NOTE: every other connection is removed from the clone and the rest from the original, so the entries moved
+        //       into the removed slots are (mostly) still shared
+        for (int i = 0; i < connections.size(); i++) {
+            assertTrue(((i % 2) == 0 ? clone : original).removeConnection(connections.get(i)));
+        }
+
+        for (int i = 0; i < connections.size(); i++) {
+
+            Connection connection = connections.get(i);
+            CyclicNeuralNet<Connection, CyclicNeuron> remaining = (i % 2) == 0 ? original : clone;
+
+            assertTrue(remaining.isConnected(connection.sourceId, connection.targetId));
+            assertTrue(remaining.connections.getIncomingConnections(connection.targetId).stream()
+                    .anyMatch(c -> c.sourceId == connection.sourceId));
+            assertTrue(remaining.connections.getOutgoingConnections(connection.sourceId).stream()
+                    .anyMatch(c -> c.targetId == connection.targetId));
+
+            assertTrue(remaining.removeConnection(connection));
+            assertFalse(remaining.isConnected(connection.sourceId, connection.targetId));
+        }
+
+        assertEquals(0, original.connections.count());
+        assertEquals(0, clone.connections.count());
+        assertTrue(original.connections.sourceIds().isEmpty());
+        assertTrue(clone.connections.sourceIds().isEmpty());
+    }
+
+    public void testClonesAreIndependentOfTheOriginal() {
+
+        RandomGenerator random = new MersenneTwister(2468);
+
+        for (int network = 0; network < 20; network++) {
+
+            long seed = random.nextLong();
+
+            // NOTE: the twins are built separately from the same seed, so they show what the original and the clone
+            //       should look like if nothing was shared between them
+            CyclicNeuralNet<Connection, CyclicNeuron> original =
+                    createRandomNetwork(new MersenneTwister(seed), 8, 30);
+            CyclicNeuralNet<Connection, CyclicNeuron> originalTwin =
+                    createRandomNetwork(new MersenneTwister(seed), 8, 30);
+            CyclicNeuralNet<Connection, CyclicNeuron> cloneTwin =
+                    createRandomNetwork(new MersenneTwister(seed), 8, 30);
+
+            List<Double> inputs = randomInputs(random);
+
+            original.activateSingle(inputs, bias, 10, true);
+            originalTwin.activateSingle(inputs, bias, 10, true);
+            cloneTwin.activateSingle(inputs, bias, 10, true);
+
+            CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+            // the clone is modified (and activated) first, then the original
+            modifyRandomly(new MersenneTwister(seed + 1), clone);
+            modifyRandomly(new MersenneTwister(seed + 1), cloneTwin);
+
+            inputs = randomInputs(random);
+
+            assertOutputsEqual(
+                    cloneTwin.activateSingle(inputs, bias, 10, false),
+                    clone.activateSingle(inputs, bias, 10, false));
+
+            modifyRandomly(new MersenneTwister(seed + 2), original);
+            modifyRandomly(new MersenneTwister(seed + 2), originalTwin);
+
+            for (int activation = 0; activation < 5; activation++) {
+
+                inputs = randomInputs(random);
+
+                assertOutputsEqual(
+                        originalTwin.activateSingle(inputs, bias, 10, false),
+                        original.activateSingle(inputs, bias, 10, false));
+
+                assertOutputsEqual(
+                        cloneTwin.activateSingle(inputs, bias, 10, false),
+                        clone.activateSingle(inputs, bias, 10, false));
+            }
+
+            assertEquals(originalTwin.connections.count(), original.connections.count());
+            assertEquals(cloneTwin.connections.count(), clone.connections.count());
+        }
+    }
+
+    public void testReadingAClonedNetworkLeavesItShared() {
+
+        RandomGenerator random = new MersenneTwister(1928);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> original = createRandomNetwork(random, 8, 30);
+        CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+        // everything read from either network is the same (shared) object
+        for (CyclicNeuralNet<Connection, CyclicNeuron> neuralNet : Arrays.asList(clone, original)) {
+
+            for (Connection connection : neuralNet.connections.values()) {
+
+                long sourceId = connection.sourceId;
+                long targetId = connection.targetId;
+
+                assertSame(connection, original.connections.getConnection(sourceId, targetId));
+                assertSame(connection, clone.connections.getConnection(sourceId, targetId));
+            }
+
+            for (long neuronId : neuralNet.neurons.ids()) {
+
+                assertSame(original.neurons.get(neuronId), clone.neurons.get(neuronId));
+                assertEquals(original.connections.getIncomingConnections(neuronId),
+                        clone.connections.getIncomingConnections(neuronId));
+                assertEquals(original.connections.getOutgoingConnections(neuronId),
+                        clone.connections.getOutgoingConnections(neuronId));
+            }
+
+            assertSame(original.biasNeuron(), clone.biasNeuron());
+        }
+
+        // only what's written to is copied, and only for the network writing to it
+        Connection connection = original.connections.values().iterator().next();
+        long sourceId = connection.sourceId;
+        long targetId = connection.targetId;
+        double weight = connection.getWeight();
+
+        clone.setConnectionWeight(sourceId, targetId, weight + 1.0);
+
+        assertSame(connection, original.connections.getConnection(sourceId, targetId));
+        assertNotSame(connection, clone.connections.getConnection(sourceId, targetId));
+        assertEquals(weight, original.connections.getConnection(sourceId, targetId).getWeight());
+        assertEquals(weight + 1.0, clone.connections.getConnection(sourceId, targetId).getWeight());
+
+        original.setConnectionEnabled(sourceId, targetId, !connection.isEnabled());
+
+        assertNotSame(connection, original.connections.getConnection(sourceId, targetId));
+        assertEquals(connection.isEnabled(), clone.connections.getConnection(sourceId, targetId).isEnabled());
+
+        for (Connection other : original.connections.values()) {
+
+            if ((other.sourceId != sourceId) || (other.targetId != targetId)) {
+                assertSame(other, clone.connections.getConnection(other.sourceId, other.targetId));
+            }
+        }
+    }
+
+    public void testWritesThroughAClonesObjectsCannotReachTheOriginal() {
+
+        // the objects handed out can be shared, so nothing public can write to them
+        for (Class<?> type : Arrays.asList(Connection.class, CyclicNeuron.class, Neuron.class)) {
+
+            for (Field field : type.getFields()) {
+                assertTrue(field.getName(), Modifier.isFinal(field.getModifiers()));
+            }
+
+            for (Method method : type.getMethods()) {
+                assertFalse(method.getName(), method.getName().startsWith("set"));
+            }
+        }
+
+        RandomGenerator random = new MersenneTwister(5173);
+
+        CyclicNeuralNet<Connection, CyclicNeuron> original = createRandomNetwork(random, 8, 30);
+        CyclicNeuralNet<Connection, CyclicNeuron> originalTwin = CyclicNeuralNet.deepClone(original);
+        CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+        Map<Long, Double> originalWeights = new HashMap<>();
+        Map<Long, Boolean> originalEnabled = new HashMap<>();
+
+        for (Connection connection : original.connections.values()) {
+
+            long key = (connection.sourceId << 32) | connection.targetId;
+
+            originalWeights.put(key, connection.getWeight());
+            originalEnabled.put(key, connection.isEnabled());
+        }
+
+        // write through everything the clone hands out (which is shared with the original until it's written)
+        for (CyclicNeuron neuron : clone.neurons.values()) {
+
+            for (Connection connection : clone.connections.getIncomingConnections(neuron.id)) {
+                clone.setConnectionWeight(connection.sourceId, connection.targetId, connection.getWeight() + 1.0);
+                clone.setConnectionEnabled(connection.sourceId, connection.targetId, !connection.isEnabled());
+            }
+
+            if (neuron.canActivate()) {
+                clone.setActivationFunction(neuron.id, KnownActivationFunctions.IDENTITY);
+            }
+        }
+
+        for (Connection connection : original.connections.values()) {
+
+            long key = (connection.sourceId << 32) | connection.targetId;
+
+            assertEquals(originalWeights.get(key), connection.getWeight());
+            assertEquals(originalEnabled.get(key), (Boolean) connection.isEnabled());
+        }
+
+        for (int activation = 0; activation < 5; activation++) {
+
+            List<Double> inputs = randomInputs(random);
+
+            assertOutputsEqual(
+                    originalTwin.activateSingle(inputs, bias, 10, false),
+                    original.activateSingle(inputs, bias, 10, false));
+        }
+    }
+
+    public void testNetworksWithTheSameStructureShareATopology() {
+
+        RandomGenerator random = new MersenneTwister(8642);
+
+        for (int network = 0; network < 20; network++) {
+
+            long seed = random.nextLong();
+
+            CyclicNeuralNet<Connection, CyclicNeuron> original =
+                    createRandomNetwork(new MersenneTwister(seed), 8, 30);
+            CyclicNeuralNet<Connection, CyclicNeuron> twin =
+                    createRandomNetwork(new MersenneTwister(seed), 8, 30);
+
+            CyclicNeuralNet<Connection, CyclicNeuron> clone = CyclicNeuralNet.deepClone(original);
+
+            // weight only changes (including switching connections off) keep the structure
+            for (Connection connection : clone.connections.values()) {
+
+                double weight = (random.nextDouble() < 0.2) ? 0.0 : random.nextDouble() * 4.0 - 2.0;
+
+                clone.setConnectionWeight(connection.sourceId, connection.targetId, weight);
+                clone.setConnectionEnabled(connection.sourceId, connection.targetId, random.nextDouble() < 0.8);
+            }
+
+            assertTrue(twin.hasSameTopology(original));
+            assertTrue(clone.hasSameTopology(original));
+
+            // NOTE: the clone has a different set of active connections, it must not pick up the original's orderings
+            for (CyclicNeuralNet<Connection, CyclicNeuron> neuralNet : Arrays.asList(original, twin, clone)) {
+
+                List<Double> inputs = randomInputs(random);
+
+                List<Double> expected = new ReferenceActivation(neuralNet).activateSingle(inputs, bias, 10, true);
+
+                assertOutputsEqual(expected, neuralNet.activateSingle(inputs, bias, 10, true));
+
+                if (neuralNet.isAcyclic()) {
+
+                    neuralNet.setActivationSchedule(ActivationSchedule.Components);
+                    assertOutputsEqual(expected, neuralNet.activateSingle(inputs, bias, 10, true));
+                    neuralNet.setActivationSchedule(ActivationSchedule.Synchronous);
+                }
+            }
+
+            addRandomStructure(random, clone, 1, 3);
+
+            assertFalse(clone.hasSameTopology(original));
+            assertTrue(twin.hasSameTopology(original));
+        }
+    }
+
+    public void testOptimizedNetworkMatchesNetwork() {
+
+        RandomGenerator random = new MersenneTwister(1357);
+
+        for (int network = 0; network < 60; network++) {
+
+            boolean acyclic = (network % 2) == 0;
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = acyclic ?
+                    createRandomAcyclicNetwork(random, 12, 50) :
+                    createRandomNetwork(random, 12, 40);
+
+            // NOTE: a chain of identity neurons from the inputs to the outputs, for folding
+            List<Long> inputIds = new ArrayList<>(neuralNet.neurons.ids(NeuronType.Input));
+            List<Long> outputIds = new ArrayList<>(neuralNet.neurons.ids(NeuronType.Output));
+
+            CyclicNeuron first = neuralNet.addHiddenNeuron(KnownActivationFunctions.IDENTITY);
+            CyclicNeuron second = neuralNet.addHiddenNeuron(KnownActivationFunctions.IDENTITY);
+
+            neuralNet.addConnection(inputIds.get(random.nextInt(inputIds.size())), first.id, true, 0.5);
+            neuralNet.addConnection(inputIds.get(random.nextInt(inputIds.size())), second.id, true, -1.5);
+            neuralNet.addConnection(neuralNet.biasNeuron().id, first.id, true, 0.25);
+            neuralNet.addConnection(first.id, second.id, true, 2.0);
+            neuralNet.addConnection(second.id, outputIds.get(random.nextInt(outputIds.size())), true, 0.75);
+
+            int maxSteps = 20;
+
+            // NOTE: an iterated network can stop sooner once it's optimized (it doesn't wait for dropped neurons to
+            //       converge), so it's only as close as the convergence check allows
+            double tolerance = neuralNet.isAcyclic() ? 1e-12 : 1e-4;
+
+            OptimizedNeuralNet optimized = neuralNet.optimize(bias, maxSteps);
+
+            assertEquals(neuralNet.isAcyclic(), optimized.isAcyclic());
+            assertTrue(optimized.neuronCount() < neuralNet.neurons.count());
+
+            for (int activation = 0; activation < 10; activation++) {
+
+                boolean reset = (activation % 4) == 0;
+
+                List<Double> inputs = randomInputs(random);
+
+                List<Double> expected = neuralNet.activateSingle(inputs, bias, maxSteps, reset);
+                List<Double> actual = optimized.activateSingle(inputs, reset);
+
+                assertEquals(expected.size(), actual.size());
+
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i), actual.get(i), tolerance * Math.max(1.0, Math.abs(expected.get(i))));
+                }
+            }
+        }
+    }
+
+    public void testSinglePrecisionOptimizedNetworkStaysClose() {
+
+        RandomGenerator random = new MersenneTwister(9753);
+
+        for (int network = 0; network < 40; network++) {
+
+            CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = ((network % 2) == 0)
+                    ? createRandomAcyclicNetwork(random, 12, 50)
+                    : createRandomNetwork(random, 12, 40);
+
+            OptimizedNeuralNet exact = neuralNet.optimize(bias, 20);
+
+            for (ComputePrecision precision : new ComputePrecision[]{
+                    ComputePrecision.Float32,
+                    ComputePrecision.Float32Accumulate64}) {
+
+                OptimizedNeuralNet single = neuralNet.optimize(bias, 20, precision);
+
+                assertEquals(precision, single.getComputePrecision());
+                assertEquals(exact.neuronCount(), single.neuronCount());
+                assertEquals(exact.connectionCount(), single.connectionCount());
+
+                for (int activation = 0; activation < 5; activation++) {
+
+                    List<Double> inputs = randomInputs(random);
+
+                    List<Double> expected = exact.activateSingle(inputs, true);
+                    List<Double> actual = single.activateSingle(inputs, true);
+
+                    for (int i = 0; i < expected.size(); i++) {
+
+                        // NOTE: floats carry about 7 significant digits (and iterated networks can stop at a
+                        //       different step, within the convergence check)
+                        assertEquals(expected.get(i), actual.get(i), 1e-3 * Math.max(1.0, Math.abs(expected.get(i))));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testOptimizerRemovesDeadNeuronsAndFoldsIdentityNeurons() {
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = new CyclicNeuralNet<>(
+                new DefaultCyclicNeuronFactory(),
+                new DefaultConnectionFactory(),
+                2,
+                Arrays.asList(new NeuronParameters(KnownActivationFunctions.TANH)));
+
+        List<Long> inputIds = new ArrayList<>(neuralNet.neurons.ids(NeuronType.Input));
+        long outputId = neuralNet.neurons.ids(NeuronType.Output).iterator().next();
+        long biasId = neuralNet.biasNeuron().id;
+
+        CyclicNeuron first = neuralNet.addHiddenNeuron(KnownActivationFunctions.IDENTITY);
+        CyclicNeuron second = neuralNet.addHiddenNeuron(KnownActivationFunctions.IDENTITY);
+        CyclicNeuron deadEnd = neuralNet.addHiddenNeuron(KnownActivationFunctions.SIGMOID);
+        CyclicNeuron disconnected = neuralNet.addHiddenNeuron(KnownActivationFunctions.SIGMOID);
+
+        // input 0 --> first --> second --> output (and input 1 --> second), with the bias feeding first and the output
+        neuralNet.addConnection(inputIds.get(0), first.id, true, 0.5);
+        neuralNet.addConnection(biasId, first.id, true, 0.25);
+        neuralNet.addConnection(first.id, second.id, true, 2.0);
+        neuralNet.addConnection(inputIds.get(1), second.id, true, -1.0);
+        neuralNet.addConnection(second.id, outputId, true, 0.75);
+        neuralNet.addConnection(biasId, outputId, true, -0.5);
+
+        // none of these can affect the output
+        neuralNet.addConnection(inputIds.get(0), deadEnd.id, true, 1.0);
+        neuralNet.addConnection(first.id, deadEnd.id, true, 1.0);
+        neuralNet.addConnection(disconnected.id, outputId, false, 1.0);
+        neuralNet.addConnection(inputIds.get(1), outputId, true, 0.0);
+
+        OptimizedNeuralNet optimized = neuralNet.optimize(bias, 10);
+
+        // only the inputs and the output are left, with a connection from each input to the output
+        assertEquals(3, optimized.neuronCount());
+        assertEquals(2, optimized.connectionCount());
+
+        double[] outputs = new double[1];
+        optimized.activate(new double[]{0.3, -0.7}, outputs, true);
+
+        double first0 = (0.3 * 0.5) + (bias * 0.25);
+        double second0 = (first0 * 2.0) + (-0.7 * -1.0);
+        double expected = Math.tanh((second0 * 0.75) + (bias * -0.5));
+
+        assertEquals(expected, outputs[0], 1e-12);
+    }
+
+    private static CyclicNeuralNet<Connection, CyclicNeuron> createRandomNetwork(RandomGenerator random,
+                                                                                 int hiddenCount,
+                                                                                 int connectionCount) {
+
+        List<NeuronParameters> outputParameters = new ArrayList<>();
+
+        for (int i = 0; i < outputCount; i++) {
+
+            ActivationFunction activationFunction = randomActivationFunction(random);
+            outputParameters.add(new NeuronParameters(activationFunction, activationFunction.defaultParameters()));
+        }
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = new CyclicNeuralNet<>(
+                new DefaultCyclicNeuronFactory(),
+                new DefaultConnectionFactory(),
+                inputCount,
+                outputParameters);
+
+        addRandomStructure(random, neuralNet, hiddenCount, connectionCount);
+
+        return neuralNet;
+    }
+
+    private static void addRandomStructure(RandomGenerator random,
+                                           CyclicNeuralNet<Connection, CyclicNeuron> neuralNet,
+                                           int hiddenCount,
+                                           int connectionCount) {
+
+        for (int i = 0; i < hiddenCount; i++) {
+
+            ActivationFunction activationFunction = randomActivationFunction(random);
+            neuralNet.addHiddenNeuron(activationFunction, activationFunction.defaultParameters());
+        }
+
+        List<Long> sourceIds = new ArrayList<>(neuralNet.neurons.ids());
+
+        List<Long> targetIds = new ArrayList<>();
+        targetIds.addAll(neuralNet.neurons.ids(NeuronType.Hidden));
+        targetIds.addAll(neuralNet.neurons.ids(NeuronType.Output));
+
+        for (int i = 0; i < connectionCount; i++) {
+
+            long sourceId = sourceIds.get(random.nextInt(sourceIds.size()));
+            long targetId = targetIds.get(random.nextInt(targetIds.size()));
+
+            if (!neuralNet.isConnected(sourceId, targetId)) {
+
+                boolean enabled = random.nextDouble() < 0.8;
+                double weight = (random.nextDouble() < 0.1) ? 0.0 : (random.nextDouble() * 4.0) - 2.0;
+
+                neuralNet.addConnection(sourceId, targetId, enabled, weight);
+            }
+        }
+    }
+
+    // NOTE: this goes through each way a network can be modified (structural changes, and changes to the neurons and
+    //       connections that are handed out)
+    private static void modifyRandomly(RandomGenerator random, CyclicNeuralNet<Connection, CyclicNeuron> neuralNet) {
+
+        List<Long> sourceIds = new ArrayList<>(neuralNet.connections.sourceIds());
+        sourceIds.sort(Long::compare);
+
+        for (long sourceId : sourceIds) {
+
+            List<Long> targetIds = new ArrayList<>(neuralNet.connections.targetIds(sourceId));
+            targetIds.sort(Long::compare);
+
+            for (long targetId : targetIds) {
+
+                if (random.nextDouble() < 0.25) {
+                    double weight = neuralNet.connections.getConnection(sourceId, targetId).getWeight();
+                    neuralNet.setConnectionWeight(sourceId, targetId, weight * -1.5);
+                }
+            }
+        }
+
+        for (CyclicNeuron output : neuralNet.neurons.values(NeuronType.Output)) {
+
+            for (Connection connection : neuralNet.connections.getIncomingConnections(output.id)) {
+                neuralNet.setConnectionEnabled(connection.sourceId, connection.targetId, !connection.isEnabled());
+            }
+        }
+
+        List<Long> hiddenIds = new ArrayList<>(neuralNet.neurons.ids(NeuronType.Hidden));
+
+        long hiddenId = hiddenIds.get(random.nextInt(hiddenIds.size()));
+        ActivationFunction activationFunction = randomActivationFunction(random);
+        neuralNet.setActivationFunction(
+                hiddenId,
+                activationFunction,
+                activationFunction.defaultParameters());
+
+        Connection removed = neuralNet.connections.getConnection(
+                sourceIds.get(0),
+                neuralNet.connections.targetIds(sourceIds.get(0)).iterator().next());
+
+        neuralNet.removeConnection(removed);
+
+        addRandomStructure(random, neuralNet, 2, 10);
+    }
+
+    private static CyclicNeuralNet<Connection, CyclicNeuron> createRandomAcyclicNetwork(RandomGenerator random,
+                                                                                        int hiddenCount,
+                                                                                        int connectionCount) {
+
+        CyclicNeuralNet<Connection, CyclicNeuron> neuralNet = createRandomNetwork(random, 0, 0);
+
+        for (int i = 0; i < hiddenCount; i++) {
+
+            ActivationFunction activationFunction = randomActivationFunction(random);
+            neuralNet.addHiddenNeuron(activationFunction, activationFunction.defaultParameters());
+        }
+
+        List<Long> ids = new ArrayList<>(neuralNet.neurons.ids());
+
+        for (int i = 0; i < connectionCount; i++) {
+
+            long sourceId = ids.get(random.nextInt(ids.size()));
+            long targetId = ids.get(random.nextInt(ids.size()));
+
+            NeuronType sourceType = neuralNet.neurons.get(sourceId).type;
+            NeuronType targetType = neuralNet.neurons.get(targetId).type;
+
+            // NOTE: hidden neurons only feed hidden neurons with a larger id (and outputs feed nothing), so there can't
+            //       be any cycles
+            boolean valid = (sourceType != NeuronType.Output) &&
+                    ((targetType == NeuronType.Output) ||
+                            ((targetType == NeuronType.Hidden) &&
+                                    ((sourceType != NeuronType.Hidden) || (sourceId < targetId))));
+
+            if (valid && !neuralNet.isConnected(sourceId, targetId)) {
+
+                boolean enabled = random.nextDouble() < 0.8;
+                double weight = (random.nextDouble() < 0.1) ? 0.0 : (random.nextDouble() * 4.0) - 2.0;
+
+                neuralNet.addConnection(sourceId, targetId, enabled, weight);
+            }
+        }
+
+        return neuralNet;
+    }
+
+    private static ActivationFunction randomActivationFunction(RandomGenerator random) {
+
+        List<ActivationFunction> functions = new ArrayList<>(KnownActivationFunctions.ALL.values());
+        functions.sort((a, b) -> a.name.compareTo(b.name));
+
+        return functions.get(random.nextInt(functions.size()));
+    }
+
+    private static List<Double> randomInputs(RandomGenerator random) {
+
+        List<Double> inputs = new ArrayList<>();
+
+        for (int i = 0; i < inputCount; i++) {
+            inputs.add((random.nextDouble() * 2.0) - 1.0);
+        }
+
+        return inputs;
+    }
+
+    private static void assertOutputsEqual(List<Double> expected, List<Double> actual) {
+
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 0.0);
+        }
+    }
+
+    // NOTE: this is a direct (slow) implementation of the synchronous activation semantics, walking the public
+    //       neuron and connection maps, used to check the compiled activation paths
+    private static class ReferenceActivation {
+
+        private final CyclicNeuralNet<Connection, CyclicNeuron> neuralNet;
+
+        private final Map<Long, Double> preSynapses;
+        private final Map<Long, Double> postSynapses;
+
+        public ReferenceActivation(CyclicNeuralNet<Connection, CyclicNeuron> neuralNet) {
+
+            this.neuralNet = neuralNet;
+
+            this.preSynapses = new HashMap<>();
+            this.postSynapses = new HashMap<>();
+
+            reset();
+        }
+
+        public List<Double> activateSingle(List<Double> inputs,
+                                           double bias,
+                                           int maxStepsPerActivation,
+                                           boolean resetStateBeforeActivation) {
+
+            List<List<Double>> inputSets = new ArrayList<>();
+            inputSets.add(inputs);
+
+            return activateSet(inputSets, bias, maxStepsPerActivation, resetStateBeforeActivation);
+        }
+
+        public List<Double> activateSet(List<List<Double>> inputSets,
+                                        double bias,
+                                        int maxStepsPerActivation,
+                                        boolean resetStateBeforeActivation) {
+
+            if (resetStateBeforeActivation) {
+                reset();
+            }
+
+            postSynapses.put(neuralNet.biasNeuron().id, bias);
+
+            int numSteps = maxStepsPerActivation + (inputSets.size() - 1);
+
+            for (int step = 0; step < numSteps; step++) {
+
+                if (step < inputSets.size()) {
+
+                    List<Double> inputs = inputSets.get(step);
+
+                    int index = 0;
+
+                    for (CyclicNeuron neuron : neuralNet.neurons.values(NeuronType.Input)) {
+
+                        double inputValue = inputs.get(index++);
+
+                        if (Double.isNaN(inputValue)) {
+                            inputValue = 0.0;
+                        }
+
+                        postSynapses.put(neuron.id, inputValue);
+                    }
+                }
+
+                for (Connection connection : neuralNet.connections.values()) {
+
+                    if (connection.isEnabled() && (connection.getWeight() != 0.0)) {
+
+                        double preSynapse = preSynapses.get(connection.targetId);
+                        preSynapse += postSynapses.get(connection.sourceId) * connection.getWeight();
+
+                        if (Double.isNaN(preSynapse)) {
+                            preSynapse = 0.0;
+                        }
+
+                        preSynapses.put(connection.targetId, preSynapse);
+                    }
+                }
+
+                boolean moreWork = false;
+
+                List<CyclicNeuron> activatable = new ArrayList<>();
+                neuralNet.neurons.values(NeuronType.Hidden).forEach(activatable::add);
+                neuralNet.neurons.values(NeuronType.Output).forEach(activatable::add);
+
+                for (CyclicNeuron neuron : activatable) {
+
+                    double preSynapse = preSynapses.get(neuron.id);
+                    double value = neuron.computeActivation(preSynapse);
+
+                    if (Double.isNaN(value)) {
+                        value = KnownActivationFunctions.SIGMOID.compute(
+                                preSynapse,
+                                KnownActivationFunctions.SIGMOID.defaultParameters());
+                    }
+
+                    if (!MathFunctions.fuzzyCompare(value, postSynapses.get(neuron.id))) {
+                        moreWork = true;
+                    }
+
+                    postSynapses.put(neuron.id, value);
+                    preSynapses.put(neuron.id, 0.0);
+                }
+
+                if (!moreWork) {
+                    break;
+                }
+            }
+
+            List<Double> outputs = new ArrayList<>();
+
+            for (CyclicNeuron neuron : neuralNet.neurons.values(NeuronType.Output)) {
+                outputs.add(postSynapses.get(neuron.id));
+            }
+
+            return outputs;
+        }
+
+        private void reset() {
+
+            preSynapses.clear();
+            postSynapses.clear();
+
+            for (long neuronId : neuralNet.neurons.ids()) {
+                preSynapses.put(neuronId, 0.0);
+                postSynapses.put(neuronId, 0.0);
+            }
+        }
+    }
+}
@@ -3,12 +3,19 @@ package matgr.ai.neuralnet;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import matgr.ai.neuralnet.dataset.IdxFile;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.random.RandomGenerator;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,7 +42,13 @@ public class MnistTest extends TestCase {
      * @return the suite of tests being tested
      */
     public static Test suite() {
-        return new TestSuite(NeuralNetTest.class);
+
+        TestSuite suite = new TestSuite(NeuralNetTest.class);
+
+        // NOTE: only the labels ship with the repo (the images are too big), so testMnist can't run here
+        suite.addTest(new MnistTest("testMappedLabelsReadTheSameAsLoadedLabels"));
+
+        return suite;
     }
 
     public void testMnist() throws IOException {
@@ -44,6 +57,55 @@ public class MnistTest extends TestCase {
         MnistIdxFile trainingImages = loadMnistIdxResourceFile("/train-images.idx3-ubyte");
     }
 
+    public void testMappedLabelsReadTheSameAsLoadedLabels() throws IOException, URISyntaxException {
+
+        MnistIdxFile trainingLabels = loadMnistIdxResourceFile("/train-labels.idx1-ubyte");
+        IdxFile mappedTrainingLabels = mapMnistIdxResourceFile("/train-labels.idx1-ubyte");
+
+        assertEquals(60000, mappedTrainingLabels.itemCount());
+
+        assertSameItems(trainingLabels, mappedTrainingLabels);
+    }
+
+    private static void assertSameItems(MnistIdxFile expected, IdxFile actual) {
+
+        assertEquals(expected.data.size(), actual.itemCount());
+        assertEquals(expected.itemWidth * expected.itemHeight, actual.itemSize());
+
+        for (int i = 0; i < expected.data.size(); i++) {
+
+            byte[] item = expected.data.get(i);
+
+            for (int j = 0; j < item.length; j++) {
+                assertEquals(item[j] & 0xff, actual.get(i, j));
+            }
+        }
+    }
+
+    private IdxFile mapMnistIdxResourceFile(String path) throws IOException, URISyntaxException {
+
+        URL resource = getClass().getResource(path);
+
+        if (null == resource) {
+            throw new IllegalArgumentException(String.format("Resource %s not found", path));
+        }
+
+        // NOTE: a resource is only a plain file (which can be mapped directly) when it isn't packaged in a jar,
+        //       otherwise it's copied out to a temporary file first
+        if ("file".equals(resource.getProtocol())) {
+            return IdxFile.map(new File(resource.toURI()).toPath());
+        }
+
+        Path copy = Files.createTempFile("mnist", ".idx");
+        copy.toFile().deleteOnExit();
+
+        try (InputStream stream = resource.openStream()) {
+            Files.copy(stream, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return IdxFile.map(copy);
+    }
+
     private MnistIdxFile loadMnistIdxResourceFile(String path) throws IOException {
 
         try (InputStream stream = getClass().getResourceAsStream(path)) {
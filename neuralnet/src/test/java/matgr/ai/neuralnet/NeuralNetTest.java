@@ -6,15 +6,35 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import matgr.ai.math.MathFunctions;
 import matgr.ai.neuralnet.activation.ActivationFunction;
+import matgr.ai.neuralnet.activation.ActivationKernel;
+import matgr.ai.neuralnet.activation.ActivationPrecision;
 import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+import matgr.ai.neuralnet.dataset.IdxDataset;
+import matgr.ai.neuralnet.dataset.IdxFile;
+import matgr.ai.neuralnet.dataset.MiniBatch;
+import matgr.ai.neuralnet.dataset.MiniBatchPrefetcher;
 import matgr.ai.neuralnet.feedforward.ConvolutionDimensions;
+import matgr.ai.neuralnet.feedforward.ConvolutionalLayer;
 import matgr.ai.neuralnet.feedforward.ErrorType;
 import matgr.ai.neuralnet.feedforward.FeedForwardNeuralNet;
+import matgr.ai.neuralnet.feedforward.FrozenFeedForwardNeuralNet;
+import matgr.ai.neuralnet.feedforward.FullyConnectedLayer;
+import matgr.ai.neuralnet.feedforward.ParallelTrainer;
+import matgr.ai.neuralnet.feedforward.ParallelTrainingMode;
+import matgr.ai.neuralnet.feedforward.Tensor;
+import matgr.ai.neuralnet.feedforward.TrainingContext;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.random.RandomGenerator;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 
 /**
@@ -25,6 +45,13 @@ public class NeuralNetTest extends TestCase {
 
     private static final RandomGenerator random = new MersenneTwister();
 
+    // NOTE: a small network with every kind of layer, for the tests that compare ways of training (or activating) it
+    private static final TestNetworkBuilder miniBatchTestNetwork =
+            new TestNetworkBuilder(36, 3, true, KnownActivationFunctions.SIGMOID)
+            .convolutional(new ConvolutionDimensions(6, 6, 3, 3), 1, 1, KnownActivationFunctions.TANH)
+            .maxPooling(new ConvolutionDimensions(4, 4, 2, 2, 2, 2), 1, KnownActivationFunctions.IDENTITY)
+            .fullyConnected(5, KnownActivationFunctions.TANH);
+
     /**
      * Create the test case
      *
@@ -32,68 +59,1382 @@ public class NeuralNetTest extends TestCase {
      */
     public NeuralNetTest(String testName) {
 
-        super(testName);
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(NeuralNetTest.class);
+    }
+
+    public void testBasicFunction() {
+
+        final int inputCount = 2;
+        final int outputCount = 4;
+
+        final int hiddenLayers = 1;
+        final int neuronsPerHiddenLayer = 5;
+
+        final int sqrtSetCount = 2;
+
+        final double bias = 1;
+
+        final double learningRate = 0.1;
+        final int maxSteps = 1000000;
+        final double maxErrorRms = 0.01;
+
+        final int noProgressResetThreshold = 5000;
+
+        final boolean outputApplySoftmax = false;
+        ActivationFunction outputActivationFunction = KnownActivationFunctions.TANH;
+        double[] outputActivationFunctionParameters = outputActivationFunction.defaultParameters();
+
+        FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
+                new DefaultNeuronFactory(),
+                inputCount,
+                outputCount,
+                outputApplySoftmax,
+                outputActivationFunction,
+                outputActivationFunctionParameters);
+
+        ActivationFunction activationFunction = KnownActivationFunctions.TANH;
+        double[] activationFunctionParameters = activationFunction.defaultParameters();
+
+        for (int i = 0; i < hiddenLayers; i++) {
+            neuralNet.addFullyConnectedHiddenLayer(
+                    neuronsPerHiddenLayer,
+                    activationFunction,
+                    activationFunctionParameters);
+        }
+
+        neuralNet.randomizeWeights(random);
+
+        List<TrainingSet> trainingSets = getBasicFunctionTrainingSets(sqrtSetCount);
+
+        runNetworkTrainingTest(
+                neuralNet,
+                bias,
+                trainingSets,
+                learningRate,
+                maxSteps,
+                maxErrorRms,
+                noProgressResetThreshold);
+    }
+
+    public void testPrimitiveActivationMatchesListActivation() {
+
+        final int inputCount = 3;
+        final int outputCount = 4;
+
+        final double bias = 1;
+
+        ActivationFunction activationFunction = KnownActivationFunctions.TANH;
+
+        FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
+                new DefaultNeuronFactory(),
+                inputCount,
+                outputCount,
+                true,
+                KnownActivationFunctions.SIGMOID,
+                KnownActivationFunctions.SIGMOID.defaultParameters());
+
+        neuralNet.addFullyConnectedHiddenLayer(6, activationFunction, activationFunction.defaultParameters());
+        neuralNet.addFullyConnectedHiddenLayer(5, activationFunction, activationFunction.defaultParameters());
+
+        neuralNet.randomizeWeights(random);
+
+        double[] inputs = new double[inputCount];
+        double[] outputs = new double[outputCount];
+
+        for (int i = 0; i < 20; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            List<Double> expected = neuralNet.activate(Doubles.asList(inputs), bias);
+            neuralNet.activate(inputs, outputs, bias);
+
+            for (int j = 0; j < outputCount; j++) {
+                assertEquals(expected.get(j), outputs[j], 0.0);
+            }
+        }
+    }
+
+    public void testFullyConnectedLayerWeightsAreARowMajorMatrix() {
+
+        // NOTE: wide enough that the kernels go through more than one block of columns
+        final int inputCount = 1100;
+        final int outputCount = 3;
+
+        final double bias = 1;
+        final double learningRate = 0.01;
+
+        FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
+                new DefaultNeuronFactory(),
+                inputCount,
+                outputCount,
+                false,
+                KnownActivationFunctions.IDENTITY,
+                KnownActivationFunctions.IDENTITY.defaultParameters());
+
+        neuralNet.randomizeWeights(random);
+
+        FullyConnectedLayer<Neuron> layer = (FullyConnectedLayer<Neuron>) neuralNet.outputLayer;
+
+        assertEquals(inputCount, layer.getWeightColumnCount());
+        assertEquals(inputCount * outputCount, layer.getWeights().length);
+        assertEquals(outputCount, layer.getBiasWeights().length);
+
+        double[] weights = layer.getWeights().clone();
+        double[] biasWeights = layer.getBiasWeights().clone();
+
+        List<Double> inputs = new ArrayList<>();
+        List<Double> expectedOutputs = new ArrayList<>();
+
+        for (int j = 0; j < inputCount; j++) {
+            inputs.add((random.nextDouble() * 2.0) - 1.0);
+        }
+
+        for (int i = 0; i < outputCount; i++) {
+            expectedOutputs.add(random.nextDouble());
+        }
+
+        List<Double> outputs = neuralNet.activate(inputs, bias);
+
+        for (int i = 0; i < outputCount; i++) {
+
+            double expected = 0.0;
+
+            for (int j = 0; j < inputCount; j++) {
+                expected += inputs.get(j) * weights[i * inputCount + j];
+            }
+
+            expected += biasWeights[i] * bias;
+
+            assertEquals(expected, outputs.get(i), 1e-12);
+        }
+
+        neuralNet.backPropagate(learningRate, bias, expectedOutputs);
+
+        for (int i = 0; i < outputCount; i++) {
+
+            double dE_dIn = outputs.get(i) - expectedOutputs.get(i);
+
+            for (int j = 0; j < inputCount; j++) {
+
+                double expected = weights[i * inputCount + j] - (dE_dIn * inputs.get(j) * learningRate);
+                assertEquals(expected, layer.getWeights()[i * inputCount + j], 1e-12);
+            }
+
+            assertEquals(biasWeights[i] - (dE_dIn * bias * learningRate), layer.getBiasWeights()[i], 1e-12);
+        }
+    }
+
+    public void testTensorViewsShareValues() {
+
+        double[] values = new double[]{9.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0};
+
+        Tensor tensor = Tensor.wrap(values, 1, 2, 3);
+
+        assertEquals(ComputePrecision.Float64, tensor.precision());
+        assertEquals(2, tensor.rank());
+        assertEquals(3, tensor.dimension(1));
+        assertEquals(6, tensor.size());
+        assertEquals(1.0, tensor.get(0), 0.0);
+
+        Tensor flat = tensor.reshape(6);
+        flat.set(5, 7.0);
+
+        assertEquals(7.0, values[6], 0.0);
+        assertEquals(7.0, tensor.get(5), 0.0);
+
+        // NOTE: not at offset 0, so the values are copied
+        double[] scratch = new double[6];
+
+        assertSame(scratch, tensor.asDoubles(scratch));
+        assertEquals(1.0, scratch[0], 0.0);
+
+        Tensor dense = Tensor.wrap(values, 0, 7);
+        assertSame(values, dense.asDoubles(scratch));
+
+        float[] floatValues = new float[3];
+
+        Tensor floats = Tensor.wrap(floatValues, 0, 3);
+        floats.copyFrom(new double[]{0.5, 1.5, 2.5}, 0);
+
+        assertEquals(ComputePrecision.Float32, floats.precision());
+        assertEquals(1.5f, floatValues[1], 0.0f);
+        assertEquals(2.5, floats.asDoubles(scratch)[2], 0.0);
+
+        try {
+
+            tensor.reshape(4);
+            fail("Expected a different size to be rejected");
+
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
+    }
+
+    public void testMiniBatchTrainingMatchesBackPropagation() {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 40;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                targets[i][j] = random.nextDouble();
+            }
+        }
+
+        // NOTE: a batch size of 1 is the same as activating and back propagating each sample in turn
+        FeedForwardNeuralNet<Neuron> expectedNet = miniBatchTestNetwork.build(seed);
+        FeedForwardNeuralNet<Neuron> actualNet = miniBatchTestNetwork.build(seed);
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            expectedNet.activate(Doubles.asList(inputs[i]), bias);
+            expectedNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+        }
+
+        actualNet.train(inputs, targets, 1, learningRate, bias);
+
+        assertSameOutputs(expectedNet, actualNet, inputs, bias);
+
+        // NOTE: gradients are averaged over a batch, so a batch of the same sample twice is the same as that sample
+        expectedNet = miniBatchTestNetwork.build(seed);
+        actualNet = miniBatchTestNetwork.build(seed);
+
+        double[][] doubledInputs = new double[sampleCount * 2][];
+        double[][] doubledTargets = new double[sampleCount * 2][];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            doubledInputs[i * 2] = inputs[i];
+            doubledInputs[(i * 2) + 1] = inputs[i];
+
+            doubledTargets[i * 2] = targets[i];
+            doubledTargets[(i * 2) + 1] = targets[i];
+        }
+
+        TrainingContext context = actualNet.createTrainingContext(2);
+
+        expectedNet.train(inputs, targets, 1, learningRate, bias);
+        actualNet.train(context, doubledInputs, doubledTargets, learningRate, bias);
+
+        assertSameOutputs(expectedNet, actualNet, inputs, bias);
+    }
+
+    public void testParallelTrainingMatchesMiniBatchTraining() {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 100;
+        final int batchSize = 10;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                targets[i][j] = random.nextDouble();
+            }
+        }
+
+        FeedForwardNeuralNet<Neuron> expectedNet = miniBatchTestNetwork.build(seed);
+        expectedNet.train(inputs, targets, batchSize, learningRate, bias);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+
+            // NOTE: the same updates, with the gradients of each batch just summed in a different order
+            FeedForwardNeuralNet<Neuron> synchronousNet = miniBatchTestNetwork.build(seed);
+
+            new ParallelTrainer<>(synchronousNet, pool, batchSize, ParallelTrainingMode.Synchronous)
+                    .train(inputs, targets, learningRate, bias);
+
+            assertSameOutputs(expectedNet, synchronousNet, inputs, bias);
+
+        } finally {
+            pool.shutdown();
+        }
+
+        // NOTE: with a single worker there is nothing to race with, so this is plain mini-batch training
+        ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+
+        try {
+
+            FeedForwardNeuralNet<Neuron> asynchronousNet = miniBatchTestNetwork.build(seed);
+
+            new ParallelTrainer<>(asynchronousNet, singleThreadPool, batchSize, ParallelTrainingMode.Asynchronous)
+                    .train(inputs, targets, learningRate, bias);
+
+            assertSameOutputs(expectedNet, asynchronousNet, inputs, bias);
+
+        } finally {
+            singleThreadPool.shutdown();
+        }
+    }
+
+    public void testFusedSoftmaxCrossEntropyMatchesFiniteDifferences() {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 20;
+        final int batchSize = 5;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            targets[i][random.nextInt(outputCount)] = 1.0;
+        }
+
+        FeedForwardNeuralNet<Neuron> neuralNet = miniBatchTestNetwork.build(seed);
+        neuralNet.setTrainingErrorType(ErrorType.CrossEntropy);
+
+        // NOTE: the output layer's gradients come straight from the fused softmax derivatives, so they only match
+        //       finite differences of the cross entropy if those are right
+        final double step = 1e-5;
+        final double gradientLearningRate = 1e-7;
+
+        List<Double> sampleInputs = Doubles.asList(inputs[0]);
+        List<Double> sampleTargets = Doubles.asList(targets[0]);
+
+        int weightCount = ((FullyConnectedLayer<Neuron>) neuralNet.hiddenLayers.get(2)).getWeights().length;
+
+        for (int weightIndex = 0; weightIndex < weightCount; weightIndex++) {
+
+            FeedForwardNeuralNet<Neuron> gradientNet = neuralNet.deepClone();
+            double[] weights = ((FullyConnectedLayer<Neuron>) gradientNet.hiddenLayers.get(2)).getWeights();
+
+            double weight = weights[weightIndex];
+
+            weights[weightIndex] = weight + step;
+            gradientNet.activate(sampleInputs, bias);
+            double errorAbove = gradientNet.getCurrentError(sampleTargets, ErrorType.CrossEntropy);
+
+            weights[weightIndex] = weight - step;
+            gradientNet.activate(sampleInputs, bias);
+            double errorBelow = gradientNet.getCurrentError(sampleTargets, ErrorType.CrossEntropy);
+
+            weights[weightIndex] = weight;
+
+            gradientNet.activate(sampleInputs, bias);
+            gradientNet.backPropagate(gradientLearningRate, bias, sampleTargets);
+
+            double expected = (errorAbove - errorBelow) / (2.0 * step);
+            double actual = (weight - weights[weightIndex]) / gradientLearningRate;
+
+            assertEquals(expected, actual, 1e-4 * Math.max(1.0, Math.abs(expected)));
+        }
+
+        // NOTE: mini-batch training fuses them the same way
+        FeedForwardNeuralNet<Neuron> expectedNet = miniBatchTestNetwork.build(seed);
+        FeedForwardNeuralNet<Neuron> actualNet = miniBatchTestNetwork.build(seed);
+
+        expectedNet.setTrainingErrorType(ErrorType.CrossEntropy);
+        actualNet.setTrainingErrorType(ErrorType.CrossEntropy);
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            expectedNet.activate(Doubles.asList(inputs[i]), bias);
+            expectedNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+        }
+
+        actualNet.train(inputs, targets, 1, learningRate, bias);
+
+        assertSameOutputs(expectedNet, actualNet, inputs, bias);
+
+        // NOTE: and without a softmax there is nothing to fuse with
+        ConvolutionDimensions linearDimensions = new ConvolutionDimensions(5, 4, 3, 2, 2, 1, 1, 1);
+
+        FeedForwardNeuralNet<Neuron> linearNet = new TestNetworkBuilder(
+                linearDimensions.inputCount(),
+                outputCount,
+                false,
+                KnownActivationFunctions.IDENTITY)
+                .convolutional(linearDimensions, 1, 1, KnownActivationFunctions.IDENTITY)
+                .build(seed);
+
+        try {
+
+            linearNet.setTrainingErrorType(ErrorType.CrossEntropy);
+            fail("Expected IllegalStateException");
+
+        } catch (IllegalStateException ignored) {
+            // expected
+        }
+
+        assertEquals(ErrorType.HalfSumOfSquares, linearNet.getTrainingErrorType());
+    }
+
+    public void testFrozenNetworkFoldsTheBiasIntoItsCopy() {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 20;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+        }
+
+        for (ComputePrecision computePrecision : new ComputePrecision[]{
+                ComputePrecision.Float64,
+                ComputePrecision.Float32}) {
+
+            for (double bias : new double[]{0.5, -1.5}) {
+
+                FeedForwardNeuralNet<Neuron> neuralNet = miniBatchTestNetwork.build(seed, computePrecision);
+
+                ActivationContext context = neuralNet.createActivationContext();
+
+                FrozenFeedForwardNeuralNet frozenNet = neuralNet.freeze(bias);
+
+                double[] expected = new double[outputCount];
+
+                for (int i = 0; i < sampleCount; i++) {
+
+                    neuralNet.activate(context, inputs[i], expected, bias);
+
+                    double[] actual = frozenNet.activate(inputs[i]);
+
+                    for (int j = 0; j < outputCount; j++) {
+                        assertEquals(expected[j], actual[j], 0.0);
+                    }
+                }
+
+                frozenNet.close();
+
+                // NOTE: the bias is only folded into the frozen copy, so the network still uses the one it's given
+                FeedForwardNeuralNet<Neuron> unfrozenNet = miniBatchTestNetwork.build(seed, computePrecision);
+
+                assertCloseOutputs(unfrozenNet, neuralNet, inputs, bias, 0.0);
+                assertCloseOutputs(unfrozenNet, neuralNet, inputs, 1.0, 0.0);
+            }
+        }
+    }
+
+    public void testFrozenNetworkActivatesConcurrently() throws Exception {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 50;
+        final int taskCount = 8;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                targets[i][j] = random.nextDouble();
+            }
+        }
+
+        FeedForwardNeuralNet<Neuron> neuralNet = miniBatchTestNetwork.build(random.nextLong());
+
+        double[][] expectedOutputs = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+            neuralNet.activate(inputs[i], expectedOutputs[i], bias);
+        }
+
+        FrozenFeedForwardNeuralNet frozenNet = neuralNet.freeze(bias);
+
+        assertEquals(inputCount, frozenNet.inputCount());
+        assertEquals(outputCount, frozenNet.outputCount());
+
+        // NOTE: the frozen network has its own copy, so this doesn't change it
+        neuralNet.train(inputs, targets, 10, learningRate, bias);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+
+            List<Future<double[][]>> results = new ArrayList<>();
+
+            for (int task = 0; task < taskCount; task++) {
+
+                results.add(pool.submit(() -> {
+
+                    double[][] outputs = new double[sampleCount][outputCount];
+
+                    for (int i = 0; i < sampleCount; i++) {
+                        frozenNet.activate(inputs[i], outputs[i]);
+                    }
+
+                    return outputs;
+                }));
+            }
+
+            for (Future<double[][]> result : results) {
+
+                double[][] actualOutputs = result.get();
+
+                for (int i = 0; i < sampleCount; i++) {
+
+                    for (int j = 0; j < outputCount; j++) {
+                        assertEquals(expectedOutputs[i][j], actualOutputs[i][j], 1e-12);
+                    }
+                }
+            }
+
+        } finally {
+            pool.shutdown();
+        }
+
+        // once closed, only the activations given a context still work
+        frozenNet.close();
+
+        try {
+            frozenNet.activate(inputs[0]);
+            fail("Activated a closed network without a context");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        double[] outputs = new double[outputCount];
+        frozenNet.activate(frozenNet.createActivationContext(), inputs[0], outputs);
+
+        for (int j = 0; j < outputCount; j++) {
+            assertEquals(expectedOutputs[0][j], outputs[j], 1e-12);
+        }
+    }
+
+    public void testMiniBatchPrefetcherCoversEveryMappedSampleEachEpoch() throws Exception {
+
+        final int sampleCount = 7;
+        final int classCount = 4;
+        final int height = 2;
+        final int width = 3;
+        final int batchSize = 3;
+
+        // NOTE: the first pixel of each item is its index, so the samples can be told apart in the batches
+        byte[][] items = new byte[sampleCount][height * width];
+        byte[] labels = new byte[sampleCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            items[i][0] = (byte) i;
+
+            for (int j = 1; j < items[i].length; j++) {
+                items[i][j] = (byte) random.nextInt(256);
+            }
+
+            labels[i] = (byte) random.nextInt(classCount);
+        }
+
+        byte[] itemData = new byte[sampleCount * height * width];
+
+        for (int i = 0; i < sampleCount; i++) {
+            System.arraycopy(items[i], 0, itemData, i * height * width, height * width);
+        }
+
+        Path itemsPath = writeIdxFile(itemData, sampleCount, height, width);
+        Path labelsPath = writeIdxFile(labels, sampleCount);
+
+        try {
+
+            IdxFile itemsFile = IdxFile.map(itemsPath);
+            IdxFile labelsFile = IdxFile.map(labelsPath);
+
+            assertEquals(sampleCount, itemsFile.itemCount());
+            assertEquals(height * width, itemsFile.itemSize());
+            assertEquals(1, labelsFile.itemSize());
+
+            IdxDataset dataset = new IdxDataset(itemsFile, labelsFile, classCount);
+
+            try (MiniBatchPrefetcher prefetcher = new MiniBatchPrefetcher(dataset, batchSize, 1, random)) {
+
+                assertEquals(3, prefetcher.batchCount());
+
+                for (int epoch = 0; epoch < 3; epoch++) {
+
+                    boolean[] seen = new boolean[sampleCount];
+                    int seenCount = 0;
+
+                    prefetcher.startEpoch();
+
+                    MiniBatch batch;
+
+                    while (null != (batch = prefetcher.next())) {
+
+                        assertEquals(batch.size(), batch.inputs().length);
+                        assertEquals(batch.size(), batch.targets().length);
+
+                        for (int i = 0; i < batch.size(); i++) {
+
+                            double[] inputs = batch.inputs()[i];
+                            double[] targets = batch.targets()[i];
+
+                            int sample = (int) Math.round(inputs[0] * 255.0);
+
+                            assertFalse(seen[sample]);
+                            seen[sample] = true;
+                            seenCount++;
+
+                            for (int j = 0; j < inputs.length; j++) {
+                                assertEquals((items[sample][j] & 0xff) / 255.0, inputs[j], 1e-12);
+                            }
+
+                            for (int j = 0; j < classCount; j++) {
+                                assertEquals((j == labels[sample]) ? 1.0 : 0.0, targets[j]);
+                            }
+                        }
+
+                        prefetcher.release(batch);
+                    }
+
+                    assertEquals(sampleCount, seenCount);
+                }
+            }
+
+        } finally {
+
+            Files.delete(itemsPath);
+            Files.delete(labelsPath);
+        }
+    }
+
+    // NOTE: the first dimension is the item count
+    private static Path writeIdxFile(byte[] data, int... dimensions) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + (4 * dimensions.length) + data.length);
+
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0x08);
+        buffer.put((byte) dimensions.length);
+
+        for (int dimension : dimensions) {
+            buffer.putInt(dimension);
+        }
+
+        buffer.put(data);
+
+        Path path = Files.createTempFile("idx", ".ubyte");
+        Files.write(path, buffer.array());
+
+        return path;
+    }
+
+    public void testSparseInputsTrainTheSameAsDenseInputs() {
+
+        final int inputCount = 40;
+        final int outputCount = 3;
+        final int sampleCount = 30;
+        final int batchSize = 4;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        // NOTE: mostly zeros, with an all zero sample as well
+        for (int i = 1; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+
+                if (random.nextDouble() < 0.2) {
+                    inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+                }
+            }
+
+            targets[i][random.nextInt(outputCount)] = 1.0;
+        }
+
+        targets[0][0] = 1.0;
+
+        for (int hiddenLayerCount = 0; hiddenLayerCount < 2; hiddenLayerCount++) {
+
+            TestNetworkBuilder builder = new TestNetworkBuilder(
+                    inputCount,
+                    outputCount,
+                    true,
+                    KnownActivationFunctions.IDENTITY);
+
+            for (int i = 0; i < hiddenLayerCount; i++) {
+                builder.fullyConnected(8, KnownActivationFunctions.TANH);
+            }
+
+            FeedForwardNeuralNet<Neuron> denseNet = builder.build(seed);
+            FeedForwardNeuralNet<Neuron> sparseNet = builder.build(seed);
+
+            sparseNet.setSparseInputs(true);
+            assertTrue(sparseNet.isSparseInputs());
+
+            for (int i = 0; i < sampleCount; i++) {
+
+                denseNet.activate(Doubles.asList(inputs[i]), bias);
+                denseNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+
+                sparseNet.activate(Doubles.asList(inputs[i]), bias);
+                sparseNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+            }
+
+            assertSameOutputs(denseNet, sparseNet, inputs, bias);
+
+            denseNet.train(inputs, targets, batchSize, learningRate, bias);
+            sparseNet.train(inputs, targets, batchSize, learningRate, bias);
+
+            assertSameOutputs(denseNet, sparseNet, inputs, bias);
+        }
+    }
+
+    public void testSparseInputGradientsMatchDenseGradients() {
+
+        final int inputCount = 40;
+        final int outputCount = 3;
+        final int sampleCount = 8;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+
+                if (random.nextDouble() < 0.2) {
+                    inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+                }
+            }
+
+            targets[i][random.nextInt(outputCount)] = 1.0;
+        }
+
+        // NOTE: the sparse path is only taken by the first layer (nothing needs its input error derivatives), so the
+        //       gradients are checked there, through the weight update of a single step
+        TestNetworkBuilder builder = new TestNetworkBuilder(
+                inputCount,
+                outputCount,
+                true,
+                KnownActivationFunctions.IDENTITY)
+                .fullyConnected(8, KnownActivationFunctions.TANH);
+
+        FeedForwardNeuralNet<Neuron> denseNet = builder.build(seed);
+        FeedForwardNeuralNet<Neuron> sparseNet = builder.build(seed);
+
+        sparseNet.setSparseInputs(true);
+
+        FullyConnectedLayer<Neuron> denseLayer = (FullyConnectedLayer<Neuron>) denseNet.hiddenLayers.get(0);
+        FullyConnectedLayer<Neuron> sparseLayer = (FullyConnectedLayer<Neuron>) sparseNet.hiddenLayers.get(0);
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            double[] weightsBefore = denseLayer.getWeights().clone();
+
+            denseNet.activate(Doubles.asList(inputs[i]), bias);
+            denseNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+
+            sparseNet.activate(Doubles.asList(inputs[i]), bias);
+            sparseNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+
+            assertWeightsEqual(denseLayer, sparseLayer);
+
+            // the columns of zero inputs have no gradient
+            for (int row = 0; row < denseLayer.outputCount(); row++) {
+
+                for (int j = 0; j < inputCount; j++) {
+
+                    int index = (row * inputCount) + j;
+
+                    if (inputs[i][j] == 0.0) {
+                        assertEquals(weightsBefore[index], denseLayer.getWeights()[index]);
+                    }
+                }
+            }
+        }
+
+        // the same for the batched gradients
+        denseNet.train(inputs, targets, sampleCount, learningRate, bias);
+        sparseNet.train(inputs, targets, sampleCount, learningRate, bias);
+
+        assertWeightsEqual(denseLayer, sparseLayer);
+    }
+
+    private static void assertWeightsEqual(FullyConnectedLayer<Neuron> expected, FullyConnectedLayer<Neuron> actual) {
+
+        assertEquals(expected.getWeights().length, actual.getWeights().length);
+
+        for (int i = 0; i < expected.getWeights().length; i++) {
+            assertEquals(expected.getWeights()[i], actual.getWeights()[i], 1e-12);
+        }
+
+        for (int i = 0; i < expected.getBiasWeights().length; i++) {
+            assertEquals(expected.getBiasWeights()[i], actual.getBiasWeights()[i], 1e-12);
+        }
+    }
+
+    public void testStridedPaddedConvolutionMatchesDirectConvolution() {
+
+        final int channelCount = 2;
+        final int filterCount = 3;
+        final int outputCount = 2;
+        final int sampleCount = 20;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        ConvolutionDimensions dimensions = new ConvolutionDimensions(5, 4, 3, 2, 2, 1, 1, 1);
+
+        int inputCount = channelCount * dimensions.inputCount();
+        int convolutionOutputCount = filterCount * dimensions.outputCount();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                targets[i][j] = random.nextDouble();
+            }
+        }
+
+        TestNetworkBuilder builder = new TestNetworkBuilder(
+                channelCount * dimensions.inputCount(),
+                outputCount,
+                false,
+                KnownActivationFunctions.IDENTITY)
+                .convolutional(dimensions, channelCount, filterCount, KnownActivationFunctions.IDENTITY);
+
+        FeedForwardNeuralNet<Neuron> neuralNet = builder.build(seed);
+
+        ConvolutionalLayer<Neuron> convolutionalLayer = (ConvolutionalLayer<Neuron>) neuralNet.hiddenLayers.get(0);
+        FullyConnectedLayer<Neuron> outputLayer = (FullyConnectedLayer<Neuron>) neuralNet.outputLayer;
+
+        assertEquals(convolutionOutputCount, convolutionalLayer.outputCount());
+        assertEquals(filterCount * channelCount * 3 * 2, convolutionalLayer.getWeights().length);
+
+        double[] kernelWeights = convolutionalLayer.getWeights();
+        double[] kernelBiasWeights = convolutionalLayer.getBiasWeights();
+
+        // NOTE: everything is linear, so the expected outputs are just a direct convolution followed by the matrix
+        for (double[] sampleInputs : inputs) {
+
+            double[] convolved = new double[convolutionOutputCount];
+
+            for (int filter = 0; filter < filterCount; filter++) {
+
+                for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+
+                    for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+
+                        double sum = kernelBiasWeights[filter] * bias;
+
+                        for (int channel = 0; channel < channelCount; channel++) {
+
+                            for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+
+                                for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+
+                                    int inputX = (outputX * dimensions.strideX) - dimensions.paddingX + kernelX;
+                                    int inputY = (outputY * dimensions.strideY) - dimensions.paddingY + kernelY;
+
+                                    if ((inputX < 0) || (inputX >= dimensions.inputWidth) ||
+                                            (inputY < 0) || (inputY >= dimensions.inputHeight)) {
+                                        continue;
+                                    }
+
+                                    int weightIndex = (((filter * channelCount + channel) * dimensions.kernelHeight +
+                                            kernelY) * dimensions.kernelWidth) + kernelX;
+                                    int inputIndex = (channel * dimensions.inputCount()) +
+                                            (inputY * dimensions.inputWidth) + inputX;
+
+                                    sum += kernelWeights[weightIndex] * sampleInputs[inputIndex];
+                                }
+                            }
+                        }
+
+                        int outputIndex = (filter * dimensions.outputCount()) +
+                                (outputY * dimensions.outputWidth) + outputX;
+
+                        convolved[outputIndex] = sum;
+                    }
+                }
+            }
+
+            List<Double> outputs = neuralNet.activate(Doubles.asList(sampleInputs), bias);
+
+            for (int i = 0; i < outputCount; i++) {
+
+                double expected = outputLayer.getBiasWeights()[i] * bias;
+
+                for (int j = 0; j < convolutionOutputCount; j++) {
+                    expected += outputLayer.getWeights()[i * convolutionOutputCount + j] * convolved[j];
+                }
+
+                assertEquals(expected, outputs.get(i), 1e-12);
+            }
+        }
+
+        // NOTE: and back propagation through the padding and strides matches between both paths as well
+        FeedForwardNeuralNet<Neuron> expectedNet = builder.build(seed);
+        FeedForwardNeuralNet<Neuron> actualNet = builder.build(seed);
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            expectedNet.activate(Doubles.asList(inputs[i]), bias);
+            expectedNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+        }
+
+        actualNet.train(inputs, targets, 1, learningRate, bias);
+
+        assertSameOutputs(expectedNet, actualNet, inputs, bias);
     }
 
-    /**
-     * @return the suite of tests being tested
-     */
-    public static Test suite() {
-        return new TestSuite(NeuralNetTest.class);
+    public void testOverlappingPaddedMaxPoolingBackPropagatesToEveryWinningInput() {
+
+        final int channelCount = 2;
+        final int outputCount = 2;
+        final int sampleCount = 20;
+
+        final double bias = 1;
+        final double learningRate = 0.05;
+
+        final long seed = random.nextLong();
+
+        // NOTE: the windows overlap in both directions, so an input can be the max of several outputs
+        ConvolutionDimensions dimensions = new ConvolutionDimensions(5, 4, 3, 3, 2, 1, 1, 1);
+
+        int inputCount = channelCount * dimensions.inputCount();
+        int poolingOutputCount = channelCount * dimensions.outputCount();
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                targets[i][j] = random.nextDouble();
+            }
+        }
+
+        // NOTE: a 1x1 convolution first, so the pooled inputs come from weights that are trained as well
+        TestNetworkBuilder builder = new TestNetworkBuilder(
+                channelCount * dimensions.inputCount(),
+                outputCount,
+                false,
+                KnownActivationFunctions.IDENTITY)
+                .convolutional(
+                        new ConvolutionDimensions(dimensions.inputWidth, dimensions.inputHeight, 1, 1),
+                        channelCount,
+                        channelCount,
+                        KnownActivationFunctions.IDENTITY)
+                .maxPooling(dimensions, channelCount, KnownActivationFunctions.IDENTITY);
+
+        FeedForwardNeuralNet<Neuron> neuralNet = builder.build(seed);
+
+        ConvolutionalLayer<Neuron> convolutionalLayer = (ConvolutionalLayer<Neuron>) neuralNet.hiddenLayers.get(0);
+        FullyConnectedLayer<Neuron> outputLayer = (FullyConnectedLayer<Neuron>) neuralNet.outputLayer;
+
+        assertEquals(poolingOutputCount, neuralNet.hiddenLayers.get(1).outputCount());
+
+        // NOTE: the 1x1 convolution just mixes the channels, then each channel is pooled (skipping the padding)
+        for (double[] sampleInputs : inputs) {
+
+            double[] pooled = new double[poolingOutputCount];
+
+            for (int channel = 0; channel < channelCount; channel++) {
+
+                for (int outputY = 0; outputY < dimensions.outputHeight; outputY++) {
+
+                    for (int outputX = 0; outputX < dimensions.outputWidth; outputX++) {
+
+                        double max = Double.NEGATIVE_INFINITY;
+
+                        for (int kernelY = 0; kernelY < dimensions.kernelHeight; kernelY++) {
+
+                            for (int kernelX = 0; kernelX < dimensions.kernelWidth; kernelX++) {
+
+                                int inputX = (outputX * dimensions.strideX) - dimensions.paddingX + kernelX;
+                                int inputY = (outputY * dimensions.strideY) - dimensions.paddingY + kernelY;
+
+                                if ((inputX < 0) || (inputX >= dimensions.inputWidth) ||
+                                        (inputY < 0) || (inputY >= dimensions.inputHeight)) {
+                                    continue;
+                                }
+
+                                double value = convolutionalLayer.getBiasWeights()[channel] * bias;
+
+                                for (int inputChannel = 0; inputChannel < channelCount; inputChannel++) {
+
+                                    int inputIndex = (inputChannel * dimensions.inputCount()) +
+                                            (inputY * dimensions.inputWidth) + inputX;
+
+                                    value += convolutionalLayer.getWeights()[channel * channelCount + inputChannel] *
+                                            sampleInputs[inputIndex];
+                                }
+
+                                max = Math.max(max, value);
+                            }
+                        }
+
+                        int outputIndex = (channel * dimensions.outputCount()) +
+                                (outputY * dimensions.outputWidth) + outputX;
+
+                        pooled[outputIndex] = max;
+                    }
+                }
+            }
+
+            List<Double> outputs = neuralNet.activate(Doubles.asList(sampleInputs), bias);
+
+            for (int i = 0; i < outputCount; i++) {
+
+                double expected = outputLayer.getBiasWeights()[i] * bias;
+
+                for (int j = 0; j < poolingOutputCount; j++) {
+                    expected += outputLayer.getWeights()[i * poolingOutputCount + j] * pooled[j];
+                }
+
+                assertEquals(expected, outputs.get(i), 1e-12);
+            }
+        }
+
+        // NOTE: the convolution's gradients only come through the pooling, so they match finite differences only if
+        //       every window an input won sends its error back to it
+        final double step = 1e-5;
+        final double gradientLearningRate = 1e-7;
+
+        double[] sampleInputs = inputs[0];
+        List<Double> sampleTargets = Doubles.asList(targets[0]);
+
+        for (int weightIndex = 0; weightIndex < convolutionalLayer.getWeights().length; weightIndex++) {
+
+            FeedForwardNeuralNet<Neuron> gradientNet = neuralNet.deepClone();
+            double[] weights = ((ConvolutionalLayer<Neuron>) gradientNet.hiddenLayers.get(0)).getWeights();
+
+            double weight = weights[weightIndex];
+
+            weights[weightIndex] = weight + step;
+            double errorAbove = getSquaredError(gradientNet.activate(Doubles.asList(sampleInputs), bias), targets[0]);
+
+            weights[weightIndex] = weight - step;
+            double errorBelow = getSquaredError(gradientNet.activate(Doubles.asList(sampleInputs), bias), targets[0]);
+
+            weights[weightIndex] = weight;
+
+            gradientNet.activate(Doubles.asList(sampleInputs), bias);
+            gradientNet.backPropagate(gradientLearningRate, bias, sampleTargets);
+
+            double expected = (errorAbove - errorBelow) / (2.0 * step);
+            double actual = (weight - weights[weightIndex]) / gradientLearningRate;
+
+            assertEquals(expected, actual, 1e-4 * Math.max(1.0, Math.abs(expected)));
+        }
+
+        // NOTE: and the max inputs recorded per sample in a batch back propagate the same as one sample at a time
+        FeedForwardNeuralNet<Neuron> expectedNet = builder.build(seed);
+        FeedForwardNeuralNet<Neuron> actualNet = builder.build(seed);
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            expectedNet.activate(Doubles.asList(inputs[i]), bias);
+            expectedNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+        }
+
+        actualNet.train(inputs, targets, 1, learningRate, bias);
+
+        assertSameOutputs(expectedNet, actualNet, inputs, bias);
     }
 
-    public void testBasicFunction() {
+    private static double getSquaredError(List<Double> outputs, double[] targets) {
 
-        final int inputCount = 2;
-        final int outputCount = 4;
+        double error = 0.0;
 
-        final int hiddenLayers = 1;
-        final int neuronsPerHiddenLayer = 5;
+        for (int i = 0; i < targets.length; i++) {
 
-        final int sqrtSetCount = 2;
+            double difference = outputs.get(i) - targets[i];
+            error += 0.5 * difference * difference;
+        }
+
+        return error;
+    }
+
+    private static void assertSameOutputs(FeedForwardNeuralNet<Neuron> expectedNet,
+                                          FeedForwardNeuralNet<Neuron> actualNet,
+                                          double[][] inputs,
+                                          double bias) {
+        assertCloseOutputs(expectedNet, actualNet, inputs, bias, 1e-9);
+    }
+
+    private static void assertCloseOutputs(FeedForwardNeuralNet<Neuron> expectedNet,
+                                           FeedForwardNeuralNet<Neuron> actualNet,
+                                           double[][] inputs,
+                                           double bias,
+                                           double tolerance) {
+
+        for (double[] sampleInputs : inputs) {
+
+            List<Double> expected = expectedNet.activate(Doubles.asList(sampleInputs), bias);
+            List<Double> actual = actualNet.activate(Doubles.asList(sampleInputs), bias);
+
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i), tolerance);
+            }
+        }
+    }
+
+    public void testSinglePrecisionNetworksStayCloseToDoublePrecision() {
+
+        final int inputCount = 36;
+        final int outputCount = 3;
+        final int sampleCount = 12;
+        final int batchSize = 4;
 
         final double bias = 1;
+        final double learningRate = 0.05;
 
-        final double learningRate = 0.1;
-        final int maxSteps = 1000000;
-        final double maxErrorRms = 0.01;
+        // NOTE: weights are rounded to floats when stored, so the networks drift apart slowly as they train
+        final double tolerance = 1e-4;
 
-        final int noProgressResetThreshold = 5000;
+        final long seed = random.nextLong();
 
-        final boolean outputApplySoftmax = false;
-        ActivationFunction outputActivationFunction = KnownActivationFunctions.TANH;
-        double[] outputActivationFunctionParameters = outputActivationFunction.defaultParameters();
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            targets[i][random.nextInt(outputCount)] = 1.0;
+        }
+
+        for (ComputePrecision computePrecision : new ComputePrecision[]{
+                ComputePrecision.Float32,
+                ComputePrecision.Float32Accumulate64}) {
+
+            FeedForwardNeuralNet<Neuron> doubleNet = miniBatchTestNetwork.build(seed);
+            FeedForwardNeuralNet<Neuron> singleNet = miniBatchTestNetwork.build(seed, computePrecision);
+
+            assertEquals(computePrecision, singleNet.getComputePrecision());
+            assertEquals(computePrecision, singleNet.deepClone().getComputePrecision());
+
+            ConvolutionalLayer<Neuron> doubleConvolutionalLayer =
+                    (ConvolutionalLayer<Neuron>) doubleNet.hiddenLayers.get(0);
+            ConvolutionalLayer<Neuron> singleConvolutionalLayer =
+                    (ConvolutionalLayer<Neuron>) singleNet.hiddenLayers.get(0);
+
+            assertEquals(
+                    doubleConvolutionalLayer.getWeights().length,
+                    singleConvolutionalLayer.getSingleWeights().length);
+
+            FullyConnectedLayer<Neuron> doubleFullyConnectedLayer =
+                    (FullyConnectedLayer<Neuron>) doubleNet.hiddenLayers.get(2);
+            FullyConnectedLayer<Neuron> singleFullyConnectedLayer =
+                    (FullyConnectedLayer<Neuron>) singleNet.hiddenLayers.get(2);
+
+            assertEquals(
+                    doubleFullyConnectedLayer.getWeights().length,
+                    singleFullyConnectedLayer.getSingleWeights().length);
+
+            for (int i = 0; i < doubleFullyConnectedLayer.getWeights().length; i++) {
+                assertEquals(
+                        (float) doubleFullyConnectedLayer.getWeights()[i],
+                        singleFullyConnectedLayer.getSingleWeights()[i],
+                        0.0f);
+            }
+
+            try {
+
+                singleFullyConnectedLayer.getWeights();
+                fail("Expected a single precision layer to have no double weights");
+
+            } catch (IllegalStateException ignored) {
+                // expected
+            }
+
+            assertCloseOutputs(doubleNet, singleNet, inputs, bias, tolerance);
+
+            // NOTE: contexts keep activations in doubles between layers, the network stores them as floats
+            ActivationContext context = singleNet.createActivationContext();
+
+            double[] expected = new double[outputCount];
+            double[] actual = new double[outputCount];
+
+            for (int i = 0; i < sampleCount; i++) {
+
+                singleNet.activate(inputs[i], expected, bias);
+                singleNet.activate(context, inputs[i], actual, bias);
+
+                for (int j = 0; j < outputCount; j++) {
+                    assertEquals(expected[j], actual[j], 1e-6);
+                }
+            }
+
+            for (int i = 0; i < sampleCount; i++) {
+
+                doubleNet.activate(Doubles.asList(inputs[i]), bias);
+                doubleNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+
+                singleNet.activate(Doubles.asList(inputs[i]), bias);
+                singleNet.backPropagate(learningRate, bias, Doubles.asList(targets[i]));
+            }
+
+            assertCloseOutputs(doubleNet, singleNet, inputs, bias, tolerance);
+
+            doubleNet.train(inputs, targets, batchSize, learningRate, bias);
+            singleNet.train(inputs, targets, batchSize, learningRate, bias);
+
+            assertCloseOutputs(doubleNet, singleNet, inputs, bias, tolerance);
+
+            singleNet.setSparseInputs(true);
+            doubleNet.setSparseInputs(true);
+
+            singleNet.train(inputs, targets, batchSize, learningRate, bias);
+            doubleNet.train(inputs, targets, batchSize, learningRate, bias);
+
+            assertCloseOutputs(doubleNet, singleNet, inputs, bias, tolerance);
+        }
+    }
+
+    public void testActivationContextMatchesNetworkActivation() {
+
+        final int inputWidth = 6;
+        final int inputHeight = 6;
+
+        final int outputCount = 3;
+
+        final double bias = 1;
 
         FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
                 new DefaultNeuronFactory(),
-                inputCount,
+                inputWidth * inputHeight,
                 outputCount,
-                outputApplySoftmax,
-                outputActivationFunction,
-                outputActivationFunctionParameters);
+                true,
+                KnownActivationFunctions.IDENTITY,
+                KnownActivationFunctions.IDENTITY.defaultParameters());
 
-        ActivationFunction activationFunction = KnownActivationFunctions.TANH;
-        double[] activationFunctionParameters = activationFunction.defaultParameters();
+        neuralNet.addConvolutionalHiddenLayer(
+                inputWidth,
+                inputHeight,
+                3,
+                3,
+                KnownActivationFunctions.RELU,
+                KnownActivationFunctions.RELU.defaultParameters());
 
-        for (int i = 0; i < hiddenLayers; i++) {
-            neuralNet.addFullyConnectedHiddenLayer(
-                    neuronsPerHiddenLayer,
-                    activationFunction,
-                    activationFunctionParameters);
-        }
+        neuralNet.addMaxPoolingHiddenLayer(
+                inputWidth - 2,
+                inputHeight - 2,
+                2,
+                2,
+                2,
+                2,
+                KnownActivationFunctions.IDENTITY,
+                KnownActivationFunctions.IDENTITY.defaultParameters());
+
+        neuralNet.addFullyConnectedHiddenLayer(
+                5,
+                KnownActivationFunctions.TANH,
+                KnownActivationFunctions.TANH.defaultParameters());
 
         neuralNet.randomizeWeights(random);
 
-        List<TrainingSet> trainingSets = getBasicFunctionTrainingSets(sqrtSetCount);
+        ActivationContext context = neuralNet.createActivationContext();
 
-        runNetworkTrainingTest(
-                neuralNet,
-                bias,
-                trainingSets,
-                learningRate,
-                maxSteps,
-                maxErrorRms,
-                noProgressResetThreshold);
+        double[] inputs = new double[inputWidth * inputHeight];
+        double[] expected = new double[outputCount];
+        double[] actual = new double[outputCount];
+
+        for (int i = 0; i < 20; i++) {
+
+            for (int j = 0; j < inputs.length; j++) {
+                inputs[j] = (random.nextDouble() * 2.0) - 1.0;
+            }
+
+            neuralNet.activate(inputs, expected, bias);
+            neuralNet.activate(context, inputs, actual, bias);
+
+            for (int j = 0; j < outputCount; j++) {
+                assertEquals(expected[j], actual[j], 0.0);
+            }
+        }
+
+        neuralNet.addFullyConnectedHiddenLayer(
+                4,
+                KnownActivationFunctions.TANH,
+                KnownActivationFunctions.TANH.defaultParameters());
+
+        try {
+
+            neuralNet.activate(context, inputs, actual, bias);
+            fail("Expected the context to be out of date");
+
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
     }
 
     private List<TrainingSet> getBasicFunctionTrainingSets(int sqrtCount) {
@@ -129,6 +1470,55 @@ public class NeuralNetTest extends TestCase {
         return sets;
     }
 
+    public void testActivationKernelsMatchFunctions() {
+
+        final int valueCount = 1000;
+
+        double[] inputs = new double[valueCount];
+
+        for (int i = 0; i < valueCount; i++) {
+            inputs[i] = (random.nextDouble() - 0.5) * 20.0;
+        }
+
+        for (ActivationFunction function : KnownActivationFunctions.ALL.values()) {
+
+            double[] parameters = function.defaultParameters();
+            ActivationKernel kernel = function.bind(parameters);
+
+            double[] outputs = new double[valueCount];
+            double[] derivatives = new double[valueCount];
+
+            // NOTE: leave the first and last values untouched, to check that the range is respected
+            kernel.apply(inputs, outputs, 1, valueCount - 1);
+            kernel.derivative(inputs, outputs, derivatives, 1, valueCount - 1);
+
+            assertEquals(0.0, outputs[0]);
+            assertEquals(0.0, outputs[valueCount - 1]);
+            assertEquals(0.0, derivatives[0]);
+            assertEquals(0.0, derivatives[valueCount - 1]);
+
+            for (int i = 1; i < valueCount - 1; i++) {
+
+                double output = function.compute(inputs[i], parameters);
+                double derivative = function.computeDerivative(inputs[i], output, parameters);
+
+                assertEquals(function.name, output, kernel.apply(inputs[i]));
+                assertEquals(function.name, output, outputs[i]);
+
+                assertEquals(function.name, derivative, kernel.derivative(inputs[i], output));
+                assertEquals(function.name, derivative, derivatives[i]);
+            }
+        }
+    }
+
+    public void testApproximateKernelsStayWithinDocumentedError() {
+
+        assertApproximationError(KnownActivationFunctions.SIGMOID, 7.5e-7);
+        assertApproximationError(KnownActivationFunctions.TANH, 1.5e-6);
+        assertApproximationError(KnownActivationFunctions.SOFT_PLUS, 2e-6);
+        assertApproximationError(KnownActivationFunctions.GAUSSIAN, 3.9e-6);
+    }
+
     public void testConvolutional() {
 
         final int numSets = 20;
@@ -281,6 +1671,35 @@ public class NeuralNetTest extends TestCase {
         return sets;
     }
 
+    private static void assertApproximationError(ActivationFunction function, double maxError) {
+
+        final int valueCount = 200001;
+
+        double[] parameters = function.defaultParameters();
+
+        ActivationKernel exactKernel = function.bind(ActivationPrecision.Exact, parameters);
+        ActivationKernel approximateKernel = function.bind(ActivationPrecision.Approximate, parameters);
+
+        double[] inputs = new double[valueCount];
+        double[] outputs = new double[valueCount];
+
+        for (int i = 0; i < valueCount; i++) {
+            inputs[i] = -20.0 + ((40.0 * i) / (valueCount - 1));
+        }
+
+        approximateKernel.apply(inputs, outputs, 0, valueCount);
+
+        for (int i = 0; i < valueCount; i++) {
+
+            double expected = exactKernel.apply(inputs[i]);
+
+            assertEquals(function.name, expected, approximateKernel.apply(inputs[i]), maxError);
+            assertEquals(function.name, expected, outputs[i], maxError);
+        }
+
+        assertTrue(Double.isNaN(approximateKernel.apply(Double.NaN)));
+    }
+
     private static void runNetworkTrainingTest(FeedForwardNeuralNet<Neuron> neuralNet,
                                                double bias,
                                                List<TrainingSet> trainingSets,
@@ -395,6 +1814,93 @@ public class NeuralNetTest extends TestCase {
         assertTrue(lastErrorRms < maxErrorRms);
     }
 
+    // NOTE: describes a network (with every activation function using its default parameters), and builds a new one
+    //       each time... the same seed always gives the same weights, so tests can build two and compare them
+    private static class TestNetworkBuilder {
+
+        private final int inputCount;
+        private final int outputCount;
+        private final boolean outputApplySoftmax;
+        private final ActivationFunction outputActivationFunction;
+
+        private final List<Consumer<FeedForwardNeuralNet<Neuron>>> layers;
+
+        public TestNetworkBuilder(int inputCount,
+                                  int outputCount,
+                                  boolean outputApplySoftmax,
+                                  ActivationFunction outputActivationFunction) {
+
+            this.inputCount = inputCount;
+            this.outputCount = outputCount;
+            this.outputApplySoftmax = outputApplySoftmax;
+            this.outputActivationFunction = outputActivationFunction;
+
+            this.layers = new ArrayList<>();
+        }
+
+        public TestNetworkBuilder fullyConnected(int neuronCount, ActivationFunction activationFunction) {
+
+            layers.add(neuralNet -> neuralNet.addFullyConnectedHiddenLayer(
+                    neuronCount,
+                    activationFunction,
+                    activationFunction.defaultParameters()));
+
+            return this;
+        }
+
+        public TestNetworkBuilder convolutional(ConvolutionDimensions dimensions,
+                                                int channelCount,
+                                                int filterCount,
+                                                ActivationFunction activationFunction) {
+
+            layers.add(neuralNet -> neuralNet.addConvolutionalHiddenLayer(
+                    dimensions,
+                    channelCount,
+                    filterCount,
+                    activationFunction,
+                    activationFunction.defaultParameters()));
+
+            return this;
+        }
+
+        public TestNetworkBuilder maxPooling(ConvolutionDimensions dimensions,
+                                             int channelCount,
+                                             ActivationFunction activationFunction) {
+
+            layers.add(neuralNet -> neuralNet.addMaxPoolingHiddenLayer(
+                    dimensions,
+                    channelCount,
+                    activationFunction,
+                    activationFunction.defaultParameters()));
+
+            return this;
+        }
+
+        public FeedForwardNeuralNet<Neuron> build(long seed) {
+            return build(seed, ComputePrecision.Float64);
+        }
+
+        public FeedForwardNeuralNet<Neuron> build(long seed, ComputePrecision computePrecision) {
+
+            FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
+                    new DefaultNeuronFactory(),
+                    computePrecision,
+                    inputCount,
+                    outputCount,
+                    outputApplySoftmax,
+                    outputActivationFunction,
+                    outputActivationFunction.defaultParameters());
+
+            for (Consumer<FeedForwardNeuralNet<Neuron>> layer : layers) {
+                layer.accept(neuralNet);
+            }
+
+            neuralNet.randomizeWeights(new MersenneTwister(seed));
+
+            return neuralNet;
+        }
+    }
+
     private static class TrainingSet {
 
         public List<Double> inputs;
@@ -0,0 +1,150 @@
+package matgr.ai.neuralnet;
+
+import matgr.ai.neuralnet.activation.KnownActivationFunctions;
+import matgr.ai.neuralnet.feedforward.FeedForwardNeuralNet;
+import matgr.ai.neuralnet.feedforward.ParallelTrainer;
+import matgr.ai.neuralnet.feedforward.ParallelTrainingMode;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how ParallelTrainer scales with the number of workers (this isn't a unit test, it's meant to be run by
+ * hand on a multi-core machine).
+ *
+ * Usage: ParallelTrainerBenchmark [maxWorkers] [epochs]
+ */
+public class ParallelTrainerBenchmark {
+
+    private static final int inputCount = 256;
+    private static final int outputCount = 10;
+    private static final int sampleCount = 8192;
+    private static final int batchSize = 64;
+
+    private static final double bias = 1;
+    private static final double learningRate = 0.01;
+
+    private static final int warmUpEpochs = 2;
+
+    public static void main(String[] args) {
+
+        int maxWorkers = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int epochs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        RandomGenerator random = new MersenneTwister(1234);
+
+        double[][] inputs = new double[sampleCount][inputCount];
+        double[][] targets = new double[sampleCount][outputCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            for (int j = 0; j < inputCount; j++) {
+                inputs[i][j] = random.nextDouble();
+            }
+
+            targets[i][random.nextInt(outputCount)] = 1.0;
+        }
+
+        System.out.println(String.format(
+                "%d samples, batches of %d, %d epochs, %d processors",
+                sampleCount,
+                batchSize,
+                epochs,
+                Runtime.getRuntime().availableProcessors()));
+
+        for (ParallelTrainingMode mode : ParallelTrainingMode.values()) {
+
+            System.out.println();
+            System.out.println(mode);
+            System.out.println("workers  samples/s  speedup  efficiency");
+
+            double singleWorkerRate = 0.0;
+
+            for (int workers = 1; workers <= maxWorkers; workers = nextWorkerCount(workers, maxWorkers)) {
+
+                double rate = measure(mode, workers, epochs, inputs, targets);
+
+                if (workers == 1) {
+                    singleWorkerRate = rate;
+                }
+
+                double speedup = rate / singleWorkerRate;
+
+                System.out.println(String.format(
+                        "%7d  %9.0f  %7.2f  %9.0f%%",
+                        workers,
+                        rate,
+                        speedup,
+                        100.0 * speedup / workers));
+            }
+        }
+    }
+
+    // NOTE: samples per second, after a few epochs to let the JIT settle
+    private static double measure(ParallelTrainingMode mode,
+                                  int workers,
+                                  int epochs,
+                                  double[][] inputs,
+                                  double[][] targets) {
+
+        ForkJoinPool pool = new ForkJoinPool(workers);
+
+        try {
+
+            ParallelTrainer<Neuron> trainer = new ParallelTrainer<>(createNetwork(), pool, batchSize, mode);
+
+            for (int epoch = 0; epoch < warmUpEpochs; epoch++) {
+                trainer.train(inputs, targets, learningRate, bias);
+            }
+
+            long start = System.nanoTime();
+
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                trainer.train(inputs, targets, learningRate, bias);
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            return (epochs * (double) sampleCount) / seconds;
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // NOTE: powers of two, and then the maximum itself
+    private static int nextWorkerCount(int workers, int maxWorkers) {
+
+        if ((workers < maxWorkers) && ((workers << 1) > maxWorkers)) {
+            return maxWorkers;
+        }
+
+        return workers << 1;
+    }
+
+    private static FeedForwardNeuralNet<Neuron> createNetwork() {
+
+        FeedForwardNeuralNet<Neuron> neuralNet = new FeedForwardNeuralNet<>(
+                new DefaultNeuronFactory(),
+                inputCount,
+                outputCount,
+                true,
+                KnownActivationFunctions.SIGMOID,
+                KnownActivationFunctions.SIGMOID.defaultParameters());
+
+        neuralNet.addFullyConnectedHiddenLayer(
+                128,
+                KnownActivationFunctions.TANH,
+                KnownActivationFunctions.TANH.defaultParameters());
+
+        neuralNet.addFullyConnectedHiddenLayer(
+                64,
+                KnownActivationFunctions.TANH,
+                KnownActivationFunctions.TANH.defaultParameters());
+
+        neuralNet.randomizeWeights(new MersenneTwister(5678));
+
+        return neuralNet;
+    }
+}